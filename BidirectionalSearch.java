@@ -0,0 +1,567 @@
+/**
+ * Answers questions about the lines of play of the nth Zeckendorf Decomposition
+ * game by searching from both of its ends at once: forward from the n 1s with the
+ * moves, and backward from the unique terminal state, the Zeckendorf decomposition
+ * of n, with the inverse moves of PackedState.parents().
+ *
+ *      distance()    - the fewest moves from one state to another, by a
+ *                      bidirectional breadth first search which expands the
+ *                      smaller of the two frontiers until they meet
+ *      isReachable() - whether a state can occur in the game
+ *      countPaths()  - the number of lines of play of each length, giving the
+ *                      shortest and longest games
+ *
+ * Both searches skip states that cannot lie between their two ends. Along any line
+ * of play the number of summands never increases, the largest index present never
+ * decreases, and the potential sum(freq(i) * sqrt(i)) strictly decreases, since
+ * F(i) + F(i + 1) = F(i + 2), 2 F(i) = F(i - 2) + F(i + 1) and 1 + 1 = 2 all replace
+ * summands with fewer or larger ones in a concave way.
+ *
+ * Unlike the layers of Game and GameGraph, which hold a state once for every
+ * number of moves it can be reached in, the searches visit each state once, which
+ * is far fewer states. countPaths() splits the states at the potential halfway
+ * between the two ends. It finds the upper half forward from the start, counting
+ * the lines of play of each length reaching each state, and the lower half backward
+ * from the terminal state, counting the lines of play of each length from each
+ * state to the end. As the potential decreases with every move, each line of play
+ * crosses the middle by exactly one move, where the counts of the two halves meet.
+ *
+ * The comparison with the forward build of GameGraph can be executed, after
+ * compilation, by running the command
+ *
+ *          java BidirectionalSearch [n]
+ *
+ */
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class BidirectionalSearch {
+
+    /**
+     * The codec of the game, its starting and terminal states
+     */
+    private final PackedState codec;
+    private final long start, terminal;
+
+    /**
+     * Square root of each index, for the potential of a state
+     */
+    private final double[] root;
+
+    /**
+     * Results of the last search: the states expanded, the lines of play of each
+     * length, and the shortest and longest lengths
+     */
+    private long expanded;
+    private BigInteger[] pathCounts;
+    private int shortest, longest;
+
+
+    /**
+     * Constructs the search of the nth game
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     */
+    public BidirectionalSearch(int n) {
+	this.codec = new PackedState(n);
+	this.start = codec.initialKey();
+	this.terminal = codec.terminalKey();
+	this.root = new double[codec.getMaxIndex() + 1];
+	for(int i = 1; i < root.length; i++) {
+	    root[i] = Math.sqrt(i);
+	}
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getter for the codec, to pack states for the queries
+     */
+    public PackedState getCodec() { return this.codec; }
+
+    /**
+     * Getter for the number of states expanded by the last search, forward and
+     * backward
+     */
+    public long getExpanded() { return this.expanded; }
+
+    /**
+     * Getters for the results of countPaths(): the lengths of the shortest and
+     * longest games, and the number of lines of play in total and of each length
+     */
+    public int getShortestGame() { return this.shortest; }
+    public int getLongestGame() { return this.longest; }
+
+    public BigInteger getPathCount(int length) {
+	return length < pathCounts.length && pathCounts[length] != null ? pathCounts[length] : BigInteger.ZERO;
+    }
+
+    public BigInteger getPathCount() {
+	BigInteger total = BigInteger.ZERO;
+	for(BigInteger count: pathCounts) {
+	    if(count != null) {
+		total = total.add(count);
+	    }
+	}
+	return total;
+    }
+
+
+    //===================================
+    // REACHABILITY METHODS
+    //===================================
+
+    /**
+     * Determines if a state occurs in some line of play of the game
+     *
+     * @param key - A packed state of the game
+     * @return true if the starting state leads to the state
+     */
+    public boolean isReachable(long key) {
+	return distance(start, key) >= 0;
+    }
+
+    /**
+     * Computes the fewest moves leading from one state to another, expanding the
+     * smaller of the forward and backward frontiers one layer at a time
+     *
+     * @param from - The packed state to start from
+     * @param to - The packed state to reach
+     * @return The number of moves, or -1 if from does not lead to to
+     */
+    public int distance(long from, long to) {
+	expanded = 0;
+	if(from == to) {
+	    return 0;
+	}
+	if(!between(from, from, to) || !between(to, from, to)) {
+	    return -1;
+	}
+
+	LongIntHashMap forwardDepth = new LongIntHashMap(1024);
+	LongIntHashMap backwardDepth = new LongIntHashMap(1024);
+	forwardDepth.putIfAbsent(from, 0);
+	backwardDepth.putIfAbsent(to, 0);
+	long[] forward = { from }, backward = { to };
+	int forwardCount = 1, backwardCount = 1;
+	int forwardLayer = 0, backwardLayer = 0;
+	int best = Integer.MAX_VALUE;
+	long[] buffer = new long[codec.maxChildren()];
+
+	while(forwardCount > 0 && backwardCount > 0) {
+	    boolean forwards = forwardCount <= backwardCount;
+	    long[] frontier = forwards ? forward : backward;
+	    int size = forwards ? forwardCount : backwardCount;
+	    LongIntHashMap own = forwards ? forwardDepth : backwardDepth;
+	    LongIntHashMap other = forwards ? backwardDepth : forwardDepth;
+	    int depth = (forwards ? forwardLayer : backwardLayer) + 1;
+
+	    long[] next = new long[16];
+	    int nextCount = 0;
+	    for(int s = 0; s < size; s++) {
+		int count = forwards ? codec.children(frontier[s], buffer) : codec.parents(frontier[s], buffer);
+		expanded++;
+		for(int c = 0; c < count; c++) {
+		    long key = buffer[c];
+		    if(!between(key, from, to) || own.putIfAbsent(key, depth) >= 0) {
+			continue;
+		    }
+		    int met = other.get(key);
+		    if(met >= 0) {
+			best = Math.min(best, depth + met);
+		    }
+		    if(nextCount == next.length) {
+			next = Arrays.copyOf(next, 2 * nextCount);
+		    }
+		    next[nextCount++] = key;
+		}
+	    }
+
+	    if(forwards) {
+		forward = next;
+		forwardCount = nextCount;
+		forwardLayer = depth;
+	    } else {
+		backward = next;
+		backwardCount = nextCount;
+		backwardLayer = depth;
+	    }
+
+	    // Any path not found yet is longer than both frontiers together
+	    if(best <= forwardLayer + backwardLayer + 1) {
+		return best;
+	    }
+	}
+	return best == Integer.MAX_VALUE ? -1 : best;
+    }
+
+
+    //===================================
+    // PATH COUNTING METHODS
+    //===================================
+
+    /**
+     * Counts the lines of play of every length from the starting state to the
+     * terminal state
+     *
+     * @return The total number of lines of play
+     */
+    public BigInteger countPaths() {
+	expanded = 0;
+	pathCounts = new BigInteger[1];
+	if(start == terminal) {
+	    pathCounts[0] = BigInteger.ONE;
+	    shortest = longest = 0;
+	    return BigInteger.ONE;
+	}
+	double middle = (potential(start) + potential(terminal)) / 2;
+	long[] buffer = new long[codec.maxChildren()];
+
+	// The two halves, with the lines of play reaching each state from the start
+	// or leaving it for the terminal state
+	LongIntHashMap upperIndex = new LongIntHashMap(1024);
+	long[] upper = search(start, true, middle, upperIndex);
+	LongIntHashMap lowerIndex = new LongIntHashMap(1024);
+	long[] lower = search(terminal, false, middle, lowerIndex);
+	LengthCounts[] fromStart = new LengthCounts[upper.length];
+	LengthCounts[] toTerminal = new LengthCounts[lower.length];
+	fromStart[upperIndex.get(start)] = LengthCounts.one();
+	toTerminal[lowerIndex.get(terminal)] = LengthCounts.one();
+
+	// Both halves are solved in decreasing distance from their end, which the
+	// order of the potential gives
+	for(long key: upper) {
+	    LengthCounts paths = fromStart[upperIndex.get(key)];
+	    int count = distinct(codec.children(key, buffer), buffer);
+	    for(int c = 0; c < count; c++) {
+		int at = upperIndex.get(buffer[c]);
+		if(at >= 0) {
+		    fromStart[at] = LengthCounts.addShifted(fromStart[at], paths);
+		}
+	    }
+	}
+	for(long key: lower) {
+	    LengthCounts paths = toTerminal[lowerIndex.get(key)];
+	    int count = distinct(codec.parents(key, buffer), buffer);
+	    for(int p = 0; p < count; p++) {
+		int at = lowerIndex.get(buffer[p]);
+		if(at >= 0) {
+		    toTerminal[at] = LengthCounts.addShifted(toTerminal[at], paths);
+		}
+	    }
+	}
+
+	// Every line of play crosses the middle potential by exactly one move
+	for(long key: upper) {
+	    LengthCounts before = fromStart[upperIndex.get(key)];
+	    int count = distinct(codec.children(key, buffer), buffer);
+	    for(int c = 0; c < count; c++) {
+		int at = lowerIndex.get(buffer[c]);
+		if(at >= 0) {
+		    LengthCounts after = toTerminal[at];
+		    for(int i = 0; i < before.counts.length; i++) {
+			for(int j = 0; j < after.counts.length; j++) {
+			    addPaths(before.first + i + 1 + after.first + j,
+				     before.counts[i].multiply(after.counts[j]));
+			}
+		    }
+		}
+	    }
+	}
+
+	shortest = -1;
+	longest = -1;
+	for(int length = 0; length < pathCounts.length; length++) {
+	    if(pathCounts[length] != null && pathCounts[length].signum() > 0) {
+		shortest = shortest < 0 ? length : shortest;
+		longest = length;
+	    }
+	}
+	return getPathCount();
+    }
+
+    /**
+     * Finds every state on one side of the middle potential reachable from one end
+     * of the game, through the moves going forward and through the inverse moves
+     * going backward
+     *
+     * @param end - The starting or terminal state
+     * @param forwards - true to follow the moves, false to undo them
+     * @param middle - The potential separating the two halves
+     * @param index - Map receiving the position of each state in the result
+     * @return The states found, from the farthest from the other half
+     */
+    private long[] search(long end, boolean forwards, double middle, LongIntHashMap index) {
+	long[] buffer = new long[codec.maxChildren()];
+	long[] found = { end };
+	int size = 1;
+	index.putIfAbsent(end, 0);
+	for(int s = 0; s < size; s++) {
+	    int count = forwards ? codec.children(found[s], buffer) : codec.parents(found[s], buffer);
+	    expanded++;
+	    for(int c = 0; c < count; c++) {
+		long key = buffer[c];
+		boolean side = forwards ? potential(key) > middle : potential(key) <= middle;
+		if(!side || !between(key, start, terminal) || index.putIfAbsent(key, size) >= 0) {
+		    continue;
+		}
+		if(size == found.length) {
+		    found = Arrays.copyOf(found, 2 * size);
+		}
+		found[size++] = key;
+	    }
+	}
+
+	// Order by potential, decreasing forward and increasing backward
+	Long[] order = new Long[size];
+	for(int s = 0; s < size; s++) {
+	    order[s] = found[s];
+	}
+	Arrays.sort(order, (a, b) -> forwards ? Double.compare(potential(b), potential(a))
+		    : Double.compare(potential(a), potential(b)));
+	long[] sorted = new long[size];
+	index.clear();
+	for(int s = 0; s < size; s++) {
+	    sorted[s] = order[s];
+	    index.putIfAbsent(sorted[s], s);
+	}
+	return sorted;
+    }
+
+    /**
+     * Numbers of lines of play of each length, from first to first + counts.length - 1
+     */
+    private static final class LengthCounts {
+
+	final int first;
+	final BigInteger[] counts;
+
+	LengthCounts(int first, BigInteger[] counts) {
+	    this.first = first;
+	    this.counts = counts;
+	}
+
+	static LengthCounts one() {
+	    return new LengthCounts(0, new BigInteger[] { BigInteger.ONE });
+	}
+
+	/**
+	 * Adds the counts of paths one move longer than those of other
+	 *
+	 * @param target - The counts to add to, or null for none
+	 * @param other - The counts of the paths extended by one move
+	 * @return The sum
+	 */
+	static LengthCounts addShifted(LengthCounts target, LengthCounts other) {
+	    int low = other.first + 1, high = low + other.counts.length;
+	    if(target != null) {
+		low = Math.min(low, target.first);
+		high = Math.max(high, target.first + target.counts.length);
+	    }
+	    BigInteger[] sum = new BigInteger[high - low];
+	    Arrays.fill(sum, BigInteger.ZERO);
+	    if(target != null) {
+		for(int i = 0; i < target.counts.length; i++) {
+		    sum[target.first + i - low] = target.counts[i];
+		}
+	    }
+	    for(int i = 0; i < other.counts.length; i++) {
+		int at = other.first + 1 + i - low;
+		sum[at] = sum[at].add(other.counts[i]);
+	    }
+	    return new LengthCounts(low, sum);
+	}
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Adds lines of play of a length to the counts
+     */
+    private void addPaths(int length, BigInteger count) {
+	if(length >= pathCounts.length) {
+	    pathCounts = Arrays.copyOf(pathCounts, Math.max(2 * pathCounts.length, length + 1));
+	}
+	pathCounts[length] = pathCounts[length] == null ? count : pathCounts[length].add(count);
+    }
+
+    /**
+     * Removes repeated keys from the start of an array, as two moves can lead to
+     * the same state
+     *
+     * @return The number of distinct keys kept
+     */
+    private static int distinct(int count, long[] keys) {
+	int kept = 0;
+	for(int k = 0; k < count; k++) {
+	    boolean repeated = false;
+	    for(int j = 0; j < kept; j++) {
+		repeated |= keys[j] == keys[k];
+	    }
+	    if(!repeated) {
+		keys[kept++] = keys[k];
+	    }
+	}
+	return kept;
+    }
+
+    /**
+     * Number of summands of a packed state
+     */
+    private int summands(long key) {
+	int count = 0;
+	for(int i = 1; i <= codec.getMaxIndex(); i++) {
+	    count += codec.freq(key, i);
+	}
+	return count;
+    }
+
+    /**
+     * Largest index present in a packed state
+     */
+    private int topIndex(long key) {
+	for(int i = codec.getMaxIndex(); i > 1; i--) {
+	    if(codec.freq(key, i) > 0) {
+		return i;
+	    }
+	}
+	return 1;
+    }
+
+    /**
+     * Potential of a packed state, decreasing with every move
+     */
+    private double potential(long key) {
+	double total = 0;
+	for(int i = 1; i <= codec.getMaxIndex(); i++) {
+	    total += codec.freq(key, i) * root[i];
+	}
+	return total;
+    }
+
+    /**
+     * Determines if a state can lie on a line of play from one state to another
+     */
+    private boolean between(long key, long from, long to) {
+	int count = summands(key), top = topIndex(key);
+	double value = potential(key);
+	return count <= summands(from) && count >= summands(to)
+	    && top >= topIndex(from) && top <= topIndex(to)
+	    && value <= potential(from) + 1e-9 && value >= potential(to) - 1e-9;
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Checks the searches against GameGraph on the games up to 40: path counts
+     * of every length from a forward count over the graph, shortest distances
+     * from the graph's layers, and reachability of random decompositions. Then
+     * compares the states expanded and the time with GameGraph on the nth game.
+     */
+    public static void main(String[] args) {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 70;
+	Random random = new Random(2018);
+
+	for(int gameNum = 1; gameNum <= 40; gameNum++) {
+	    GameGraph graph = GameGraph.build(gameNum);
+	    BidirectionalSearch search = new BidirectionalSearch(gameNum);
+
+	    // Lines of play of each length, counted forward over the graph
+	    BigInteger[] paths = new BigInteger[graph.nodeCount()];
+	    Arrays.fill(paths, BigInteger.ZERO);
+	    paths[0] = BigInteger.ONE;
+	    BigInteger[] byLength = new BigInteger[graph.layerCount()];
+	    Arrays.fill(byLength, BigInteger.ZERO);
+	    for(int id = 0; id < graph.nodeCount(); id++) {
+		if(graph.isTerminal(id)) {
+		    byLength[graph.depth(id)] = byLength[graph.depth(id)].add(paths[id]);
+		}
+		for(int e = graph.childStart(id); e < graph.childEnd(id); e++) {
+		    paths[graph.child(e)] = paths[graph.child(e)].add(paths[id]);
+		}
+	    }
+	    search.countPaths();
+	    for(int length = 0; length < byLength.length + 2; length++) {
+		BigInteger expected = length < byLength.length ? byLength[length] : BigInteger.ZERO;
+		if(!search.getPathCount(length).equals(expected)) {
+		    throw new IllegalStateException("Game " + gameNum + " has " + expected + " lines of length "
+						    + length + ", not " + search.getPathCount(length));
+		}
+	    }
+
+	    // The first layer holding a state is its distance from the start
+	    PackedState codec = search.getCodec();
+	    java.util.HashMap<Long, Integer> firstDepth = new java.util.HashMap<Long, Integer>();
+	    for(int id = 0; id < graph.nodeCount(); id++) {
+		firstDepth.putIfAbsent(graph.key(id), graph.depth(id));
+	    }
+	    for(int trial = 0; trial < 20; trial++) {
+		int id = random.nextInt(graph.nodeCount());
+		if(search.distance(codec.initialKey(), graph.key(id)) != firstDepth.get(graph.key(id))) {
+		    throw new IllegalStateException("Wrong distance to a state of game " + gameNum);
+		}
+	    }
+	    if(search.distance(codec.initialKey(), codec.terminalKey()) != search.getShortestGame()) {
+		throw new IllegalStateException("Wrong shortest game for game " + gameNum);
+	    }
+
+	    // Random decompositions of the total are reachable exactly if in the graph
+	    for(int trial = 0; trial < 20; trial++) {
+		GameState state = randomDecomposition(gameNum, codec.getMaxIndex(), random);
+		long key = codec.encode(state);
+		if(search.isReachable(key) != firstDepth.containsKey(key)) {
+		    throw new IllegalStateException("Wrong reachability of " + state.getState());
+		}
+	    }
+	}
+	System.out.println("Path counts, distances and reachability agree with GameGraph up to 40");
+
+	long begin = System.nanoTime();
+	GameGraph graph = GameGraph.build(n);
+	long graphMillis = (System.nanoTime() - begin) / 1000000;
+	System.out.println(String.format("GameGraph on %d: %d states built in %d ms", n,
+					 graph.nodeCount(), graphMillis));
+
+	BidirectionalSearch search = new BidirectionalSearch(n);
+	begin = System.nanoTime();
+	int distance = search.distance(search.getCodec().initialKey(), search.getCodec().terminalKey());
+	long millis = (System.nanoTime() - begin) / 1000000;
+	System.out.println(String.format("Shortest game %d moves: %d states expanded in %d ms",
+					 distance, search.getExpanded(), millis));
+
+	begin = System.nanoTime();
+	BigInteger total = search.countPaths();
+	millis = (System.nanoTime() - begin) / 1000000;
+	System.out.println(String.format("Games of %d to %d moves, %s lines of play: %d states expanded in %d ms",
+					 search.getShortestGame(), search.getLongestGame(), total,
+					 search.getExpanded(), millis));
+    }
+
+    /**
+     * Draws a random decomposition of n, one fibonacci at a time
+     */
+    private static GameState randomDecomposition(int n, int top, Random random) {
+	java.util.HashMap<Integer, Integer> decomposition = new java.util.HashMap<Integer, Integer>();
+	for(int rest = n; rest > 0; ) {
+	    int i = 1 + random.nextInt(top);
+	    if(PackedState.FIB[i] <= rest) {
+		decomposition.merge(i, 1, Integer::sum);
+		rest -= PackedState.FIB[i];
+	    }
+	}
+	return new GameState(decomposition, 0);
+    }
+
+}
@@ -0,0 +1,300 @@
+/**
+ * Expands a whole layer of packed Zeckendorf states at once. Move legality has the
+ * same shape for every state: the split at index i needs freq(i) >= 2, the sum at
+ * index i needs freq(i) > 0 and freq(i + 1) > 0, and 1 + 1 needs freq(1) >= 2. The
+ * expansion therefore runs in two passes over the layer.
+ *
+ *      moveMasks() computes for every state a mask of its legal moves, bit m set
+ *                  when move m is legal, with the same operations for all states
+ *      expand()    walks the set bits of each mask and adds the constant delta of
+ *                  each legal move to the state
+ *
+ * Moves are numbered in the order of PackedState.children(), so children come out
+ * in the same order, grouped by parent.
+ *
+ * This class computes the masks one state at a time. create() returns the
+ * VectorBulkExpander, which computes them for several states per instruction with
+ * the jdk.incubator.vector API, when that module is available at runtime, and
+ * falls back to this class otherwise.
+ *
+ * The benchmark against per-state expansion can be executed, after compilation,
+ * by running the command
+ *
+ *          java --add-modules jdk.incubator.vector BulkExpander [n] [repetitions]
+ *
+ */
+
+import java.util.Arrays;
+
+public class BulkExpander {
+
+    /**
+     * The codec of the game and the number of its moves
+     */
+    protected final PackedState codec;
+    protected final int moveCount;
+
+    /**
+     * Bit offset and mask of the frequency field of each index, with entries up to
+     * maxIndex + 1, the last one always reading 0
+     */
+    protected final int[] shift;
+    protected final long[] fieldMask;
+
+    /**
+     * Move numbers of the split and summing moves at each index, -1 when the move
+     * cannot exist, and of the 1 + 1 move
+     */
+    protected final int[] splitMove, mergeMove;
+    protected final int onesMove;
+
+    /**
+     * Delta of each move
+     */
+    protected final long[] delta;
+
+
+    /**
+     * Constructs the scalar expander of a game
+     *
+     * @param codec - The codec of the game
+     */
+    public BulkExpander(PackedState codec) {
+	this.codec = codec;
+	int top = codec.getMaxIndex();
+	this.shift = new int[top + 2];
+	this.fieldMask = new long[top + 2];
+	for(int i = 1; i <= top; i++) {
+	    shift[i] = Long.numberOfTrailingZeros(codec.unit(i));
+	    fieldMask[i] = (1L << codec.width(i)) - 1;
+	}
+
+	// Number the moves in the order PackedState.children() lists them
+	this.splitMove = new int[top + 1];
+	this.mergeMove = new int[top + 1];
+	long[] deltas = new long[codec.maxChildren()];
+	int moves = 0;
+	for(int i = 1; i <= top; i++) {
+	    splitMove[i] = -1;
+	    mergeMove[i] = -1;
+	    if(codec.splitDelta(i) != 0) {
+		deltas[moves] = codec.splitDelta(i);
+		splitMove[i] = moves++;
+	    }
+	    if(codec.mergeDelta(i) != 0) {
+		deltas[moves] = codec.mergeDelta(i);
+		mergeMove[i] = moves++;
+	    }
+	}
+	int ones = -1;
+	if(codec.onesDelta() != 0) {
+	    deltas[moves] = codec.onesDelta();
+	    ones = moves++;
+	}
+	this.onesMove = ones;
+	this.moveCount = moves;
+	this.delta = Arrays.copyOf(deltas, moves);
+	if(moves > 64) {
+	    throw new IllegalArgumentException("Game " + codec.getN() + " has too many moves for a mask");
+	}
+    }
+
+
+    /**
+     * Creates the fastest expander available: the vector expander if the
+     * jdk.incubator.vector module was added at runtime, the scalar one otherwise
+     *
+     * @param codec - The codec of the game
+     * @return An expander of the game
+     */
+    public static BulkExpander create(PackedState codec) {
+	try {
+	    return new VectorBulkExpander(codec);
+	} catch(LinkageError e) {
+	    return new BulkExpander(codec);
+	}
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getter for the number of moves of the game, the width of the masks
+     */
+    public int getMoveCount() { return this.moveCount; }
+
+    /**
+     * Delta a move adds to a packed state
+     */
+    public long delta(int move) { return this.delta[move]; }
+
+    /**
+     * Upper bound on the number of children of count states
+     */
+    public long maxChildren(int count) { return (long) count * moveCount; }
+
+
+    //===================================
+    // EXPANSION METHODS
+    //===================================
+
+    /**
+     * Computes the legal move mask of each state in a range of a layer
+     *
+     * @param keys - The packed states of the layer
+     * @param from - The first state of the range
+     * @param to - The end of the range, exclusive
+     * @param masks - Array receiving the mask of keys[s] at masks[s]
+     */
+    public void moveMasks(long[] keys, int from, int to, long[] masks) {
+	scalarMasks(keys, from, to, masks);
+    }
+
+    /**
+     * Generates the children of a range of a layer, grouped by parent, in the
+     * order of PackedState.children()
+     *
+     * @param keys - The packed states of the layer
+     * @param from - The first state of the range
+     * @param to - The end of the range, exclusive
+     * @param masks - Scratch array of at least to entries
+     * @param children - Array receiving the children, of at least
+     *                   maxChildren(to - from) entries
+     * @param parents - Array receiving the index in keys of the parent of each
+     *                  child, of the same length as children
+     * @return The number of children written
+     */
+    public int expand(long[] keys, int from, int to, long[] masks, long[] children, int[] parents) {
+	moveMasks(keys, from, to, masks);
+	int count = 0;
+	for(int s = from; s < to; s++) {
+	    long key = keys[s];
+	    for(long bits = masks[s]; bits != 0; bits &= bits - 1) {
+		children[count] = key + delta[Long.numberOfTrailingZeros(bits)];
+		parents[count++] = s;
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * Computes masks one state at a time
+     */
+    protected final void scalarMasks(long[] keys, int from, int to, long[] masks) {
+	int top = codec.getMaxIndex();
+	for(int s = from; s < to; s++) {
+	    long key = keys[s];
+	    long mask = 0;
+	    long f = (key >>> shift[1]) & fieldMask[1];
+	    if(onesMove >= 0 && f >= 2) {
+		mask |= 1L << onesMove;
+	    }
+	    for(int i = 1; i <= top; i++) {
+		long next = (key >>> shift[i + 1]) & fieldMask[i + 1];
+		if(splitMove[i] >= 0 && f >= 2) {
+		    mask |= 1L << splitMove[i];
+		}
+		if(mergeMove[i] >= 0 && f > 0 && next > 0) {
+		    mask |= 1L << mergeMove[i];
+		}
+		f = next;
+	    }
+	    masks[s] = mask;
+	}
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Benchmark: expands the largest layer of the nth game with GameState,
+     * PackedState.children(), and the scalar and vector expanders, checking that
+     * all produce the same children. The masks pass of the expanders is also
+     * timed on its own.
+     */
+    public static void main(String[] args) {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 80;
+	int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+	GameGraph graph = GameGraph.build(n);
+	PackedState codec = new PackedState(n);
+	int widest = 0;
+	for(int d = 0; d < graph.layerCount(); d++) {
+	    if(graph.layerSize(d) > graph.layerSize(widest)) {
+		widest = d;
+	    }
+	}
+	int size = graph.layerSize(widest);
+	long[] keys = new long[size];
+	for(int s = 0; s < size; s++) {
+	    keys[s] = graph.key(graph.layerStart(widest) + s);
+	}
+
+	BulkExpander scalar = new BulkExpander(codec);
+	BulkExpander vector = create(codec);
+	long[] masks = new long[size];
+	long[] children = new long[(int) scalar.maxChildren(size)];
+	int[] parents = new int[children.length];
+	long[] expected = new long[children.length];
+	long[] buffer = new long[codec.maxChildren()];
+	System.out.println("Game on " + n + ", layer " + widest + ": " + size + " states, "
+			   + scalar.getMoveCount() + " moves, vector expander "
+			   + (vector instanceof VectorBulkExpander ? "available" : "unavailable"));
+
+	// Reference children from PackedState
+	int total = 0;
+	for(int s = 0; s < size; s++) {
+	    total += codec.children(keys[s], buffer);
+	}
+
+	for(int rep = 0; rep < repetitions; rep++) {
+	    boolean report = rep == repetitions - 1;
+
+	    // GameState expansion, on a sample as it is far slower
+	    int sample = Math.min(size, 20000);
+	    GameState[] states = new GameState[sample];
+	    for(int s = 0; s < sample; s++) {
+		states[s] = codec.decode(keys[s], widest);
+	    }
+	    long start = System.nanoTime();
+	    for(int s = 0; s < sample; s++) {
+		states[s].genChildren();
+	    }
+	    report(report, "GameState", sample, System.nanoTime() - start);
+
+	    start = System.nanoTime();
+	    int count = 0;
+	    for(int s = 0; s < size; s++) {
+		int c = codec.children(keys[s], buffer);
+		System.arraycopy(buffer, 0, expected, count, c);
+		count += c;
+	    }
+	    report(report, "PackedState", size, System.nanoTime() - start);
+
+	    for(BulkExpander expander: new BulkExpander[] { scalar, vector }) {
+		String name = expander instanceof VectorBulkExpander ? "vector" : "scalar";
+		start = System.nanoTime();
+		expander.moveMasks(keys, 0, size, masks);
+		report(report, name + " masks", size, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		count = expander.expand(keys, 0, size, masks, children, parents);
+		report(report, name, size, System.nanoTime() - start);
+		if(count != total || !Arrays.equals(children, 0, count, expected, 0, count)) {
+		    throw new IllegalStateException("Bulk expansion differs from PackedState");
+		}
+	    }
+	}
+    }
+
+    private static void report(boolean report, String name, int states, long nanos) {
+	if(report) {
+	    System.out.println(String.format("%-12s %12.0f states/s", name, states * 1e9 / nanos));
+	}
+    }
+
+}
@@ -0,0 +1,811 @@
+/**
+ * Values large files of arbitrary positions of the Zeckendorf Decomposition game,
+ * of any mix of games, rather than the starting positions of Game.playGame().
+ *
+ * Positions are read from either of two formats:
+ *
+ *      text   - one position per line, as written by GameState.toLine() and read
+ *               by GameState.parseLine(): the depth, then index:frequency pairs,
+ *               e.g. "7 1:2 3:1 5:2"
+ *      binary - the magic number BINARY_MAGIC, then per position the depth, the
+ *               number of nonzero indices and, for each of them, the difference
+ *               with the previous index and the frequency, all as varints
+ *
+ * The format of an input file is recognised by its first bytes. convert() turns
+ * either format into the other without loss.
+ *
+ * Positions are read in batches of BATCH. The positions of a batch are sorted by
+ * game, and worker threads take runs of consecutive positions of the same game,
+ * so that each game's table of solved states stays hot. The tables are shared by
+ * all workers and kept from one batch to the next: a ConcurrentLongIntHashMap of
+ * packed states for the games whose states fit in a long, and a map of
+ * SparseStates for larger games. A table is emptied between batches once it holds
+ * more states than the capacity of the solver, so memory is bounded by the batch
+ * and the tables, whatever the length of the input.
+ *
+ * Results are written to a text file in input order, one line per position:
+ *
+ *      value <TAB> best move <TAB> distance
+ *
+ * The value is 1 for a Player 1 victory and -1 for a Player 2 victory, the player
+ * to move being given by the depth of the position. The best move is the position
+ * after it, in the line format, or "-" for a terminal position. The distance, only
+ * written when asked for, is the number of moves left when the winner plays to
+ * end the game as soon as possible and the loser to delay it. It is found by
+ * solving every child of a state, so asking for it turns off the pruning of the
+ * search after the first winning move. Without distances, the best move of a
+ * losing position is its first move, and with them, the move that delays the end
+ * the longest.
+ *
+ * The benchmark, which writes random positions of games up to 70 and one game on
+ * a million 1s, checks the results against GameGraph and prints the throughput,
+ * can be executed, after compilation, by running the command
+ *
+ *          java BulkSolver [positions] [threads]
+ *
+ * Files are solved with "java BulkSolver solve in out [threads] [distance]", and
+ * converted with "java BulkSolver convert in out".
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkSolver {
+
+    /**
+     * First four bytes of a binary position file, "ZPOS"
+     */
+    public static final int BINARY_MAGIC = 0x5A504F53;
+
+    /**
+     * Positions read, solved and written at a time, positions a worker takes at a
+     * time, and default number of states kept per game
+     */
+    public static final int BATCH = 1 << 14;
+    private static final int RUN = 64;
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /**
+     * Stack of the worker threads, deep enough for the longest lines of play the
+     * searches follow
+     */
+    private static final long WORKER_STACK = 256L << 20;
+
+    /**
+     * Number of worker threads, whether distances are computed, and the capacity
+     * of the table of each game
+     */
+    private final int threads;
+    private final boolean distances;
+    private final int capacity;
+
+    /**
+     * Tables of solved states, by game, shared by the workers and kept between
+     * batches
+     */
+    private final ConcurrentHashMap<Integer, Table> tables = new ConcurrentHashMap<Integer, Table>();
+
+
+    /**
+     * Constructs a solver
+     *
+     * @param threads - The number of worker threads
+     * @param distances - Whether to compute the distance to the end of each position
+     * @param capacity - The number of solved states kept per game
+     */
+    public BulkSolver(int threads, boolean distances, int capacity) {
+	this.threads = Math.max(1, threads);
+	this.distances = distances;
+	this.capacity = capacity;
+    }
+
+
+    //===================================
+    // SOLVING METHODS
+    //===================================
+
+    /**
+     * Solves every position of a file and writes the results in input order
+     *
+     * @param in - A text or binary file of positions
+     * @param out - The text file receiving one result line per position
+     * @return The number of positions, games and states involved, and the time taken
+     * @throws IOException if a file cannot be read or written, or a position is
+     *         malformed
+     */
+    public Summary solve(Path in, Path out) throws IOException {
+	long start = System.nanoTime();
+	Summary summary = new Summary();
+	ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+		Thread thread = new Thread(null, runnable, "bulk-solver", WORKER_STACK);
+		thread.setDaemon(true);
+		return thread;
+	    });
+
+	try(PositionReader reader = openReader(in);
+	    Writer writer = Files.newBufferedWriter(out, StandardCharsets.US_ASCII)) {
+	    GameState[] batch = new GameState[BATCH];
+	    String[] results = new String[BATCH];
+	    int size;
+	    while((size = reader.read(batch)) > 0) {
+		solveBatch(pool, batch, results, size, summary);
+		for(int p = 0; p < size; p++) {
+		    writer.write(results[p]);
+		    writer.write('\n');
+		}
+		trimTables();
+	    }
+	} finally {
+	    pool.shutdownNow();
+	}
+
+	summary.nanos = System.nanoTime() - start;
+	summary.games = tables.size();
+	for(Table table: tables.values()) {
+	    summary.states += table.solved();
+	}
+	return summary;
+    }
+
+    /**
+     * Solves a batch of positions in parallel, the positions of each game together
+     */
+    private void solveBatch(ExecutorService pool, GameState[] batch, String[] results, int size,
+			    Summary summary) throws IOException {
+
+	// Order the positions by game, keeping the input order within a game
+	long[] order = new long[size];
+	Table[] owners = new Table[size];
+	for(int p = 0; p < size; p++) {
+	    SparseState sparse = SparseState.of(batch[p]);
+	    if(sparse.getTotal() > Integer.MAX_VALUE) {
+		throw new IOException("Position of a game too large for an int: " + batch[p].toLine());
+	    }
+	    int n = (int) sparse.getTotal();
+	    owners[p] = tables.computeIfAbsent(n, game -> new Table(game));
+	    order[p] = ((long) n << 32) | p;
+	}
+	Arrays.sort(order);
+
+	// Each worker takes runs of consecutive positions until none are left
+	AtomicInteger next = new AtomicInteger();
+	List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+	for(int t = 0; t < threads; t++) {
+	    workers.add(() -> {
+		    int first;
+		    while((first = next.getAndAdd(RUN)) < size) {
+			for(int k = first; k < Math.min(first + RUN, size); k++) {
+			    int p = (int) order[k];
+			    results[p] = solveOne(owners[p], batch[p]);
+			}
+		    }
+		    return null;
+		});
+	}
+	try {
+	    for(Future<Void> done: pool.invokeAll(workers)) {
+		done.get();
+	    }
+	} catch(InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while solving", e);
+	} catch(ExecutionException e) {
+	    throw new IOException("Solving failed: " + e.getCause(), e.getCause());
+	}
+	summary.positions += size;
+    }
+
+    /**
+     * Solves a single position and formats its result line
+     */
+    private String solveOne(Table table, GameState position) {
+	int mover = position.getDepth() % 2 == 0 ? 1 : -1;
+	int depth = position.getDepth() + 1;
+	int entry;
+	String move;
+
+	if(table.codec != null) {
+	    long key = table.codec.encode(position);
+	    entry = solve(table, key);
+	    long[] children = new long[table.codec.maxChildren()];
+	    int count = table.codec.children(key, children);
+	    int best = bestChild(entry, count, c -> solve(table, children[c]));
+	    move = best < 0 ? "-" : table.codec.decode(children[best], depth).toLine();
+	} else {
+	    SparseState state = SparseState.of(position);
+	    entry = solve(table, state);
+	    ArrayList<SparseState> children = state.children();
+	    int best = bestChild(entry, children.size(), c -> solve(table, children.get(c)));
+	    move = best < 0 ? "-" : children.get(best).toGameState(depth).toLine();
+	}
+
+	int value = (entry & 1) == 1 ? mover : -mover;
+	return distances ? value + "\t" + move + "\t" + (entry >>> 1) : value + "\t" + move;
+    }
+
+    /**
+     * Picks the move of a solved state: the winning move reaching the end soonest,
+     * or for a lost state the move delaying it the longest. Without distances, the
+     * first winning move, or the first move.
+     *
+     * @param entry - The solved entry of the state
+     * @param count - The number of children of the state
+     * @param child - Solves the child of a rank
+     * @return The rank of the chosen child, -1 for a terminal state
+     */
+    private int bestChild(int entry, int count, java.util.function.IntUnaryOperator child) {
+	boolean wins = (entry & 1) == 1;
+	int best = -1, bestDistance = 0;
+	for(int c = 0; c < count; c++) {
+	    int childEntry = child.applyAsInt(c);
+	    boolean candidate = !wins || (childEntry & 1) == 0;
+	    if(!distances && candidate) {
+		return c;
+	    }
+	    int distance = childEntry >>> 1;
+	    if(candidate && (best < 0 || (wins ? distance < bestDistance : distance > bestDistance))) {
+		best = c;
+		bestDistance = distance;
+	    }
+	}
+	return best;
+    }
+
+    /**
+     * Solves a packed state. The entry of a state holds 1 if the player to move
+     * wins, 0 otherwise, and above that the distance to the end when distances are
+     * computed.
+     */
+    private int solve(Table table, long key) {
+	int known = table.packed.get(key);
+	if(known >= 0) {
+	    return known;
+	}
+	long[] children = new long[table.codec.maxChildren()];
+	int count = table.codec.children(key, children);
+	int entry;
+	if(!distances) {
+
+	    // Check solved children before doing recursive calls, for speed
+	    boolean wins = false;
+	    for(int c = 0; c < count && !wins; c++) {
+		wins = table.packed.get(children[c]) == 0;
+	    }
+	    for(int c = 0; c < count && !wins; c++) {
+		wins = (solve(table, children[c]) & 1) == 0;
+	    }
+	    entry = wins ? 1 : 0;
+	} else {
+	    int[] entries = new int[count];
+	    for(int c = 0; c < count; c++) {
+		entries[c] = solve(table, children[c]);
+	    }
+	    entry = combine(entries, count);
+	}
+	table.packed.putIfAbsent(key, entry);
+	return entry;
+    }
+
+    /**
+     * Solves a sparse state, with the entries of solve(Table, long)
+     */
+    private int solve(Table table, SparseState state) {
+	Integer known = table.sparse.get(state);
+	if(known != null) {
+	    return known;
+	}
+	ArrayList<SparseState> children = state.children();
+	int entry;
+	if(!distances) {
+	    boolean wins = false;
+	    for(int c = 0; c < children.size() && !wins; c++) {
+		Integer childEntry = table.sparse.get(children.get(c));
+		wins = childEntry != null && (childEntry & 1) == 0;
+	    }
+	    for(int c = 0; c < children.size() && !wins; c++) {
+		wins = (solve(table, children.get(c)) & 1) == 0;
+	    }
+	    entry = wins ? 1 : 0;
+	} else {
+	    int[] entries = new int[children.size()];
+	    for(int c = 0; c < children.size(); c++) {
+		entries[c] = solve(table, children.get(c));
+	    }
+	    entry = combine(entries, children.size());
+	}
+	table.sparse.putIfAbsent(state, entry);
+	return entry;
+    }
+
+    /**
+     * Entry of a state from the entries of all its children: the player to move
+     * wins if a child is lost for the opponent, and reaches the end soonest through
+     * such a child, while a losing player delays the end the longest. A terminal
+     * state is lost, with distance 0.
+     */
+    private static int combine(int[] entries, int count) {
+	int fastestWin = Integer.MAX_VALUE, slowestLoss = -1;
+	for(int c = 0; c < count; c++) {
+	    int distance = entries[c] >>> 1;
+	    if((entries[c] & 1) == 0) {
+		fastestWin = Math.min(fastestWin, distance);
+	    } else {
+		slowestLoss = Math.max(slowestLoss, distance);
+	    }
+	}
+	if(fastestWin != Integer.MAX_VALUE) {
+	    return ((fastestWin + 1) << 1) | 1;
+	}
+	return (slowestLoss + 1) << 1;
+    }
+
+    /**
+     * Empties the tables that outgrew the capacity, while no worker is running
+     */
+    private void trimTables() {
+	for(Table table: tables.values()) {
+	    if(table.solved() > capacity) {
+		table.clear();
+	    }
+	}
+    }
+
+
+    //===================================
+    // TABLES
+    //===================================
+
+    /**
+     * The solved states of one game, by packed key when its states fit in a long,
+     * and by SparseState otherwise
+     */
+    private static final class Table {
+
+	final PackedState codec;
+	ConcurrentLongIntHashMap packed;
+	ConcurrentHashMap<SparseState, Integer> sparse;
+
+	Table(int n) {
+	    PackedState rules = null;
+	    try {
+		rules = new PackedState(n);
+	    } catch(IllegalArgumentException tooLarge) {
+		// Solved through SparseStates
+	    }
+	    this.codec = rules;
+	    clear();
+	}
+
+	long solved() {
+	    return packed != null ? packed.size() : sparse.size();
+	}
+
+	void clear() {
+	    this.packed = codec != null ? new ConcurrentLongIntHashMap(1024) : null;
+	    this.sparse = codec != null ? null : new ConcurrentHashMap<SparseState, Integer>();
+	}
+    }
+
+    /**
+     * Counts of a run of the solver
+     */
+    public static final class Summary {
+
+	long positions, states, nanos;
+	int games;
+
+	public long getPositions() { return this.positions; }
+	public int getGames() { return this.games; }
+	public long getStates() { return this.states; }
+	public long getNanos() { return this.nanos; }
+
+	/**
+	 * Positions solved and written per second, reading and writing included
+	 */
+	public double positionsPerSecond() {
+	    return nanos == 0 ? 0 : positions * 1e9 / nanos;
+	}
+
+	@Override
+	public String toString() {
+	    return String.format("%d positions of %d games, %d states solved, %d ms, %.0f positions/s",
+				 positions, games, states, nanos / 1000000, positionsPerSecond());
+	}
+    }
+
+
+    //===================================
+    // FILE FORMAT METHODS
+    //===================================
+
+    /**
+     * Source of positions, in either format
+     */
+    private interface PositionReader extends AutoCloseable {
+
+	/**
+	 * Fills the array with the next positions
+	 *
+	 * @return The number of positions read, 0 at the end of the file
+	 */
+	int read(GameState[] batch) throws IOException;
+
+	void close() throws IOException;
+    }
+
+    /**
+     * Opens a position file, recognising the binary format by its magic number
+     */
+    private static PositionReader openReader(Path in) throws IOException {
+	InputStream stream = new BufferedInputStream(Files.newInputStream(in), 1 << 16);
+	stream.mark(4);
+	byte[] head = new byte[4];
+	int length = stream.readNBytes(head, 0, 4);
+	stream.reset();
+	boolean binary = length == 4 && ((head[0] & 0xFF) << 24 | (head[1] & 0xFF) << 16
+					 | (head[2] & 0xFF) << 8 | (head[3] & 0xFF)) == BINARY_MAGIC;
+
+	if(binary) {
+	    DataInputStream data = new DataInputStream(stream);
+	    data.readInt();
+	    return new PositionReader() {
+		public int read(GameState[] batch) throws IOException {
+		    int size = 0;
+		    while(size < batch.length) {
+			GameState position = readBinary(data);
+			if(position == null) {
+			    break;
+			}
+			batch[size++] = position;
+		    }
+		    return size;
+		}
+
+		public void close() throws IOException {
+		    data.close();
+		}
+	    };
+	}
+
+	BufferedReader lines = new BufferedReader(new InputStreamReader(stream, StandardCharsets.US_ASCII));
+	return new PositionReader() {
+	    public int read(GameState[] batch) throws IOException {
+		int size = 0;
+		String line;
+		while(size < batch.length && (line = lines.readLine()) != null) {
+		    if(!line.isBlank()) {
+			try {
+			    batch[size++] = GameState.parseLine(line);
+			} catch(IllegalArgumentException e) {
+			    throw new IOException(e.getMessage(), e);
+			}
+		    }
+		}
+		return size;
+	    }
+
+	    public void close() throws IOException {
+		lines.close();
+	    }
+	};
+    }
+
+    /**
+     * Writes a position in the binary format
+     *
+     * @param out - The stream, after the magic number
+     * @param position - The position to write
+     */
+    public static void writeBinary(DataOutputStream out, GameState position) throws IOException {
+	SparseState decomp = position.getPosition();
+	writeVarint(out, position.getDepth());
+	writeVarint(out, decomp.size());
+	int previous = 0;
+	for(int k = 0; k < decomp.size(); k++) {
+	    writeVarint(out, decomp.index(k) - previous);
+	    writeVarint(out, decomp.count(k));
+	    previous = decomp.index(k);
+	}
+    }
+
+    /**
+     * Reads a position in the binary format
+     *
+     * @param in - The stream, after the magic number
+     * @return The next position, or null at the end of the stream
+     */
+    public static GameState readBinary(DataInputStream in) throws IOException {
+	int first = in.read();
+	if(first < 0) {
+	    return null;
+	}
+	int depth = readVarint(in, first);
+	int size = readVarint(in, in.readUnsignedByte());
+	HashMap<Integer, Integer> decomp = new HashMap<Integer, Integer>();
+	int index = 0;
+	for(int k = 0; k < size; k++) {
+	    index += readVarint(in, in.readUnsignedByte());
+	    decomp.put(index, readVarint(in, in.readUnsignedByte()));
+	}
+	return new GameState(decomp, depth);
+    }
+
+    /**
+     * Writes a non-negative int in 7 bit groups, low group first
+     */
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+	while((value & ~0x7F) != 0) {
+	    out.writeByte((value & 0x7F) | 0x80);
+	    value >>>= 7;
+	}
+	out.writeByte(value);
+    }
+
+    /**
+     * Reads a varint whose first byte was already read
+     */
+    private static int readVarint(DataInputStream in, int first) throws IOException {
+	int value = first & 0x7F;
+	for(int shift = 7; (first & 0x80) != 0; shift += 7) {
+	    first = in.readUnsignedByte();
+	    value |= (first & 0x7F) << shift;
+	}
+	return value;
+    }
+
+    /**
+     * Converts a position file into the other format
+     *
+     * @param in - A text or binary position file
+     * @param out - The file receiving the same positions in the other format
+     * @return The number of positions converted
+     */
+    public static long convert(Path in, Path out) throws IOException {
+	long count = 0;
+	boolean toText;
+	try(InputStream probe = Files.newInputStream(in)) {
+	    DataInputStream data = new DataInputStream(probe);
+	    toText = probe.available() >= 4 && data.readInt() == BINARY_MAGIC;
+	} catch(EOFException empty) {
+	    toText = false;
+	}
+
+	try(PositionReader reader = openReader(in);
+	    OutputStream stream = new BufferedOutputStream(Files.newOutputStream(out), 1 << 16)) {
+	    DataOutputStream data = new DataOutputStream(stream);
+	    if(!toText) {
+		data.writeInt(BINARY_MAGIC);
+	    }
+	    GameState[] batch = new GameState[BATCH];
+	    int size;
+	    while((size = reader.read(batch)) > 0) {
+		for(int p = 0; p < size; p++) {
+		    if(toText) {
+			data.write((batch[p].toLine() + "\n").getBytes(StandardCharsets.US_ASCII));
+		    } else {
+			writeBinary(data, batch[p]);
+		    }
+		}
+		count += size;
+	    }
+	    data.flush();
+	}
+	return count;
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Solves or converts files, or without a command runs the benchmark
+     */
+    public static void main(String[] args) throws IOException {
+	int cores = Runtime.getRuntime().availableProcessors();
+	if(args.length >= 3 && args[0].equals("solve")) {
+	    int threads = args.length > 3 ? Integer.parseInt(args[3]) : cores;
+	    boolean distances = args.length > 4 && args[4].equals("distance");
+	    Summary summary = new BulkSolver(threads, distances, DEFAULT_CAPACITY)
+		.solve(Paths.get(args[1]), Paths.get(args[2]));
+	    System.out.println(summary);
+	    return;
+	}
+	if(args.length >= 3 && args[0].equals("convert")) {
+	    System.out.println(convert(Paths.get(args[1]), Paths.get(args[2])) + " positions converted");
+	    return;
+	}
+
+	int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+	int threads = args.length > 1 ? Integer.parseInt(args[1]) : cores;
+	benchmark(count, threads);
+    }
+
+    /**
+     * Writes random positions of the games up to 70, and positions near the end of
+     * a random game on a million 1s, in both formats. Solves them with and without
+     * distances, checks the results of the games up to 30 against GameGraph, and
+     * prints the throughput.
+     */
+    private static void benchmark(int count, int threads) throws IOException {
+	Path dir = Files.createTempDirectory("bulk");
+	Path text = dir.resolve("positions.txt"), binary = dir.resolve("positions.bin");
+	Path copy = dir.resolve("copy.txt"), out = dir.resolve("results.txt");
+	SplittableRandom random = new SplittableRandom(2018);
+
+	// Positions along random lines of play, a few from a game on a million 1s
+	ArrayList<String> bigGame = new ArrayList<String>();
+	MutableGameState big = new MutableGameState(1000000);
+	int[] freq = new int[big.getMaxIndex() + 1];
+	ArrayList<int[]> last = new ArrayList<int[]>();
+	while(big.legalMoveCount() > 0) {
+	    if(last.size() == 30) {
+		last.remove(0);
+	    }
+	    big.store(freq);
+	    last.add(freq.clone());
+	    big.playNth(random.nextInt(big.legalMoveCount()));
+	}
+	for(int k = 0; k < last.size(); k++) {
+	    big.load(last.get(k), big.getDepth() - last.size() + k);
+	    bigGame.add(big.toGameState().toLine());
+	}
+
+	try(BufferedWriter writer = Files.newBufferedWriter(text, StandardCharsets.US_ASCII)) {
+	    for(int p = 0; p < count; p++) {
+		if(p % 10000 == 0) {
+		    writer.write(bigGame.get(random.nextInt(bigGame.size())));
+		    writer.write('\n');
+		    continue;
+		}
+		MutableGameState position = new MutableGameState(1 + random.nextInt(70));
+		int moves = random.nextInt(2 * position.getN() + 1);
+		for(int m = 0; m < moves && position.legalMoveCount() > 0; m++) {
+		    position.playNth(random.nextInt(position.legalMoveCount()));
+		}
+		writer.write(position.toGameState().toLine());
+		writer.write('\n');
+	    }
+	}
+
+	// Both formats must hold the same positions
+	convert(text, binary);
+	convert(binary, copy);
+	if(!Arrays.equals(Files.readAllBytes(text), Files.readAllBytes(copy))) {
+	    throw new IllegalStateException("Text and binary files differ");
+	}
+	System.out.println(String.format("%d positions: %d KB as text, %d KB as binary", count,
+					 Files.size(text) >> 10, Files.size(binary) >> 10));
+
+	// Let the JIT compile the search before measuring
+	new BulkSolver(threads, false, DEFAULT_CAPACITY).solve(binary, out);
+
+	for(boolean distances: new boolean[] { false, true }) {
+	    Summary summary = new BulkSolver(threads, distances, DEFAULT_CAPACITY).solve(binary, out);
+	    check(text, out, distances);
+	    System.out.println((distances ? "With distances:    " : "Without distances: ") + summary
+			       + " on " + threads + " threads");
+	}
+
+	for(Path file: new Path[] { text, binary, copy, out }) {
+	    Files.delete(file);
+	}
+	Files.delete(dir);
+    }
+
+    /**
+     * Checks the results of the positions of the games up to 30 against GameGraph:
+     * the value, a legal best move keeping the win, and the distance
+     */
+    private static void check(Path positions, Path results, boolean distances) throws IOException {
+	HashMap<Integer, GameGraph> graphs = new HashMap<Integer, GameGraph>();
+	HashMap<Integer, HashMap<Long, Integer>> distanceTables = new HashMap<Integer, HashMap<Long, Integer>>();
+	long checked = 0;
+	try(BufferedReader in = Files.newBufferedReader(positions);
+	    BufferedReader res = Files.newBufferedReader(results)) {
+	    String line;
+	    while((line = in.readLine()) != null) {
+		String[] result = res.readLine().split("\t");
+		GameState position = GameState.parseLine(line);
+		long total = SparseState.of(position).getTotal();
+		if(total > 30) {
+		    continue;
+		}
+		int n = (int) total;
+		GameGraph graph = graphs.computeIfAbsent(n, GameGraph::build);
+		PackedState codec = new PackedState(n);
+		int id = findNode(graph, codec.encode(position));
+
+		// Graph values are those of the depth of the node
+		int value = graph.value(id) * ((graph.depth(id) - position.getDepth()) % 2 == 0 ? 1 : -1);
+		int mover = position.getDepth() % 2 == 0 ? 1 : -1;
+		boolean ok = Integer.parseInt(result[0]) == value;
+		if(result[1].equals("-")) {
+		    ok &= graph.isTerminal(id);
+		} else {
+		    GameState move = GameState.parseLine(result[1]);
+		    ok &= position.hasChild(move) && move.getDepth() == position.getDepth() + 1;
+		    int child = findNode(graph, codec.encode(move));
+		    int childValue = graph.value(child)
+			* ((graph.depth(child) - move.getDepth()) % 2 == 0 ? 1 : -1);
+		    ok &= value != mover || childValue == mover;
+		}
+		if(distances) {
+		    HashMap<Long, Integer> table = distanceTables.computeIfAbsent(n, k -> new HashMap<Long, Integer>());
+		    ok &= Integer.parseInt(result[2]) == distance(codec, codec.encode(position), table);
+		}
+		if(!ok) {
+		    throw new IllegalStateException("Wrong result " + Arrays.toString(result) + " for " + line);
+		}
+		checked++;
+	    }
+	}
+	System.out.println("Checked " + checked + " results against GameGraph");
+    }
+
+    /**
+     * Finds the node of a state in the graph, at any depth
+     */
+    private static int findNode(GameGraph graph, long key) {
+	for(int id = 0; id < graph.nodeCount(); id++) {
+	    if(graph.key(id) == key) {
+		return id;
+	    }
+	}
+	throw new IllegalStateException("State not in the graph");
+    }
+
+    /**
+     * Reference distance to the end, by plain minimax over the packed states: the
+     * shortest win through a lost child, or else the longest loss
+     */
+    private static int distance(PackedState codec, long key, HashMap<Long, Integer> table) {
+	Integer known = table.get(key);
+	if(known != null) {
+	    return known >>> 1;
+	}
+	long[] children = new long[codec.maxChildren()];
+	int count = codec.children(key, children);
+	int win = Integer.MAX_VALUE, loss = -1;
+	for(int c = 0; c < count; c++) {
+	    distance(codec, children[c], table);
+	    int entry = table.get(children[c]);
+	    if((entry & 1) == 0) {
+		win = Math.min(win, entry >>> 1);
+	    } else {
+		loss = Math.max(loss, entry >>> 1);
+	    }
+	}
+	int entry = win != Integer.MAX_VALUE ? ((win + 1) << 1) | 1 : (loss + 1) << 1;
+	table.put(key, entry);
+	return entry >>> 1;
+    }
+
+}
@@ -0,0 +1,758 @@
+/**
+ * A layer of packed states stored compressed. The keys of a layer are sorted, in
+ * unsigned order since a layout can use all 64 bits, and neighbouring keys differ
+ * in a few low fields, so each key is stored as its difference to the previous
+ * one in a variable-length code of 7 bits per byte. The layers of the game on 90
+ * take under 1.5 bytes per state with the index, rather than the 8 of a packed
+ * array.
+ *
+ * The keys are cut into blocks of BLOCK_SIZE. A sparse block index keeps the first
+ * key of every block and the offset of its differences in the byte buffer, so the
+ * key of any rank is decoded from the start of its block, and the rank of any key
+ * is found by a binary search over the blocks and a scan of one block. A Cursor
+ * decodes the keys in order without allocating.
+ *
+ * Layers are built by a Builder from keys in any order, with repetitions, such as
+ * the children of a layer. The Builder sorts and deduplicates the keys in runs of
+ * a fixed size, compressing each run, and merges the runs into the layer, dropping
+ * the keys repeated across runs as they meet in the merge, so a layer is never
+ * held as an uncompressed array larger than a run.
+ *
+ * The benchmark measuring the memory saved and the decode throughput against
+ * packed arrays can be executed, after compilation, by running the command
+ *
+ *          java CompressedLayer [n] [repetitions]
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class CompressedLayer {
+
+    /**
+     * Number of keys per block of the index, a power of two
+     */
+    public static final int BLOCK_SIZE = 64;
+    private static final int BLOCK_SHIFT = 6;
+
+    /**
+     * Number of keys a Builder sorts at once before compressing them into a run
+     */
+    public static final int RUN_SIZE = 1 << 16;
+
+    /**
+     * Differences of the keys to the previous key of their block, as varints. The
+     * first key of each block is only in the index.
+     */
+    private final byte[] data;
+
+    /**
+     * The block index: the first key of every block and the offset of the
+     * differences of the rest of the block in data
+     */
+    private final long[] firstKeys;
+    private final int[] blockOffsets;
+
+    /**
+     * Number of keys of the layer
+     */
+    private final int size;
+
+
+    /**
+     * Constructs a layer from its encoded parts, which are not copied
+     */
+    private CompressedLayer(byte[] data, long[] firstKeys, int[] blockOffsets, int size) {
+	this.data = data;
+	this.firstKeys = firstKeys;
+	this.blockOffsets = blockOffsets;
+	this.size = size;
+    }
+
+    /**
+     * Builds the layer of a set of keys
+     *
+     * @param keys - Packed keys in any order, repetitions allowed. The array is
+     *               not modified.
+     * @param count - The number of keys to take from the start of the array
+     * @return The layer of the distinct keys
+     */
+    public static CompressedLayer of(long[] keys, int count) {
+	Builder builder = new Builder();
+	for(int i = 0; i < count; i++) {
+	    builder.add(keys[i]);
+	}
+	return builder.build();
+    }
+
+    /**
+     * Builds the next layer of a game: the distinct children of the keys of a layer
+     *
+     * @param rules - The rules of the game
+     * @return The layer of the children, empty if every key is terminal
+     */
+    public CompressedLayer expand(MoveRules rules) {
+	Builder builder = new Builder();
+	long[] children = new long[rules.maxChildren()];
+	Cursor cursor = cursor();
+	while(cursor.hasNext()) {
+	    int count = rules.children(cursor.next(), children);
+	    for(int c = 0; c < count; c++) {
+		builder.add(children[c]);
+	    }
+	}
+	return builder.build();
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getter for the number of keys of the layer
+     */
+    public int size() { return this.size; }
+
+    /**
+     * Bytes held by the layer: the compressed keys and the block index
+     */
+    public long byteSize() {
+	return data.length + 8L * firstKeys.length + 4L * blockOffsets.length;
+    }
+
+
+    //===================================
+    // ACCESS METHODS
+    //===================================
+
+    /**
+     * Key of a rank, decoded from the start of its block
+     *
+     * @param rank - The rank of the key in unsigned order, from 0
+     * @return The key
+     * @throws IndexOutOfBoundsException if rank is not below size()
+     */
+    public long get(int rank) {
+	if(rank < 0 || rank >= size) {
+	    throw new IndexOutOfBoundsException("Rank " + rank + " of a layer of " + size);
+	}
+	int block = rank >>> BLOCK_SHIFT;
+	long key = firstKeys[block];
+	int pos = blockOffsets[block];
+	for(int k = rank & (BLOCK_SIZE - 1); k > 0; k--) {
+	    long delta = 0;
+	    int shift = 0;
+	    byte b;
+	    do {
+		b = data[pos++];
+		delta |= (long) (b & 0x7f) << shift;
+		shift += 7;
+	    } while(b < 0);
+	    key += delta;
+	}
+	return key;
+    }
+
+    /**
+     * Rank of a key in the layer, with the convention of Arrays.binarySearch()
+     *
+     * @param key - A packed key
+     * @return The rank of the key if the layer holds it, otherwise
+     *         -(insertion rank) - 1
+     */
+    public int rank(long key) {
+
+	// Find the last block starting at or before the key
+	int low = 0, high = firstKeys.length - 1;
+	if(size == 0 || Long.compareUnsigned(key, firstKeys[0]) < 0) {
+	    return -1;
+	}
+	while(low < high) {
+	    int mid = (low + high + 1) >>> 1;
+	    if(Long.compareUnsigned(firstKeys[mid], key) <= 0) {
+		low = mid;
+	    } else {
+		high = mid - 1;
+	    }
+	}
+
+	// Scan the block
+	int rank = low << BLOCK_SHIFT, end = Math.min(size, rank + BLOCK_SIZE);
+	long current = firstKeys[low];
+	int pos = blockOffsets[low];
+	while(true) {
+	    int order = Long.compareUnsigned(current, key);
+	    if(order == 0) {
+		return rank;
+	    }
+	    if(order > 0) {
+		return -rank - 1;
+	    }
+	    if(++rank == end) {
+		return -rank - 1;
+	    }
+	    long delta = 0;
+	    int shift = 0;
+	    byte b;
+	    do {
+		b = data[pos++];
+		delta |= (long) (b & 0x7f) << shift;
+		shift += 7;
+	    } while(b < 0);
+	    current += delta;
+	}
+    }
+
+    /**
+     * Determines if the layer holds a key
+     */
+    public boolean contains(long key) {
+	return rank(key) >= 0;
+    }
+
+    /**
+     * Cursor decoding the keys in order from the first
+     */
+    public Cursor cursor() {
+	return new Cursor(0);
+    }
+
+    /**
+     * Cursor decoding the keys in order from a rank
+     *
+     * @param rank - The rank of the first key decoded, at most size()
+     */
+    public Cursor cursor(int rank) {
+	if(rank < 0 || rank > size) {
+	    throw new IndexOutOfBoundsException("Rank " + rank + " of a layer of " + size);
+	}
+	return new Cursor(rank);
+    }
+
+    /**
+     * Decodes the whole layer into a packed array, in unsigned order
+     */
+    public long[] toArray() {
+	long[] keys = new long[size];
+	Cursor cursor = cursor();
+	for(int i = 0; i < size; i++) {
+	    keys[i] = cursor.next();
+	}
+	return keys;
+    }
+
+
+    //===================================
+    // CURSOR
+    //===================================
+
+    /**
+     * Decodes the keys of a layer one at a time, in order
+     */
+    public class Cursor {
+
+	/**
+	 * Rank of the next key, the last key decoded, and the position of the next
+	 * difference in data
+	 */
+	private int rank, pos;
+	private long key;
+
+	/**
+	 * Constructs a cursor whose first key is the one of a rank
+	 */
+	private Cursor(int rank) {
+	    // Decode the keys of the block before rank
+	    this.rank = rank & -BLOCK_SIZE;
+	    while(this.rank < rank) {
+		next();
+	    }
+	}
+
+	/**
+	 * Determines if keys are left to decode
+	 */
+	public boolean hasNext() {
+	    return rank < size;
+	}
+
+	/**
+	 * Getter for the rank of the next key
+	 */
+	public int getRank() { return this.rank; }
+
+	/**
+	 * Decodes the next key
+	 *
+	 * @return The key
+	 * @throws java.util.NoSuchElementException if the layer is exhausted
+	 */
+	public long next() {
+	    if(rank >= size) {
+		throw new java.util.NoSuchElementException("End of a layer of " + size);
+	    }
+	    if((rank & (BLOCK_SIZE - 1)) == 0) {
+		int block = rank >>> BLOCK_SHIFT;
+		key = firstKeys[block];
+		pos = blockOffsets[block];
+	    } else {
+		long delta = 0;
+		int shift = 0;
+		byte b;
+		do {
+		    b = data[pos++];
+		    delta |= (long) (b & 0x7f) << shift;
+		    shift += 7;
+		} while(b < 0);
+		key += delta;
+	    }
+	    rank++;
+	    return key;
+	}
+    }
+
+
+    //===================================
+    // BUILDER
+    //===================================
+
+    /**
+     * Builds a layer from keys added in any order, with repetitions. The keys are
+     * sorted and deduplicated in runs of RUN_SIZE, each compressed as it fills,
+     * and the runs are merged when the layer is built.
+     */
+    public static class Builder {
+
+	/**
+	 * Keys of the run being filled, and the compressed runs already sorted
+	 */
+	private final long[] run = new long[RUN_SIZE];
+	private int runSize;
+	private final ArrayList<CompressedLayer> runs = new ArrayList<CompressedLayer>();
+
+	/**
+	 * Adds a key to the layer
+	 */
+	public void add(long key) {
+	    if(runSize == RUN_SIZE) {
+		flush();
+	    }
+	    run[runSize++] = key;
+	}
+
+	/**
+	 * Builds the layer of the distinct keys added. The builder is empty
+	 * afterwards and can build another layer.
+	 */
+	public CompressedLayer build() {
+	    flush();
+	    CompressedLayer layer;
+	    if(runs.size() == 0) {
+		layer = new Writer(0).finish();
+	    } else if(runs.size() == 1) {
+		layer = runs.get(0);
+	    } else {
+		layer = merge(runs);
+	    }
+	    runs.clear();
+	    return layer;
+	}
+
+	/**
+	 * Sorts, deduplicates and compresses the run being filled
+	 */
+	private void flush() {
+	    if(runSize == 0) {
+		return;
+	    }
+
+	    // Flipping the sign bit makes the signed sort order the unsigned one
+	    for(int i = 0; i < runSize; i++) {
+		run[i] ^= Long.MIN_VALUE;
+	    }
+	    Arrays.sort(run, 0, runSize);
+	    Writer writer = new Writer(runSize);
+	    for(int i = 0; i < runSize; i++) {
+		if(i == 0 || run[i] != run[i - 1]) {
+		    writer.append(run[i] ^ Long.MIN_VALUE);
+		}
+	    }
+	    runs.add(writer.finish());
+	    runSize = 0;
+	}
+    }
+
+    /**
+     * Merges sorted layers into the layer of their distinct keys. The cursors of
+     * the layers are kept in a binary heap ordered by their next key, and a key
+     * equal to the last one written is dropped.
+     */
+    public static CompressedLayer merge(ArrayList<CompressedLayer> layers) {
+	int total = 0;
+	Cursor[] cursors = new Cursor[layers.size()];
+	long[] heads = new long[layers.size()];
+	int[] heap = new int[layers.size()];
+	int heapSize = 0;
+	for(CompressedLayer layer: layers) {
+	    total += layer.size;
+	    if(layer.size > 0) {
+		cursors[heapSize] = layer.cursor();
+		heads[heapSize] = cursors[heapSize].next();
+		heap[heapSize] = heapSize;
+		siftUp(heap, heads, heapSize++);
+	    }
+	}
+
+	Writer writer = new Writer(total);
+	while(heapSize > 0) {
+	    int top = heap[0];
+	    if(writer.size == 0 || heads[top] != writer.last) {
+		writer.append(heads[top]);
+	    }
+	    if(cursors[top].hasNext()) {
+		heads[top] = cursors[top].next();
+	    } else {
+		heap[0] = heap[--heapSize];
+	    }
+	    siftDown(heap, heads, heapSize);
+	}
+	return writer.finish();
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Moves the heap entry at a position up to its place
+     */
+    private static void siftUp(int[] heap, long[] heads, int pos) {
+	int entry = heap[pos];
+	while(pos > 0) {
+	    int parent = (pos - 1) >>> 1;
+	    if(Long.compareUnsigned(heads[heap[parent]], heads[entry]) <= 0) {
+		break;
+	    }
+	    heap[pos] = heap[parent];
+	    pos = parent;
+	}
+	heap[pos] = entry;
+    }
+
+    /**
+     * Moves the root of the heap down to its place
+     */
+    private static void siftDown(int[] heap, long[] heads, int heapSize) {
+	if(heapSize == 0) {
+	    return;
+	}
+	int entry = heap[0], pos = 0;
+	while(true) {
+	    int child = 2 * pos + 1;
+	    if(child >= heapSize) {
+		break;
+	    }
+	    if(child + 1 < heapSize && Long.compareUnsigned(heads[heap[child + 1]], heads[heap[child]]) < 0) {
+		child++;
+	    }
+	    if(Long.compareUnsigned(heads[entry], heads[heap[child]]) <= 0) {
+		break;
+	    }
+	    heap[pos] = heap[child];
+	    pos = child;
+	}
+	heap[pos] = entry;
+    }
+
+    /**
+     * Encodes keys given in increasing unsigned order into a layer
+     */
+    private static class Writer {
+
+	private byte[] data;
+	private long[] firstKeys;
+	private int[] blockOffsets;
+	private int size, length;
+	private long last;
+
+	/**
+	 * Constructs a writer sized for an expected number of keys
+	 */
+	Writer(int expected) {
+	    int blocks = (expected + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+	    this.data = new byte[Math.max(16, 2 * expected)];
+	    this.firstKeys = new long[blocks];
+	    this.blockOffsets = new int[blocks];
+	}
+
+	/**
+	 * Appends a key, greater than the last one appended
+	 */
+	void append(long key) {
+	    if((size & (BLOCK_SIZE - 1)) == 0) {
+		int block = size >>> BLOCK_SHIFT;
+		if(block == firstKeys.length) {
+		    firstKeys = Arrays.copyOf(firstKeys, Math.max(4, 2 * block));
+		    blockOffsets = Arrays.copyOf(blockOffsets, firstKeys.length);
+		}
+		firstKeys[block] = key;
+		blockOffsets[block] = length;
+	    } else {
+		if(length + 10 > data.length) {
+		    data = Arrays.copyOf(data, 2 * data.length + 10);
+		}
+		long delta = key - last;
+		while((delta & ~0x7fL) != 0) {
+		    data[length++] = (byte) (delta | 0x80);
+		    delta >>>= 7;
+		}
+		data[length++] = (byte) delta;
+	    }
+	    last = key;
+	    size++;
+	}
+
+	/**
+	 * Builds the layer, trimming the arrays to their content
+	 */
+	CompressedLayer finish() {
+	    int blocks = (size + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+	    return new CompressedLayer(Arrays.copyOf(data, length), Arrays.copyOf(firstKeys, blocks),
+				       Arrays.copyOf(blockOffsets, blocks), size);
+	}
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Checks the layers of the games up to 30 against GameGraph, with every key
+     * looked up by rank and by value, then expands the nth game (90 by default)
+     * into compressed layers and into packed arrays deduplicated by
+     * LongIntHashMap, and compares their bytes and the throughput of decoding them
+     * in order, by rank and by key
+     */
+    public static void main(String[] args) {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 90;
+	int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+	for(int gameNum = 1; gameNum <= 30; gameNum++) {
+	    GameGraph graph = GameGraph.build(gameNum);
+	    PackedState rules = new PackedState(gameNum);
+	    CompressedLayer layer = of(new long[] { rules.initialKey() }, 1);
+	    for(int d = 0; d < graph.layerCount(); d++) {
+		long[] expected = new long[graph.layerSize(d)];
+		for(int id = graph.layerStart(d); id < graph.layerEnd(d); id++) {
+		    expected[id - graph.layerStart(d)] = graph.key(id) ^ Long.MIN_VALUE;
+		}
+		Arrays.sort(expected);
+		long[] keys = layer.toArray();
+		boolean same = keys.length == expected.length;
+		for(int i = 0; same && i < keys.length; i++) {
+		    same = keys[i] == (expected[i] ^ Long.MIN_VALUE) && layer.get(i) == keys[i]
+			&& layer.rank(keys[i]) == i && layer.cursor(i).next() == keys[i]
+			&& layer.rank(keys[i] + 1) >= 0 == (i + 1 < keys.length && keys[i + 1] == keys[i] + 1);
+		}
+		if(!same) {
+		    throw new IllegalStateException("Layer " + d + " of game " + gameNum + " differs from GameGraph");
+		}
+		layer = layer.expand(rules);
+	    }
+	    if(layer.size() != 0) {
+		throw new IllegalStateException("Game " + gameNum + " has too many layers");
+	    }
+	}
+
+	// Merging across runs must drop the repeated keys
+	java.util.SplittableRandom random = new java.util.SplittableRandom(n);
+	long[] randomKeys = new long[5 * RUN_SIZE / 2];
+	for(int i = 0; i < randomKeys.length; i++) {
+	    randomKeys[i] = random.nextLong() >>> random.nextInt(64);
+	    if(i > 0 && random.nextInt(3) == 0) {
+		randomKeys[i] = randomKeys[random.nextInt(i)];
+	    }
+	}
+	long[] sortedKeys = of(randomKeys, randomKeys.length).toArray();
+	long[] expected = randomKeys.clone();
+	for(int i = 0; i < expected.length; i++) {
+	    expected[i] ^= Long.MIN_VALUE;
+	}
+	Arrays.sort(expected);
+	int distinct = 0;
+	for(int i = 0; i < expected.length; i++) {
+	    if(i == 0 || expected[i] != expected[i - 1]) {
+		expected[distinct++] = expected[i];
+	    }
+	}
+	for(int i = 0; i < distinct; i++) {
+	    expected[i] ^= Long.MIN_VALUE;
+	}
+	if(!Arrays.equals(sortedKeys, Arrays.copyOf(expected, distinct))) {
+	    throw new IllegalStateException("Merging runs of random keys lost or repeated keys");
+	}
+	System.out.println("Layers agree with GameGraph up to 30, and " + distinct + " distinct random keys "
+			   + "survive merging " + (randomKeys.length + RUN_SIZE - 1) / RUN_SIZE + " runs");
+
+	PackedState rules = new PackedState(n);
+	ArrayList<CompressedLayer> layers = null;
+	ArrayList<long[]> arrays = null;
+	long compressedTime = Long.MAX_VALUE, arrayTime = Long.MAX_VALUE;
+	for(int rep = 0; rep < repetitions; rep++) {
+	    long start = System.nanoTime();
+	    layers = new ArrayList<CompressedLayer>();
+	    CompressedLayer layer = of(new long[] { rules.initialKey() }, 1);
+	    while(layer.size() > 0) {
+		layers.add(layer);
+		layer = layer.expand(rules);
+	    }
+	    compressedTime = Math.min(compressedTime, System.nanoTime() - start);
+
+	    start = System.nanoTime();
+	    arrays = expandArrays(rules);
+	    arrayTime = Math.min(arrayTime, System.nanoTime() - start);
+	}
+
+	long states = 0, bytes = 0;
+	int widest = 0;
+	for(CompressedLayer layer: layers) {
+	    states += layer.size();
+	    bytes += layer.byteSize();
+	    widest = Math.max(widest, layer.size());
+	}
+	if(layers.size() != arrays.size()) {
+	    throw new IllegalStateException("The expansions found " + layers.size() + " and " + arrays.size()
+					    + " layers");
+	}
+	System.out.println(String.format("Game on %d: %d layers, %d states, widest layer %d", n, layers.size(),
+					 states, widest));
+	System.out.println(String.format("%-22s %10s %8s %10s", "layers", "KB", "B/state", "build ms"));
+	System.out.println(String.format("%-22s %10d %8.2f %10d", "packed arrays", (8 * states) >> 10, 8.0,
+					 arrayTime / 1000000));
+	System.out.println(String.format("%-22s %10d %8.2f %10d", "compressed", bytes >> 10, (double) bytes / states,
+					 compressedTime / 1000000));
+
+	// Decode every layer in order, by rank and by key, against the same reads of
+	// the sorted packed arrays
+	for(int d = 0; d < arrays.size(); d++) {
+	    long[] array = arrays.get(d);
+	    for(int i = 0; i < array.length; i++) {
+		array[i] ^= Long.MIN_VALUE;
+	    }
+	    Arrays.sort(array);
+	    for(int i = 0; i < array.length; i++) {
+		array[i] ^= Long.MIN_VALUE;
+	    }
+	}
+	int[] probes = new int[1 << 20];
+	for(int i = 0; i < probes.length; i++) {
+	    probes[i] = random.nextInt(Integer.MAX_VALUE);
+	}
+	String[] reads = { "in order", "by rank", "by key" };
+	System.out.println(String.format("%-22s %14s %18s", "decode", "packed Mkeys/s", "compressed Mkeys/s"));
+	for(int read = 0; read < reads.length; read++) {
+	    long arrayBest = Long.MAX_VALUE, compressedBest = Long.MAX_VALUE, arraySum = 0, compressedSum = 0;
+	    long keys = 0;
+	    for(int rep = 0; rep < repetitions; rep++) {
+		keys = 0;
+		long start = System.nanoTime();
+		arraySum = 0;
+		for(long[] array: arrays) {
+		    if(read == 0) {
+			for(long key: array) {
+			    arraySum += key;
+			}
+			keys += array.length;
+		    } else {
+			int count = Math.min(array.length, probes.length / arrays.size() + 1);
+			for(int p = 0; p < count; p++) {
+			    int rank = probes[p] % array.length;
+			    arraySum += read == 1 ? array[rank] : binarySearch(array, array[rank]);
+			}
+			keys += count;
+		    }
+		}
+		arrayBest = Math.min(arrayBest, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		compressedSum = 0;
+		for(int d = 0; d < layers.size(); d++) {
+		    CompressedLayer layer = layers.get(d);
+		    if(read == 0) {
+			Cursor cursor = layer.cursor();
+			while(cursor.hasNext()) {
+			    compressedSum += cursor.next();
+			}
+		    } else {
+			long[] array = arrays.get(d);
+			int count = Math.min(array.length, probes.length / arrays.size() + 1);
+			for(int p = 0; p < count; p++) {
+			    int rank = probes[p] % array.length;
+			    compressedSum += read == 1 ? layer.get(rank) : layer.rank(array[rank]);
+			}
+		    }
+		}
+		compressedBest = Math.min(compressedBest, System.nanoTime() - start);
+	    }
+	    if(arraySum != compressedSum) {
+		throw new IllegalStateException("Reading " + reads[read] + " gives different keys");
+	    }
+	    System.out.println(String.format("%-22s %14.1f %18.1f", reads[read], keys * 1e3 / arrayBest,
+					     keys * 1e3 / compressedBest));
+	}
+    }
+
+    /**
+     * Expands the game into packed arrays, deduplicating each layer with a
+     * LongIntHashMap as GameGraph does
+     */
+    private static ArrayList<long[]> expandArrays(MoveRules rules) {
+	ArrayList<long[]> layers = new ArrayList<long[]>();
+	long[] layer = { rules.initialKey() };
+	long[] next = new long[1024];
+	long[] buffer = new long[rules.maxChildren()];
+	LongIntHashMap seen = new LongIntHashMap(1024);
+	while(layer.length > 0) {
+	    layers.add(layer);
+	    seen.clear();
+	    int size = 0;
+	    for(long key: layer) {
+		int count = rules.children(key, buffer);
+		for(int c = 0; c < count; c++) {
+		    if(seen.putIfAbsent(buffer[c], size) < 0) {
+			if(size == next.length) {
+			    next = Arrays.copyOf(next, size * 2);
+			}
+			next[size++] = buffer[c];
+		    }
+		}
+	    }
+	    layer = Arrays.copyOf(next, size);
+	}
+	return layers;
+    }
+
+    /**
+     * Rank of a key in a packed array sorted in unsigned order
+     */
+    private static int binarySearch(long[] array, long key) {
+	int low = 0, high = array.length - 1;
+	while(low <= high) {
+	    int mid = (low + high) >>> 1;
+	    int order = Long.compareUnsigned(array[mid], key);
+	    if(order < 0) {
+		low = mid + 1;
+	    } else if(order > 0) {
+		high = mid - 1;
+	    } else {
+		return mid;
+	    }
+	}
+	return -low - 1;
+    }
+
+}
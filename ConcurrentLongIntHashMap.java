@@ -0,0 +1,485 @@
+/**
+ * A concurrent open-addressing hash map from long keys to non-negative int values,
+ * shared by the threads of a parallel build or solve to deduplicate packed states.
+ * Like LongIntHashMap it stores keys and values in flat arrays without boxing,
+ * entries are never removed, and lookups of absent keys return -1.
+ *
+ * Each slot has a key and a state word. The low 32 bits of the state hold the value
+ * plus 4, the values 0 to 3 marking a slot that is empty, being written, or moved
+ * to a larger table; the high 32 bits count the times an evicting map replaced the
+ * entry. A thread inserts by claiming an empty slot with a single compareAndSet on
+ * its state, writing the key, then publishing the value. Readers only wait on a slot
+ * for the few instructions between the claim and the publication. No lock is taken,
+ * but the map is not lock-free: a thread stalled between a claim and its
+ * publication holds up the threads probing that slot.
+ *
+ * The map grows without a global lock: the thread that finds it half full links a
+ * table of twice the size, and every thread that then meets a moved slot helps
+ * copy chunks of the old table, claiming the slots of the new table the same way
+ * insertions do. An insertion waits until every chunk is copied, including the
+ * chunks claimed by other threads, before continuing in the new table, so that it
+ * cannot add a key whose copy is still to come. Lookups never wait for the copy,
+ * as moved slots keep their keys and send readers to the new table only for the
+ * entries already copied.
+ *
+ * In evicting mode the map keeps a fixed capacity and probes at most PROBE_LIMIT
+ * slots. When they are all taken, an insertion replaces one of them, so the map acts
+ * as a bounded cache: putIfAbsent() may insert a key again after it was evicted.
+ *
+ * The contention benchmark against ConcurrentHashMap can be executed, after
+ * compilation, by running the command
+ *
+ *          java ConcurrentLongIntHashMap [keys] [operations]
+ *
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConcurrentLongIntHashMap {
+
+    /**
+     * Markers held in the low bits of a slot state instead of a value
+     */
+    private static final int EMPTY = 0, PENDING = 1, MOVED_EMPTY = 2, MOVED_FULL = 3;
+    private static final int VALUE_OFFSET = 4;
+
+    /**
+     * Slots probed by an evicting map, and slots copied per migration chunk
+     */
+    public static final int PROBE_LIMIT = 16;
+    private static final int CHUNK = 1024;
+
+    /**
+     * The current table, the number of entries and evictions, and the mode
+     */
+    private final AtomicReference<Table> table;
+    private final LongAdder size = new LongAdder(), evictions = new LongAdder();
+    private final boolean evicting;
+
+
+    /**
+     * Constructs a growing map sized for the expected number of entries
+     *
+     * @param expected - The number of entries the map should hold without growing
+     */
+    public ConcurrentLongIntHashMap(int expected) {
+	this(expected, false);
+    }
+
+    /**
+     * Constructs a map, either growing or evicting
+     *
+     * @param expected - The number of entries the map should hold without growing,
+     *                   or the number of entries it holds at most when evicting
+     * @param evicting - true for a fixed capacity map that replaces entries
+     */
+    public ConcurrentLongIntHashMap(int expected, boolean evicting) {
+	int capacity = 16;
+	while(capacity < 2L * expected) {
+	    capacity <<= 1;
+	}
+	this.table = new AtomicReference<Table>(new Table(capacity));
+	this.evicting = evicting;
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Number of insertions that added a key. In evicting mode this includes the
+     * entries evicted since, which evictions() counts.
+     */
+    public long size() { return this.size.sum(); }
+
+    /**
+     * Number of entries replaced by an evicting map
+     */
+    public long evictions() { return this.evictions.sum(); }
+
+    /**
+     * Number of slots of the current table
+     */
+    public int capacity() { return this.table.get().mask + 1; }
+
+
+    //===================================
+    // MAP METHODS
+    //===================================
+
+    /**
+     * Retrieves the value stored for a key
+     *
+     * @param key - The key to look up
+     * @return The value of key, or -1 if the key is absent
+     */
+    public int get(long key) {
+	Table t = table.get();
+	search:
+	while(true) {
+	    int slot = LongIntHashMap.mix(key) & t.mask;
+	    int limit = probeLimit(t);
+	    for(int probe = 0; probe < limit; ) {
+		long state = t.states.get(slot);
+		int low = (int) state;
+		if(low == EMPTY) {
+		    return -1;
+		}
+		if(low == PENDING) {
+		    Thread.onSpinWait();
+		    continue;
+		}
+		if(low == MOVED_EMPTY) {
+		    t = t.next.get();
+		    continue search;
+		}
+		long k = t.keys[slot];
+		if(k == key) {
+		    if(low == MOVED_FULL) {
+			t = t.next.get();
+			continue search;
+		    }
+		    // An evicting map may have replaced the entry while it was read
+		    if(!evicting || t.states.get(slot) == state) {
+			return low - VALUE_OFFSET;
+		    }
+		    continue;
+		}
+		slot = (slot + 1) & t.mask;
+		probe++;
+	    }
+	    return -1;
+	}
+    }
+
+    /**
+     * Stores a value for a key, unless the key is already present
+     *
+     * @param key - The key to insert
+     * @param value - The value to store, between 0 and Integer.MAX_VALUE - 4
+     * @return The value already stored for key, or -1 if value was inserted
+     */
+    public int putIfAbsent(long key, int value) {
+	if(value < 0 || value > Integer.MAX_VALUE - VALUE_OFFSET) {
+	    throw new IllegalArgumentException("Value out of range: " + value);
+	}
+	Table t = table.get();
+	search:
+	while(true) {
+	    int home = LongIntHashMap.mix(key) & t.mask;
+	    int slot = home;
+	    int limit = probeLimit(t);
+	    for(int probe = 0; probe < limit; ) {
+		long state = t.states.get(slot);
+		int low = (int) state;
+		if(low == EMPTY) {
+		    long version = state & 0xFFFFFFFF00000000L;
+		    if(!t.states.compareAndSet(slot, state, version | PENDING)) {
+			continue;
+		    }
+		    t.keys[slot] = key;
+		    t.states.set(slot, version | (value + VALUE_OFFSET));
+		    size.increment();
+		    if(!evicting) {
+			checkLoad(t, probe, slot);
+		    }
+		    return -1;
+		}
+		if(low == PENDING) {
+		    Thread.onSpinWait();
+		    continue;
+		}
+		if(low == MOVED_EMPTY) {
+		    t = migrate(t);
+		    continue search;
+		}
+		long k = t.keys[slot];
+		if(k == key) {
+		    if(low == MOVED_FULL) {
+			t = migrate(t);
+			continue search;
+		    }
+		    if(!evicting || t.states.get(slot) == state) {
+			return low - VALUE_OFFSET;
+		    }
+		    continue;
+		}
+		slot = (slot + 1) & t.mask;
+		probe++;
+	    }
+
+	    // Every probed slot holds another key
+	    if(!evicting) {
+		t = grow(t);
+		continue search;
+	    }
+	    if(evict(t, home, key, value)) {
+		return -1;
+	    }
+	}
+    }
+
+
+    //===================================
+    // TABLES
+    //===================================
+
+    /**
+     * A table of slots, with the table it is being moved to and the progress of
+     * the move
+     */
+    private static final class Table {
+
+	final long[] keys;
+	final AtomicLongArray states;
+	final int mask;
+	final AtomicReference<Table> next = new AtomicReference<Table>();
+	final AtomicInteger claimedChunks = new AtomicInteger(), movedChunks = new AtomicInteger();
+
+	Table(int capacity) {
+	    this.keys = new long[capacity];
+	    this.states = new AtomicLongArray(capacity);
+	    this.mask = capacity - 1;
+	}
+    }
+
+    /**
+     * Number of slots probed before giving up on a table
+     */
+    private int probeLimit(Table t) {
+	return evicting ? Math.min(PROBE_LIMIT, t.mask + 1) : t.mask + 1;
+    }
+
+    /**
+     * Starts growing the table once it is half full. Counting the entries is
+     * slower than an insertion, so it is only done after long probes and for one
+     * slot in 64.
+     */
+    private void checkLoad(Table t, int probe, int slot) {
+	if((probe >= 8 || (slot & 63) == 0) && size.sum() * 2 > t.mask + 1) {
+	    grow(t);
+	}
+    }
+
+    /**
+     * Links a table of twice the size to a table if none is linked yet, and
+     * helps move the entries to it
+     *
+     * @return The table the entries were moved to
+     */
+    private Table grow(Table t) {
+	if(t.next.get() == null) {
+	    t.next.compareAndSet(null, new Table(2 * (t.mask + 1)));
+	}
+	return migrate(t);
+    }
+
+    /**
+     * Copies chunks of a table to its next table until no chunk is left, then
+     * waits for the chunks other threads claimed and installs the next table. The
+     * wait keeps insertions out of the next table until it holds every entry.
+     *
+     * @return The next table
+     */
+    private Table migrate(Table t) {
+	Table next = t.next.get();
+	int chunks = (t.mask + CHUNK) / CHUNK;
+	int chunk;
+	while((chunk = t.claimedChunks.getAndIncrement()) < chunks) {
+	    int end = Math.min(t.mask + 1, (chunk + 1) * CHUNK);
+	    for(int slot = chunk * CHUNK; slot < end; slot++) {
+		moveSlot(t, next, slot);
+	    }
+	    t.movedChunks.incrementAndGet();
+	}
+	while(t.movedChunks.get() < chunks) {
+	    Thread.onSpinWait();
+	}
+	table.compareAndSet(t, next);
+	return next;
+    }
+
+    /**
+     * Seals a slot of a table, copying its entry to the next table first
+     */
+    private static void moveSlot(Table t, Table next, int slot) {
+	while(true) {
+	    long state = t.states.get(slot);
+	    int low = (int) state;
+	    if(low == EMPTY) {
+		if(t.states.compareAndSet(slot, state, MOVED_EMPTY)) {
+		    return;
+		}
+	    } else if(low == PENDING) {
+		Thread.onSpinWait();
+	    } else {
+		// Keys are unique in the old table and only copies enter the new
+		// table until the move ends, so the copy needs no duplicate check.
+		// Threads copying other chunks may reach the same empty slot, so it
+		// is claimed as an insertion claims it.
+		long key = t.keys[slot];
+		int copy = LongIntHashMap.mix(key) & next.mask;
+		while(!next.states.compareAndSet(copy, EMPTY, PENDING)) {
+		    copy = (copy + 1) & next.mask;
+		}
+		next.keys[copy] = key;
+		next.states.set(copy, low);
+		t.states.set(slot, MOVED_FULL);
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Replaces an entry of the probe window of a key in an evicting map
+     *
+     * @return true if the key was inserted, false if the chosen slot changed and
+     *         the insertion must be retried
+     */
+    private boolean evict(Table t, int home, long key, int value) {
+	int slot = (home + (int) ((key * 0x9E3779B97F4A7C15L) >>> 60)) & t.mask;
+	long state = t.states.get(slot);
+	int low = (int) state;
+	if(low < VALUE_OFFSET) {
+	    return false;
+	}
+	long version = (state & 0xFFFFFFFF00000000L) + (1L << 32);
+	if(!t.states.compareAndSet(slot, state, version | PENDING)) {
+	    return false;
+	}
+	t.keys[slot] = key;
+	t.states.set(slot, version | (value + VALUE_OFFSET));
+	evictions.increment();
+	return true;
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Contention benchmark: threads insert overlapping streams of keys into an
+     * initially small map, as the workers of a parallel build deduplicate the
+     * states of a layer, for this map and for ConcurrentHashMap
+     */
+    public static void main(String[] args) throws InterruptedException {
+	final int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+	final int operations = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 21;
+	int[] threadCounts = { 1, 2, 4, 8, 16, 32 };
+
+	System.out.println("Threads  ConcurrentLongIntHashMap  ConcurrentHashMap   (million ops/s, "
+			   + Runtime.getRuntime().availableProcessors() + " cores)");
+	for(int round = 0; round < 2; round++) {
+	    for(int threads: threadCounts) {
+		double flat = 0, chm = 0;
+		for(int rep = 0; rep < 3; rep++) {
+		    flat = Math.max(flat, runFlat(threads, keys, operations / threads));
+		    chm = Math.max(chm, runConcurrentHashMap(threads, keys, operations / threads));
+		}
+		// The first round only warms up the JIT
+		if(round == 1) {
+		    System.out.println(String.format("%7d  %24.1f  %17.1f", threads, flat, chm));
+		}
+	    }
+	}
+    }
+
+    /**
+     * Key inserted by a thread at a step: every thread walks all the keys from a
+     * different starting point, so most insertions find the key present
+     */
+    private static long benchmarkKey(int thread, int step, int keys) {
+	return ((long) (thread * 7919 + step) % keys) * 0x2545F4914F6CDD1DL;
+    }
+
+    private static double runFlat(int threads, final int keys, final int perThread)
+	throws InterruptedException {
+	final ConcurrentLongIntHashMap map = new ConcurrentLongIntHashMap(1024);
+	final AtomicInteger ids = new AtomicInteger();
+	Thread[] running = new Thread[threads];
+	for(int t = 0; t < threads; t++) {
+	    final int thread = t;
+	    running[t] = new Thread(new Runnable() {
+		    public void run() {
+			for(int step = 0; step < perThread; step++) {
+			    long key = benchmarkKey(thread, step, keys);
+			    if(map.get(key) < 0 && map.putIfAbsent(key, ids.get()) < 0) {
+				ids.incrementAndGet();
+			    }
+			}
+		    }
+		});
+	}
+	long nanos = time(running);
+	checkKeys(threads, keys, perThread, map.size());
+
+	// Every key must survive the copies of the resizes
+	for(int t = 0; t < threads; t++) {
+	    for(int step = 0; step < perThread; step++) {
+		if(map.get(benchmarkKey(t, step, keys)) < 0) {
+		    throw new IllegalStateException("Key " + benchmarkKey(t, step, keys) + " lost in a resize");
+		}
+	    }
+	}
+	return (double) threads * perThread * 1000 / nanos;
+    }
+
+    private static double runConcurrentHashMap(int threads, final int keys, final int perThread)
+	throws InterruptedException {
+	final ConcurrentHashMap<Long, Integer> map = new ConcurrentHashMap<Long, Integer>(1024);
+	final AtomicInteger ids = new AtomicInteger();
+	Thread[] running = new Thread[threads];
+	for(int t = 0; t < threads; t++) {
+	    final int thread = t;
+	    running[t] = new Thread(new Runnable() {
+		    public void run() {
+			for(int step = 0; step < perThread; step++) {
+			    Long key = benchmarkKey(thread, step, keys);
+			    if(map.get(key) == null && map.putIfAbsent(key, ids.get()) == null) {
+				ids.incrementAndGet();
+			    }
+			}
+		    }
+		});
+	}
+	long nanos = time(running);
+	checkKeys(threads, keys, perThread, map.size());
+	return (double) threads * perThread * 1000 / nanos;
+    }
+
+    /**
+     * Runs threads to completion and returns the time they took
+     */
+    private static long time(Thread[] running) throws InterruptedException {
+	long start = System.nanoTime();
+	for(Thread thread: running) {
+	    thread.start();
+	}
+	for(Thread thread: running) {
+	    thread.join();
+	}
+	return System.nanoTime() - start;
+    }
+
+    /**
+     * Checks that a map holds each distinct inserted key exactly once
+     */
+    private static void checkKeys(int threads, int keys, int perThread, long size) {
+	java.util.HashSet<Long> distinct = new java.util.HashSet<Long>();
+	for(int t = 0; t < threads && distinct.size() < keys; t++) {
+	    for(int step = 0; step < perThread && distinct.size() < keys; step++) {
+		distinct.add(benchmarkKey(t, step, keys));
+	    }
+	}
+	if(size != distinct.size()) {
+	    throw new IllegalStateException("Map holds " + size + " keys instead of " + distinct.size());
+	}
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * The fibonacci numbers of the decomposition game, computed once and shared by
+ * every class that needs them. Indices use the convention of GameState:
+ * fib(0) = fib(1) = 1, fib(2) = 2, fib(3) = 3, fib(4) = 5, ...
+ *
+ * get() reads the table of longs, which ends at index 91, the last fibonacci that
+ * fits in a long, and throws rather than overflow past it. getBig() gives any
+ * index as a BigInteger, extending its own table on demand. Every state of a game
+ * on an int or long number of 1s only uses indices covered by the long table.
+ *
+ */
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+public class Fibonacci {
+
+    /**
+     * Largest index whose fibonacci fits in a long
+     */
+    public static final int LAST_LONG_INDEX = 91;
+
+    /**
+     * Fibonacci numbers by index up to LAST_LONG_INDEX
+     */
+    static final long[] TABLE = new long[LAST_LONG_INDEX + 1];
+    static {
+	TABLE[0] = 1;
+	TABLE[1] = 1;
+	for(int i = 2; i < TABLE.length; i++) {
+	    TABLE[i] = TABLE[i - 1] + TABLE[i - 2];
+	}
+    }
+
+    /**
+     * Fibonacci numbers by index as BigIntegers, grown as larger indices are asked
+     * for
+     */
+    private static BigInteger[] bigTable = { BigInteger.ONE, BigInteger.ONE };
+
+    /**
+     * No instances, the tables are shared
+     */
+    private Fibonacci() {
+    }
+
+
+    //===================================
+    // LOOKUP METHODS
+    //===================================
+
+    /**
+     * Fibonacci number at an index, 1 for indices below 1
+     *
+     * @param index - The index of the fibonacci number
+     * @return The fibonacci number
+     * @throws ArithmeticException if the fibonacci number does not fit in a long
+     */
+    public static long get(int index) {
+	if(index > LAST_LONG_INDEX) {
+	    throw new ArithmeticException("fib(" + index + ") does not fit in a long");
+	}
+	return TABLE[Math.max(index, 0)];
+    }
+
+    /**
+     * Fibonacci number at any index, 1 for indices below 1
+     *
+     * @param index - The index of the fibonacci number
+     * @return The fibonacci number
+     */
+    public static synchronized BigInteger getBig(int index) {
+	index = Math.max(index, 0);
+	if(index >= bigTable.length) {
+	    int filled = bigTable.length;
+	    bigTable = Arrays.copyOf(bigTable, Math.max(index + 1, 2 * filled));
+	    for(int i = filled; i < bigTable.length; i++) {
+		bigTable[i] = bigTable[i - 1].add(bigTable[i - 2]);
+	    }
+	}
+	return bigTable[index];
+    }
+
+    /**
+     * Largest index whose fibonacci number is at most a value, which bounds the
+     * indices of the game on that many 1s
+     *
+     * @param value - A positive value
+     * @return The largest index i with fib(i) <= value, at least 1
+     */
+    public static int largestIndex(long value) {
+	int top = 1;
+	while(top < LAST_LONG_INDEX && TABLE[top + 1] <= value) {
+	    top++;
+	}
+	return top;
+    }
+
+    /**
+     * Value of a decomposition given by parallel arrays of indices and
+     * frequencies, checking for overflow
+     *
+     * @param indices - Fibonacci indices
+     * @param counts - The frequency of each index
+     * @param size - The number of entries to sum
+     * @return The sum of the fibonaccis
+     * @throws ArithmeticException if the sum does not fit in a long
+     */
+    public static long sum(int[] indices, int[] counts, int size) {
+	long total = 0;
+	for(int k = 0; k < size; k++) {
+	    total = Math.addExact(total, Math.multiplyExact(get(indices[k]), (long) counts[k]));
+	}
+	return total;
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Checks the long table against the BigInteger table and prints the last
+     * fibonacci that fits in a long
+     */
+    public static void main(String[] args) {
+	for(int i = 0; i <= LAST_LONG_INDEX; i++) {
+	    if(!getBig(i).equals(BigInteger.valueOf(get(i)))) {
+		throw new IllegalStateException("Tables differ at index " + i);
+	    }
+	}
+	BigInteger next = getBig(LAST_LONG_INDEX + 1);
+	if(next.bitLength() < 64) {
+	    throw new IllegalStateException("fib(" + (LAST_LONG_INDEX + 1) + ") fits in a long");
+	}
+	System.out.println("fib(" + LAST_LONG_INDEX + ") = " + get(LAST_LONG_INDEX)
+			   + " is the last fibonacci in a long, fib(" + (LAST_LONG_INDEX + 1)
+			   + ") = " + next);
+	System.out.println("Games on up to " + Integer.MAX_VALUE + " 1s use indices up to "
+			   + largestIndex(Integer.MAX_VALUE));
+    }
+
+}
@@ -19,9 +19,42 @@
  * on all nodes in the game tree (this is not recommended if several games are being
  * played as this is a costly process).
  *
+ * The value of a single position is found without building the game with
+ * solvePosition(), and a move achieving it with winningMove(). These search the
+ * packed states below the position depth first, stop at the first winning move
+ * of each state, and remember every state they solve, so later positions reuse the
+ * work of earlier ones. Games whose states do not fit in a packed long, from 474
+ * on, are searched through SparseStates, so positions near the end of games on
+ * millions of 1s are solved as quickly.
+ *
+ * solve() builds and solves the Game within budgets of wall-clock time, Trees and
+ * heap set beforehand, and stops at the next Tree when cancel() is called from any
+ * thread. When a budget runs out it returns what is known: the layers fully
+ * expanded, the exact widths of the layers whose Trees are all built, and the
+ * winner if the values proven for the children of the root decide it, or 0 if
+ * they do not. Values proven before stopping are kept, so once the build is
+ * complete, solve() can be called again to continue.
+ *
+ * A Game constructed with Game(n, false) does not store the parents of its Trees,
+ * which otherwise take about half of the memory of the Tree. It keeps the Trees of
+ * each layer instead, and getParents() finds the parents of a Tree by undoing the
+ * moves that could have led to its state and looking the results up in the layer
+ * above.
+ *
+ * playGame() only merges the states reached after the same number of moves, so a
+ * decomposition reached after both 5 and 7 moves has two Trees, and the subtree
+ * below it is built and solved twice. A Game constructed with Game(n, keepParents,
+ * true) keeps a single Tree per decomposition, at the smallest number of moves
+ * reaching it, which its GameState records as its depth. getDepthParities() tells
+ * whether it can also be reached after a number of moves of the other parity. The
+ * win value of such a Tree is the one at its recorded depth, and the opposite at
+ * depths of the other parity, as the winner only depends on whose turn it is.
+ *
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 
 public class Game {
@@ -42,21 +75,116 @@ public class Game {
     private Tree<GameState> topRoot;
 
     /**
-     * Holds a list of the GameStates in a winning strategy for Player 2
+     * Holds the Trees of a line of play won by the winner, from the root down to
+     * a terminal state, rebuilt once the root is solved
      */
     private LinkedList<Tree<GameState>> winningPath;
 
+    /**
+     * Values found already computed, values computed, and states whose remaining
+     * children were skipped after a winning move, over all calls of determineVal()
+     */
+    private long cacheHits, cacheMisses, prunes;
+
+    /**
+     * Whether the current solve records its subtrees for the flight recorder, and
+     * the number of values a subtree must compute to be recorded. Smaller subtrees
+     * are too many to record and too quick to matter.
+     */
+    private boolean recording;
+    private static final int RECORDED_MISSES = 64;
+
+    /**
+     * Whether Trees store their parents. When they do not, the Trees of each layer
+     * are kept, and indexed by packed key the first time parents are asked for.
+     */
+    private final boolean keepParents;
+    private ArrayList<ArrayList<Tree<GameState>>> layers;
+    private PackedState codec;
+    private long[][] layerKeys;
+
+    /**
+     * Whether each decomposition has a single Tree. The Trees are then indexed by
+     * packed key, along with the parities of the numbers of moves reaching them.
+     */
+    private final boolean mergeStates;
+    private LongIntHashMap stateIndex;
+    private ArrayList<Tree<GameState>> stateTrees;
+    private byte[] parities;
+    public static final int EVEN = 1, ODD = 2;
+
+    /**
+     * States solved by solvePosition(), 1 if the player to move wins and 0 if they
+     * lose, keyed by packed state or by SparseState for games too large to pack,
+     * and the number of states whose children were generated
+     */
+    private LongIntHashMap positionValues;
+    private HashMap<SparseState, Boolean> sparseValues;
+    private long positionsExpanded;
+
+    /**
+     * Budgets of solve(), 0 when unlimited: wall-clock time, Trees built and
+     * solved, and heap in use. cancel() may be called from any thread.
+     */
+    private long timeBudgetMillis, nodeBudget, memoryBudget;
+    private volatile boolean cancelled;
+
+    /**
+     * Progress checked against the budgets while solve() runs: the deadline, the
+     * Trees built and solved by the current call, the number of Trees built by
+     * depth, the number of layers expanded, and whether the build is finished
+     */
+    private boolean budgeted;
+    private long deadline, nodesVisited;
+    private ArrayList<Integer> layerWidths;
+    private int layersCompleted;
+    private boolean built;
+
+    /**
+     * Trees visited between two checks of the clock and of the heap
+     */
+    private static final int TIME_CHECK = 256, MEMORY_CHECK = 4096;
+
     /**
      * Constructor for a Game on n 1s
      *
      * @param n - The number of 1s in the starting decomposition of the fibonacci game
      */
     public Game(int n) {
+	this(n, true);
+    }
+
+    /**
+     * Constructor for a Game on n 1s, whose Trees may not store their parents
+     *
+     * @param n - The number of 1s in the starting decomposition of the fibonacci game
+     * @param keepParents - Whether Trees store their parents, rather than having
+     *                      them computed by getParents()
+     */
+    public Game(int n, boolean keepParents) {
+	this(n, keepParents, false);
+    }
+
+    /**
+     * Constructor for a Game on n 1s, which may keep a single Tree per
+     * decomposition
+     *
+     * @param n - The number of 1s in the starting decomposition of the fibonacci game
+     * @param keepParents - Whether Trees store their parents, rather than having
+     *                      them computed by getParents()
+     * @param mergeStates - Whether states reached after different numbers of moves
+     *                      share their Tree
+     */
+    public Game(int n, boolean keepParents, boolean mergeStates) {
 
 	// Initialize all global values
 	this.n = n;
-	this.initGameState = new GameState(n);
-	this.topRoot = new Tree<GameState>(initGameState);
+	this.keepParents = keepParents;
+	this.mergeStates = mergeStates;
+
+	// The states of a Game are interned in a pool dropped along with the Game
+	this.initGameState = new GameState(new SparseState(n), 0, new PositionPool());
+	this.topRoot = new Tree<GameState>(initGameState, keepParents);
 	this.winningPath = new LinkedList<Tree<GameState>>();
     }
 
@@ -90,6 +218,45 @@ public class Game {
      */
     public LinkedList<Tree<GameState>> getWinningPath() { return this.winningPath; }
 
+    /**
+     * Getter for the number of states whose moves were generated by
+     * solvePosition() and winningMove(), and the number of states they solved
+     */
+    public long getPositionsExpanded() { return this.positionsExpanded; }
+    public int getPositionsSolved() {
+	return positionValues != null ? positionValues.size()
+	    : sparseValues != null ? sparseValues.size() : 0;
+    }
+
+    /**
+     * Getter for the parities of the numbers of moves reaching a Tree, EVEN, ODD
+     * or both. Without merged states, this is the parity of its depth.
+     */
+    public int getDepthParities(Tree<GameState> tree) {
+	if(!mergeStates) {
+	    return 1 << (tree.getState().getDepth() % 2);
+	}
+	return parities[stateIndex.get(codec.encode(tree.getState()))];
+    }
+
+    /**
+     * Getters and setters for the budgets of solve(): the wall-clock time in
+     * milliseconds, the number of Trees built and solved, and the bytes of heap in
+     * use, garbage included. 0 leaves a budget unlimited.
+     */
+    public long getTimeBudget() { return this.timeBudgetMillis; }
+    public void setTimeBudget(long millis) { this.timeBudgetMillis = millis; }
+    public long getNodeBudget() { return this.nodeBudget; }
+    public void setNodeBudget(long nodes) { this.nodeBudget = nodes; }
+    public long getMemoryBudget() { return this.memoryBudget; }
+    public void setMemoryBudget(long bytes) { this.memoryBudget = bytes; }
+
+    /**
+     * Asks solve() to stop at the next Tree it visits. May be called from any
+     * thread, before or during solve(), and holds for every later call.
+     */
+    public void cancel() { this.cancelled = true; }
+
 
 
     //==================================
@@ -102,6 +269,298 @@ public class Game {
      * @return - 1 for a Player 1 victory, -1 for a Player 2 victory
      */
     public int playGame() {
+	buildGame();
+
+        // Print interesting information
+        
+        System.out.println("All games played after " + (layerWidths.size() - 1) + " moves.");
+        System.out.println("Explored " + countBuilt() + " nodes.");
+	int winner = determineVal(this.topRoot);
+        System.out.println("Winner is: " + winner);
+        
+	//System.out.println("Finding value");
+        return winner;
+    }
+
+
+    /**
+     * Builds and solves the Game within the budgets set, stopping cleanly when one
+     * runs out or when cancel() is called. The build keeps every layer up to the
+     * one it stopped in, and the solve keeps the values it proved, so a Game whose
+     * build finished can be solved again with larger budgets and resumes where it
+     * stopped. Once the winner is proven the winning path is rebuilt from the
+     * root, whole even after a resumed solve. Unlike playGame(), nothing is
+     * printed.
+     *
+     * @return - The proven winner, or the layers and Tree counts known when a
+     * budget ran out, with the winner only if the children of the root prove it
+     * @throws IllegalStateException if an earlier call stopped during the build
+     */
+    public SolveResult solve() {
+	if(!built && layerWidths != null) {
+	    throw new IllegalStateException("The build of game " + n + " was stopped, construct a "
+					    + "new Game to solve it");
+	}
+	long start = System.nanoTime();
+	long solvedBefore = cacheMisses;
+	deadline = timeBudgetMillis > 0 ? start + timeBudgetMillis * 1000000 : Long.MAX_VALUE;
+	nodesVisited = 0;
+	budgeted = true;
+	Stop stop = null;
+	try {
+	    if(!built) {
+		buildGame();
+	    }
+	    determineVal(this.topRoot);
+	} catch(BudgetExceeded e) {
+	    stop = e.reason;
+
+	    // The path of a stopped solve misses the states it had not finished
+	    winningPath.clear();
+	} finally {
+	    budgeted = false;
+	}
+
+	int value = topRoot.getState().getVal();
+	if(value == 0) {
+	    value = valueFromChildren(topRoot);
+	}
+	boolean proven = value != 0;
+	int known = Math.min(layerWidths.size(), built ? layerWidths.size() : layersCompleted + 1);
+	int[] widths = new int[known];
+	for(int d = 0; d < known; d++) {
+	    widths[d] = layerWidths.get(d);
+	}
+	return new SolveResult(n, proven, value, stop, layersCompleted, widths, countBuilt(),
+			       cacheMisses - solvedBefore, (System.nanoTime() - start) / 1000000);
+    }
+
+
+    /**
+     * Win value of a Tree known from the values proven for its children: a win
+     * for the player to move if one child is proven won by them, a loss if every
+     * child is proven lost, and 0 otherwise
+     *
+     * @param tree - A Tree at its own depth, not yet solved
+     */
+    private int valueFromChildren(Tree<GameState> tree) {
+	int depth = tree.getState().getDepth();
+	int mover = depth % 2 == 0 ? 1 : -1;
+	ArrayList<Tree<GameState>> children = tree.getChildren();
+	if(children.size() == 0 || (!built && depth >= layersCompleted)) {
+	    return 0;
+	}
+	int lost = 0;
+	for(Tree<GameState> child: children) {
+	    int value = valueAt(child, child.getState().getVal(), depth + 1);
+	    if(value == mover) {
+		return mover;
+	    }
+	    if(value == -mover) {
+		lost++;
+	    }
+	}
+	return lost == children.size() ? -mover : 0;
+    }
+
+    /**
+     * Rebuilds the winning path from the root of a solved Game: the winner's
+     * first winning move at each of its turns, and the other player's first move
+     * at theirs, down to a terminal state. Children whose values were never
+     * needed are solved on the way, so the path is the same however many calls of
+     * solve() proved the root.
+     */
+    private void rebuildWinningPath() {
+	winningPath.clear();
+	int winner = topRoot.getState().getVal();
+	Tree<GameState> tree = topRoot;
+	for(int depth = 0; ; depth++) {
+	    winningPath.addLast(tree);
+	    ArrayList<Tree<GameState>> children = tree.getChildren();
+	    if(children.size() == 0) {
+		return;
+	    }
+	    Tree<GameState> next = children.get(0);
+	    if((depth % 2 == 0) == (winner == 1)) {
+		for(Tree<GameState> child: children) {
+		    if(valueAt(child, solveTree(child), depth + 1) == winner) {
+			next = child;
+			break;
+		    }
+		}
+	    }
+	    tree = next;
+	}
+    }
+
+
+    /**
+     * Determines if the winning path is a line of play won by the winner of the
+     * Game: it starts at the root, each Tree is a child of the one before, it
+     * ends at a terminal state, and the winner wins from every Tree of it once
+     * reached after as many moves as its place on the path
+     *
+     * @return true if the winning path is valid, false if it is not or the Game
+     * is not solved
+     */
+    public boolean hasValidWinningPath() {
+	int winner = topRoot.getState().getVal();
+	if(winner == 0 || winningPath.size() == 0 || winningPath.getFirst() != topRoot
+	   || winningPath.getLast().getChildren().size() != 0) {
+	    return false;
+	}
+	int depth = 0;
+	Tree<GameState> previous = null;
+	for(Tree<GameState> tree: winningPath) {
+	    if((previous != null && !previous.getChildren().contains(tree))
+	       || valueAt(tree, tree.getState().getVal(), depth) != winner) {
+		return false;
+	    }
+	    previous = tree;
+	    depth++;
+	}
+	return true;
+    }
+
+
+    /**
+     * Counts a Tree visited by solve() against the budgets, stopping it by throwing
+     * BudgetExceeded when one is exhausted. Outside solve() nothing is checked.
+     */
+    private void checkBudget() {
+	if(!budgeted) {
+	    return;
+	}
+	nodesVisited++;
+	if(cancelled) {
+	    throw new BudgetExceeded(Stop.CANCELLED);
+	}
+	if(nodeBudget > 0 && nodesVisited > nodeBudget) {
+	    throw new BudgetExceeded(Stop.NODES);
+	}
+	if(nodesVisited % TIME_CHECK == 0 && System.nanoTime() > deadline) {
+	    throw new BudgetExceeded(Stop.TIME);
+	}
+	if(memoryBudget > 0 && nodesVisited % MEMORY_CHECK == 0) {
+	    Runtime runtime = Runtime.getRuntime();
+	    if(runtime.totalMemory() - runtime.freeMemory() > memoryBudget) {
+		throw new BudgetExceeded(Stop.MEMORY);
+	    }
+	}
+    }
+
+
+    /**
+     * Number of Trees built so far
+     */
+    private long countBuilt() {
+	long count = 0;
+	for(int width: layerWidths) {
+	    count += width;
+	}
+	return count;
+    }
+
+
+    /**
+     * Why solve() stopped before proving the winner
+     */
+    public enum Stop { TIME, NODES, MEMORY, CANCELLED }
+
+    /**
+     * Unwinds the build or the solve to solve() once a budget is exhausted
+     */
+    private static class BudgetExceeded extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	final Stop reason;
+
+	BudgetExceeded(Stop reason) {
+	    super(reason.toString(), null, false, false);
+	    this.reason = reason;
+	}
+    }
+
+    /**
+     * Outcome of solve(): the winner if proven, otherwise what the Game learnt
+     * before a budget ran out
+     */
+    public static class SolveResult {
+
+	private final int n, value, layersCompleted;
+	private final boolean proven;
+	private final Stop stop;
+	private final int[] layerWidths;
+	private final long treesBuilt, treesSolved, millis;
+
+	SolveResult(int n, boolean proven, int value, Stop stop, int layersCompleted,
+		    int[] layerWidths, long treesBuilt, long treesSolved, long millis) {
+	    this.n = n;
+	    this.proven = proven;
+	    this.value = value;
+	    this.stop = stop;
+	    this.layersCompleted = layersCompleted;
+	    this.layerWidths = layerWidths;
+	    this.treesBuilt = treesBuilt;
+	    this.treesSolved = treesSolved;
+	    this.millis = millis;
+	}
+
+	/**
+	 * Getters for the game solved, and whether its winner is proven
+	 */
+	public int getN() { return this.n; }
+	public boolean isProven() { return this.proven; }
+
+	/**
+	 * The winner, 1 for player 1 and -1 for player 2, or 0 if it is not proven
+	 */
+	public int getValue() { return this.value; }
+
+	/**
+	 * The budget that stopped solve(), or null if it ran to the end
+	 */
+	public Stop getStop() { return this.stop; }
+
+	/**
+	 * Number of layers whose Trees all had their children built. The layers
+	 * with all their Trees known are these and, if the build stopped, the
+	 * layer it stopped in.
+	 */
+	public int getLayersCompleted() { return this.layersCompleted; }
+
+	/**
+	 * Copy of the exact number of Trees of each layer whose Trees are all known
+	 */
+	public int[] getLayerWidths() { return Arrays.copyOf(layerWidths, layerWidths.length); }
+
+	/**
+	 * Getters for the Trees built in all, the Trees solved by this call, and
+	 * the time the call took
+	 */
+	public long getTreesBuilt() { return this.treesBuilt; }
+	public long getTreesSolved() { return this.treesSolved; }
+	public long getMillis() { return this.millis; }
+
+	@Override
+	public String toString() {
+	    return "game " + n + ": " + (proven ? "winner " + value : "winner unknown")
+		+ (stop == null ? "" : ", stopped by " + stop) + ", " + layersCompleted
+		+ " layers expanded, " + treesBuilt + " Trees built, " + treesSolved
+		+ " solved in " + millis + " ms";
+	}
+    }
+
+
+    /**
+     * Builds the Trees of every state below the root, layer by layer. Under the
+     * budgets of solve(), the build may stop between two Trees, leaving the layers
+     * up to the one being expanded with all their Trees.
+     */
+    private void buildGame() {
+	layerWidths = new ArrayList<Integer>();
+	layerWidths.add(1);
 
 	// Maintain the list of GameState Trees to explore
         LinkedList<Tree<GameState>> toExplore = new LinkedList<Tree<GameState>>();
@@ -111,34 +570,78 @@ public class Game {
 	// curLayer have the same depth
 	ArrayList<Tree<GameState>> curLayer = new ArrayList<Tree<GameState>>();
 
+	// Index the states of all layers when merging them
+	if(mergeStates) {
+	    codec = new PackedState(n);
+	    stateIndex = new LongIntHashMap(1024);
+	    stateTrees = new ArrayList<Tree<GameState>>();
+	    stateIndex.putIfAbsent(codec.encode(initGameState), 0);
+	    stateTrees.add(this.topRoot);
+	}
+
+	// Without parents, keep every layer to look parents up in
+	if(!keepParents && !mergeStates) {
+	    layers = new ArrayList<ArrayList<Tree<GameState>>>();
+	    layers.add(new ArrayList<Tree<GameState>>());
+	    layers.get(0).add(this.topRoot);
+	    layers.add(curLayer);
+	    layerKeys = null;
+	}
+
 	// Keep track of important statistics
         int curDepth = 0;
-        int numNodes = 1;
         int numEnds = 0;
 
+	// Flight recorder event of the layer being expanded, and what it counts
+	GameEvents.LayerBuilt layerEvent = startLayer(0);
+	int layerWidth = 0;
+	long layerChildren = 0, layerDedupHits = 0;
+
 	// Loop through all the GameState Trees to explore
         while(toExplore.size() > 0) {
 
             // Get the current state and tree root
             Tree<GameState> root = toExplore.poll();
 	    GameState state = root.getState();
+	    checkBudget();
 
             // Update the max number of moves played if necessary and update the
 	    // current layer of trees
             if(state.getDepth() > curDepth) {
                 curDepth = state.getDepth();
+		layersCompleted = curDepth;
 		curLayer = new ArrayList<Tree<GameState>>();
+		if(!keepParents && !mergeStates) {
+		    layers.add(curLayer);
+		}
+		finishLayer(layerEvent, layerWidth, layerChildren, layerDedupHits);
+		layerEvent = startLayer(curDepth);
+		layerWidth = 0;
+		layerChildren = 0;
+		layerDedupHits = 0;
             }
+	    layerWidth++;
 
             // Check if state is terminal and update queue
             if(!state.isEndState()) {
 
 		// Generate all possible subsequent states from the current state
                 ArrayList<GameState> children = state.genChildren();
+		layerChildren += children.size();
 
 		// Loop through all subsequent states
                 for(GameState child: children) {
 
+		    // When merging, the state may have been reached in any layer
+		    if(mergeStates) {
+			int index = stateIndex.putIfAbsent(codec.encode(child), stateTrees.size());
+			if(index >= 0) {
+			    stateTrees.get(index).addParent(root);
+			    layerDedupHits++;
+			    continue;
+			}
+		    }
+
 		    // Determine if state has been added to the current layer of 
 		    // Trees  before
                     boolean isNew = true;
@@ -150,6 +653,7 @@ public class Game {
 			    // update its parents list
                             isNew = false;
 			    t.addParent(root);
+			    layerDedupHits++;
 
                         }
                     }
@@ -159,14 +663,21 @@ public class Game {
                     if(isNew) {
 
 			// Wrap the GameState in a Tree and add child to current state
-			Tree<GameState> newChild = new Tree<GameState>(child);
+			Tree<GameState> newChild = new Tree<GameState>(child, keepParents);
 
 			// Increase the number of explored nodes
-                        numNodes++;
+			if(child.getDepth() == layerWidths.size()) {
+			    layerWidths.add(0);
+			}
+			layerWidths.set(child.getDepth(), layerWidths.get(child.getDepth()) + 1);
 
 			// Add newChild to all appropriate lists
                         toExplore.add(newChild);
-			curLayer.add(newChild);
+			if(mergeStates) {
+			    stateTrees.add(newChild);
+			} else {
+			    curLayer.add(newChild);
+			}
 
 			// Add newChild as a child to the root
 			root.addChild(newChild);
@@ -179,32 +690,89 @@ public class Game {
             }
 
         }
+	finishLayer(layerEvent, layerWidth, layerChildren, layerDedupHits);
 
-        // Print interesting information
-        
-        System.out.println("All games played after " + curDepth + " moves.");
-        System.out.println("Explored " + numNodes + " nodes.");
-        System.out.println("Winner is: " + determineVal(this.topRoot));
-        
-	//System.out.println("Finding value");
-        return determineVal(this.topRoot);
+	if(mergeStates) {
+	    recordParities();
+	}
+
+	// The layer after the last one is empty
+	if(!keepParents && !mergeStates) {
+	    while(layers.get(layers.size() - 1).isEmpty()) {
+		layers.remove(layers.size() - 1);
+	    }
+	}
+	layersCompleted = layerWidths.size();
+	built = true;
     }
 
     
     /**
      * Determines the winner of the Game recursively, starting with the initial
-     * GameState.
+     * GameState. Once the root is solved the winning path is rebuilt from it.
      *
      * @return - 1 is player 1 wins, -1 if player 2 wins
      */
     public int determineVal(Tree<GameState> tree) {
+	recording = GameEvents.recorderStarted();
+	int value = solveTree(tree);
+	if(tree == this.topRoot) {
+	    rebuildWinningPath();
+	}
+	return value;
+    }
+
+    /**
+     * Solves a subtree whose value is not known, recording the solve for the
+     * flight recorder when it computes enough values and lasts longer than the
+     * threshold of the recording settings
+     */
+    private int solveRecorded(Tree<GameState> tree) {
+
+	// Count what the subtree reuses and skips, for the flight recorder. Every
+	// subtree below is recorded too, as the recursion comes back here.
+	GameEvents.SubtreeSolved event = new GameEvents.SubtreeSolved();
+	event.begin();
+	long hits = this.cacheHits, misses = this.cacheMisses - 1, pruned = this.prunes;
+
+	int value = solveChildren(tree);
+
+	event.end();
+	if(this.cacheMisses - misses >= RECORDED_MISSES && event.shouldCommit()) {
+	    event.n = this.n;
+	    event.depth = tree.getState().getDepth();
+	    event.value = value;
+	    event.cacheHits = this.cacheHits - hits;
+	    event.cacheMisses = this.cacheMisses - misses;
+	    event.prunes = this.prunes - pruned;
+	    event.commit();
+	}
+	return value;
+    }
+
+    /**
+     * Computes the value of a tree from the values of its children, which are
+     * determined recursively when not yet known
+     */
+    private int solveTree(Tree<GameState> tree) {
 
 	// Get the GameState of the tree 
 	GameState state = tree.getState();
 
 	if(state.getVal() != 0) {
+	    cacheHits++;
 	    return state.getVal();
 	}
+	cacheMisses++;
+	checkBudget();
+	return recording ? solveRecorded(tree) : solveChildren(tree);
+    }
+
+    /**
+     * Computes the value of a tree not yet solved from the values of its children
+     */
+    private int solveChildren(Tree<GameState> tree) {
+	GameState state = tree.getState();
 
 	// Get all the children of the GameState
         ArrayList<Tree<GameState>> children = tree.getChildren();
@@ -223,11 +791,6 @@ public class Game {
 
             } else {
 		// Player 2 wins if an even number of moves have been played.
-		// Update values and also the winning path 
-		if(this.winningPath.size() == 0 
-		   || this.winningPath.peek().getParents().contains(tree)) {
-		    this.winningPath.addFirst(tree);
-		}
                 state.setVal(-1);
                 return -1;
 
@@ -242,7 +805,8 @@ public class Game {
 		// Check assigned values before doigna recursive call, for speed
                 for(Tree<GameState> child: children) {
 
-		    if(child.getState().getVal() == 1) {
+		    if(valueAt(child, child.getState().getVal(), state.getDepth() + 1) == 1) {
+			prunes++;
 			state.setVal(1);
 			return 1;
 		    }
@@ -250,17 +814,13 @@ public class Game {
 
 		// Get the maximum over all possible subsequent GameStates 
                 for(Tree<GameState> child: children) {
-                    if(determineVal(child) == 1) {
+                    if(valueAt(child, solveTree(child), state.getDepth() + 1) == 1) {
+			prunes++;
 			state.setVal(1);
 			return 1;
                     }
                 }
 
-		// Update values and also the winning path 
-		if(this.winningPath.size() == 0 
-		   || this.winningPath.peek().getParents().contains(tree)) {
-		    this.winningPath.addFirst(tree);
-		}
                 state.setVal(-1);
                 return -1;
 
@@ -271,13 +831,9 @@ public class Game {
 		// Check assigned values before doigna recursive call, for speed
                 for(Tree<GameState> child: children) {
 
-		    if(child.getState().getVal() == -1) {
+		    if(valueAt(child, child.getState().getVal(), state.getDepth() + 1) == -1) {
+			prunes++;
 
-			// Update values and also the winning path 
-			if(this.winningPath.size() == 0 
-			   || this.winningPath.peek().getParents().contains(tree)) {
-				this.winningPath.addFirst(tree);
-			}
 			state.setVal(-1);
 			return -1;
 		    }
@@ -285,13 +841,9 @@ public class Game {
 
 		// Get the minimum over all possible subsequent GameStates 
                 for(Tree<GameState> child: children) {
-                    if(determineVal(child) == -1) {
+                    if(valueAt(child, solveTree(child), state.getDepth() + 1) == -1) {
+			prunes++;
 
-			// Update values and also the winning path 
-			if(this.winningPath.size() == 0 
-			   || this.winningPath.peek().getParents().contains(tree)) {
-				this.winningPath.addFirst(tree);
-			}
 			state.setVal(-1);
 			return -1;
                     }
@@ -305,6 +857,303 @@ public class Game {
     }
 
 
+    /**
+     * Win value of a child once reached after the passed number of moves. A merged
+     * Tree records its value at the smallest depth reaching it, which is the
+     * opposite of its value at depths of the other parity.
+     *
+     * @param child - A Tree of the Game
+     * @param value - The win value recorded for the child, or 0 if not yet known
+     * @param depth - The number of moves played to reach the child
+     */
+    private int valueAt(Tree<GameState> child, int value, int depth) {
+	if((child.getState().getDepth() - depth) % 2 == 0) {
+	    return value;
+	}
+	return -value;
+    }
+
+    /**
+     * Records the parities of the numbers of moves reaching every merged Tree,
+     * visiting each Tree once all the Trees leading to it are visited
+     */
+    private void recordParities() {
+	int count = stateTrees.size();
+	int[] inDegree = new int[count];
+	int[][] childIndex = new int[count][];
+	for(int t = 0; t < count; t++) {
+	    ArrayList<Tree<GameState>> children = stateTrees.get(t).getChildren();
+	    childIndex[t] = new int[children.size()];
+	    for(int c = 0; c < children.size(); c++) {
+		childIndex[t][c] = stateIndex.get(codec.encode(children.get(c).getState()));
+		inDegree[childIndex[t][c]]++;
+	    }
+	}
+
+	parities = new byte[count];
+	parities[0] = EVEN;
+	LinkedList<Integer> ready = new LinkedList<Integer>();
+	ready.add(0);
+	while(ready.size() > 0) {
+	    int t = ready.poll();
+	    byte flipped = (byte) (((parities[t] & EVEN) << 1) | ((parities[t] & ODD) >> 1));
+	    for(int child: childIndex[t]) {
+		parities[child] |= flipped;
+		if(--inDegree[child] == 0) {
+		    ready.add(child);
+		}
+	    }
+	}
+    }
+
+
+    //==================================
+    // POSITION SOLVING METHODS
+    //==================================
+
+    /**
+     * Determines the winner from any position of the Game, without building the
+     * game tree, and records it as the value of the position
+     *
+     * @param position - A state of the nth game, whose depth tells whose turn it is
+     * @return 1 if player 1 wins, -1 if player 2 wins
+     */
+    public int solvePosition(GameState position) {
+	int mover = position.getDepth() % 2 == 0 ? 1 : -1;
+	int value = moverWins(position) ? mover : -mover;
+	position.setVal(value);
+	return value;
+    }
+
+    /**
+     * Finds a move from a position that keeps a win for the player to move
+     *
+     * @param position - A state of the nth game, whose depth tells whose turn it is
+     * @return The state after the winning move, with its value, or null if the
+     *         position is terminal or lost for the player to move
+     */
+    public GameState winningMove(GameState position) {
+	if(!moverWins(position)) {
+	    return null;
+	}
+	int value = position.getDepth() % 2 == 0 ? 1 : -1;
+	if(sparseValues != null) {
+	    for(SparseState child: SparseState.of(position).children()) {
+		if(sparseValues.get(child) == Boolean.FALSE) {
+		    GameState next = child.toGameState(position.getDepth() + 1, position.getPool());
+		    next.setVal(value);
+		    return next;
+		}
+	    }
+	} else {
+	    long key = codec.encode(position);
+	    long[] children = new long[codec.maxChildren()];
+	    int count = codec.children(key, children);
+	    for(int c = 0; c < count; c++) {
+		if(positionValues.get(children[c]) == 0) {
+		    GameState next = codec.decode(children[c], position.getDepth() + 1);
+		    next.setVal(value);
+		    return next;
+		}
+	    }
+	}
+	throw new IllegalStateException("No winning move recorded for " + position);
+    }
+
+    /**
+     * Determines if the player to move from a position wins. Positions are packed
+     * when the states of the Game fit in a long, and kept as SparseStates
+     * otherwise. The table of solved states is created on first use.
+     */
+    private boolean moverWins(GameState position) {
+	SparseState sparse = SparseState.of(position);
+	if(sparse.getTotal() != n) {
+	    throw new IllegalArgumentException("Position of game " + sparse.getTotal()
+					       + " passed to game " + n);
+	}
+	if(positionValues == null && sparseValues == null) {
+	    try {
+		if(codec == null) {
+		    codec = new PackedState(n);
+		}
+		positionValues = new LongIntHashMap(1024);
+	    } catch(IllegalArgumentException tooLarge) {
+		sparseValues = new HashMap<SparseState, Boolean>();
+	    }
+	}
+	return sparseValues != null ? moverWins(sparse) : moverWins(codec.encode(position));
+    }
+
+    /**
+     * Determines if the player to move from a packed state wins, searching its
+     * children until a losing one is found
+     */
+    private boolean moverWins(long key) {
+	int known = positionValues.get(key);
+	if(known >= 0) {
+	    return known == 1;
+	}
+	positionsExpanded++;
+	long[] children = new long[codec.maxChildren()];
+	int count = codec.children(key, children);
+
+	// Check solved children before doing recursive calls, for speed
+	boolean wins = false;
+	for(int c = 0; c < count && !wins; c++) {
+	    wins = positionValues.get(children[c]) == 0;
+	}
+	for(int c = 0; c < count && !wins; c++) {
+	    wins = !moverWins(children[c]);
+	}
+
+	// A terminal state is lost for the player to move
+	positionValues.putIfAbsent(key, wins ? 1 : 0);
+	return wins;
+    }
+
+    /**
+     * Determines if the player to move from a sparse state wins, searching its
+     * children until a losing one is found
+     */
+    private boolean moverWins(SparseState state) {
+	Boolean known = sparseValues.get(state);
+	if(known != null) {
+	    return known;
+	}
+	positionsExpanded++;
+	ArrayList<SparseState> children = state.children();
+
+	// Check solved children before doing recursive calls, for speed
+	boolean wins = false;
+	for(int c = 0; c < children.size() && !wins; c++) {
+	    wins = sparseValues.get(children.get(c)) == Boolean.FALSE;
+	}
+	for(int c = 0; c < children.size() && !wins; c++) {
+	    wins = !moverWins(children.get(c));
+	}
+
+	// A terminal state is lost for the player to move
+	sparseValues.put(state, wins);
+	return wins;
+    }
+
+
+    //==================================
+    // PARENT METHODS
+    //==================================
+
+    /**
+     * Retrieves the parents of a Tree of the Game, from the Tree itself if parents
+     * are kept, and otherwise by undoing moves from its state and looking the
+     * resulting states up in the layer above
+     *
+     * @param tree - A Tree of the Game, after playGame()
+     * @return The Trees one move leads from to tree
+     */
+    public ArrayList<Tree<GameState>> getParents(Tree<GameState> tree) {
+	if(keepParents) {
+	    return tree.getParents();
+	}
+	if(mergeStates) {
+	    return mergedParents(tree);
+	}
+	indexLayers();
+
+	ArrayList<Tree<GameState>> parents = new ArrayList<Tree<GameState>>();
+	int depth = tree.getState().getDepth();
+	if(depth == 0) {
+	    return parents;
+	}
+	long[] keys = layerKeys[depth - 1];
+	ArrayList<Tree<GameState>> above = layers.get(depth - 1);
+	long[] candidates = new long[codec.maxChildren()];
+	int count = codec.parents(codec.encode(tree.getState()), candidates);
+	for(int c = 0; c < count; c++) {
+	    int index = Arrays.binarySearch(keys, candidates[c]);
+	    if(index >= 0) {
+		parents.add(above.get(index));
+	    }
+	}
+	return parents;
+    }
+
+    /**
+     * Looks the states one move leads from to a merged Tree up in the index of all
+     * states
+     */
+    private ArrayList<Tree<GameState>> mergedParents(Tree<GameState> tree) {
+	ArrayList<Tree<GameState>> parents = new ArrayList<Tree<GameState>>();
+	long[] candidates = new long[codec.maxChildren()];
+	int count = codec.parents(codec.encode(tree.getState()), candidates);
+	for(int c = 0; c < count; c++) {
+	    int index = stateIndex.get(candidates[c]);
+	    if(index >= 0 && !parents.contains(stateTrees.get(index))) {
+		parents.add(stateTrees.get(index));
+	    }
+	}
+	return parents;
+    }
+
+    /**
+     * Sorts the Trees of each layer by packed key, so that states can be looked up
+     * by binary search
+     */
+    private void indexLayers() {
+	if(layerKeys != null) {
+	    return;
+	}
+	codec = new PackedState(n);
+	layerKeys = new long[layers.size()][];
+	for(int d = 0; d < layers.size(); d++) {
+	    ArrayList<Tree<GameState>> layer = layers.get(d);
+	    layer.sort((a, b) -> Long.compare(codec.encode(a.getState()), codec.encode(b.getState())));
+	    layerKeys[d] = new long[layer.size()];
+	    for(int i = 0; i < layer.size(); i++) {
+		layerKeys[d][i] = codec.encode(layer.get(i).getState());
+	    }
+	}
+    }
+
+
+    //==================================
+    // FLIGHT RECORDER METHODS
+    //==================================
+
+    /**
+     * Starts the event of the expansion of a layer
+     *
+     * @return The event, or null when the flight recorder is not started
+     */
+    private GameEvents.LayerBuilt startLayer(int depth) {
+	if(!GameEvents.recorderStarted()) {
+	    return null;
+	}
+	GameEvents.LayerBuilt event = new GameEvents.LayerBuilt();
+	event.begin();
+	event.depth = depth;
+	return event;
+    }
+
+    /**
+     * Ends the event of the expansion of a layer, recording it with the counts of
+     * the layer if enabled
+     */
+    private void finishLayer(GameEvents.LayerBuilt event, int width, long children, long dedupHits) {
+	if(event == null) {
+	    return;
+	}
+	event.end();
+	if(event.shouldCommit()) {
+	    event.engine = "Game";
+	    event.n = this.n;
+	    event.width = width;
+	    event.children = children;
+	    event.dedupHits = dedupHits;
+	    event.commit();
+	}
+    }
+
+
     //==================================
     // MAIN METHOD
     //==================================
@@ -417,9 +1266,392 @@ public class Game {
 	    
 	}
 	*/
-	
-	    
-	
+
+
+	//============================================
+	// PARENT STORAGE BENCHMARK
+	//============================================
+
+	int maxN = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+	benchmarkParents(maxN);
+
+
+	//============================================
+	// MERGED STATES BENCHMARK
+	//============================================
+
+	checkWinningPaths(Math.min(maxN, 25));
+	for(int gameNum = 20; gameNum <= maxN; gameNum += 10) {
+	    benchmarkMerging(gameNum);
+	}
+
+
+	//============================================
+	// POSITION SOLVING BENCHMARK
+	//============================================
+
+	checkPositions(Math.min(maxN, 30));
+	benchmarkPositions(Math.max(maxN, 70));
+
+
+	//============================================
+	// BUDGETED SOLVING BENCHMARK
+	//============================================
+
+	checkBudgets(Math.min(maxN, 30));
+	benchmarkBudgets(Math.max(maxN + 40, 80));
+    }
+
+
+    /**
+     * Checks solve() on the games up to n: unbudgeted it must prove the winner of
+     * GameGraph, stopped in the build it must give the exact widths of the layers
+     * it reports, and stopped in the solve it must prove the same winner and
+     * winning path once called again without a budget
+     */
+    private static void checkBudgets(int maxN) {
+	for(int gameNum = 1; gameNum <= maxN; gameNum++) {
+	    int winner = GameGraph.build(gameNum).value(0);
+	    Game unbudgeted = new Game(gameNum);
+	    SolveResult full = unbudgeted.solve();
+	    if(!full.isProven() || full.getValue() != winner || full.getStop() != null) {
+		throw new IllegalStateException("Unbudgeted solve of " + gameNum + " wrong: " + full);
+	    }
+	    int[] widths = full.getLayerWidths();
+
+	    // Stopped halfway through the build
+	    Game game = new Game(gameNum);
+	    game.setNodeBudget(Math.max(1, full.getTreesBuilt() / 2));
+	    SolveResult partial = game.solve();
+	    int[] known = partial.getLayerWidths();
+	    if(gameNum > 2 && (partial.isProven() || partial.getValue() != 0
+			       || partial.getStop() != Stop.NODES
+			       || known.length > widths.length
+			       || !Arrays.equals(known, Arrays.copyOf(widths, known.length)))) {
+		throw new IllegalStateException("Stopped build of " + gameNum + " wrong: " + partial);
+	    }
+
+	    // Stopped halfway through the solve, then resumed
+	    game = new Game(gameNum);
+	    game.setNodeBudget(full.getTreesBuilt() + full.getTreesSolved() / 2);
+	    SolveResult stopped = game.solve();
+	    if(!stopped.isProven() && stopped.getValue() != 0) {
+		throw new IllegalStateException("Stopped solve of " + gameNum + " guessed: " + stopped);
+	    }
+	    game.setNodeBudget(0);
+	    SolveResult resumed = game.solve();
+	    if(!resumed.isProven() || resumed.getValue() != winner) {
+		throw new IllegalStateException("Resumed solve of " + gameNum + " wrong: " + resumed);
+	    }
+	    checkPath(unbudgeted, game);
+	}
+	System.out.println("Budgeted solves of every game up to " + maxN + " agree with GameGraph");
+    }
+
+    /**
+     * Checks that a resumed Game has the winning path of an unbudgeted one: the
+     * same states from the root down to a terminal state, each a move from the
+     * one before
+     */
+    private static void checkPath(Game unbudgeted, Game resumed) {
+	LinkedList<Tree<GameState>> expected = unbudgeted.getWinningPath();
+	LinkedList<Tree<GameState>> path = resumed.getWinningPath();
+	boolean same = path.size() == expected.size() && path.getFirst() == resumed.getRoot()
+	    && path.getLast().getChildren().size() == 0;
+	for(int i = 0; same && i < path.size(); i++) {
+	    same = !path.get(i).getState().isDifferent(expected.get(i).getState())
+		&& (i == 0 || path.get(i - 1).getChildren().contains(path.get(i)));
+	}
+	if(!same) {
+	    throw new IllegalStateException("Resumed winning path of " + resumed.n + " has "
+					    + path.size() + " states, expected " + expected.size());
+	}
+    }
+
+    /**
+     * Solves the nth game, too large to build quickly, under a time budget, a
+     * memory budget, and a cancellation from another thread, reporting what each
+     * partial result knows and how soon the Game stopped
+     */
+    private static void benchmarkBudgets(int n) {
+	Game game = new Game(n);
+	game.setTimeBudget(200);
+	SolveResult result = game.solve();
+	System.out.println("200 ms budget:  " + result + ", layer widths "
+			   + Arrays.toString(result.getLayerWidths()));
+	game = null;
+
+	game = new Game(n);
+	game.setMemoryBudget(usedHeap() + (8L << 20));
+	result = game.solve();
+	System.out.println("8 MB budget:    " + result);
+	game = null;
+
+	// Cancel from another thread, as a scheduler ending a time slot would
+	final Game cancelled = new Game(n);
+	final long[] cancelledAt = new long[1];
+	Thread scheduler = new Thread(() -> {
+		try {
+		    Thread.sleep(100);
+		} catch(InterruptedException e) {
+		    return;
+		}
+		cancelledAt[0] = System.nanoTime();
+		cancelled.cancel();
+	    });
+	scheduler.start();
+	result = cancelled.solve();
+	long stopMicros = (System.nanoTime() - cancelledAt[0]) / 1000;
+	System.out.println("Cancelled:      " + result + ", returned " + stopMicros
+			   + " us after cancel()");
+    }
+
+
+    /**
+     * Checks solvePosition() and winningMove() against every node of the graphs of
+     * the games up to n, each game sharing one Game between its positions
+     */
+    private static void checkPositions(int maxN) {
+	for(int gameNum = 1; gameNum <= maxN; gameNum++) {
+	    GameGraph graph = GameGraph.build(gameNum);
+	    Game game = new Game(gameNum);
+	    for(int id = graph.nodeCount() - 1; id >= 0; id--) {
+		GameState position = graph.toGameState(id);
+		int value = game.solvePosition(position);
+		GameState move = game.winningMove(position);
+		int mover = position.getDepth() % 2 == 0 ? 1 : -1;
+		if(value != graph.value(id) || (move == null) != (value != mover)
+		   || (move != null && !position.hasChild(move))) {
+		    throw new IllegalStateException("Position solved wrongly: " + position);
+		}
+	    }
+	}
+	System.out.println("Positions of every game up to " + maxN + " agree with GameGraph");
+    }
+
+    /**
+     * Plays random games of the nth game, and reports the time taken to solve the
+     * positions some moves from their end with a new Game, then again with the
+     * states the first call solved
+     */
+    private static void benchmarkPositions(int n) {
+	PackedState codec = new PackedState(n);
+	java.util.Random random = new java.util.Random(n);
+	int[] movesLeft = { 1, 5, 10, 20, 40, 80 };
+	long[] buffer = new long[codec.maxChildren()];
+
+	// The first round warms the search up and is not reported
+	for(int round = 0; round < 2; round++) {
+	    ArrayList<Long> line = new ArrayList<Long>();
+	    long key = codec.initialKey();
+	    line.add(key);
+	    while(!codec.isTerminal(key)) {
+		key = buffer[random.nextInt(codec.children(key, buffer))];
+		line.add(key);
+	    }
+
+	    for(int left: movesLeft) {
+		if(left >= line.size()) {
+		    continue;
+		}
+		int depth = line.size() - 1 - left;
+		GameState position = codec.decode(line.get(depth), depth);
+		Game game = new Game(n);
+		long start = System.nanoTime();
+		int value = game.solvePosition(position);
+		GameState move = game.winningMove(position);
+		long coldMicros = (System.nanoTime() - start) / 1000;
+		long expanded = game.getPositionsExpanded();
+		start = System.nanoTime();
+		game.solvePosition(position);
+		game.winningMove(position);
+		long warmNanos = System.nanoTime() - start;
+		if(round > 0) {
+		    System.out.println(String.format("Game on %d, %d moves from the end: winner %d, %s, "
+						     + "%d states expanded in %d us, %d ns cached", n,
+						     left, value, move == null ? "no winning move"
+						     : "winning move found", expanded, coldMicros,
+						     warmNanos));
+		}
+	    }
+	}
+    }
+
+
+    /**
+     * Builds and solves the nth game with one Tree per state and layer, and with one
+     * Tree per state, and reports the Trees and heap each Game holds. Both must
+     * find the same winner.
+     */
+    private static void benchmarkMerging(int n) {
+	// Collect what earlier benchmarks left behind before the first measure
+	usedHeap();
+	long[] layered = measureGame(n, false);
+	System.out.println(String.format("Game on %d, layered: winner %d, %d Trees, %d KB held, "
+					 + "%d ms", n, layered[0], layered[1], layered[2] >> 10, layered[3]));
+	long[] merged = measureGame(n, true);
+	if(merged[0] != layered[0]) {
+	    throw new IllegalStateException("Merged game on " + n + " has another winner");
+	}
+	System.out.println(String.format("Game on %d, merged:  winner %d, %d Trees, %d KB held, "
+					 + "%d ms, %.1fx fewer Trees, %s", n,
+					 merged[0], merged[1], merged[2] >> 10, merged[3],
+					 (double) layered[1] / merged[1],
+					 merged[2] > 0 ? String.format("%.1fx less heap", (double) layered[2] / merged[2])
+					 : "no measurable heap"));
+    }
+
+    /**
+     * Checks the winning path of playGame() on the games up to n, with stored
+     * parents, with parents on demand and with merged states
+     */
+    private static void checkWinningPaths(int maxN) {
+	java.io.PrintStream out = System.out;
+	System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+	try {
+	    for(int gameNum = 1; gameNum <= maxN; gameNum++) {
+		Game[] games = { new Game(gameNum), new Game(gameNum, false),
+				 new Game(gameNum, true, true) };
+		for(Game game: games) {
+		    game.playGame();
+		    if(!game.hasValidWinningPath()) {
+			throw new IllegalStateException("Winning path of " + gameNum + " invalid with "
+							+ (game.mergeStates ? "merged states"
+							   : game.keepParents ? "stored parents"
+							   : "parents on demand"));
+		    }
+		}
+	    }
+	} finally {
+	    System.setOut(out);
+	}
+	System.out.println("Winning paths of every game up to " + maxN + " are valid in every mode");
+    }
+
+    /**
+     * Builds and solves one Game, returning its winner, its distinct Trees,
+     * the heap it retains and the milliseconds it took. The Game only lives
+     * in this frame, so it is unreachable once the next one is measured.
+     */
+    private static long[] measureGame(int n, boolean mergeStates) {
+	long before = usedHeap();
+	Game game = new Game(n, true, mergeStates);
+	long start = System.nanoTime();
+	int winner = game.playGame();
+	long millis = (System.nanoTime() - start) / 1000000;
+	long bytes = Math.max(0, usedHeap() - before);
+	long trees = countTrees(game.getRoot());
+
+	// The Game must stay reachable until it has been measured
+	java.lang.ref.Reference.reachabilityFence(game);
+	return new long[] { winner, trees, bytes, millis };
+    }
+
+    /**
+     * Counts the distinct Trees below a root, shared Trees once
+     */
+    private static long countTrees(Tree<GameState> root) {
+	java.util.Set<Tree<GameState>> seen =
+	    java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<Tree<GameState>, Boolean>());
+	LinkedList<Tree<GameState>> toVisit = new LinkedList<Tree<GameState>>();
+	toVisit.add(root);
+	while(toVisit.size() > 0) {
+	    Tree<GameState> tree = toVisit.poll();
+	    if(seen.add(tree)) {
+		toVisit.addAll(tree.getChildren());
+	    }
+	}
+	return seen.size();
+    }
+
+
+    /**
+     * Builds the nth game with stored parents and with parents computed on demand,
+     * and reports the heap each Game holds, then the time of a backward pass asking
+     * every Tree for its parents, from the deepest layer up. Both modes must find
+     * the same winner, winning path length and parents.
+     */
+    private static void benchmarkParents(int n) {
+	PackedState codec = new PackedState(n);
+	HashMap<Long, Long> parentSums = new HashMap<Long, Long>();
+
+	for(boolean keepParents: new boolean[] { true, false }) {
+	    String mode = keepParents ? "stored parents   " : "parents on demand";
+	    long before = usedHeap();
+	    Game game = new Game(n, keepParents);
+	    long start = System.nanoTime();
+	    int winner = game.playGame();
+	    long buildMillis = (System.nanoTime() - start) / 1000000;
+	    long bytes = usedHeap() - before;
+
+	    // Group the Trees by depth, outside of the timed pass
+	    ArrayList<ArrayList<Tree<GameState>>> byDepth = new ArrayList<ArrayList<Tree<GameState>>>();
+	    java.util.Set<Tree<GameState>> seen =
+		java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<Tree<GameState>, Boolean>());
+	    LinkedList<Tree<GameState>> toVisit = new LinkedList<Tree<GameState>>();
+	    toVisit.add(game.getRoot());
+	    while(toVisit.size() > 0) {
+		Tree<GameState> tree = toVisit.poll();
+		if(seen.add(tree)) {
+		    int depth = tree.getState().getDepth();
+		    while(byDepth.size() <= depth) {
+			byDepth.add(new ArrayList<Tree<GameState>>());
+		    }
+		    byDepth.get(depth).add(tree);
+		    toVisit.addAll(tree.getChildren());
+		}
+	    }
+
+	    start = System.nanoTime();
+	    long parentCount = 0;
+	    for(int d = byDepth.size() - 1; d >= 0; d--) {
+		for(Tree<GameState> tree: byDepth.get(d)) {
+		    parentCount += game.getParents(tree).size();
+		}
+	    }
+	    long backwardMillis = (System.nanoTime() - start) / 1000000;
+
+	    // Both modes must give every state the same parents
+	    for(ArrayList<Tree<GameState>> layer: byDepth) {
+		for(Tree<GameState> tree: layer) {
+		    long sum = 0;
+		    for(Tree<GameState> parent: game.getParents(tree)) {
+			sum += codec.encode(parent.getState()) * 31 + parent.getState().getDepth();
+		    }
+		    long key = codec.encode(tree.getState()) * 131 + tree.getState().getDepth();
+		    Long expected = parentSums.put(key, sum);
+		    if(expected != null && expected != sum) {
+			throw new IllegalStateException("Parents differ for " + tree.getState());
+		    }
+		}
+	    }
+
+	    System.out.println(String.format("Game on %d, %s: winner %d, winning path %d, %d ms to build, "
+					     + "%d KB held, %d parents in %d ms", n, mode, winner,
+					     game.getWinningPath().size(), buildMillis, bytes >> 10,
+					     parentCount, backwardMillis));
+
+	    // Release the Game before measuring the next one
+	    game = null;
+	}
+    }
+
+    /**
+     * Heap in use once several collections in a row free no significant amount,
+     * since objects only reachable through pending references are freed a
+     * collection or two after the references are cleared
+     */
+    private static long usedHeap() {
+	Runtime runtime = Runtime.getRuntime();
+	long used = Long.MAX_VALUE;
+	int stable = 0;
+	for(int i = 0; i < 20 && stable < 3; i++) {
+	    System.gc();
+	    long now = runtime.totalMemory() - runtime.freeMemory();
+	    stable = now >= used - (used >> 8) ? stable + 1 : 0;
+	    used = Math.min(now, used);
+	}
+	return used;
     }
 
 
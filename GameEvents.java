@@ -0,0 +1,129 @@
+/**
+ * Java Flight Recorder events emitted while building and solving games.
+ *
+ *      LayerBuilt    - one layer expanded by Game.playGame() or GameGraph, with
+ *                      its width, the children generated and how many of them were
+ *                      already in the next layer
+ *      SubtreeSolved - one subtree solved by Game.determineVal(), at any depth,
+ *                      with the values found in the cache, the values computed,
+ *                      and the subtrees skipped once a winning move was found
+ *      LayerSolved   - one layer solved by GameGraph
+ *
+ * An event costs a few field writes when no recording is running. Game checks
+ * recorderStarted() before creating any, so a run without the flight recorder
+ * loads none of its classes. Layer events are rare, and SubtreeSolved events of
+ * subtrees computing fewer than 64 values, or below the threshold of the
+ * settings, are dropped before they are written, so recordings can be left on
+ * for long runs.
+ * zeckendorf.jfc enables them along with allocation sampling, for example with
+ *
+ *          java -XX:StartFlightRecording:settings=zeckendorf.jfc,filename=run.jfr GameGraph 60
+ *
+ * and RecordingReport turns the recording into a per-layer report.
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+public class GameEvents {
+
+    /**
+     * Determines if the flight recorder has been started in this JVM, without
+     * loading the event classes
+     */
+    static boolean recorderStarted() {
+	return FlightRecorder.isInitialized();
+    }
+
+    /**
+     * The expansion of one layer into the next
+     */
+    @Name("zeckendorf.LayerBuilt")
+    @Label("Layer Built")
+    @Category("Zeckendorf")
+    @Description("Expansion of one layer of a game into the next")
+    static final class LayerBuilt extends Event {
+
+	@Label("Engine")
+	String engine;
+
+	@Label("Game")
+	int n;
+
+	@Label("Depth")
+	int depth;
+
+	@Label("Width")
+	@Description("States in the expanded layer")
+	int width;
+
+	@Label("Children")
+	@Description("Children generated, before deduplication")
+	long children;
+
+	@Label("Dedup Hits")
+	@Description("Children already present in the next layer")
+	long dedupHits;
+    }
+
+    /**
+     * The computation of the value of one subtree by Game.determineVal(), which
+     * includes the subtrees below it recorded as their own events
+     */
+    @Name("zeckendorf.SubtreeSolved")
+    @Label("Subtree Solved")
+    @Category("Zeckendorf")
+    @Description("Computation of the winner of a subtree of the game Tree")
+    static final class SubtreeSolved extends Event {
+
+	@Label("Game")
+	int n;
+
+	@Label("Depth")
+	int depth;
+
+	@Label("Value")
+	int value;
+
+	@Label("Cache Hits")
+	@Description("States whose value was already known")
+	long cacheHits;
+
+	@Label("Cache Misses")
+	@Description("States whose value was computed")
+	long cacheMisses;
+
+	@Label("Prunes")
+	@Description("States whose remaining children were skipped after a winning move")
+	long prunes;
+    }
+
+    /**
+     * The computation of the values of one layer by GameGraph
+     */
+    @Name("zeckendorf.LayerSolved")
+    @Label("Layer Solved")
+    @Category("Zeckendorf")
+    @Description("Computation of the values of one layer of a game graph")
+    static final class LayerSolved extends Event {
+
+	@Label("Game")
+	int n;
+
+	@Label("Depth")
+	int depth;
+
+	@Label("Width")
+	int width;
+
+	@Label("Prunes")
+	@Description("Nodes whose remaining children were skipped after a winning move")
+	long prunes;
+    }
+
+}
@@ -0,0 +1,631 @@
+/**
+ * A compact, solved representation of the nth Zeckendorf Decomposition game.
+ *
+ * GameGraph holds the same layered structure as the Tree built by
+ * Game.playGame(): one node per distinct decomposition in each layer, and an
+ * edge from a node to each distinct state a single move leads to. Instead of
+ * Tree and GameState objects, nodes are numbered in breadth first order and their
+ * packed keys, win values and children are kept in flat arrays, so games with
+ * millions of nodes can be built, solved and queried cheaply.
+ *
+ * Node ids are grouped by layer: the nodes of depth d are the ids from
+ * layerStart(d) (inclusive) to layerEnd(d) (exclusive). The children of node id
+ * are the ids child(e) for e from childStart(id) to childEnd(id).
+ *
+ * Win values follow the GameState convention: 1 for a Player 1 victory and -1
+ * for a Player 2 victory.
+ *
+ * A graph built with buildMerged() instead keeps a single node per distinct
+ * decomposition, however many numbers of moves lead to it, so the subtree below a
+ * state is built and solved once. A node then sits in the layer of the longest
+ * line of play reaching it, so that every edge still leads to a deeper layer, and
+ * parities(id) records whether it can be reached after an even or an odd number
+ * of moves. Its win value is the one at the depth of its layer, and is the
+ * opposite at depths of the other parity, as the winner of a position depends only
+ * on whose turn it is.
+ *
+ */
+
+import java.util.Arrays;
+
+public class GameGraph {
+
+    /**
+     * The game the graph describes and the codec of its states
+     */
+    private final int n;
+    private final MoveRules codec;
+
+    /**
+     * Packed key and win value of each node
+     */
+    private long[] keys;
+    private byte[] values;
+    private int nodeCount;
+
+    /**
+     * First node id of each layer, with one extra entry closing the last layer
+     */
+    private int[] layerStart;
+    private int layerCount;
+
+    /**
+     * Children of each node, as offsets into the edge array
+     */
+    private int[] childStart;
+    private int[] edges;
+    private int edgeCount;
+
+    /**
+     * Node ids along the winning path of the winning player, root first
+     */
+    private int[] winningPath;
+
+    /**
+     * Whether each decomposition has a single node, and for each node the
+     * parities of the numbers of moves reaching it
+     */
+    private boolean merged;
+    private byte[] parities;
+
+
+    /**
+     * Constructs an empty graph for a game. Use build() to obtain a populated
+     * graph.
+     *
+     * @param rules - The rules of the game
+     */
+    private GameGraph(MoveRules rules) {
+	this.n = rules.getN();
+	this.codec = rules;
+	this.keys = new long[1024];
+	this.values = new byte[0];
+	this.layerStart = new int[64];
+	this.childStart = new int[1024];
+	this.edges = new int[4096];
+    }
+
+
+    /**
+     * Builds the complete graph of the nth game, and solves it
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     * @return The built and solved graph
+     */
+    public static GameGraph build(int n) {
+	return build(new PackedState(n));
+    }
+
+    /**
+     * Builds the complete graph of a variant of the game, and solves it
+     *
+     * @param rules - The rules of the variant
+     * @return The built and solved graph
+     */
+    public static GameGraph build(MoveRules rules) {
+	GameGraph graph = new GameGraph(rules);
+	graph.expand();
+	graph.solve();
+	return graph;
+    }
+
+    /**
+     * Builds the graph of the nth game with one node per distinct decomposition,
+     * and solves it
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     * @return The built and solved graph
+     */
+    public static GameGraph buildMerged(int n) {
+	return buildMerged(new PackedState(n));
+    }
+
+    /**
+     * Builds the graph of a variant of the game with one node per distinct
+     * decomposition, and solves it
+     *
+     * @param rules - The rules of the variant
+     * @return The built and solved graph
+     */
+    public static GameGraph buildMerged(MoveRules rules) {
+	GameGraph graph = new GameGraph(rules);
+	graph.merged = true;
+	graph.expand();
+	graph.layerByLongestPath();
+	graph.solve();
+	return graph;
+    }
+
+    /**
+     * Restores a solved graph from its arrays, which are not copied. Used by
+     * GameSnapshot and GraphExporter.read() to load a graph without building or
+     * solving it.
+     *
+     * @param rules - The rules of the game
+     * @param winningPath - The winning path, null to find it from the values
+     * @param parities - The parities of each node of a merged graph, null if the
+     *                   graph is layered
+     */
+    static GameGraph restore(MoveRules rules, long[] keys, byte[] values, int[] layerStart,
+			     int[] childStart, int[] edges, int[] winningPath, byte[] parities) {
+	GameGraph graph = new GameGraph(rules);
+	graph.keys = keys;
+	graph.values = values;
+	graph.nodeCount = keys.length;
+	graph.layerStart = layerStart;
+	graph.layerCount = layerStart.length - 1;
+	graph.childStart = childStart;
+	graph.edges = edges;
+	graph.edgeCount = edges.length;
+	graph.merged = parities != null;
+	graph.parities = parities;
+	graph.winningPath = winningPath != null ? winningPath : graph.findWinningPath();
+	return graph;
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getter for the number of starting 1s of the game
+     */
+    public int getN() { return this.n; }
+
+    /**
+     * Getter for the rules of the game, which also pack its states
+     */
+    public MoveRules getCodec() { return this.codec; }
+
+    /**
+     * Getters for the sizes of the graph
+     */
+    public int nodeCount() { return this.nodeCount; }
+    public int edgeCount() { return this.edgeCount; }
+    public int layerCount() { return this.layerCount; }
+
+    /**
+     * The depth of the longest game, i.e. the depth of the last layer
+     */
+    public int maxDepth() { return this.layerCount - 1; }
+
+    /**
+     * Bounds of the node ids of a layer
+     */
+    public int layerStart(int depth) { return this.layerStart[depth]; }
+    public int layerEnd(int depth) { return this.layerStart[depth + 1]; }
+    public int layerSize(int depth) { return layerEnd(depth) - layerStart(depth); }
+
+    /**
+     * Packed key and win value of a node
+     */
+    public long key(int id) { return this.keys[id]; }
+    public int value(int id) { return this.values[id]; }
+
+    /**
+     * Bounds of the children of a node in the edge array, and the child at an
+     * edge offset
+     */
+    public int childStart(int id) { return this.childStart[id]; }
+    public int childEnd(int id) { return this.childStart[id + 1]; }
+    public int child(int edge) { return this.edges[edge]; }
+
+    /**
+     * Determines whether a node is terminal, i.e. has no children
+     */
+    public boolean isTerminal(int id) { return childStart(id) == childEnd(id); }
+
+    /**
+     * Whether the graph has a single node per decomposition
+     */
+    public boolean isMerged() { return this.merged; }
+
+    /**
+     * Parities of the numbers of moves reaching a node: EVEN, ODD, or both
+     */
+    public static final int EVEN = 1, ODD = 2;
+    public int parities(int id) { return merged ? parities[id] : 1 << (depth(id) % 2); }
+
+    /**
+     * Winner of the game: 1 for Player 1, -1 for Player 2
+     */
+    public int winner() { return this.values[0]; }
+
+    /**
+     * Node ids along the winning path of the winner, from the root to the
+     * terminal state. The returned array must not be modified.
+     */
+    public int[] getWinningPath() { return this.winningPath; }
+
+    /**
+     * Determines if the winning path is a line of play won by the winner: it
+     * starts at the root, each node is a child of the one before, it ends at a
+     * terminal node, and the winner wins from every node of it once reached after
+     * as many moves as its place on the path
+     */
+    public boolean hasValidWinningPath() {
+	int length = winningPath.length;
+	if(length == 0 || winningPath[0] != 0 || !isTerminal(winningPath[length - 1])) {
+	    return false;
+	}
+	for(int i = 0; i < length; i++) {
+	    if(valueAt(winningPath[i], i) != winner()) {
+		return false;
+	    }
+	    if(i > 0) {
+		int e = childStart(winningPath[i - 1]);
+		while(e < childEnd(winningPath[i - 1]) && edges[e] != winningPath[i]) {
+		    e++;
+		}
+		if(e == childEnd(winningPath[i - 1])) {
+		    return false;
+		}
+	    }
+	}
+	return true;
+    }
+
+
+    /**
+     * Finds the depth of a node by searching the layer boundaries
+     *
+     * @param id - A node id
+     * @return The layer the node belongs to
+     */
+    public int depth(int id) {
+	// Layers are never empty, so the layer boundaries are strictly increasing
+	int d = Arrays.binarySearch(layerStart, 0, layerCount + 1, id);
+	return d >= 0 ? d : -d - 2;
+    }
+
+    /**
+     * Builds a GameState for a node, carrying its depth and win value
+     *
+     * @param id - A node id
+     * @return A new GameState describing the node
+     */
+    public GameState toGameState(int id) {
+	GameState state = codec.decode(keys[id], depth(id));
+	state.setVal(values[id]);
+	return state;
+    }
+
+
+    //===================================
+    // BUILDING AND SOLVING
+    //===================================
+
+    /**
+     * Expands the game layer by layer from the starting state, deduplicating the
+     * states within each layer as Game.playGame() does, or across all layers when
+     * merging
+     */
+    private void expand() {
+	long[] buffer = new long[codec.maxChildren()];
+	LongIntHashMap nextLayer = new LongIntHashMap(1024);
+
+	// The root is the single node of layer 0
+	keys[0] = codec.initialKey();
+	nodeCount = 1;
+	layerStart[0] = 0;
+	layerStart[1] = 1;
+	layerCount = 1;
+
+	while(true) {
+	    int start = layerStart[layerCount - 1];
+	    int end = layerStart[layerCount];
+	    if(!merged) {
+		nextLayer.clear();
+	    }
+	    GameEvents.LayerBuilt event = new GameEvents.LayerBuilt();
+	    event.begin();
+	    long generated = 0, dedupHits = 0;
+
+	    // Generate the children of every node in the current layer
+	    for(int id = start; id < end; id++) {
+		ensureNodeCapacity(id + 2);
+		childStart[id] = edgeCount;
+		int numChildren = codec.children(keys[id], buffer);
+		generated += numChildren;
+
+		for(int c = 0; c < numChildren; c++) {
+
+		    // Reuse the node if the state is already in the next layer, or in
+		    // any layer when merging
+		    int child = nextLayer.putIfAbsent(buffer[c], nodeCount);
+		    if(child < 0) {
+			child = nodeCount;
+			ensureNodeCapacity(nodeCount + 2);
+			keys[nodeCount++] = buffer[c];
+		    } else {
+			dedupHits++;
+		    }
+
+		    // Two moves can lead to the same state, only link it once
+		    if(!hasEdge(childStart[id], child)) {
+			ensureEdgeCapacity(edgeCount + 1);
+			edges[edgeCount++] = child;
+		    }
+		}
+	    }
+	    childStart[end] = edgeCount;
+
+	    event.end();
+	    if(event.shouldCommit()) {
+		event.engine = "GameGraph";
+		event.n = n;
+		event.depth = layerCount - 1;
+		event.width = end - start;
+		event.children = generated;
+		event.dedupHits = dedupHits;
+		event.commit();
+	    }
+
+	    // Stop once the last layer has no children
+	    if(nodeCount == end) {
+		break;
+	    }
+	    if(layerCount + 2 > layerStart.length) {
+		layerStart = Arrays.copyOf(layerStart, layerStart.length * 2);
+	    }
+	    layerStart[++layerCount] = nodeCount;
+	}
+
+	// Trim the arrays to their final sizes
+	keys = Arrays.copyOf(keys, nodeCount);
+	childStart = Arrays.copyOf(childStart, nodeCount + 1);
+	edges = Arrays.copyOf(edges, edgeCount);
+	layerStart = Arrays.copyOf(layerStart, layerCount + 1);
+    }
+
+    /**
+     * Computes the win value of every node, from the deepest layer up to the root,
+     * and records a winning path for the winner
+     */
+    private void solve() {
+	values = new byte[nodeCount];
+	for(int d = layerCount - 1; d >= 0; d--) {
+	    GameEvents.LayerSolved event = new GameEvents.LayerSolved();
+	    event.begin();
+	    for(int id = layerStart[d]; id < layerStart[d + 1]; id++) {
+		values[id] = (byte) solveNode(id, d);
+	    }
+	    event.end();
+	    if(event.shouldCommit()) {
+		event.n = n;
+		event.depth = d;
+		event.width = layerSize(d);
+		event.prunes = countPrunes(d);
+		event.commit();
+	    }
+	}
+	winningPath = findWinningPath();
+    }
+
+    /**
+     * Determines the value of a node from the values of its children
+     *
+     * @param id - A node id, whose children are already solved
+     * @param d - The depth of the node
+     * @return 1 if player 1 wins from the node, -1 if player 2 wins
+     */
+    private int solveNode(int id, int d) {
+
+	// The player who made the last move wins, or loses in misere play
+	if(isTerminal(id)) {
+	    return codec.terminalValue(d);
+	}
+
+	// The player to move wins if one of the children is a win for them
+	int mover = d % 2 == 0 ? 1 : -1;
+	for(int e = childStart(id); e < childEnd(id); e++) {
+	    if(valueAt(edges[e], d + 1) == mover) {
+		return mover;
+	    }
+	}
+	return -mover;
+    }
+
+    /**
+     * Counts the nodes of a solved layer where a winning move was found before
+     * the last child, so that the remaining children were skipped. Only called
+     * while recording.
+     */
+    private long countPrunes(int d) {
+	int mover = d % 2 == 0 ? 1 : -1;
+	long prunes = 0;
+	for(int id = layerStart[d]; id < layerStart[d + 1]; id++) {
+	    for(int e = childStart(id); e < childEnd(id) - 1; e++) {
+		if(valueAt(edges[e], d + 1) == mover) {
+		    prunes++;
+		    break;
+		}
+	    }
+	}
+	return prunes;
+    }
+
+    /**
+     * Follows the winning player's strategy from the root to a terminal state,
+     * taking the first winning move of the winner and the first move of the loser
+     *
+     * @return The ids of the nodes along the path
+     */
+    private int[] findWinningPath() {
+	int winner = values[0];
+	int[] path = new int[layerCount];
+	int length = 0;
+	int id = 0;
+	path[length++] = id;
+	while(!isTerminal(id)) {
+	    int next = edges[childStart(id)];
+	    for(int e = childStart(id); e < childEnd(id); e++) {
+		if(valueAt(edges[e], length) == winner) {
+		    next = edges[e];
+		    break;
+		}
+	    }
+	    id = next;
+	    path[length++] = id;
+	}
+	return Arrays.copyOf(path, length);
+    }
+
+
+    /**
+     * Moves every node of a merged graph to the layer of the longest line of play
+     * reaching it, so that edges lead to deeper layers and the layers can be
+     * solved from the deepest up, and records the parities of the numbers of moves
+     * reaching each node
+     */
+    private void layerByLongestPath() {
+
+	// Visit the nodes in topological order, once all their parents are visited
+	int[] inDegree = new int[nodeCount];
+	for(int e = 0; e < edgeCount; e++) {
+	    inDegree[edges[e]]++;
+	}
+	int[] order = new int[nodeCount];
+	int[] longest = new int[nodeCount];
+	byte[] reached = new byte[nodeCount];
+	reached[0] = EVEN;
+	int size = 0;
+	order[size++] = 0;
+	for(int head = 0; head < size; head++) {
+	    int id = order[head];
+	    byte flipped = (byte) (((reached[id] & EVEN) << 1) | ((reached[id] & ODD) >> 1));
+	    for(int e = childStart(id); e < childEnd(id); e++) {
+		int child = edges[e];
+		longest[child] = Math.max(longest[child], longest[id] + 1);
+		reached[child] |= flipped;
+		if(--inDegree[child] == 0) {
+		    order[size++] = child;
+		}
+	    }
+	}
+
+	// Number the nodes again by layer, keeping their relative order
+	layerCount = 0;
+	for(int id = 0; id < nodeCount; id++) {
+	    layerCount = Math.max(layerCount, longest[id] + 1);
+	}
+	layerStart = new int[layerCount + 1];
+	for(int id = 0; id < nodeCount; id++) {
+	    layerStart[longest[id] + 1]++;
+	}
+	for(int d = 0; d < layerCount; d++) {
+	    layerStart[d + 1] += layerStart[d];
+	}
+	int[] next = Arrays.copyOf(layerStart, layerCount);
+	int[] renumber = new int[nodeCount];
+	for(int id = 0; id < nodeCount; id++) {
+	    renumber[id] = next[longest[id]]++;
+	}
+
+	long[] newKeys = new long[nodeCount];
+	int[] newStart = new int[nodeCount + 1];
+	int[] newEdges = new int[edgeCount];
+	parities = new byte[nodeCount];
+	for(int id = 0; id < nodeCount; id++) {
+	    newKeys[renumber[id]] = keys[id];
+	    parities[renumber[id]] = reached[id];
+	    newStart[renumber[id] + 1] = childEnd(id) - childStart(id);
+	}
+	for(int id = 0; id < nodeCount; id++) {
+	    newStart[id + 1] += newStart[id];
+	}
+	for(int id = 0; id < nodeCount; id++) {
+	    int offset = newStart[renumber[id]];
+	    for(int e = childStart(id); e < childEnd(id); e++) {
+		newEdges[offset++] = renumber[edges[e]];
+	    }
+	}
+	keys = newKeys;
+	childStart = newStart;
+	edges = newEdges;
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Win value of a solved node when reached after the passed number of moves,
+     * the opposite of its value when the parity differs from that of its layer
+     */
+    private int valueAt(int id, int d) {
+	if(!merged || (depth(id) - d) % 2 == 0) {
+	    return values[id];
+	}
+	return -values[id];
+    }
+
+    /**
+     * Determines if an edge to child was already added among the edges from
+     * offset first
+     */
+    private boolean hasEdge(int first, int child) {
+	for(int e = first; e < edgeCount; e++) {
+	    if(edges[e] == child) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Grows the node arrays to hold at least the passed number of entries
+     */
+    private void ensureNodeCapacity(int capacity) {
+	if(capacity > keys.length) {
+	    int newLength = Math.max(capacity, keys.length + (keys.length >> 1));
+	    keys = Arrays.copyOf(keys, newLength);
+	}
+	if(capacity > childStart.length) {
+	    int newLength = Math.max(capacity, childStart.length + (childStart.length >> 1));
+	    childStart = Arrays.copyOf(childStart, newLength);
+	}
+    }
+
+    /**
+     * Grows the edge array to hold at least the passed number of edges
+     */
+    private void ensureEdgeCapacity(int capacity) {
+	if(capacity > edges.length) {
+	    int newLength = Math.max(capacity, edges.length + (edges.length >> 1));
+	    edges = Arrays.copyOf(edges, newLength);
+	}
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Prints the size and winner of the games up to the passed n, layered and with
+     * one node per decomposition
+     */
+    public static void main(String[] args) {
+	int maxN = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+	for(int gameNum = 1; gameNum <= maxN; gameNum++) {
+	    long start = System.nanoTime();
+	    GameGraph graph = GameGraph.build(gameNum);
+	    long millis = (System.nanoTime() - start) / 1000000;
+	    start = System.nanoTime();
+	    GameGraph merged = GameGraph.buildMerged(gameNum);
+	    long mergedMillis = (System.nanoTime() - start) / 1000000;
+	    if(merged.winner() != graph.winner()) {
+		throw new IllegalStateException("Merged graph of " + gameNum + " has another winner");
+	    }
+	    System.out.println("Game on " + gameNum + ": " + graph.nodeCount() + " nodes, "
+			       + graph.edgeCount() + " edges, " + graph.maxDepth()
+			       + " moves, winner " + graph.winner() + " (" + millis + " ms); merged "
+			       + merged.nodeCount() + " nodes, " + merged.edgeCount() + " edges ("
+			       + mergedMillis + " ms)");
+	}
+    }
+
+}
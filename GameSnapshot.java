@@ -0,0 +1,612 @@
+/**
+ * A versioned binary snapshot of a solved GameGraph, written once and loaded by
+ * memory-mapping the file, so viewers and analysis tools start on a game in
+ * milliseconds instead of building and solving it again.
+ *
+ * The snapshot holds the whole solved graph: the packed key of every node, the
+ * layer boundaries, the children of every node, the win values, the winning path
+ * and, for a merged graph, the parities of every node. Each of these is stored as
+ * the flat array GameGraph keeps in memory, little endian and aligned to 8 bytes,
+ * so a loaded snapshot reads its nodes straight from the mapped file through the
+ * accessors of GameGraph, and toGraph() only bulk-copies the arrays.
+ *
+ * Format, little endian:
+ *
+ *      header:    int magic "ZDS1", int version (1), int n, int maxIndex,
+ *                 int flags (1 misere, 2 merged), int layerCount, int nodeCount,
+ *                 int edgeCount, int pathLength, int 0, long checksum,
+ *                 long file size, long 0
+ *      layout:    maxIndex bytes giving the bit width of the frequency of each
+ *                 index (1 first)
+ *      sections:  long keys[nodeCount], int layerStart[layerCount + 1],
+ *                 int childStart[nodeCount + 1], int edges[edgeCount],
+ *                 int winningPath[pathLength], byte values[nodeCount], and for a
+ *                 merged graph byte parities[nodeCount]
+ *
+ * The layout and every section start at a multiple of 8 bytes. The checksum is the
+ * CRC32C of everything after the header. A snapshot is checked against its file by
+ * this checksum when loaded, and against its source, the rules it is loaded for,
+ * by its n, flags and layout. checksum(GameGraph) gives the checksum a snapshot of
+ * a graph would have, so a snapshot can also be checked against a graph built
+ * afresh.
+ *
+ * Each section is mapped on its own, and must be under 2 GB.
+ *
+ * Write a snapshot, and load and check one, from the command line with
+ *
+ *          java GameSnapshot write n file [merged]
+ *          java GameSnapshot check file
+ *
+ * The benchmark comparing the load with a build can be executed with
+ *
+ *          java GameSnapshot [n]
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+public class GameSnapshot {
+
+    /**
+     * Magic number "ZDS1", version of the format and size of the header
+     */
+    static final int MAGIC = 0x5A445331, VERSION = 1, HEADER_SIZE = 64;
+
+    /**
+     * Flags of the header
+     */
+    private static final int MISERE = 1, MERGED = 2;
+
+    /**
+     * The rules of the game and the sizes of the graph
+     */
+    private final MoveRules codec;
+    private final int layerCount, nodeCount, edgeCount;
+    private final long checksum;
+
+    /**
+     * The sections of the snapshot, mapped from the file
+     */
+    private final LongBuffer keys;
+    private final IntBuffer layerStart, childStart, edges, winningPath;
+    private final ByteBuffer values, parities;
+
+
+    /**
+     * Maps the sections of a snapshot whose header has been read
+     */
+    private GameSnapshot(FileChannel channel, MoveRules codec, int layerCount, int nodeCount,
+			 int edgeCount, int pathLength, boolean merged, long checksum) throws IOException {
+	this.codec = codec;
+	this.layerCount = layerCount;
+	this.nodeCount = nodeCount;
+	this.edgeCount = edgeCount;
+	this.checksum = checksum;
+	long offset = HEADER_SIZE + align(codec.getMaxIndex());
+	this.keys = map(channel, offset, 8L * nodeCount).asLongBuffer();
+	offset += align(8L * nodeCount);
+	this.layerStart = map(channel, offset, 4L * (layerCount + 1)).asIntBuffer();
+	offset += align(4L * (layerCount + 1));
+	this.childStart = map(channel, offset, 4L * (nodeCount + 1)).asIntBuffer();
+	offset += align(4L * (nodeCount + 1));
+	this.edges = map(channel, offset, 4L * edgeCount).asIntBuffer();
+	offset += align(4L * edgeCount);
+	this.winningPath = map(channel, offset, 4L * pathLength).asIntBuffer();
+	offset += align(4L * pathLength);
+	this.values = map(channel, offset, nodeCount);
+	offset += align(nodeCount);
+	this.parities = merged ? map(channel, offset, nodeCount) : null;
+    }
+
+
+    //===================================
+    // WRITING AND LOADING
+    //===================================
+
+    /**
+     * Writes the snapshot of a solved graph, replacing the file if it exists
+     *
+     * @param graph - A built and solved GameGraph
+     * @param file - The file to write to
+     * @return The checksum of the snapshot
+     */
+    public static long write(GameGraph graph, Path file) throws IOException {
+	try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						   StandardOpenOption.TRUNCATE_EXISTING)) {
+	    Writer writer = new Writer(channel);
+	    channel.position(HEADER_SIZE);
+	    long size = writer.sections(graph);
+
+	    // The header goes last, once the checksum is known
+	    MoveRules codec = graph.getCodec();
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	    header.putInt(MAGIC).putInt(VERSION).putInt(graph.getN()).putInt(codec.getMaxIndex())
+		.putInt((codec.isMisere() ? MISERE : 0) | (graph.isMerged() ? MERGED : 0))
+		.putInt(graph.layerCount()).putInt(graph.nodeCount()).putInt(graph.edgeCount())
+		.putInt(graph.getWinningPath().length).putInt(0).putLong(writer.crc.getValue())
+		.putLong(size).putLong(0);
+	    header.flip();
+	    while(header.hasRemaining()) {
+		channel.write(header, header.position());
+	    }
+	    return writer.crc.getValue();
+	}
+    }
+
+    /**
+     * Checksum a snapshot of a graph would have, without writing it
+     *
+     * @param graph - A built and solved GameGraph
+     * @return The checksum of its snapshot
+     */
+    public static long checksum(GameGraph graph) throws IOException {
+	Writer writer = new Writer(null);
+	writer.sections(graph);
+	return writer.crc.getValue();
+    }
+
+    /**
+     * Loads a snapshot of the Zeckendorf game, checking it against its checksum
+     *
+     * @param file - A snapshot written by write()
+     * @return The mapped snapshot
+     * @throws IOException if the file is not a snapshot of this version, is
+     *         truncated, or does not match its checksum
+     */
+    public static GameSnapshot load(Path file) throws IOException {
+	return load(file, null, true);
+    }
+
+    /**
+     * Loads a snapshot of a game. The snapshot must have been written for the
+     * rules passed, or, when rules is null, for the Zeckendorf game.
+     *
+     * @param file - A snapshot written by write()
+     * @param rules - The rules of the game, null for PackedState
+     * @param verify - true to check the file against its checksum, which reads it
+     *                 all once
+     * @return The mapped snapshot
+     * @throws IOException if the file is not a snapshot of this version, was
+     *         written for other rules, is truncated, or does not match its checksum
+     */
+    public static GameSnapshot load(Path file, MoveRules rules, boolean verify) throws IOException {
+	try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+	    if(channel.size() < HEADER_SIZE) {
+		throw new IOException(file + " is too short to be a snapshot");
+	    }
+	    ByteBuffer header = map(channel, 0, HEADER_SIZE);
+	    if(header.getInt(0) != MAGIC) {
+		throw new IOException(file + " is not a game snapshot");
+	    }
+	    if(header.getInt(4) != VERSION) {
+		throw new IOException(file + " is a snapshot of version " + header.getInt(4) + ", not "
+				      + VERSION);
+	    }
+	    int n = header.getInt(8), maxIndex = header.getInt(12), flags = header.getInt(16);
+	    int layerCount = header.getInt(20), nodeCount = header.getInt(24);
+	    int edgeCount = header.getInt(28), pathLength = header.getInt(32);
+	    long checksum = header.getLong(40), size = header.getLong(48);
+	    if(size != channel.size()) {
+		throw new IOException(file + " holds " + channel.size() + " bytes, its header " + size);
+	    }
+
+	    // The snapshot must describe the states of the rules it is loaded for
+	    boolean misere = (flags & MISERE) != 0;
+	    MoveRules codec = rules != null ? rules : new PackedState(n, misere);
+	    boolean same = codec.getN() == n && codec.isMisere() == misere && codec.getMaxIndex() == maxIndex;
+	    ByteBuffer layout = map(channel, HEADER_SIZE, maxIndex);
+	    for(int i = 1; same && i <= maxIndex; i++) {
+		same = layout.get(i - 1) == codec.width(i);
+	    }
+	    if(!same) {
+		throw new IOException(file + " is a snapshot of other rules than the game on " + codec.getN());
+	    }
+	    if(size != sizeOf(maxIndex, layerCount, nodeCount, edgeCount, pathLength, (flags & MERGED) != 0)) {
+		throw new IOException(file + " has sections of the wrong size");
+	    }
+
+	    if(verify) {
+		CRC32C crc = new CRC32C();
+		for(long offset = HEADER_SIZE; offset < size; offset += 1 << 30) {
+		    crc.update(map(channel, offset, Math.min(1 << 30, size - offset)));
+		}
+		if(crc.getValue() != checksum) {
+		    throw new IOException(file + " does not match its checksum");
+		}
+	    }
+	    return new GameSnapshot(channel, codec, layerCount, nodeCount, edgeCount, pathLength,
+				    (flags & MERGED) != 0, checksum);
+	}
+    }
+
+    /**
+     * Copies the snapshot into a GameGraph, for the tools that draw or analyse
+     * one. Each section is copied in bulk, nothing is built or solved.
+     *
+     * @return The solved graph the snapshot was written from
+     */
+    public GameGraph toGraph() {
+	long[] keyArray = new long[nodeCount];
+	keys.duplicate().get(keyArray);
+	int[] layerArray = new int[layerCount + 1], childArray = new int[nodeCount + 1];
+	layerStart.duplicate().get(layerArray);
+	childStart.duplicate().get(childArray);
+	int[] edgeArray = new int[edgeCount], pathArray = new int[winningPath.capacity()];
+	edges.duplicate().get(edgeArray);
+	winningPath.duplicate().get(pathArray);
+	byte[] valueArray = new byte[nodeCount], parityArray = null;
+	values.duplicate().get(valueArray);
+	if(parities != null) {
+	    parityArray = new byte[nodeCount];
+	    parities.duplicate().get(parityArray);
+	}
+	return GameGraph.restore(codec, keyArray, valueArray, layerArray, childArray, edgeArray, pathArray,
+				 parityArray);
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getters for the game of the snapshot and the rules packing its states
+     */
+    public int getN() { return this.codec.getN(); }
+    public MoveRules getCodec() { return this.codec; }
+
+    /**
+     * Getter for the checksum of the snapshot
+     */
+    public long getChecksum() { return this.checksum; }
+
+    /**
+     * Getters for the sizes of the graph
+     */
+    public int nodeCount() { return this.nodeCount; }
+    public int edgeCount() { return this.edgeCount; }
+    public int layerCount() { return this.layerCount; }
+    public int maxDepth() { return this.layerCount - 1; }
+
+    /**
+     * Bounds of the node ids of a layer
+     */
+    public int layerStart(int depth) { return this.layerStart.get(depth); }
+    public int layerEnd(int depth) { return this.layerStart.get(depth + 1); }
+    public int layerSize(int depth) { return layerEnd(depth) - layerStart(depth); }
+
+    /**
+     * Packed key and win value of a node
+     */
+    public long key(int id) { return this.keys.get(id); }
+    public int value(int id) { return this.values.get(id); }
+
+    /**
+     * Bounds of the children of a node in the edge array, and the child at an
+     * edge offset
+     */
+    public int childStart(int id) { return this.childStart.get(id); }
+    public int childEnd(int id) { return this.childStart.get(id + 1); }
+    public int child(int edge) { return this.edges.get(edge); }
+
+    /**
+     * Determines whether a node is terminal, i.e. has no children
+     */
+    public boolean isTerminal(int id) { return childStart(id) == childEnd(id); }
+
+    /**
+     * Whether the graph has a single node per decomposition, and the parities of
+     * the numbers of moves reaching a node, as in GameGraph
+     */
+    public boolean isMerged() { return this.parities != null; }
+    public int parities(int id) { return parities != null ? parities.get(id) : 1 << (depth(id) % 2); }
+
+    /**
+     * Winner of the game: 1 for Player 1, -1 for Player 2
+     */
+    public int winner() { return value(0); }
+
+    /**
+     * Node ids along the winning path of the winner, from the root to the
+     * terminal state
+     */
+    public int[] getWinningPath() {
+	int[] path = new int[winningPath.capacity()];
+	winningPath.duplicate().get(path);
+	return path;
+    }
+
+    /**
+     * Finds the depth of a node by searching the layer boundaries
+     *
+     * @param id - A node id
+     * @return The layer the node belongs to
+     */
+    public int depth(int id) {
+	int low = 0, high = layerCount - 1;
+	while(low < high) {
+	    int mid = (low + high + 1) >>> 1;
+	    if(layerStart.get(mid) <= id) {
+		low = mid;
+	    } else {
+		high = mid - 1;
+	    }
+	}
+	return low;
+    }
+
+    /**
+     * Builds a GameState for a node, carrying its depth and win value
+     *
+     * @param id - A node id
+     * @return A new GameState describing the node
+     */
+    public GameState toGameState(int id) {
+	GameState state = codec.decode(key(id), depth(id));
+	state.setVal(value(id));
+	return state;
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Rounds a number of bytes up to a multiple of 8
+     */
+    private static long align(long bytes) {
+	return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Size of the file of a snapshot
+     */
+    private static long sizeOf(int maxIndex, int layerCount, int nodeCount, int edgeCount, int pathLength,
+			       boolean merged) {
+	return HEADER_SIZE + align(maxIndex) + align(8L * nodeCount) + align(4L * (layerCount + 1))
+	    + align(4L * (nodeCount + 1)) + align(4L * edgeCount) + align(4L * pathLength)
+	    + align(nodeCount) + (merged ? align(nodeCount) : 0);
+    }
+
+    /**
+     * Maps a section of a file read-only, little endian
+     *
+     * @throws IOException if the section is 2 GB or more
+     */
+    private static ByteBuffer map(FileChannel channel, long offset, long bytes) throws IOException {
+	if(bytes >= Integer.MAX_VALUE) {
+	    throw new IOException("A section of " + bytes + " bytes is too large to map");
+	}
+	return channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes the sections of a snapshot through a fixed buffer, computing their
+     * checksum on the way. Without a channel only the checksum is computed.
+     */
+    private static class Writer {
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	private final CRC32C crc = new CRC32C();
+	private long written;
+
+	Writer(FileChannel channel) {
+	    this.channel = channel;
+	}
+
+	/**
+	 * Writes the layout and the sections of a graph
+	 *
+	 * @return The size of the file, header included
+	 */
+	long sections(GameGraph graph) throws IOException {
+	    MoveRules codec = graph.getCodec();
+	    for(int i = 1; i <= codec.getMaxIndex(); i++) {
+		room(1);
+		buffer.put((byte) codec.width(i));
+	    }
+	    pad();
+	    for(int id = 0; id < graph.nodeCount(); id++) {
+		room(8);
+		buffer.putLong(graph.key(id));
+	    }
+	    for(int d = 0; d <= graph.layerCount(); d++) {
+		room(4);
+		buffer.putInt(d < graph.layerCount() ? graph.layerStart(d) : graph.nodeCount());
+	    }
+	    pad();
+	    for(int id = 0; id <= graph.nodeCount(); id++) {
+		room(4);
+		buffer.putInt(id < graph.nodeCount() ? graph.childStart(id) : graph.edgeCount());
+	    }
+	    pad();
+	    for(int e = 0; e < graph.edgeCount(); e++) {
+		room(4);
+		buffer.putInt(graph.child(e));
+	    }
+	    pad();
+	    for(int id: graph.getWinningPath()) {
+		room(4);
+		buffer.putInt(id);
+	    }
+	    pad();
+	    for(int id = 0; id < graph.nodeCount(); id++) {
+		room(1);
+		buffer.put((byte) graph.value(id));
+	    }
+	    pad();
+	    if(graph.isMerged()) {
+		for(int id = 0; id < graph.nodeCount(); id++) {
+		    room(1);
+		    buffer.put((byte) graph.parities(id));
+		}
+		pad();
+	    }
+	    drain();
+	    return HEADER_SIZE + written;
+	}
+
+	/**
+	 * Pads the section written with zeros up to a multiple of 8 bytes
+	 */
+	private void pad() throws IOException {
+	    room(8);
+	    while((written + buffer.position()) % 8 != 0) {
+		buffer.put((byte) 0);
+	    }
+	}
+
+	/**
+	 * Drains the buffer if fewer than the passed bytes are free
+	 */
+	private void room(int bytes) throws IOException {
+	    if(buffer.remaining() < bytes) {
+		drain();
+	    }
+	}
+
+	private void drain() throws IOException {
+	    buffer.flip();
+	    written += buffer.remaining();
+	    crc.update(buffer.duplicate());
+	    while(channel != null && buffer.hasRemaining()) {
+		channel.write(buffer);
+	    }
+	    buffer.clear();
+	}
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Writes or checks a snapshot, following the usage of the class comment.
+     * Without a command, checks the snapshots of the games up to 25, layered and
+     * merged, against their graphs and checks that a corrupted snapshot is
+     * refused, then compares building and solving the nth game (80 by default)
+     * with loading its snapshot.
+     */
+    public static void main(String[] args) throws IOException {
+	if(args.length > 0 && args[0].equals("write")) {
+	    int n = Integer.parseInt(args[1]);
+	    GameGraph graph = args.length > 3 && args[3].equals("merged") ? GameGraph.buildMerged(n)
+		: GameGraph.build(n);
+	    long checksum = write(graph, Paths.get(args[2]));
+	    System.out.println(String.format("Wrote game %d, %d nodes and %d edges, in %d bytes with "
+					     + "checksum %08x", n, graph.nodeCount(), graph.edgeCount(),
+					     Files.size(Paths.get(args[2])), checksum));
+	    return;
+	}
+	if(args.length > 0 && args[0].equals("check")) {
+	    GameSnapshot snapshot = load(Paths.get(args[1]));
+	    System.out.println(String.format("Snapshot of game %d%s: %d nodes, %d edges, winner %d, "
+					     + "checksum %08x verified", snapshot.getN(),
+					     snapshot.isMerged() ? " merged" : "", snapshot.nodeCount(),
+					     snapshot.edgeCount(), snapshot.winner(), snapshot.getChecksum()));
+	    return;
+	}
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 80;
+
+	Path file = Files.createTempFile("game", ".snapshot");
+	try {
+	    for(int gameNum = 1; gameNum <= 25; gameNum++) {
+		for(GameGraph graph: new GameGraph[] { GameGraph.build(gameNum), GameGraph.buildMerged(gameNum) }) {
+		    long checksum = write(graph, file);
+		    GameSnapshot snapshot = load(file);
+		    if(snapshot.getChecksum() != checksum || checksum(graph) != checksum
+		       || !sameGraph(graph, snapshot) || !sameGraph(snapshot.toGraph(), snapshot)) {
+			throw new IllegalStateException("The snapshot of game " + gameNum + " differs from "
+							+ "its graph");
+		    }
+		}
+	    }
+
+	    // A flipped byte must be caught by the checksum
+	    byte[] bytes = Files.readAllBytes(file);
+	    bytes[bytes.length / 2] ^= 1;
+	    Files.write(file, bytes);
+	    try {
+		load(file);
+		throw new IllegalStateException("A corrupted snapshot was loaded");
+	    } catch(IOException e) {
+		System.out.println("Snapshots of the games up to 25 match their graphs, corruption refused: "
+				   + e.getMessage());
+	    }
+
+	    long start = System.nanoTime();
+	    GameGraph graph = GameGraph.build(n);
+	    long buildMillis = (System.nanoTime() - start) / 1000000;
+	    start = System.nanoTime();
+	    write(graph, file);
+	    long writeMillis = (System.nanoTime() - start) / 1000000;
+	    System.out.println(String.format("Game on %d: %d nodes, %d edges, %d KB snapshot", n,
+					     graph.nodeCount(), graph.edgeCount(), Files.size(file) >> 10));
+	    System.out.println(String.format("%-28s %8d ms", "build and solve", buildMillis));
+	    System.out.println(String.format("%-28s %8d ms", "write snapshot", writeMillis));
+
+	    start = System.nanoTime();
+	    GameSnapshot snapshot = load(file, null, false);
+	    int winner = snapshot.winner();
+	    long mapMicros = (System.nanoTime() - start) / 1000;
+	    start = System.nanoTime();
+	    load(file);
+	    long verifyMillis = (System.nanoTime() - start) / 1000000;
+	    start = System.nanoTime();
+	    GameGraph loaded = snapshot.toGraph();
+	    long copyMillis = (System.nanoTime() - start) / 1000000;
+	    if(winner != graph.winner() || !sameGraph(loaded, snapshot) || !sameGraph(graph, snapshot)) {
+		throw new IllegalStateException("The snapshot of game " + n + " differs from its graph");
+	    }
+	    System.out.println(String.format("%-28s %8.3f ms", "map snapshot", mapMicros / 1000.0));
+	    System.out.println(String.format("%-28s %8d ms", "map and verify checksum", verifyMillis));
+	    System.out.println(String.format("%-28s %8d ms", "copy into a GameGraph", copyMillis));
+	} finally {
+	    Files.deleteIfExists(file);
+	}
+    }
+
+    /**
+     * Determines if a snapshot holds the same nodes, edges, values and winning
+     * path as a graph
+     */
+    private static boolean sameGraph(GameGraph graph, GameSnapshot snapshot) {
+	if(graph.nodeCount() != snapshot.nodeCount() || graph.edgeCount() != snapshot.edgeCount()
+	   || graph.layerCount() != snapshot.layerCount() || graph.isMerged() != snapshot.isMerged()
+	   || !java.util.Arrays.equals(graph.getWinningPath(), snapshot.getWinningPath())) {
+	    return false;
+	}
+	for(int d = 0; d < graph.layerCount(); d++) {
+	    if(graph.layerStart(d) != snapshot.layerStart(d) || graph.layerEnd(d) != snapshot.layerEnd(d)) {
+		return false;
+	    }
+	}
+	for(int id = 0; id < graph.nodeCount(); id++) {
+	    if(graph.key(id) != snapshot.key(id) || graph.value(id) != snapshot.value(id)
+	       || graph.childStart(id) != snapshot.childStart(id) || graph.childEnd(id) != snapshot.childEnd(id)
+	       || graph.parities(id) != snapshot.parities(id) || graph.depth(id) != snapshot.depth(id)) {
+		return false;
+	    }
+	}
+	for(int e = 0; e < graph.edgeCount(); e++) {
+	    if(graph.child(e) != snapshot.child(e)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+}
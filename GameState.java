@@ -3,14 +3,22 @@
  * ppb366@cs.utexas.edu
  *
  * Describes a GameState in the Zeckendorf Decomposition according to (Epstein 2018),
- * en route to publication at the time of writing. Each GameState object maintains a
- * decomposition state, which is a map keyed by indeces of Fibonacci numbers, whose
- * values are the frequencies of the respective Fibonacci numbers.
+ * en route to publication at the time of writing. Each GameState object points to a
+ * decomposition state, an immutable SparseState holding the frequencies of the
+ * Fibonacci numbers by index.
  *
- * Maintains a win value, a depth, and an n. The win value is set to 0 originally,
- * and is then assigned to 1 for a Player 1 victory or a -1 for a Player 2 victory.
- * The depth represents the number of moves taken to reach the GameState object from
- * the original GameState, defined by the number n of starting 1s.
+ * Maintains a win value and a depth for its node of the game. The win value is set
+ * to 0 originally, and is then assigned to 1 for a Player 1 victory or a -1 for a
+ * Player 2 victory. The depth represents the number of moves taken to reach the
+ * GameState object from the original GameState, defined by the number n of
+ * starting 1s.
+ *
+ * The decompositions are interned: every GameState played from the same starting
+ * state shares a PositionPool, and each move looks its decomposition up in it, so
+ * a decomposition reached along many paths is held once and every GameState
+ * reaching it only points to it. As decompositions never change, they are shared
+ * between threads without locking; only the win value of a GameState is written,
+ * by the solver of its node.
  *
  * Applying moves 1, 2, or 3 to a GameState object yields a new GameState. If the
  * move is invalid according to the Decomposition game, the original GameState object
@@ -45,10 +53,13 @@ public class GameState {
      *      1 - Player 1 wins the game
      *      0 - Winner undetermined
      *     -1 - Player 2 wins the game
-     * state is the current frequencies of each fibonacci in the decomposition
+     * position is the current frequencies of each fibonacci in the decomposition,
+     * interned in pool
      */
-    private int winVal, depth, n;
-    private HashMap<Integer, Integer> state;
+    private final SparseState position;
+    private final PositionPool pool;
+    private final int depth;
+    private int winVal;
 
 
     //===================================
@@ -62,53 +73,65 @@ public class GameState {
      * @param depth - The number of moves played up to the state
      */
     public GameState(HashMap<Integer, Integer> state, int depth) {
-	this.state = state;
-	this.depth = depth;
-	this.winVal = 0;
-
-	int sum = 0;
-	for(int key: state.keySet()) {
-	    sum += state.get(key);
-	}
-	this.n = sum;
+	this(state, depth, 0);
     }
 
 
     /**
-     * Constructs a GameState with its current state, depth, and win value
+     * Constructs a GameState with its current state, depth, and win value,
+     * interned in the shared pool
      *
      * @param state  - The current state of the decomposition
      * @param depth  - The number of moves played up to the state
      * @param winVal - Determines winner of the game at this GameState
      */
     public GameState(HashMap<Integer, Integer> state, int depth, int winVal) {
-	this.state = state;
-	this.depth = depth;
+	this(SparseState.of(state), depth, PositionPool.shared());
 	this.winVal = winVal;
-
-	int sum = 0;
-	for(int key: state.keySet()) {
-	    sum += state.get(key);
-	}
-	this.n = sum;
     }
 
 
     /**
      * Constructs a GameState for the first state in the fibonacci decomposition
-     * game.
+     * game, interned in the shared pool. Game gives its first state a pool of its
+     * own instead.
      *
      * @param n - The number of starting 1s in the fibonacci decomposition
      */
     public GameState(int n) {
-	this.depth = 0;
+	this(new SparseState(n), 0, PositionPool.shared());
+    }
 
-	HashMap<Integer, Integer> firstState = new HashMap<Integer, Integer>();
-	firstState.put(1, n);
-	this.state = firstState;
 
+    /**
+     * Constructs a GameState for a decomposition, interning it in a pool that the
+     * states played from this one share
+     *
+     * @param position - The current state of the decomposition
+     * @param depth    - The number of moves played up to the state
+     * @param pool     - The pool to intern the decomposition in
+     */
+    public GameState(SparseState position, int depth, PositionPool pool) {
+	this.position = pool.intern(position);
+	this.pool = pool;
+	this.depth = depth;
+	this.winVal = 0;
+    }
+
+
+    /**
+     * Constructs a GameState for a decomposition already interned in the pool of
+     * another GameState
+     *
+     * @param pooled - A decomposition held by the pool of node
+     * @param depth  - The number of moves played up to the state
+     * @param node   - A GameState of the same game
+     */
+    private GameState(SparseState pooled, int depth, GameState node) {
+	this.position = pooled;
+	this.pool = node.pool;
+	this.depth = depth;
 	this.winVal = 0;
-	this.n = n;
     }
 
 
@@ -117,19 +140,31 @@ public class GameState {
     //===================================
 
     /**
-     * Getter and setter for the current fibonacci decomposition
+     * Getter for a copy of the current fibonacci decomposition, holding the
+     * nonzero frequencies. Changing the copy leaves the GameState unchanged.
      */
-    public HashMap<Integer, Integer> getState() { return this.state; }
-    public void setState(HashMap<Integer, Integer> newState) {
-	this.state = newState;
+    public HashMap<Integer, Integer> getState() {
+	HashMap<Integer, Integer> decomp = new HashMap<Integer, Integer>();
+	for(int k = 0; k < position.size(); k++) {
+	    decomp.put(position.index(k), position.count(k));
+	}
+	return decomp;
     }
 
 
     /**
-     * Getter and setter for the depth of the GameState
+     * Getters for the decomposition, shared by every GameState with the same
+     * decomposition played from the same starting state, and for the pool it is
+     * interned in
+     */
+    public SparseState getPosition() { return this.position; }
+    public PositionPool getPool() { return this.pool; }
+
+
+    /**
+     * Getter for the depth of the GameState
      */
     public int getDepth() { return this.depth; }
-    public void setDepth(int depth) { this.depth = depth; }
 
 
     /**
@@ -139,24 +174,32 @@ public class GameState {
     public void setVal(int val) { this.winVal = val; } 
 
     /**
-     * Getter and setter for the n value of the GameState
+     * Getter for the n value of the GameState, the number of starting 1s of its
+     * game
      */
-    public int getN() { return this.n; }
-    public void setN(int n) { this.n = n; }
+    public int getN() { return Math.toIntExact(position.getTotal()); }
 
 
     /**
-     * Returns a deep copy of the current GameState object
+     * Getters for the number of indices holding at least 2 fibonaccis, the number
+     * of consecutive indices both holding a fibonacci, and the number of 1s. A
+     * move needs either 2 fibonaccis of the same index or 2 consecutive ones, so a
+     * state is terminal exactly when the first two are 0. The decomposition counts
+     * them once when built, so they take constant time.
      */
-    public GameState stateDeepCopy() {
+    public int getPileCount() { return position.getPileCount(); }
+    public int getAdjacentCount() { return position.getAdjacentCount(); }
+    public int getOnesCount() { return position.freq(1); }
 
-	HashMap<Integer, Integer> newState = new HashMap<Integer, Integer>();
-	for (int key: this.state.keySet()) {
-	    newState.put(key, this.state.get(key));
-	}
-
-	return new GameState(newState, this.depth, this.winVal);
 
+    /**
+     * Returns a copy of the current GameState object, with its own depth and win
+     * value. The decomposition, which never changes, is shared rather than copied.
+     */
+    public GameState stateDeepCopy() {
+	GameState copy = new GameState(this.position, this.depth, this);
+	copy.winVal = this.winVal;
+	return copy;
     }
 
 
@@ -172,32 +215,14 @@ public class GameState {
      */
     public GameState move1(int ind) {
 
-        // Make a copy of the current state
-        HashMap<Integer, Integer> newState = this.stateDeepCopy().getState();
-
         // Make sure you have the fibonaccis at the required indeces
-        if (!newState.containsKey(ind) || !newState.containsKey(ind + 1)) {
+        if (freqOf(ind) < 1 || freqOf(ind + 1) < 1) {
             return this;
         }
 
-        // Get frequency of fibonaccis at indeces ind and ind + 1
-        int freq1 = newState.get(ind);
-        int freq2 = newState.get(ind + 1);
-
-        if (freq1 > 0 && freq2 > 0) {
-	    // Remove one from the frequencies of the two fibonaccis being summed
-            newState.put(ind, freq1 - 1);
-            newState.put(ind + 1, freq2 - 1);
-
-            // Add a new fibonacci at ind + 2
-            int curCount = 0;
-            if(newState.containsKey(ind + 2)) {
-                curCount = newState.get(ind + 2);
-            }
-            newState.put(ind + 2, curCount + 1);
-        }
-
-        return new GameState(newState, this.depth + 1);
+	// Remove one from the frequencies of the two fibonaccis being summed, and
+	// add a new fibonacci at ind + 2
+	return child(position.apply(ind, -1, ind + 1, -1, ind + 2, 1));
     }
 
 
@@ -208,31 +233,11 @@ public class GameState {
      */
     public GameState move2() {
 
-	// Make a deep copy of the state of the current GameState
-        HashMap<Integer, Integer> newState = this.stateDeepCopy().getState();
-
-	// Check that the GameState has a key for 1
-        if (!newState.containsKey(1)) {
-            return this;
-        }
-
-	// If the GameState does not have a key for 2, create one
-        if (!newState.containsKey(2)) {
-            newState.put(2, 0);
-        }
-
-	// Get the frequency of 1 and 2 in the decomposition
-        int freqOnes = newState.get(1);
-        int freqTwos = newState.get(2);
-	
 	// Check that there are enough 1s to make a 2 and perform the move
-        if (newState.get(1) >= 2) {
-            newState.put(1, freqOnes - 2);
-            newState.put(2, freqTwos + 1);
+        if (freqOf(1) < 2) {
+            return this;
         }
-
-        return new GameState(newState, this.depth + 1);
-
+	return child(position.apply(1, -2, 2, 1, 2, 0));
     }
 
 
@@ -244,58 +249,15 @@ public class GameState {
      */
     public GameState move3(int ind) {
 
-	// Make a deep copy of the state of the current GameState
-        HashMap<Integer, Integer> newState = this.stateDeepCopy().getState();
-
 	// If index is too small, or there are not enough of the given fibonacci,
 	// return the original state
-        if (ind < 2 || newState.get(ind) < 2) {
+        if (ind < 2 || freqOf(ind) < 2) {
             return this;
         }
-	
-	// Special edge case, where we are splitting up two 2s
-        if (ind == 2 && newState.get(ind) >= 2) {
-
-	    // Get the frequency of 1s, 2s, and 3s
-            int freq2 = newState.get(ind);
-            int freq1 = newState.get(ind - 1);
-            if(!newState.containsKey(ind + 1)) {
-                newState.put(ind + 1, 0);
-            }
-            int freq3 = newState.get(ind + 1);
-
-	    // Update counts of 1s, 2s, and 3s appropriately
-            newState.put(ind, freq2 - 2);
-            newState.put(ind - 1, freq1 + 1);
-            newState.put(ind + 1, freq3 + 1);
-
-            return new GameState(newState, this.depth + 1);
-
-        }
-
-	// Verify that all the necessary keys exist
-        if (!newState.containsKey(ind - 2)) {
-            newState.put(ind - 2, 0);
-        }
-        if (!newState.containsKey(ind + 1)) {
-            newState.put(ind + 1, 0);
-        }
-
-	// Get the frequency for the fibonacci to split, the one below
-	// and the one above
-        int freq = newState.get(ind);
-        int freqLowerNum = newState.get(ind - 2);
-        int freqHigherNum = newState.get(ind + 1);
-
-	// Update frequencies of the split fibonaccis, and the fibonaccis
-	// these were split into
-        newState.put(ind, freq - 2);
-        newState.put(ind - 2, freqLowerNum + 1);
-        newState.put(ind + 1, freqHigherNum + 1);
-
-	//System.out.println("Split " + fib(ind) + "s at depth " + (this.depth + 1));
-        return new GameState(newState, this.depth + 1);
 
+	// Update frequencies of the split fibonaccis, and the fibonaccis these were
+	// split into. Two 2s are the special edge case, splitting into a 1 and a 3.
+	return child(position.apply(ind, -2, ind == 2 ? 1 : ind - 2, 1, ind + 1, 1));
     }
 
 
@@ -312,59 +274,32 @@ public class GameState {
      */
     public boolean isDifferent(GameState nextState) {
 
-	HashMap<Integer, Integer> nextDecomposition = nextState.getState();
-	HashMap<Integer, Integer> curDecomposition = this.getState();
-
-        for (int i: nextDecomposition.keySet()) {
-            if(nextDecomposition.get(i) != curDecomposition.get(i)) {
-                return true;
-            }
-        }
-
-        return false;
+	// States interned in the same pool share equal decompositions, so the
+	// comparison stops at the reference for those
+	return !this.position.equals(nextState.position);
     }
 
 
     /**
-     * Determines if GameState is a terminal state
+     * Determines if GameState is a terminal state. A move needs 2 fibonaccis of
+     * the same index (a split, or 1 + 1) or fibonaccis at 2 consecutive indices.
+     * Both are counted by the decomposition when built, so the check takes
+     * constant time.
      *
      * @return true if no moves can be applied to the GameState, false otherwise
      */
     public boolean isEndState() {
+	return position.isTerminal();
+    }
 
 
-	// Get the current decomposition
-        HashMap<Integer, Integer> decomp = this.getState();
-
-	// Edge case with decomposition of 1
-        if (decomp.keySet().size() == 1 && decomp.containsKey(1) && decomp.get(1) == 1) {
-            return true;
-        }
-
-	// Easy check to see if a state is not terminal (if any 1s are left)
-        if (decomp.containsKey(1)) {
-            return false;
-        }
-
-	// Check to see if any moves can be played from this state
-        for (int i = 0; i < getN(); i++) {
-            if(decomp.containsKey(i) && decomp.containsKey(i + 1)) {
-                int firstCount = decomp.get(i);
-                int secondCount = decomp.get(i + 1);
-
-		// Check for any keys with more than 1 fibonacci
-                if(firstCount > 1 || secondCount > 1) {
-                    return false;
-                }
-
-		// Check for any consecutive keys with nonzero values
-                if(firstCount != 0 && secondCount != 0) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
+    /**
+     * Determines if any move can be applied to the GameState
+     *
+     * @return true if the GameState has at least one child
+     */
+    public boolean hasMove() {
+	return !position.isTerminal();
     }
 
 
@@ -373,43 +308,21 @@ public class GameState {
     //===================================
 
     /**
-     * Make all valid moves from the current state
+     * Make all valid moves from the current state: for each index from smallest to
+     * largest the split move then the summing move, and finally the 1 + 1 move
      *
      * @return - An ArrayList containing all the states the GameState could lead to
      * after a single move
      */
     public ArrayList<GameState> genChildren() {
 
-	// Get the state of the GameState
-        HashMap<Integer, Integer> curState = this.getState();
-
 	// Initialize a list that will hold all the possible subsequent GameStates
 	ArrayList<GameState> children = new ArrayList<GameState>();
 
-	// Generate all the possible next moves
-        for(int i: curState.keySet()) {
-
-	    // Find all the split moves that can be done and add resulting GameStates
-	    // to list of children
-            GameState newState3 = this.move3(i);
-            if(this.isDifferent(newState3)) {
-		children.add(newState3);
-            }
-
-	    // Find all the consescutive summing moves and add resulting GameStates
-	    // to list of children
-            GameState newState1 = this.move1(i);
-            if(this.isDifferent(newState1)) {
-                children.add(newState1);
-            }
-
-        }
-
-	// Add the 1 + 1 sum move to list of children if possible
-	GameState newState2 = this.move2();
-        if(this.isDifferent(newState2)) {
-	    children.add(newState2);
-        }
+	// The decomposition lists its children in the order of the moves above
+	for(SparseState next: this.position.children()) {
+	    children.add(child(next));
+	}
 
         return children;
     }
@@ -433,24 +346,189 @@ public class GameState {
     }
 
 
+    //===================================
+    // PREDECESSOR METHODS
+    //===================================
+
+    /**
+     * Undo a move 1 at ind: split a fibonacci at ind + 2 back into the two
+     * consecutive fibonaccis at ind and ind + 1 that were summed into it
+     *
+     * @param ind - The index of the smaller of the 2 consecutive fibonaccis
+     * @return The state move1(ind) leads from, or this state if there is none
+     */
+    public GameState unmove1(int ind) {
+	if(ind < 1 || freqOf(ind + 2) < 1) {
+	    return this;
+	}
+	return parent(position.apply(ind + 2, -1, ind + 1, 1, ind, 1));
+    }
+
+
+    /**
+     * Undo a move 2: split a 2 back into two 1s
+     *
+     * @return The state move2() leads from, or this state if there is none
+     */
+    public GameState unmove2() {
+	if(freqOf(2) < 1) {
+	    return this;
+	}
+	return parent(position.apply(2, -1, 1, 2, 1, 0));
+    }
+
+
+    /**
+     * Undo a move 3 at ind: sum the fibonaccis at ind - 2 and ind + 1 (at 1 and 3
+     * for ind = 2) back into two fibonaccis at ind
+     *
+     * @param ind - Index of the fibonacci that was split
+     * @return The state move3(ind) leads from, or this state if there is none
+     */
+    public GameState unmove3(int ind) {
+	int low = ind == 2 ? 1 : ind - 2;
+	if(ind < 2 || freqOf(low) < 1 || freqOf(ind + 1) < 1) {
+	    return this;
+	}
+	return parent(position.apply(low, -1, ind + 1, -1, ind, 2));
+    }
+
+
+    /**
+     * Undo every move that could have led to the current state. Each predecessor
+     * has one less move played, though it may only be reachable in a different
+     * number of moves.
+     *
+     * @return - An ArrayList containing all the states one move leads from to the
+     * GameState
+     */
+    public ArrayList<GameState> genParents() {
+	ArrayList<GameState> parents = new ArrayList<GameState>();
+
+	// The largest index a move can have touched
+	int top = position.size() > 0 ? position.index(position.size() - 1) : 0;
+
+	for(int i = 1; i <= top; i++) {
+	    GameState unsplit = this.unmove3(i);
+	    if(unsplit != this) {
+		parents.add(unsplit);
+	    }
+	    GameState unsum = this.unmove1(i);
+	    if(unsum != this) {
+		parents.add(unsum);
+	    }
+	}
+
+	GameState unsumOnes = this.unmove2();
+	if(unsumOnes != this) {
+	    parents.add(unsumOnes);
+	}
+	return parents;
+    }
+
+
+    /**
+     * Determines if a single move leads from the passed GameState to this one,
+     * whatever the depths of the two states
+     *
+     * @param st - A potential parent GameState of this GameState
+     * @return - True if st represents a parent of this GameState, false otherwise
+     */
+    public boolean hasParent(GameState st) {
+	for(GameState parent: genParents()) {
+	    if(!parent.isDifferent(st)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+
+    /**
+     * Writes the GameState on a single line: its depth, then index:frequency for
+     * every nonzero frequency by increasing index, e.g. "7 1:2 3:1 5:2" for 2 1s,
+     * a 3 and 2 8s after 7 moves. parseLine() reads the line back.
+     *
+     * @return - The line describing the GameState
+     */
+    public String toLine() {
+	StringBuilder line = new StringBuilder();
+	line.append(this.depth);
+	for(int k = 0; k < position.size(); k++) {
+	    line.append(' ').append(position.index(k)).append(':').append(position.count(k));
+	}
+	return line.toString();
+    }
+
+
+    /**
+     * Reads a GameState from a line written by toLine()
+     *
+     * @param line - The depth followed by index:frequency pairs, separated by spaces
+     * @return - A new GameState with the decomposition and depth of the line
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    public static GameState parseLine(String line) {
+	String[] fields = line.trim().split("\\s+");
+	HashMap<Integer, Integer> decomp = new HashMap<Integer, Integer>();
+	try {
+	    int depth = Integer.parseInt(fields[0]);
+	    for(int f = 1; f < fields.length; f++) {
+		int colon = fields[f].indexOf(':');
+		int index = Integer.parseInt(fields[f].substring(0, colon));
+		int freq = Integer.parseInt(fields[f].substring(colon + 1));
+		if(index < 1 || freq < 0 || decomp.put(index, freq) != null) {
+		    throw new IllegalArgumentException("Bad entry " + fields[f] + " in line: " + line);
+		}
+	    }
+	    if(fields.length < 2 || depth < 0) {
+		throw new IllegalArgumentException("Not a position: " + line);
+	    }
+	    return new GameState(decomp, depth);
+	} catch(NumberFormatException | StringIndexOutOfBoundsException e) {
+	    throw new IllegalArgumentException("Not a position: " + line, e);
+	}
+    }
+
+
     //===================================
     // AUXILIARY METHODS
     //===================================
 
     /**
-     * Get the nth fibonacci number using recursion. Not the fastest method
+     * Builds the GameState a move leads to, interning its decomposition in the pool
+     * of this state
+     */
+    private GameState child(SparseState next) {
+	return new GameState(pool.intern(next), this.depth + 1, this);
+    }
+
+
+    /**
+     * Builds the GameState an inverse move leads to, one move earlier, interning
+     * its decomposition in the pool of this state
+     */
+    private GameState parent(SparseState previous) {
+	return new GameState(pool.intern(previous), this.depth - 1, this);
+    }
+
+
+    /**
+     * Frequency of an index, 0 if the decomposition has no entry for it
+     */
+    private int freqOf(int index) {
+	return this.position.freq(index);
+    }
+
+
+    /**
+     * Get the nth fibonacci number from the shared table of Fibonacci
      *
      * @return - The nth fibonacci number, with fib(0) = 1 and fib(1) = 1
+     * @throws ArithmeticException past the last fibonacci that fits in a long
      */
-    public int fib(int n) {
-
-	// Recursively compute the nth fibonacci number according to the recurrence
-	// relation.
-        if(n <= 1) {
-            return 1;
-        } else {
-            return fib(n - 1) + fib(n - 2);
-        }
+    public long fib(int n) {
+	return Fibonacci.get(n);
     }
 
 
@@ -477,5 +555,136 @@ public class GameState {
 	    + decompInfo + winner;
     }
 
-    
-}
\ No newline at end of file
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Property test of the summary counters. Every state reachable in the games up
+     * to the passed n, and random decompositions holding an entry for every index,
+     * must agree with MutableGameState, which finds them from its bit masks over a
+     * plain array of frequencies, on being terminal and on the counters. The
+     * predecessors of every reachable state must be exactly the states with a move
+     * to it, packed or not, and states reached along different paths must share
+     * one interned decomposition, as must states built from equal maps.
+     */
+    public static void main(String[] args) {
+	int maxN = args.length > 0 ? Integer.parseInt(args[0]) : 25;
+	long checked = 0;
+
+	// Every reachable state, reached through the moves
+	for(int n = 1; n <= maxN; n++) {
+	    PackedState codec = new PackedState(n);
+	    java.util.LinkedList<GameState> toCheck = new java.util.LinkedList<GameState>();
+	    HashMap<HashMap<Integer, Integer>, GameState> seen = new HashMap<HashMap<Integer, Integer>, GameState>();
+	    toCheck.add(new GameState(n));
+	    while(toCheck.size() > 0) {
+		GameState state = toCheck.poll();
+		checkSummary(state, n);
+		checkParents(state, codec);
+		checked++;
+		if(state.isEndState()) {
+		    continue;
+		}
+		for(GameState child: state.genChildren()) {
+		    GameState first = seen.putIfAbsent(child.getState(), child);
+		    if(first == null) {
+			toCheck.add(child);
+		    } else if(first.getPosition() != child.getPosition()) {
+			throw new IllegalStateException("Decomposition not interned: " + child.getState());
+		    }
+		}
+	    }
+	}
+
+	// Random decompositions of random totals
+	java.util.Random random = new java.util.Random(2018);
+	for(int trial = 0; trial < 100000; trial++) {
+	    int n = 2 + random.nextInt(200);
+	    int top = 2;
+	    while(PackedState.FIB[top + 1] <= n) {
+		top++;
+	    }
+	    HashMap<Integer, Integer> decomp = new HashMap<Integer, Integer>();
+	    for(int i = 1; i <= top; i++) {
+		decomp.put(i, 0);
+	    }
+	    for(int rest = n; rest > 0; ) {
+		int i = 1 + random.nextInt(top);
+		if(PackedState.FIB[i] <= rest) {
+		    decomp.put(i, decomp.get(i) + 1);
+		    rest -= PackedState.FIB[i];
+		}
+	    }
+	    GameState state = new GameState(decomp, 0);
+	    if(new GameState(decomp, 1).getPosition() != state.getPosition()) {
+		throw new IllegalStateException("Decomposition not shared: " + decomp);
+	    }
+	    checkSummary(state, n);
+	    checked++;
+	}
+
+	System.out.println("Summary counters agree on " + checked + " states");
+	System.out.println("Predecessors are exact and decompositions interned on the reachable states "
+			   + "of the games up to " + maxN);
+    }
+
+    /**
+     * Checks that the predecessors of a state are exactly the states having it as
+     * a child, and that the packed predecessors are the same states
+     */
+    private static void checkParents(GameState state, PackedState codec) {
+	ArrayList<GameState> parents = state.genParents();
+	for(GameState parent: parents) {
+	    boolean found = false;
+	    for(GameState child: parent.genChildren()) {
+		found |= !child.isDifferent(state);
+	    }
+	    if(!found || parent.getDepth() != state.getDepth() - 1) {
+		throw new IllegalStateException(parent.getState() + " is not a parent of " + state.getState());
+	    }
+	}
+	if(!state.isEndState()) {
+	    for(GameState child: state.genChildren()) {
+		if(!child.hasParent(state)) {
+		    throw new IllegalStateException(state.getState() + " is missing from the parents of "
+						    + child.getState());
+		}
+	    }
+	}
+
+	long[] packed = new long[codec.maxChildren()];
+	int count = codec.parents(codec.encode(state), packed);
+	long[] expected = new long[parents.size()];
+	for(int p = 0; p < expected.length; p++) {
+	    expected[p] = codec.encode(parents.get(p));
+	}
+	long[] actual = java.util.Arrays.copyOf(packed, count);
+	java.util.Arrays.sort(actual);
+	java.util.Arrays.sort(expected);
+	if(!java.util.Arrays.equals(actual, expected)) {
+	    throw new IllegalStateException("Packed parents differ for " + state.getState());
+	}
+    }
+
+    /**
+     * Checks the counters and terminal checks of a state against those
+     * MutableGameState scans from the same frequencies
+     */
+    private static void checkSummary(GameState state, int n) {
+	MutableGameState reference = new MutableGameState(n);
+	reference.setFrom(state);
+	boolean terminal = reference.isTerminal();
+
+	if(state.getPileCount() != reference.pileCount()
+	   || state.getAdjacentCount() != reference.adjacentCount()
+	   || state.getOnesCount() != reference.freq(1)) {
+	    throw new IllegalStateException("Counters wrong for " + state.getState());
+	}
+	if(state.isEndState() != terminal || state.hasMove() == terminal) {
+	    throw new IllegalStateException("Terminal checks disagree for " + state.getState());
+	}
+    }
+
+}
@@ -1,8 +1,8 @@
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import java.awt.Graphics;
 import java.awt.Color;
-import java.awt.Font;
 import java.awt.FontMetrics;
 
 public class GameStateDrawable {
@@ -32,6 +32,12 @@ public class GameStateDrawable {
      * Strings that hold a representation of the keys and values in the GameState
      */
     private String keys, values;
+
+    /**
+     * Width of the longer of the key and value Strings at each size of the font
+     * table of RenderModel, measured once
+     */
+    private int[] textWidths;
     
 
     /**
@@ -61,12 +67,9 @@ public class GameStateDrawable {
      */ 
     public void initGlobalVariables() {
 
-	// Initialize the keys and values Strings
-	this.keys = "";
-	this.values = "";
-
 	// Get the children of the wrapped GameState. The number of children is used
-	// to determine whether or not the GameState is terminal.
+	// to determine whether or not the GameState is terminal. States of a solved
+	// GameGraph should be drawn with a RenderModel instead, which knows this.
 	ArrayList<GameState> children = state.genChildren();
 	int numChildren = children.size();
 
@@ -88,17 +91,26 @@ public class GameStateDrawable {
 	}
 
 	// Generate the key and value Strings so that the value corresponding to
-	// a key lies directly below it.
-	for(int key: state.getState().keySet()) {
-	    keys += " " + fib(key);
-	    values += " " + state.getState().get(key);
-
-	    // Pad with spaces to keep the value and key Strings aligned
-	    while(keys.length() < values.length()) { keys += " "; }
-	    while(values.length() < keys.length()) { values += " "; }
+	// a key lies directly below it. Each column is padded to the wider of the
+	// fibonacci and its frequency.
+	HashMap<Integer, Integer> decomp = state.getState();
+	int length = 0;
+	for(int key: decomp.keySet()) {
+	    length += 1 + Math.max(RenderModel.digits(fib(key)),
+				   RenderModel.digits(decomp.get(key)));
 	}
-
-	
+	char[] keyChars = new char[length];
+	char[] valueChars = new char[length];
+	int position = 0;
+	for(int key: decomp.keySet()) {
+	    int width = 1 + Math.max(RenderModel.digits(fib(key)),
+				     RenderModel.digits(decomp.get(key)));
+	    RenderModel.writeColumn(keyChars, position, fib(key), width);
+	    position = RenderModel.writeColumn(valueChars, position, decomp.get(key), width);
+	}
+	this.keys = new String(keyChars);
+	this.values = new String(valueChars);
+	measureText();
     }
 
 
@@ -138,14 +150,20 @@ public class GameStateDrawable {
      * Getter and Setter for the keys of the GameState
      */
     public String getKeyString() { return this.keys; }
-    public void setKeyString(String keys) { this.keys = keys; }
+    public void setKeyString(String keys) {
+	this.keys = keys;
+	measureText();
+    }
 
 
     /**
      * Getter and Setter for the values of the GSD
      */
     public String getValueString() { return this.values; }
-    public void setValueString(String values) { this.values = values; }
+    public void setValueString(String values) {
+	this.values = values;
+	measureText();
+    }
 
 
     /**
@@ -212,45 +230,61 @@ public class GameStateDrawable {
      * @param g - The Graphics that draws the GSD
      */
     public void adaptTextSize(Graphics g) {
-	g.setFont(new Font("Times", 1, 12));
-	FontMetrics fm = g.getFontMetrics();
-	int maxStringWidth = Math.max(fm.stringWidth(keys), fm.stringWidth(values));
-	while(g.getFont().getSize() > 7 
-	      && (maxStringWidth > this.width || 2 * fm.getHeight() + 3 >= this.height)) {
-	    reduceFont(g);
-	    fm = g.getFontMetrics();
-	    maxStringWidth = Math.max(fm.stringWidth(keys), fm.stringWidth(values));
+	int s = 0;
+	while(s < RenderModel.FontTable.SIZES - 1
+	      && (textWidth(s) > this.width
+		  || 2 * RenderModel.FontTable.height(s) + 3 >= this.height)) {
+	    s++;
 	}
+	g.setFont(RenderModel.FontTable.font(s));
     }
 
 
     /**
-     * Reduces the size of the Font being used by the Graphics object by 1.
+     * Reduces the size of the Font being used by the Graphics object by 1, down to
+     * the smallest font of the table
      *
      * @param g - The Graphics object the draws the GSD
      */
     public void reduceFont(Graphics g) {
-	Font f = g.getFont();
-	int curSize = f.getSize();
-	f = new Font(f.getName(), f.getStyle(), curSize - 1);
-	g.setFont(f);
+	int s = RenderModel.FontTable.indexOf(g.getFont().getSize() - 1);
+	g.setFont(RenderModel.FontTable.font(s));
     }
 
 
     /**
-     * An auxiliary method used to compute the nth fibonacci number
+     * Width in pixels of the longer of the key and value Strings, at a size of the
+     * font table
      *
-     * @param n - The index of the fibonacci number to compute
+     * @param s - The index of the size in the font table
      */
-    public int fib(int n) {
+    private int textWidth(int s) {
+	return this.textWidths[s];
+    }
+
 
-	// Recursively compute the nth finbonacci number using the recurrence relation
-	if(n <= 1) {
-	    return 1;
-	} else {
-	    return fib(n - 1) + fib(n - 2);
+    /**
+     * Measures the key and value Strings at every size of the font table
+     */
+    private void measureText() {
+	char[] keyChars = keys.toCharArray();
+	char[] valueChars = values.toCharArray();
+	this.textWidths = new int[RenderModel.FontTable.SIZES];
+	for(int s = 0; s < textWidths.length; s++) {
+	    textWidths[s] = Math.max(RenderModel.FontTable.width(s, keyChars, 0, keyChars.length),
+				     RenderModel.FontTable.width(s, valueChars, 0, valueChars.length));
 	}
     }
+
+
+    /**
+     * An auxiliary method used to compute the nth fibonacci number
+     *
+     * @param n - The index of the fibonacci number to compute
+     */
+    public long fib(int n) {
+	return Fibonacci.get(n);
+    }
     
     // Main method used for debugging
     public static void main(String[] args) {
@@ -0,0 +1,558 @@
+/**
+ * GameViewer is an interactive, zoomable version of TreeDrawer. It shows the same
+ * picture: one horizontal layer per depth, red trim for states won by player 2,
+ * blue trim for states won by player 1, yellow terminal states, and the winning
+ * path of player 2 in green.
+ *
+ * The game is built and solved once, on a background thread, into a GameGraph,
+ * and the layout of every layer is computed at the same time. Painting only
+ * touches what is inside the window:
+ *
+ *      - only the layers crossing the viewport are visited, and within a layer
+ *        only the nodes whose slots are on screen
+ *      - edges are grouped in blocks of consecutive parents with a cached
+ *        horizontal extent, and blocks entirely off screen are skipped
+ *      - layers whose nodes are narrower than a few pixels on screen are
+ *        collapsed into a strip, coloured by the share of each winner in every
+ *        column of pixels, and their edges are not drawn
+ *      - labels are only drawn once a box is wide enough to hold them
+ *
+ * Controls: drag to pan, mouse wheel to zoom around the pointer, '+' and '-' to
+ * zoom around the centre of the window, and 'f' to fit the whole game.
+ *
+ * The viewer can be executed, after compilation, by running the command
+ *
+ *          java GameViewer [n]
+ *
+ */
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+public class GameViewer extends JFrame {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Initial dimensions of the window
+     */
+    private static final int WINDOW_WIDTH = 1300, WINDOW_HEIGHT = 775;
+
+    /**
+     * Dimensions of the layout in world units: the horizontal slot given to each
+     * node of the widest layer, the distance between layers, and the largest size
+     * of a box
+     */
+    private static final double NODE_PITCH = 60, LAYER_PITCH = 80;
+    private static final double BOX_HEIGHT = 40, MAX_BOX_WIDTH = 180;
+
+    /**
+     * Level of detail thresholds, in pixels. Layers whose slots are narrower than
+     * COLLAPSE_PIXELS are drawn as strips of COLUMN_PIXELS wide columns, and
+     * labels need boxes at least LABEL_PIXELS wide.
+     */
+    private static final int COLLAPSE_PIXELS = 4, COLUMN_PIXELS = 2, LABEL_PIXELS = 48;
+
+    /**
+     * Number of consecutive parents sharing a cached edge extent
+     */
+    private static final int EDGE_BLOCK = 64;
+
+    /**
+     * Trim colours of the states, as in GameStateDrawable, used to shade collapsed
+     * layers
+     */
+    private static final Color P1_TRIM = new Color(102, 178, 255);
+    private static final Color P2_TRIM = new Color(255, 102, 102);
+
+    /**
+     * Shades used for collapsed layers, from all player 2 wins to all player 1 wins
+     */
+    private static final Color[] SHADES = new Color[33];
+    static {
+	for(int i = 0; i < SHADES.length; i++) {
+	    SHADES[i] = blend(P2_TRIM, P1_TRIM, (double) i / (SHADES.length - 1));
+	}
+    }
+
+    /**
+     * The game being shown, its render model and its cached layout. All are null
+     * until the background build completes.
+     */
+    private final int n;
+    private GameGraph graph;
+    private RenderModel model;
+    private Layout layout;
+
+    /**
+     * Current view: world coordinates of the top left corner of the window, and
+     * the number of pixels per world unit
+     */
+    private double viewX, viewY, scale = 1;
+
+    /**
+     * Components of the window
+     */
+    private final Canvas canvas;
+    private final JLabel status;
+
+
+    /**
+     * Constructs the viewer for the nth game and starts building it
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     */
+    public GameViewer(int n) {
+	super("Zeckendorf game on " + n);
+	this.n = n;
+
+	this.canvas = new Canvas();
+	this.canvas.setPreferredSize(new Dimension(WINDOW_WIDTH, WINDOW_HEIGHT));
+	this.status = new JLabel("Building game on " + n + "...");
+
+	getContentPane().add(canvas, BorderLayout.CENTER);
+	getContentPane().add(status, BorderLayout.SOUTH);
+	setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+	pack();
+
+	startBuild();
+    }
+
+
+    /**
+     * Builds and solves the game and its layout on a background thread, then
+     * hands them to the event dispatch thread
+     */
+    private void startBuild() {
+	new SwingWorker<Layout, Void>() {
+
+	    private GameGraph built;
+	    private RenderModel builtModel;
+
+	    @Override
+	    protected Layout doInBackground() {
+		built = GameGraph.build(n);
+		builtModel = RenderModel.build(built);
+		return new Layout(built);
+	    }
+
+	    @Override
+	    protected void done() {
+		try {
+		    layout = get();
+		    graph = built;
+		    model = builtModel;
+		    status.setText("Game on " + n + ": " + graph.nodeCount() + " states, "
+				   + graph.edgeCount() + " moves, longest game "
+				   + graph.maxDepth() + ", winner: player "
+				   + (graph.winner() == 1 ? 1 : 2));
+		    fitToWindow();
+		} catch(InterruptedException | ExecutionException e) {
+		    status.setText("Could not build game on " + n + ": " + e.getCause());
+		}
+	    }
+	}.execute();
+    }
+
+
+    //===================================
+    // VIEW METHODS
+    //===================================
+
+    /**
+     * Zooms out to show the whole game
+     */
+    private void fitToWindow() {
+	int width = canvas.getWidth() > 0 ? canvas.getWidth() : WINDOW_WIDTH;
+	int height = canvas.getHeight() > 0 ? canvas.getHeight() : WINDOW_HEIGHT;
+	scale = Math.min(width / layout.width, height / layout.height);
+	viewX = -(width / scale - layout.width) / 2;
+	viewY = -(height / scale - layout.height) / 2;
+	canvas.repaint();
+    }
+
+    /**
+     * Zooms the view, keeping the world point under the passed pixel fixed
+     *
+     * @param factor - The factor to multiply the scale by
+     * @param px - The x coordinate of the fixed pixel
+     * @param py - The y coordinate of the fixed pixel
+     */
+    private void zoom(double factor, int px, int py) {
+	double newScale = Math.max(layout.minScale(canvas), Math.min(scale * factor, 16));
+	viewX += px / scale - px / newScale;
+	viewY += py / scale - py / newScale;
+	scale = newScale;
+	canvas.repaint();
+    }
+
+
+    //===================================
+    // LAYOUT
+    //===================================
+
+    /**
+     * Layout of a game, computed once after building. Each layer is spread over
+     * the full width of the world, so the x coordinate of a node only depends on
+     * its rank in its layer and the pitch of the layer.
+     */
+    private static class Layout {
+
+	/**
+	 * Size of the world, and horizontal distance between the nodes of each layer
+	 */
+	final double width, height;
+	final double[] pitch;
+
+	/**
+	 * Number of player 1 wins among the nodes with an id below each id, used to
+	 * colour collapsed layers
+	 */
+	final int[] p1Before;
+
+	/**
+	 * Horizontal extent of the edges of each block of EDGE_BLOCK consecutive
+	 * parents in each layer
+	 */
+	final float[][] blockLeft, blockRight;
+
+
+	Layout(GameGraph graph) {
+	    int layers = graph.layerCount();
+	    int widest = 1;
+	    for(int d = 0; d < layers; d++) {
+		widest = Math.max(widest, graph.layerSize(d));
+	    }
+	    width = widest * NODE_PITCH;
+	    height = layers * LAYER_PITCH;
+
+	    pitch = new double[layers];
+	    for(int d = 0; d < layers; d++) {
+		pitch[d] = width / graph.layerSize(d);
+	    }
+
+	    // Count player 1 wins cumulatively
+	    p1Before = new int[graph.nodeCount() + 1];
+	    for(int id = 0; id < graph.nodeCount(); id++) {
+		p1Before[id + 1] = p1Before[id] + (graph.value(id) == 1 ? 1 : 0);
+	    }
+
+	    // Bound the edges leaving each block of parents
+	    blockLeft = new float[layers][];
+	    blockRight = new float[layers][];
+	    for(int d = 0; d < layers; d++) {
+		int start = graph.layerStart(d);
+		int blocks = (graph.layerSize(d) + EDGE_BLOCK - 1) / EDGE_BLOCK;
+		blockLeft[d] = new float[blocks];
+		blockRight[d] = new float[blocks];
+		for(int b = 0; b < blocks; b++) {
+		    double left = Double.MAX_VALUE, right = -Double.MAX_VALUE;
+		    int last = Math.min(start + (b + 1) * EDGE_BLOCK, graph.layerEnd(d));
+		    for(int id = start + b * EDGE_BLOCK; id < last; id++) {
+			double x = x(graph, id, d);
+			left = Math.min(left, x);
+			right = Math.max(right, x);
+			for(int e = graph.childStart(id); e < graph.childEnd(id); e++) {
+			    double cx = x(graph, graph.child(e), d + 1);
+			    left = Math.min(left, cx);
+			    right = Math.max(right, cx);
+			}
+		    }
+		    blockLeft[d][b] = (float) left;
+		    blockRight[d][b] = (float) right;
+		}
+	    }
+	}
+
+	/**
+	 * World x coordinate of the centre of a node of layer d
+	 */
+	double x(GameGraph graph, int id, int d) {
+	    return (id - graph.layerStart(d) + 0.5) * pitch[d];
+	}
+
+	/**
+	 * World y coordinate of the top of layer d
+	 */
+	double y(int d) {
+	    return d * LAYER_PITCH;
+	}
+
+	/**
+	 * World width of the boxes of layer d
+	 */
+	double boxWidth(int d) {
+	    return Math.min(pitch[d] * 0.8, MAX_BOX_WIDTH);
+	}
+
+	/**
+	 * Smallest scale allowed, a little smaller than the one fitting the world
+	 */
+	double minScale(JPanel panel) {
+	    return 0.5 * Math.min(panel.getWidth() / width, panel.getHeight() / height);
+	}
+    }
+
+
+    //===================================
+    // DRAWING
+    //===================================
+
+    /**
+     * The panel the game is drawn on
+     */
+    private class Canvas extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+
+	private Point dragStart;
+
+	Canvas() {
+	    setBackground(Color.WHITE);
+	    setFocusable(true);
+
+	    MouseAdapter mouse = new MouseAdapter() {
+		    @Override
+		    public void mousePressed(MouseEvent e) {
+			dragStart = e.getPoint();
+			requestFocusInWindow();
+		    }
+
+		    @Override
+		    public void mouseDragged(MouseEvent e) {
+			if(layout == null || dragStart == null) {
+			    return;
+			}
+			viewX -= (e.getX() - dragStart.x) / scale;
+			viewY -= (e.getY() - dragStart.y) / scale;
+			dragStart = e.getPoint();
+			repaint();
+		    }
+
+		    @Override
+		    public void mouseWheelMoved(MouseWheelEvent e) {
+			if(layout != null) {
+			    zoom(Math.pow(1.15, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+			}
+		    }
+		};
+	    addMouseListener(mouse);
+	    addMouseMotionListener(mouse);
+	    addMouseWheelListener(mouse);
+
+	    addKeyListener(new KeyAdapter() {
+		    @Override
+		    public void keyTyped(KeyEvent e) {
+			if(layout == null) {
+			    return;
+			}
+			char c = e.getKeyChar();
+			if(c == '+' || c == '=') {
+			    zoom(1.5, getWidth() / 2, getHeight() / 2);
+			} else if(c == '-') {
+			    zoom(1 / 1.5, getWidth() / 2, getHeight() / 2);
+			} else if(c == 'f') {
+			    fitToWindow();
+			}
+		    }
+		});
+	}
+
+	/**
+	 * Draws the part of the game inside the window
+	 *
+	 * @param g - The Graphics object used to draw on the panel
+	 */
+	@Override
+	protected void paintComponent(Graphics g) {
+	    super.paintComponent(g);
+	    if(layout == null) {
+		g.setColor(Color.BLACK);
+		g.drawString("Building game on " + n + "...", 20, 20);
+		return;
+	    }
+
+	    // Find the layers crossing the viewport
+	    double top = viewY;
+	    double bottom = viewY + getHeight() / scale;
+	    int firstLayer = Math.max(0, (int) Math.floor((top - BOX_HEIGHT) / LAYER_PITCH));
+	    int lastLayer = Math.min(graph.maxDepth(), (int) Math.floor(bottom / LAYER_PITCH));
+
+	    // Draw the edges first, so the boxes are drawn over them
+	    g.setColor(Color.LIGHT_GRAY);
+	    for(int d = Math.max(0, firstLayer - 1); d <= lastLayer && d < graph.maxDepth(); d++) {
+		if(!isCollapsed(d) && !isCollapsed(d + 1)) {
+		    drawEdges(g, d);
+		}
+	    }
+
+	    for(int d = firstLayer; d <= lastLayer; d++) {
+		if(isCollapsed(d)) {
+		    drawCollapsedLayer(g, d);
+		} else {
+		    drawLayer(g, d);
+		}
+	    }
+	}
+
+	/**
+	 * Determines whether the nodes of a layer are too close to be drawn apart
+	 */
+	private boolean isCollapsed(int d) {
+	    return layout.pitch[d] * scale < COLLAPSE_PIXELS;
+	}
+
+	/**
+	 * Draws the edges between layer d and layer d + 1 that cross the viewport
+	 */
+	private void drawEdges(Graphics g, int d) {
+	    double left = viewX;
+	    double right = viewX + getWidth() / scale;
+	    int y1 = screenY(layout.y(d) + BOX_HEIGHT);
+	    int y2 = screenY(layout.y(d + 1));
+	    int start = graph.layerStart(d);
+	    int end = graph.layerEnd(d);
+
+	    for(int b = 0; b < layout.blockLeft[d].length; b++) {
+
+		// Skip blocks of parents whose edges all lie off screen
+		if(layout.blockRight[d][b] < left || layout.blockLeft[d][b] > right) {
+		    continue;
+		}
+
+		int last = Math.min(start + (b + 1) * EDGE_BLOCK, end);
+		for(int id = start + b * EDGE_BLOCK; id < last; id++) {
+		    double x1 = layout.x(graph, id, d);
+		    for(int e = graph.childStart(id); e < graph.childEnd(id); e++) {
+			double x2 = layout.x(graph, graph.child(e), d + 1);
+			if(Math.max(x1, x2) >= left && Math.min(x1, x2) <= right) {
+			    g.drawLine(screenX(x1), y1, screenX(x2), y2);
+			}
+		    }
+		}
+	    }
+	}
+
+	/**
+	 * Draws the nodes of layer d whose slots are on screen
+	 */
+	private void drawLayer(Graphics g, int d) {
+	    int start = graph.layerStart(d);
+	    int size = graph.layerSize(d);
+	    double pitch = layout.pitch[d];
+	    int first = Math.max(0, (int) Math.floor(viewX / pitch) - 1);
+	    int last = Math.min(size - 1, (int) Math.ceil((viewX + getWidth() / scale) / pitch));
+
+	    double boxWidth = layout.boxWidth(d);
+	    int w = Math.max(1, (int) (boxWidth * scale));
+	    int h = Math.max(1, (int) (BOX_HEIGHT * scale));
+	    int y = screenY(layout.y(d));
+
+	    for(int j = first; j <= last; j++) {
+		int id = start + j;
+		int x = screenX((j + 0.5) * pitch - boxWidth / 2);
+
+		// Big boxes are drawn with their decomposition
+		if(w >= LABEL_PIXELS) {
+		    model.draw(g, id, x, y, w, h);
+		} else {
+		    model.drawBox(g, id, x, y, w, h);
+		}
+	    }
+	}
+
+	/**
+	 * Draws layer d as a strip, each column of pixels coloured by the share of
+	 * player 1 wins among the nodes it covers. The winning path is marked on top.
+	 */
+	private void drawCollapsedLayer(Graphics g, int d) {
+	    int start = graph.layerStart(d);
+	    int size = graph.layerSize(d);
+	    double pitch = layout.pitch[d];
+	    int y = screenY(layout.y(d));
+	    int h = Math.max(1, (int) (BOX_HEIGHT * scale));
+
+	    // Only the columns over the layer are drawn
+	    int firstColumn = Math.max(0, screenX(0));
+	    int lastColumn = Math.min(getWidth(), screenX(layout.width));
+	    for(int px = firstColumn; px < lastColumn; px += COLUMN_PIXELS) {
+		int from = (int) Math.max(0, Math.floor((viewX + px / scale) / pitch));
+		int to = (int) Math.min(size, Math.ceil((viewX + (px + COLUMN_PIXELS) / scale) / pitch));
+		if(to <= from) {
+		    continue;
+		}
+		int p1 = layout.p1Before[start + to] - layout.p1Before[start + from];
+		g.setColor(SHADES[p1 * (SHADES.length - 1) / (to - from)]);
+		g.fillRect(px, y, COLUMN_PIXELS, h);
+	    }
+
+	    // Mark the node of the winning path in the layer, as the path holds one
+	    // node of each layer it crosses
+	    int[] path = graph.getWinningPath();
+	    if(d < path.length) {
+		g.setColor(Color.GREEN);
+		g.fillRect(screenX(layout.x(graph, path[d], d)) - 1, y, 3, h);
+	    }
+	}
+
+	/**
+	 * Converts world coordinates to pixels
+	 */
+	private int screenX(double worldX) {
+	    return (int) Math.round((worldX - viewX) * scale);
+	}
+
+	private int screenY(double worldY) {
+	    return (int) Math.round((worldY - viewY) * scale);
+	}
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Mixes two colours
+     *
+     * @param a - The colour returned for a fraction of 0
+     * @param b - The colour returned for a fraction of 1
+     * @param fraction - The share of b in the result
+     */
+    private static Color blend(Color a, Color b, double fraction) {
+	int red = (int) (a.getRed() + (b.getRed() - a.getRed()) * fraction);
+	int green = (int) (a.getGreen() + (b.getGreen() - a.getGreen()) * fraction);
+	int blue = (int) (a.getBlue() + (b.getBlue() - a.getBlue()) * fraction);
+	return new Color(red, green, blue);
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    public static void main(String[] args) {
+	final int n = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+	SwingUtilities.invokeLater(new Runnable() {
+		public void run() {
+		    new GameViewer(n).setVisible(true);
+		}
+	    });
+    }
+
+}
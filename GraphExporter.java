@@ -0,0 +1,679 @@
+/**
+ * Streams a solved GameGraph to a file for analysis in other tools. Four formats
+ * are supported:
+ *
+ *      DOT      - Graphviz digraph, each layer in a rank=same subgraph
+ *      GRAPHML  - GraphML with decomposition, depth and value node attributes
+ *      JSONL    - one JSON object per line, for each node and each edge
+ *      BINARY   - compact binary edge list, described in BinaryExporter
+ *
+ * A layered graph is written layer by layer: the nodes of a layer, then the edges
+ * from the previous layer into it. In a graph built by GameGraph.buildMerged() an
+ * edge can skip layers, so every layer of nodes is written first, then the edges
+ * of every node. Either way every edge refers to nodes already written. Nodes are
+ * named by their GameGraph id. Decompositions are written as the fibonaccis
+ * they contain with their frequencies, e.g. "1*4 2*1 3*1" for 1+1+1+1+2+3.
+ *
+ * Text is assembled in a fixed char buffer and binary records in a fixed byte
+ * buffer, so the exporters use the same small amount of memory whatever the size
+ * of the graph, and create no objects per node or edge.
+ *
+ * Export a game from the command line with
+ *
+ *          java GraphExporter n format file
+ *
+ * Run without arguments, the binary export of the layered and the merged graphs
+ * of the games up to 30 is read back with read() and checked against the graphs.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public abstract class GraphExporter implements Closeable {
+
+    /**
+     * The supported export formats
+     */
+    public enum Format { DOT, GRAPHML, JSONL, BINARY }
+
+
+    /**
+     * Opens an exporter writing the passed format to a file, replacing it if it
+     * already exists
+     *
+     * @param format - The format to write
+     * @param file - The file to write to
+     * @return An exporter to pass graphs to, which must be closed after use
+     */
+    public static GraphExporter open(Format format, Path file) throws IOException {
+	FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+					       StandardOpenOption.WRITE,
+					       StandardOpenOption.TRUNCATE_EXISTING);
+	switch(format) {
+	case DOT:
+	    return new DotExporter(channel);
+	case GRAPHML:
+	    return new GraphMlExporter(channel);
+	case JSONL:
+	    return new JsonLinesExporter(channel);
+	default:
+	    return new BinaryExporter(channel);
+	}
+    }
+
+
+    //===================================
+    // EXPORT METHODS
+    //===================================
+
+    /**
+     * Writes a whole graph, layer by layer, the edges of a merged graph after all
+     * its layers
+     *
+     * @param graph - A built and solved GameGraph
+     */
+    public void export(GameGraph graph) throws IOException {
+	beginGraph(graph);
+	for(int depth = 0; depth <= graph.maxDepth(); depth++) {
+	    beginLayer(graph, depth);
+	    for(int id = graph.layerStart(depth); id < graph.layerEnd(depth); id++) {
+		node(graph, id, depth);
+	    }
+	    endLayer(graph, depth);
+
+	    // Edges into a layer of a layered graph all come from the previous one
+	    if(depth > 0 && !graph.isMerged()) {
+		for(int id = graph.layerStart(depth - 1); id < graph.layerEnd(depth - 1); id++) {
+		    edges(graph, id);
+		}
+	    }
+	}
+	if(graph.isMerged()) {
+	    for(int id = 0; id < graph.nodeCount(); id++) {
+		edges(graph, id);
+	    }
+	}
+	endGraph(graph);
+    }
+
+    /**
+     * Called before anything else of a graph is written
+     */
+    protected abstract void beginGraph(GameGraph graph) throws IOException;
+
+    /**
+     * Called before the nodes of a layer are written
+     */
+    protected void beginLayer(GameGraph graph, int depth) throws IOException {}
+
+    /**
+     * Writes a single node
+     */
+    protected abstract void node(GameGraph graph, int id, int depth) throws IOException;
+
+    /**
+     * Called after the nodes of a layer are written
+     */
+    protected void endLayer(GameGraph graph, int depth) throws IOException {}
+
+    /**
+     * Writes the edges from a parent to all its children
+     */
+    protected void edges(GameGraph graph, int parent) throws IOException {
+	for(int e = graph.childStart(parent); e < graph.childEnd(parent); e++) {
+	    edge(parent, graph.child(e));
+	}
+    }
+
+    /**
+     * Writes a single edge
+     */
+    protected abstract void edge(int parent, int child) throws IOException;
+
+    /**
+     * Called once everything else of a graph is written
+     */
+    protected abstract void endGraph(GameGraph graph) throws IOException;
+
+
+    //===================================
+    // TEXT FORMATS
+    //===================================
+
+    /**
+     * Base of the text formats. Text is appended to a fixed char buffer, which is
+     * encoded to the channel whenever it fills up.
+     */
+    abstract static class TextExporter extends GraphExporter {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Room kept free in the buffer, enough for any single value appended
+	 */
+	private static final int MARGIN = 64;
+
+	private final WritableByteChannel channel;
+	private final char[] chars = new char[BUFFER_SIZE];
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private int length;
+
+	TextExporter(WritableByteChannel channel) {
+	    this.channel = channel;
+	}
+
+	/**
+	 * Appends a constant String
+	 */
+	protected TextExporter text(String s) throws IOException {
+	    for(int i = 0; i < s.length(); i++) {
+		if(length == chars.length) {
+		    flush();
+		}
+		chars[length++] = s.charAt(i);
+	    }
+	    return this;
+	}
+
+	/**
+	 * Appends the decimal digits of a number
+	 */
+	protected TextExporter number(long value) throws IOException {
+	    if(length + MARGIN > chars.length) {
+		flush();
+	    }
+	    if(value < 0) {
+		chars[length++] = '-';
+		value = -value;
+	    }
+	    int digits = RenderModel.digits(value);
+	    for(int i = length + digits - 1; i >= length; i--) {
+		chars[i] = (char) ('0' + value % 10);
+		value /= 10;
+	    }
+	    length += digits;
+	    return this;
+	}
+
+	/**
+	 * Appends the decomposition of a packed state as fibonacci*frequency terms,
+	 * separated by the passed String
+	 */
+	protected TextExporter decomposition(MoveRules codec, long key, String separator)
+	    throws IOException {
+	    boolean first = true;
+	    for(int i = 1; i <= codec.getMaxIndex(); i++) {
+		int count = codec.freq(key, i);
+		if(count == 0) {
+		    continue;
+		}
+		if(!first) {
+		    text(separator);
+		}
+		number(codec.value(i)).text("*").number(count);
+		first = false;
+	    }
+	    return this;
+	}
+
+	/**
+	 * Encodes the buffered text to the channel
+	 */
+	protected void flush() throws IOException {
+	    for(int i = 0; i < length; i++) {
+		// Exported text is ASCII, so each char is a single byte
+		if(!bytes.hasRemaining()) {
+		    drain();
+		}
+		bytes.put((byte) chars[i]);
+	    }
+	    length = 0;
+	    drain();
+	}
+
+	private void drain() throws IOException {
+	    bytes.flip();
+	    while(bytes.hasRemaining()) {
+		channel.write(bytes);
+	    }
+	    bytes.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+	    flush();
+	    channel.close();
+	}
+    }
+
+
+    /**
+     * Graphviz DOT format
+     */
+    static class DotExporter extends TextExporter {
+
+	DotExporter(WritableByteChannel channel) {
+	    super(channel);
+	}
+
+	protected void beginGraph(GameGraph graph) throws IOException {
+	    text("digraph zeckendorf_").number(graph.getN()).text(" {\n");
+	    text("  node [shape=box];\n");
+	}
+
+	protected void beginLayer(GameGraph graph, int depth) throws IOException {
+	    text("  subgraph depth_").number(depth).text(" {\n    rank=same;\n");
+	}
+
+	protected void node(GameGraph graph, int id, int depth) throws IOException {
+	    text("    n").number(id).text(" [label=\"");
+	    decomposition(graph.getCodec(), graph.key(id), " ");
+	    text("\", depth=").number(depth).text(", value=").number(graph.value(id));
+	    text(", color=").text(graph.value(id) == 1 ? "blue" : "red");
+	    if(graph.isTerminal(id)) {
+		text(", style=filled, fillcolor=yellow");
+	    }
+	    text("];\n");
+	}
+
+	protected void endLayer(GameGraph graph, int depth) throws IOException {
+	    text("  }\n");
+	}
+
+	protected void edge(int parent, int child) throws IOException {
+	    text("  n").number(parent).text(" -> n").number(child).text(";\n");
+	}
+
+	protected void endGraph(GameGraph graph) throws IOException {
+	    text("}\n");
+	}
+    }
+
+
+    /**
+     * GraphML format
+     */
+    static class GraphMlExporter extends TextExporter {
+
+	GraphMlExporter(WritableByteChannel channel) {
+	    super(channel);
+	}
+
+	protected void beginGraph(GameGraph graph) throws IOException {
+	    text("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+	    text("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+	    text("  <key id=\"decomposition\" for=\"node\" attr.name=\"decomposition\" attr.type=\"string\"/>\n");
+	    text("  <key id=\"depth\" for=\"node\" attr.name=\"depth\" attr.type=\"int\"/>\n");
+	    text("  <key id=\"value\" for=\"node\" attr.name=\"value\" attr.type=\"int\"/>\n");
+	    text("  <graph id=\"zeckendorf_").number(graph.getN()).text("\" edgedefault=\"directed\">\n");
+	}
+
+	protected void node(GameGraph graph, int id, int depth) throws IOException {
+	    text("    <node id=\"n").number(id).text("\">");
+	    text("<data key=\"decomposition\">");
+	    decomposition(graph.getCodec(), graph.key(id), " ");
+	    text("</data><data key=\"depth\">").number(depth);
+	    text("</data><data key=\"value\">").number(graph.value(id));
+	    text("</data></node>\n");
+	}
+
+	protected void edge(int parent, int child) throws IOException {
+	    text("    <edge source=\"n").number(parent).text("\" target=\"n").number(child).text("\"/>\n");
+	}
+
+	protected void endGraph(GameGraph graph) throws IOException {
+	    text("  </graph>\n</graphml>\n");
+	}
+    }
+
+
+    /**
+     * JSON lines format. Nodes are written as
+     *
+     *     {"type":"node","id":5,"depth":2,"value":-1,"terminal":false,"decomposition":[[1,4],[2,1]]}
+     *
+     * where the decomposition lists [fibonacci, frequency] pairs, and edges as
+     *
+     *     {"type":"edge","from":1,"to":5}
+     */
+    static class JsonLinesExporter extends TextExporter {
+
+	JsonLinesExporter(WritableByteChannel channel) {
+	    super(channel);
+	}
+
+	protected void beginGraph(GameGraph graph) throws IOException {
+	    text("{\"type\":\"game\",\"n\":").number(graph.getN());
+	    text(",\"nodes\":").number(graph.nodeCount());
+	    text(",\"edges\":").number(graph.edgeCount());
+	    text(",\"winner\":").number(graph.winner()).text("}\n");
+	}
+
+	protected void node(GameGraph graph, int id, int depth) throws IOException {
+	    text("{\"type\":\"node\",\"id\":").number(id);
+	    text(",\"depth\":").number(depth);
+	    text(",\"value\":").number(graph.value(id));
+	    text(",\"terminal\":").text(graph.isTerminal(id) ? "true" : "false");
+	    text(",\"decomposition\":[");
+	    MoveRules codec = graph.getCodec();
+	    boolean first = true;
+	    for(int i = 1; i <= codec.getMaxIndex(); i++) {
+		int count = codec.freq(graph.key(id), i);
+		if(count > 0) {
+		    text(first ? "[" : ",[").number(codec.value(i)).text(",").number(count).text("]");
+		    first = false;
+		}
+	    }
+	    text("]}\n");
+	}
+
+	protected void edge(int parent, int child) throws IOException {
+	    text("{\"type\":\"edge\",\"from\":").number(parent).text(",\"to\":").number(child).text("}\n");
+	}
+
+	protected void endGraph(GameGraph graph) throws IOException {}
+    }
+
+
+    //===================================
+    // BINARY FORMAT
+    //===================================
+
+    /**
+     * Compact binary format, big endian:
+     *
+     *      header:  int magic "ZEL1", int version (2), int n, int maxIndex,
+     *               maxIndex bytes giving the bit width of the frequency of each
+     *               index (1 first), int layerCount, int nodeCount, long edgeCount,
+     *               byte merged (1 for a graph of GameGraph.buildMerged(), else 0)
+     *      layers:  for each depth d, int d, int size, then size records of
+     *               (long packed key, byte value), with a byte of parities after
+     *               the value in a merged graph, then, for d > 0 in a layered
+     *               graph, the edges of each node of layer d - 1
+     *      edges:   in a merged graph only, the edges of every node in id order
+     *
+     * The edges of a node are a varint child count followed by a varint per child
+     * giving its id minus the end of the layer of the node. That is its rank in
+     * the next layer in a layered graph, and stays non-negative in a merged graph,
+     * whose edges lead to any deeper layer. The terminal nodes of the last layer
+     * of a layered graph have no edges written.
+     *
+     * Node ids are implicit: the nodes are written in id order. A frequency field
+     * starts right after the field of the previous index, at bit 0 for index 1.
+     */
+    static class BinaryExporter extends GraphExporter {
+
+	static final int MAGIC = 0x5A454C31, VERSION = 2;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+	BinaryExporter(WritableByteChannel channel) {
+	    this.channel = channel;
+	}
+
+	protected void beginGraph(GameGraph graph) throws IOException {
+	    MoveRules codec = graph.getCodec();
+	    room(32 + codec.getMaxIndex());
+	    buffer.putInt(MAGIC).putInt(VERSION).putInt(graph.getN()).putInt(codec.getMaxIndex());
+	    for(int i = 1; i <= codec.getMaxIndex(); i++) {
+		buffer.put((byte) codec.width(i));
+	    }
+	    buffer.putInt(graph.layerCount()).putInt(graph.nodeCount()).putLong(graph.edgeCount());
+	    buffer.put((byte) (graph.isMerged() ? 1 : 0));
+	}
+
+	protected void beginLayer(GameGraph graph, int depth) throws IOException {
+	    room(8);
+	    buffer.putInt(depth).putInt(graph.layerSize(depth));
+	}
+
+	protected void node(GameGraph graph, int id, int depth) throws IOException {
+	    room(10);
+	    buffer.putLong(graph.key(id)).put((byte) graph.value(id));
+	    if(graph.isMerged()) {
+		buffer.put((byte) graph.parities(id));
+	    }
+	}
+
+	protected void edges(GameGraph graph, int parent) throws IOException {
+	    int childLayer = graph.layerEnd(graph.depth(parent));
+	    room(5);
+	    varint(graph.childEnd(parent) - graph.childStart(parent));
+	    for(int e = graph.childStart(parent); e < graph.childEnd(parent); e++) {
+		room(5);
+		varint(graph.child(e) - childLayer);
+	    }
+	}
+
+	protected void edge(int parent, int child) {
+	    // Edges are grouped by parent in edges()
+	}
+
+	protected void endGraph(GameGraph graph) {}
+
+	/**
+	 * Writes an unsigned LEB128 varint
+	 */
+	private void varint(int value) {
+	    while((value & ~0x7F) != 0) {
+		buffer.put((byte) ((value & 0x7F) | 0x80));
+		value >>>= 7;
+	    }
+	    buffer.put((byte) value);
+	}
+
+	/**
+	 * Drains the buffer to the channel if fewer than the passed bytes are free
+	 */
+	private void room(int bytes) throws IOException {
+	    if(buffer.remaining() < bytes) {
+		drain();
+	    }
+	}
+
+	private void drain() throws IOException {
+	    buffer.flip();
+	    while(buffer.hasRemaining()) {
+		channel.write(buffer);
+	    }
+	    buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+	    drain();
+	    channel.close();
+	}
+    }
+
+
+    //===================================
+    // READING METHODS
+    //===================================
+
+    /**
+     * Reads a graph written in the BINARY format, with the winning path found
+     * again from the values
+     *
+     * @param file - The file to read
+     * @return The graph, as built and solved before its export
+     * @throws IOException if the file is not a binary export of a Zeckendorf game
+     */
+    public static GameGraph read(Path file) throws IOException {
+	try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+	    if(in.readInt() != BinaryExporter.MAGIC || in.readInt() != BinaryExporter.VERSION) {
+		throw new IOException(file + " is not a binary export of version "
+				      + BinaryExporter.VERSION);
+	    }
+	    PackedState codec = new PackedState(in.readInt());
+	    if(in.readInt() != codec.getMaxIndex()) {
+		throw new IOException(file + " does not hold the fields of game " + codec.getN());
+	    }
+	    for(int i = 1; i <= codec.getMaxIndex(); i++) {
+		if(in.readUnsignedByte() != codec.width(i)) {
+		    throw new IOException(file + " does not hold the fields of game " + codec.getN());
+		}
+	    }
+	    int layerCount = in.readInt(), nodeCount = in.readInt();
+	    int[] edges = new int[Math.toIntExact(in.readLong())];
+	    boolean merged = in.readUnsignedByte() == 1;
+
+	    long[] keys = new long[nodeCount];
+	    byte[] values = new byte[nodeCount];
+	    byte[] parities = merged ? new byte[nodeCount] : null;
+	    int[] layerStart = new int[layerCount + 1];
+	    int[] childStart = new int[nodeCount + 1];
+	    int id = 0, parent = 0, edge = 0;
+	    for(int depth = 0; depth < layerCount; depth++) {
+		if(in.readInt() != depth) {
+		    throw new IOException(file + " is missing layer " + depth);
+		}
+		layerStart[depth + 1] = layerStart[depth] + in.readInt();
+		for(; id < layerStart[depth + 1]; id++) {
+		    keys[id] = in.readLong();
+		    values[id] = in.readByte();
+		    if(merged) {
+			parities[id] = in.readByte();
+		    }
+		}
+		if(depth > 0 && !merged) {
+		    for(; parent < layerStart[depth]; parent++) {
+			edge = readEdges(in, parent, layerStart[depth], childStart, edges, edge);
+		    }
+		}
+	    }
+	    for(int depth = 0; merged && depth < layerCount; depth++) {
+		for(; parent < layerStart[depth + 1]; parent++) {
+		    edge = readEdges(in, parent, layerStart[depth + 1], childStart, edges, edge);
+		}
+	    }
+
+	    // The terminal nodes of the last layer have no edges written
+	    for(; parent < nodeCount; parent++) {
+		childStart[parent + 1] = edge;
+	    }
+	    if(edge != edges.length) {
+		throw new IOException(file + " holds " + edge + " of its " + edges.length + " edges");
+	    }
+	    return GameGraph.restore(codec, keys, values, layerStart, childStart, edges, null, parities);
+	}
+    }
+
+    /**
+     * Reads the edges of a node, whose children are numbered from the end of its
+     * layer
+     *
+     * @return The number of edges read so far
+     */
+    private static int readEdges(DataInputStream in, int parent, int layerEnd, int[] childStart,
+				 int[] edges, int edge) throws IOException {
+	int count = readVarint(in);
+	for(int c = 0; c < count; c++) {
+	    edges[edge++] = layerEnd + readVarint(in);
+	}
+	childStart[parent + 1] = edge;
+	return edge;
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint
+     */
+    private static int readVarint(DataInputStream in) throws IOException {
+	int value = 0;
+	for(int shift = 0; ; shift += 7) {
+	    int b = in.readUnsignedByte();
+	    value |= (b & 0x7F) << shift;
+	    if((b & 0x80) == 0) {
+		return value;
+	    }
+	}
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Exports the nth game in a format, or, without arguments, checks that the
+     * binary export of the layered and merged graphs of the games up to 30 reads
+     * back to the same graphs
+     */
+    public static void main(String[] args) throws IOException {
+	if(args.length == 0) {
+	    checkRoundTrips(30);
+	    return;
+	}
+	if(args.length < 3) {
+	    System.out.println("Usage: java GraphExporter [n dot|graphml|jsonl|binary file]");
+	    return;
+	}
+	int n = Integer.parseInt(args[0]);
+	Format format = Format.valueOf(args[1].toUpperCase());
+	Path file = Paths.get(args[2]);
+
+	GameGraph graph = GameGraph.build(n);
+	long start = System.nanoTime();
+	try(GraphExporter exporter = GraphExporter.open(format, file)) {
+	    exporter.export(graph);
+	}
+	long millis = (System.nanoTime() - start) / 1000000;
+	System.out.println("Wrote " + graph.nodeCount() + " nodes and " + graph.edgeCount()
+			   + " edges (" + Files.size(file) + " bytes) in " + millis + " ms");
+    }
+
+    /**
+     * Exports the layered and merged graphs of the games up to n in the binary
+     * format, and checks that reading them back gives the same nodes, layers,
+     * edges, values, parities and winning path
+     */
+    private static void checkRoundTrips(int maxN) throws IOException {
+	Path file = Files.createTempFile("zeckendorf", ".bin");
+	try {
+	    for(int n = 1; n <= maxN; n++) {
+		for(GameGraph graph: new GameGraph[] { GameGraph.build(n), GameGraph.buildMerged(n) }) {
+		    try(GraphExporter exporter = GraphExporter.open(Format.BINARY, file)) {
+			exporter.export(graph);
+		    }
+		    GameGraph copy = read(file);
+		    boolean same = copy.isMerged() == graph.isMerged()
+			&& copy.nodeCount() == graph.nodeCount() && copy.edgeCount() == graph.edgeCount()
+			&& copy.layerCount() == graph.layerCount()
+			&& java.util.Arrays.equals(copy.getWinningPath(), graph.getWinningPath());
+		    for(int d = 0; same && d < graph.layerCount(); d++) {
+			same = copy.layerStart(d) == graph.layerStart(d);
+		    }
+		    for(int id = 0; same && id < graph.nodeCount(); id++) {
+			same = copy.key(id) == graph.key(id) && copy.value(id) == graph.value(id)
+			    && copy.parities(id) == graph.parities(id)
+			    && copy.childStart(id) == graph.childStart(id)
+			    && copy.childEnd(id) == graph.childEnd(id);
+		    }
+		    for(int e = 0; same && e < graph.edgeCount(); e++) {
+			same = copy.child(e) == graph.child(e);
+		    }
+		    if(!same) {
+			throw new IllegalStateException("The " + (graph.isMerged() ? "merged" : "layered")
+							+ " graph of " + n + " does not read back the same");
+		    }
+		}
+	    }
+	} finally {
+	    Files.delete(file);
+	}
+	System.out.println("Binary exports of the layered and merged graphs up to " + maxN
+			   + " read back the same");
+    }
+
+}
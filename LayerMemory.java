@@ -0,0 +1,337 @@
+/**
+ * Storage for the per-layer arrays of a layered solve: packed states, edges, win
+ * values and the table deduplicating the states of the next layer. Arrays are
+ * allocated as Blocks, fixed-size runs of bytes read and written as longs, ints or
+ * bytes by element index, and every Block is freed explicitly as soon as the solve
+ * no longer needs it.
+ *
+ * Two backends are provided. heap() keeps Blocks in byte arrays on the Java heap,
+ * where the garbage collector reclaims them some time after they are freed.
+ * offHeap() keeps them in native memory segments, each in its own resource scope,
+ * so the memory is returned to the system the moment a Block is freed and the
+ * collector never has to trace or copy it. Both backends report the bytes in use
+ * and the largest number of bytes in use at once.
+ *
+ * An Index is a hash map from packed states to int values kept in two Blocks, so
+ * that deduplication uses the backend's storage like the arrays it fills.
+ *
+ * The off-heap backend uses the foreign memory API, an incubator module of JDK 17,
+ * where ResourceScope plays the role Arena plays in later JDKs. Files using it must
+ * be compiled and run with the module added:
+ *
+ *          javac --add-modules jdk.incubator.foreign *.java
+ *          java --add-modules jdk.incubator.foreign LayerSolver
+ *
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+public abstract class LayerMemory {
+
+    /**
+     * Bytes currently allocated, and the most allocated at once
+     */
+    private long bytesInUse, peakBytes;
+
+
+    /**
+     * Returns a backend allocating Blocks on the Java heap
+     */
+    public static LayerMemory heap() {
+	return new LayerMemory() {
+	    protected Block create(long bytes) {
+		return new HeapBlock(this, bytes);
+	    }
+	    public String toString() { return "heap"; }
+	};
+    }
+
+    /**
+     * Returns a backend allocating Blocks in native memory
+     */
+    public static LayerMemory offHeap() {
+	return new LayerMemory() {
+	    protected Block create(long bytes) {
+		return new NativeBlock(this, bytes);
+	    }
+	    public String toString() { return "off-heap"; }
+	};
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getters for the bytes allocated now and at most at once
+     */
+    public long getBytesInUse() { return this.bytesInUse; }
+    public long getPeakBytes() { return this.peakBytes; }
+
+
+    //===================================
+    // ALLOCATION METHODS
+    //===================================
+
+    /**
+     * Allocates a zeroed Block
+     *
+     * @param bytes - The size of the Block in bytes
+     * @return The new Block
+     */
+    public Block allocate(long bytes) {
+	Block block = create(Math.max(bytes, 8));
+	bytesInUse += block.byteSize();
+	peakBytes = Math.max(peakBytes, bytesInUse);
+	return block;
+    }
+
+    /**
+     * Allocates a larger Block holding a copy of a Block, and frees the old one
+     *
+     * @param block - The Block to grow
+     * @param bytes - The size of the new Block in bytes
+     * @return The new Block
+     */
+    public Block grow(Block block, long bytes) {
+	Block larger = allocate(bytes);
+	larger.copyFrom(block);
+	block.free();
+	return larger;
+    }
+
+    /**
+     * Allocates an empty Index
+     *
+     * @param expected - The number of entries the Index should hold without
+     *                   growing
+     * @return The new Index
+     */
+    public Index index(int expected) {
+	return new Index(this, expected);
+    }
+
+    /**
+     * Creates a Block in the storage of the backend
+     */
+    protected abstract Block create(long bytes);
+
+
+    //===================================
+    // INDEX
+    //===================================
+
+    /**
+     * An open-addressing hash map from long keys to non-negative int values, like
+     * LongIntHashMap, whose tables are Blocks of a backend. Each value is stored
+     * plus 1, so the zeroed slots of a new Block are empty. The map doubles once
+     * half full, and must be freed after use.
+     */
+    public static final class Index {
+
+	private final LayerMemory memory;
+	private Block keys, values;
+	private int size, mask;
+
+	Index(LayerMemory memory, int expected) {
+	    this.memory = memory;
+	    int capacity = 16;
+	    while(capacity < 2L * expected) {
+		capacity <<= 1;
+	    }
+	    allocate(capacity);
+	}
+
+	/**
+	 * Getter for the number of entries
+	 */
+	public int size() { return this.size; }
+
+	/**
+	 * Stores a value for a key, unless the key is already present
+	 *
+	 * @param key - The key to insert
+	 * @param value - The value to store, between 0 and Integer.MAX_VALUE - 1
+	 * @return The value already stored for key, or -1 if value was inserted
+	 */
+	public int putIfAbsent(long key, int value) {
+	    int slot = LongIntHashMap.mix(key) & mask;
+	    while(true) {
+		int stored = values.getInt(slot);
+		if(stored == 0) {
+		    keys.setLong(slot, key);
+		    values.setInt(slot, value + 1);
+		    if(++size * 2 > mask + 1) {
+			rehash();
+		    }
+		    return -1;
+		}
+		if(keys.getLong(slot) == key) {
+		    return stored - 1;
+		}
+		slot = (slot + 1) & mask;
+	    }
+	}
+
+	/**
+	 * Releases the Blocks of the Index. The Index cannot be used afterwards.
+	 */
+	public void free() {
+	    keys.free();
+	    values.free();
+	}
+
+	private void allocate(int capacity) {
+	    keys = memory.allocate(8L * capacity);
+	    values = memory.allocate(4L * capacity);
+	    mask = capacity - 1;
+	}
+
+	/**
+	 * Moves the entries to tables of twice the size
+	 */
+	private void rehash() {
+	    Block oldKeys = keys, oldValues = values;
+	    int oldCapacity = mask + 1;
+	    allocate(2 * oldCapacity);
+	    for(int i = 0; i < oldCapacity; i++) {
+		int stored = oldValues.getInt(i);
+		if(stored != 0) {
+		    long key = oldKeys.getLong(i);
+		    int slot = LongIntHashMap.mix(key) & mask;
+		    while(values.getInt(slot) != 0) {
+			slot = (slot + 1) & mask;
+		    }
+		    keys.setLong(slot, key);
+		    values.setInt(slot, stored);
+		}
+	    }
+	    oldKeys.free();
+	    oldValues.free();
+	}
+    }
+
+
+    //===================================
+    // BLOCKS
+    //===================================
+
+    /**
+     * A fixed-size run of bytes. Element indices are in units of the element size,
+     * so getLong(i) reads bytes 8i to 8i + 7.
+     */
+    public static abstract class Block {
+
+	private final LayerMemory memory;
+	private boolean freed;
+
+	Block(LayerMemory memory) {
+	    this.memory = memory;
+	}
+
+	public abstract long byteSize();
+	public abstract long getLong(long index);
+	public abstract void setLong(long index, long value);
+	public abstract int getInt(long index);
+	public abstract void setInt(long index, int value);
+	public abstract byte getByte(long index);
+	public abstract void setByte(long index, byte value);
+
+	/**
+	 * Copies the whole content of a smaller Block to the start of this one
+	 */
+	protected abstract void copyFrom(Block other);
+
+	/**
+	 * Releases the storage of the Block. The Block cannot be used afterwards.
+	 */
+	public void free() {
+	    if(!freed) {
+		freed = true;
+		memory.bytesInUse -= byteSize();
+		release();
+	    }
+	}
+
+	protected abstract void release();
+    }
+
+    /**
+     * A Block in a byte array, accessed through array view handles
+     */
+    private static final class HeapBlock extends Block {
+
+	private static final VarHandle LONGS =
+	    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle INTS =
+	    MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	private byte[] bytes;
+
+	HeapBlock(LayerMemory memory, long size) {
+	    super(memory);
+	    if(size > Integer.MAX_VALUE - 8) {
+		throw new IllegalArgumentException("Heap blocks are limited to 2GB: " + size);
+	    }
+	    this.bytes = new byte[(int) size];
+	}
+
+	public long byteSize() { return bytes.length; }
+	public long getLong(long index) { return (long) LONGS.get(bytes, (int) (index << 3)); }
+	public void setLong(long index, long value) { LONGS.set(bytes, (int) (index << 3), value); }
+	public int getInt(long index) { return (int) INTS.get(bytes, (int) (index << 2)); }
+	public void setInt(long index, int value) { INTS.set(bytes, (int) (index << 2), value); }
+	public byte getByte(long index) { return bytes[(int) index]; }
+	public void setByte(long index, byte value) { bytes[(int) index] = value; }
+
+	protected void copyFrom(Block other) {
+	    byte[] source = ((HeapBlock) other).bytes;
+	    System.arraycopy(source, 0, bytes, 0, source.length);
+	}
+
+	protected void release() {
+	    bytes = null;
+	}
+    }
+
+    /**
+     * A Block in a native memory segment owned by its own confined scope, so that
+     * closing the scope frees exactly this Block
+     */
+    private static final class NativeBlock extends Block {
+
+	private final ResourceScope scope;
+	private final MemorySegment segment;
+
+	NativeBlock(LayerMemory memory, long size) {
+	    super(memory);
+	    this.scope = ResourceScope.newConfinedScope();
+	    this.segment = MemorySegment.allocateNative(size, 8, scope);
+	}
+
+	public long byteSize() { return segment.byteSize(); }
+	public long getLong(long index) { return MemoryAccess.getLongAtIndex(segment, index); }
+	public void setLong(long index, long value) { MemoryAccess.setLongAtIndex(segment, index, value); }
+	public int getInt(long index) { return MemoryAccess.getIntAtIndex(segment, index); }
+	public void setInt(long index, int value) { MemoryAccess.setIntAtIndex(segment, index, value); }
+	public byte getByte(long index) { return MemoryAccess.getByteAtOffset(segment, index); }
+	public void setByte(long index, byte value) { MemoryAccess.setByteAtOffset(segment, index, value); }
+
+	protected void copyFrom(Block other) {
+	    MemorySegment source = ((NativeBlock) other).segment;
+	    segment.asSlice(0, source.byteSize()).copyFrom(source);
+	}
+
+	protected void release() {
+	    scope.close();
+	}
+    }
+
+}
@@ -0,0 +1,261 @@
+/**
+ * Solves a decomposition game layer by layer, like GameGraph, while keeping each
+ * per-layer array only as long as it is needed, in a LayerMemory backend.
+ *
+ * The forward pass expands one layer at a time. For each layer it keeps the edges
+ * from its nodes to the nodes of the next layer, as an offset per node and the
+ * index of each child within its layer. The packed states of a layer are only
+ * needed to expand it and to deduplicate the next one, so they are freed as soon as
+ * the next layer is built, along with the Index that deduplicated it. The backward
+ * pass computes the win values from the deepest layer up, freeing the values of
+ * layer d + 1 and the edges of layer d once the values of layer d are known, so
+ * memory shrinks as the solve proceeds.
+ *
+ * With the off-heap backend the layers and their Indexes never enter the Java
+ * heap, so the garbage collector has nothing large to trace or copy during long
+ * solves. The benchmark comparing both backends can be executed, after
+ * compilation, by running the command
+ *
+ *          java --add-modules jdk.incubator.foreign LayerSolver [n] [repetitions]
+ *
+ */
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+public class LayerSolver {
+
+    /**
+     * The rules of the game and the storage of its layers
+     */
+    private final MoveRules rules;
+    private final LayerMemory memory;
+
+    /**
+     * Results of the solve
+     */
+    private int winner, layerCount;
+    private long nodeCount, edgeCount, terminalCount;
+    private int[] layerSizes;
+
+
+    /**
+     * Constructs a solver for a game
+     *
+     * @param rules - The rules of the game
+     * @param memory - The backend storing the layers
+     */
+    public LayerSolver(MoveRules rules, LayerMemory memory) {
+	this.rules = rules;
+	this.memory = memory;
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getters for the results of the last solve: the winner (1 for Player 1, -1
+     * for Player 2), and the size of the game
+     */
+    public int getWinner() { return this.winner; }
+    public int getLayerCount() { return this.layerCount; }
+    public long getNodeCount() { return this.nodeCount; }
+    public long getEdgeCount() { return this.edgeCount; }
+    public long getTerminalCount() { return this.terminalCount; }
+    public int getLayerSize(int depth) { return this.layerSizes[depth]; }
+
+    /**
+     * Getter for the backend, which reports the bytes used
+     */
+    public LayerMemory getMemory() { return this.memory; }
+
+
+    //===================================
+    // SOLVING METHODS
+    //===================================
+
+    /**
+     * Expands and solves the game
+     *
+     * @return 1 if Player 1 wins, -1 if Player 2 wins
+     */
+    public int solve() {
+	ArrayList<LayerMemory.Block> offsets = new ArrayList<LayerMemory.Block>();
+	ArrayList<LayerMemory.Block> targets = new ArrayList<LayerMemory.Block>();
+	ArrayList<Integer> sizes = new ArrayList<Integer>();
+	nodeCount = 0;
+	edgeCount = 0;
+
+	// Forward pass: build the edges of every layer, keeping only the states of
+	// the layer being expanded and of the one being built
+	long[] children = new long[rules.maxChildren()];
+	LayerMemory.Block keys = memory.allocate(8);
+	keys.setLong(0, rules.initialKey());
+	int size = 1;
+
+	while(size > 0) {
+	    sizes.add(size);
+	    nodeCount += size;
+	    LayerMemory.Block offset = memory.allocate(4L * (size + 1));
+	    LayerMemory.Block target = memory.allocate(4L * size);
+	    LayerMemory.Block nextKeys = memory.allocate(8L * size);
+	    LayerMemory.Index nextIndex = memory.index(size);
+	    long edges = 0;
+	    int nextSize = 0;
+
+	    for(int i = 0; i < size; i++) {
+		offset.setInt(i, (int) edges);
+		int count = rules.children(keys.getLong(i), children);
+		for(int c = 0; c < count; c++) {
+
+		    // Reuse the node if the state is already in the next layer
+		    int child = nextIndex.putIfAbsent(children[c], nextSize);
+		    if(child < 0) {
+			child = nextSize++;
+			if(8L * nextSize > nextKeys.byteSize()) {
+			    nextKeys = memory.grow(nextKeys, 2 * nextKeys.byteSize());
+			}
+			nextKeys.setLong(child, children[c]);
+		    }
+
+		    // Two moves can lead to the same state, only link it once
+		    if(!hasEdge(target, offset.getInt(i), edges, child)) {
+			if(4L * (edges + 1) > target.byteSize()) {
+			    target = memory.grow(target, 2 * target.byteSize());
+			}
+			target.setInt(edges++, child);
+		    }
+		}
+	    }
+	    offset.setInt(size, (int) edges);
+	    edgeCount += edges;
+	    offsets.add(offset);
+	    targets.add(target);
+
+	    // The states of this layer are no longer needed
+	    nextIndex.free();
+	    keys.free();
+	    keys = nextKeys;
+	    size = nextSize;
+	}
+	keys.free();
+	layerCount = sizes.size();
+	layerSizes = new int[layerCount];
+	for(int d = 0; d < layerCount; d++) {
+	    layerSizes[d] = sizes.get(d);
+	}
+	terminalCount = 0;
+
+	// Backward pass: solve each layer from the values of the next, then free
+	// everything the layers below needed
+	LayerMemory.Block below = null;
+	for(int d = layerCount - 1; d >= 0; d--) {
+	    int layerSize = sizes.get(d);
+	    LayerMemory.Block offset = offsets.get(d);
+	    LayerMemory.Block target = targets.get(d);
+	    LayerMemory.Block values = memory.allocate(layerSize);
+	    int mover = d % 2 == 0 ? 1 : -1;
+
+	    for(int i = 0; i < layerSize; i++) {
+		int start = offset.getInt(i), end = offset.getInt(i + 1);
+		int value;
+		if(start == end) {
+		    value = rules.terminalValue(d);
+		    terminalCount++;
+		} else {
+		    value = -mover;
+		    for(int e = start; e < end; e++) {
+			if(below.getByte(target.getInt(e)) == mover) {
+			    value = mover;
+			    break;
+			}
+		    }
+		}
+		values.setByte(i, (byte) value);
+	    }
+
+	    offset.free();
+	    target.free();
+	    if(below != null) {
+		below.free();
+	    }
+	    below = values;
+	}
+	winner = below.getByte(0);
+	below.free();
+	return winner;
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Determines if an edge to child was already added among the edges of the
+     * current node
+     */
+    private static boolean hasEdge(LayerMemory.Block target, long first, long end, int child) {
+	for(long e = first; e < end; e++) {
+	    if(target.getInt(e) == child) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Benchmark: checks both backends against GameGraph on small games, then
+     * solves the nth game alternately with each backend, reporting time, peak
+     * layer bytes, and the garbage collections during the solve
+     */
+    public static void main(String[] args) {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 90;
+	int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+	for(int gameNum = 1; gameNum <= 30; gameNum++) {
+	    GameGraph graph = GameGraph.build(gameNum);
+	    for(LayerMemory memory: new LayerMemory[] { LayerMemory.heap(), LayerMemory.offHeap() }) {
+		LayerSolver solver = new LayerSolver(new PackedState(gameNum), memory);
+		solver.solve();
+		if(solver.getWinner() != graph.winner() || solver.getNodeCount() != graph.nodeCount()
+		   || solver.getEdgeCount() != graph.edgeCount() || memory.getBytesInUse() != 0) {
+		    throw new IllegalStateException("The " + memory + " solve of game " + gameNum
+						    + " differs from GameGraph");
+		}
+	    }
+	}
+
+	for(int rep = 0; rep < repetitions; rep++) {
+	    for(LayerMemory memory: new LayerMemory[] { LayerMemory.heap(), LayerMemory.offHeap() }) {
+		LayerSolver solver = new LayerSolver(new PackedState(n), memory);
+		long collections = 0, pauses = 0;
+		for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+		    collections -= gc.getCollectionCount();
+		    pauses -= gc.getCollectionTime();
+		}
+		long start = System.nanoTime();
+		solver.solve();
+		long millis = (System.nanoTime() - start) / 1000000;
+		for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+		    collections += gc.getCollectionCount();
+		    pauses += gc.getCollectionTime();
+		}
+		System.out.println(String.format("Game on %d, %-8s: %d nodes, %d edges, winner %d, "
+						 + "%d ms, peak %d MB, %d collections taking %d ms",
+						 n, memory, solver.getNodeCount(), solver.getEdgeCount(),
+						 solver.getWinner(), millis,
+						 memory.getPeakBytes() >> 20, collections, pauses));
+	    }
+	}
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * A small open-addressing hash map from long keys to non-negative int values,
+ * used to deduplicate packed states without boxing. Lookups of absent keys
+ * return -1.
+ *
+ * The map uses linear probing over a power of two table and doubles in size
+ * once it is half full. Entries cannot be removed.
+ *
+ */
+
+import java.util.Arrays;
+
+public class LongIntHashMap {
+
+    /**
+     * Parallel key and value tables. A value of -1 marks an empty slot, so
+     * every long, including 0, can be used as a key.
+     */
+    private long[] keys;
+    private int[] values;
+    private int size, mask;
+
+
+    /**
+     * Constructs a map sized for the expected number of entries
+     *
+     * @param expected - The number of entries the map should hold without growing
+     */
+    public LongIntHashMap(int expected) {
+	int capacity = 16;
+	while(capacity < 2L * expected) {
+	    capacity <<= 1;
+	}
+	allocate(capacity);
+    }
+
+
+    /**
+     * Getter for the number of entries in the map
+     */
+    public int size() { return this.size; }
+
+
+    /**
+     * Retrieves the value stored for a key
+     *
+     * @param key - The key to look up
+     * @return The value of key, or -1 if the key is absent
+     */
+    public int get(long key) {
+	int slot = mix(key) & mask;
+	while(values[slot] >= 0) {
+	    if(keys[slot] == key) {
+		return values[slot];
+	    }
+	    slot = (slot + 1) & mask;
+	}
+	return -1;
+    }
+
+    /**
+     * Stores a value for a key, unless the key is already present
+     *
+     * @param key - The key to insert
+     * @param value - The non-negative value to store
+     * @return The value already stored for key, or -1 if value was inserted
+     */
+    public int putIfAbsent(long key, int value) {
+	int slot = mix(key) & mask;
+	while(values[slot] >= 0) {
+	    if(keys[slot] == key) {
+		return values[slot];
+	    }
+	    slot = (slot + 1) & mask;
+	}
+	keys[slot] = key;
+	values[slot] = value;
+	if(++size * 2 > mask) {
+	    grow();
+	}
+	return -1;
+    }
+
+    /**
+     * Removes all entries, keeping the current capacity
+     */
+    public void clear() {
+	Arrays.fill(values, -1);
+	size = 0;
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Allocates empty tables of the passed power of two capacity
+     */
+    private void allocate(int capacity) {
+	keys = new long[capacity];
+	values = new int[capacity];
+	Arrays.fill(values, -1);
+	mask = capacity - 1;
+    }
+
+    /**
+     * Doubles the capacity of the map and reinserts all entries
+     */
+    private void grow() {
+	long[] oldKeys = keys;
+	int[] oldValues = values;
+	allocate(keys.length * 2);
+	for(int i = 0; i < oldKeys.length; i++) {
+	    if(oldValues[i] >= 0) {
+		int slot = mix(oldKeys[i]) & mask;
+		while(values[slot] >= 0) {
+		    slot = (slot + 1) & mask;
+		}
+		keys[slot] = oldKeys[i];
+		values[slot] = oldValues[i];
+	    }
+	}
+    }
+
+    /**
+     * Spreads the bits of a key so that packed states with small differences
+     * land in different slots
+     */
+    static int mix(long key) {
+	long h = key * 0x9E3779B97F4A7C15L;
+	return (int) (h ^ (h >>> 32));
+    }
+
+}
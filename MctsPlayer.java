@@ -0,0 +1,514 @@
+/**
+ * A Monte Carlo Tree Search (UCT) player for positions of the nth Zeckendorf
+ * Decomposition game too large for Game.playGame() or GameGraph to solve.
+ *
+ * Each search repeatedly walks down from the position to play, choosing moves by
+ * the UCB1 formula, adds one new position to the tree, finishes the game with
+ * uniformly random moves, and credits the player who made the last move to every
+ * position along the walk.
+ *
+ * The tree is a transposition table: positions are looked up by decomposition,
+ * so a decomposition reached along several lines of play is a single node whose
+ * statistics are shared by all of them. As the player who can move from a position
+ * does not depend on how it was reached, a node records the wins of the player who
+ * moved into it. The table is kept between moves, so the statistics gathered below
+ * the move actually played are reused by the next search.
+ *
+ * Searches use root parallelism: each thread runs its own search with its own
+ * table and random generator, and the visit counts of the moves at the root are
+ * summed to pick the most visited move. Searches stop after an iteration budget,
+ * a time budget, or whichever is reached first when both are set.
+ *
+ * The benchmark against the exact solver can be executed, after compilation, by
+ * running the command
+ *
+ *          java MctsPlayer [maxN] [iterations] [threads]
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+
+public class MctsPlayer {
+
+    /**
+     * Default exploration constant of UCB1, and default limit on the nodes a
+     * thread keeps before its table is cleared
+     */
+    private static final double EXPLORATION = Math.sqrt(2);
+    private static final int MAX_NODES = 2000000;
+
+    /**
+     * The game played and the search of each thread
+     */
+    private final int n;
+    private final Searcher[] searchers;
+
+    /**
+     * Budgets of a search: 0 means no limit on that resource
+     */
+    private long iterationBudget = 10000, timeBudgetMillis = 0;
+    private double exploration = EXPLORATION;
+
+    /**
+     * Statistics of the last search
+     */
+    private long lastIterations, lastNanos;
+
+
+    /**
+     * Constructs a player for the nth game
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     * @param threads - The number of searches run in parallel for each move
+     * @param seed - The seed the random generators of the searches are split from
+     */
+    public MctsPlayer(int n, int threads, long seed) {
+	if(threads < 1) {
+	    throw new IllegalArgumentException("At least one thread is needed: " + threads);
+	}
+	this.n = n;
+	this.searchers = new Searcher[threads];
+	SplittableRandom master = new SplittableRandom(seed);
+	for(int t = 0; t < threads; t++) {
+	    searchers[t] = new Searcher(n, master.split());
+	}
+    }
+
+
+    //===================================
+    // GETTERS AND SETTERS
+    //===================================
+
+    /**
+     * Getter and setter for the number of iterations of each thread per move. 0
+     * removes the limit, in which case a time budget must be set.
+     */
+    public long getIterationBudget() { return this.iterationBudget; }
+    public void setIterationBudget(long iterations) { this.iterationBudget = iterations; }
+
+    /**
+     * Getter and setter for the time allowed per move, in milliseconds. 0 removes
+     * the limit, in which case an iteration budget must be set.
+     */
+    public long getTimeBudget() { return this.timeBudgetMillis; }
+    public void setTimeBudget(long millis) { this.timeBudgetMillis = millis; }
+
+    /**
+     * Getter and setter for the exploration constant of UCB1
+     */
+    public double getExploration() { return this.exploration; }
+    public void setExploration(double c) { this.exploration = c; }
+
+    /**
+     * Iterations run by all threads together during the last search, and the
+     * number of iterations per second they ran
+     */
+    public long getLastIterations() { return this.lastIterations; }
+    public double getLastIterationsPerSecond() {
+	return lastNanos == 0 ? 0 : lastIterations * 1e9 / lastNanos;
+    }
+
+
+    //===================================
+    // SEARCH METHODS
+    //===================================
+
+    /**
+     * Chooses a move from a position
+     *
+     * @param state - A non-terminal position of the game
+     * @return The position reached by the chosen move, one move deeper
+     */
+    public GameState chooseMove(GameState state) throws InterruptedException {
+	MutableGameState position = new MutableGameState(n);
+	position.setFrom(state);
+	position.play(chooseMove(position));
+	return position.toGameState();
+    }
+
+    /**
+     * Chooses a move from a position
+     *
+     * @param position - A non-terminal position of the game, left unchanged
+     * @return The code of the chosen move, to pass to MutableGameState.play()
+     */
+    public int chooseMove(MutableGameState position) throws InterruptedException {
+	if(iterationBudget <= 0 && timeBudgetMillis <= 0) {
+	    throw new IllegalStateException("Either an iteration or a time budget is needed");
+	}
+	int[] moves = new int[position.maxMoves()];
+	int count = position.legalMoves(moves);
+	if(count == 0) {
+	    throw new IllegalArgumentException("No move can be played from a terminal position");
+	}
+
+	// A forced move needs no search
+	if(count == 1) {
+	    lastIterations = 0;
+	    lastNanos = 0;
+	    return moves[0];
+	}
+
+	// Run the searches of all threads
+	final long deadline = timeBudgetMillis > 0
+	    ? System.nanoTime() + timeBudgetMillis * 1000000 : Long.MAX_VALUE;
+	long start = System.nanoTime();
+	Thread[] running = new Thread[searchers.length];
+	for(int t = 0; t < searchers.length; t++) {
+	    searchers[t].prepare(position, iterationBudget, deadline, exploration);
+	    running[t] = new Thread(searchers[t], "mcts-" + t);
+	    running[t].start();
+	}
+	for(Thread thread: running) {
+	    thread.join();
+	}
+	lastNanos = System.nanoTime() - start;
+
+	// Sum the visits of each move at the root over all threads
+	long[] visits = new long[count];
+	lastIterations = 0;
+	for(Searcher searcher: searchers) {
+	    lastIterations += searcher.iterations;
+	    Node root = searcher.root;
+	    for(int c = 0; c < root.children.length; c++) {
+		visits[indexOf(moves, count, root.moves[c])] += root.children[c].visits;
+	    }
+	}
+
+	int best = 0;
+	for(int m = 1; m < count; m++) {
+	    if(visits[m] > visits[best]) {
+		best = m;
+	    }
+	}
+	return moves[best];
+    }
+
+
+    //===================================
+    // SEARCH TREE
+    //===================================
+
+    /**
+     * A position of the search. Nodes are equal when their decompositions are.
+     */
+    private static final class Node {
+
+	final int[] freq;
+	final int hash;
+
+	/**
+	 * Visits of the node, and wins of the player who moved into it
+	 */
+	long visits;
+	double wins;
+
+	/**
+	 * Moves from the node and the nodes they lead to, null until expanded
+	 */
+	int[] moves;
+	Node[] children;
+
+	Node(int[] freq) {
+	    this.freq = freq;
+	    this.hash = Arrays.hashCode(freq);
+	}
+
+	@Override
+	public int hashCode() { return hash; }
+
+	@Override
+	public boolean equals(Object o) {
+	    return o instanceof Node && Arrays.equals(freq, ((Node) o).freq);
+	}
+    }
+
+
+    /**
+     * The search of one thread, with its own table, state and generator
+     */
+    private static final class Searcher implements Runnable {
+
+	private final MutableGameState state;
+	private final SplittableRandom random;
+	private final HashMap<Node, Node> table = new HashMap<Node, Node>();
+	private final ArrayList<Node> path = new ArrayList<Node>();
+	private final int[] moves;
+	private final int[] scratch;
+
+	/**
+	 * Search parameters and results
+	 */
+	private Node root;
+	private int rootDepth;
+	private long budget, deadline, iterations;
+	private double exploration;
+
+	Searcher(int n, SplittableRandom random) {
+	    this.state = new MutableGameState(n);
+	    this.random = random;
+	    this.moves = new int[state.maxMoves()];
+	    this.scratch = new int[state.getMaxIndex() + 3];
+	}
+
+	/**
+	 * Sets the position and budget of the next search, reusing the node of the
+	 * position if an earlier search reached it
+	 */
+	void prepare(MutableGameState position, long budget, long deadline, double exploration) {
+	    if(table.size() > MAX_NODES) {
+		table.clear();
+	    }
+	    position.store(scratch);
+	    this.root = lookup(scratch);
+	    this.rootDepth = position.getDepth();
+	    this.budget = budget;
+	    this.deadline = deadline;
+	    this.exploration = exploration;
+	    this.iterations = 0;
+	}
+
+	public void run() {
+	    while(budget <= 0 || iterations < budget) {
+
+		// Checking the clock is slower than an iteration, so only do it
+		// every few iterations
+		if((iterations & 63) == 0 && System.nanoTime() > deadline) {
+		    break;
+		}
+		iterate();
+		iterations++;
+	    }
+	}
+
+	/**
+	 * Runs one selection, expansion, playout and backpropagation
+	 */
+	private void iterate() {
+	    path.clear();
+	    Node node = root;
+	    path.add(node);
+
+	    // Walk down while the nodes are expanded
+	    while(true) {
+		if(node.children == null) {
+		    expand(node);
+		}
+		if(node.children.length == 0) {
+		    break;
+		}
+		Node next = select(node);
+		path.add(next);
+		node = next;
+		if(next.visits == 0) {
+		    break;
+		}
+	    }
+
+	    // Finish the game randomly from the last node
+	    state.load(node.freq, 0);
+	    int count;
+	    while((count = state.legalMoveCount()) > 0) {
+		state.playNth(random.nextInt(count));
+	    }
+	    int total = path.size() - 1 + state.getDepth();
+
+	    // The player who moved into the kth node of the path made the last move
+	    // when the moves played after it are odd in number
+	    for(int k = 0; k < path.size(); k++) {
+		Node visited = path.get(k);
+		visited.visits++;
+		if((total - k) % 2 == 0) {
+		    visited.wins++;
+		}
+	    }
+	}
+
+	/**
+	 * Picks the child of a node with the best UCB1 score, unvisited children
+	 * first
+	 */
+	private Node select(Node node) {
+	    double logVisits = Math.log(Math.max(1, node.visits));
+	    Node best = null;
+	    double bestScore = Double.NEGATIVE_INFINITY;
+	    for(Node child: node.children) {
+		if(child.visits == 0) {
+		    return child;
+		}
+		double score = child.wins / child.visits
+		    + exploration * Math.sqrt(logVisits / child.visits);
+		if(score > bestScore) {
+		    bestScore = score;
+		    best = child;
+		}
+	    }
+	    return best;
+	}
+
+	/**
+	 * Creates or looks up the children of a node
+	 */
+	private void expand(Node node) {
+	    state.load(node.freq, 0);
+	    int count = state.legalMoves(moves);
+	    node.moves = Arrays.copyOf(moves, count);
+	    Node[] children = new Node[count];
+	    for(int c = 0; c < count; c++) {
+		state.load(node.freq, 0);
+		state.play(moves[c]);
+		state.store(scratch);
+		children[c] = lookup(scratch);
+	    }
+	    node.children = children;
+	}
+
+	/**
+	 * Finds the node of a decomposition, creating it if needed
+	 */
+	private Node lookup(int[] freq) {
+	    Node probe = new Node(freq.clone());
+	    Node existing = table.get(probe);
+	    if(existing != null) {
+		return existing;
+	    }
+	    table.put(probe, probe);
+	    return probe;
+	}
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    private static int indexOf(int[] moves, int count, int move) {
+	for(int m = 0; m < count; m++) {
+	    if(moves[m] == move) {
+		return m;
+	    }
+	}
+	throw new IllegalStateException("Move " + move + " is not legal at the root");
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Benchmark: for each n up to maxN, the player plays the winner of the game
+     * against an opponent driven by the exact values of GameGraph, which plays a
+     * winning move whenever a mistake of the player leaves it one, and a random
+     * move otherwise, as every move then loses. Every position the player is to
+     * move from is won, and it is checked to pick a winning move there.
+     */
+    public static void main(String[] args) throws InterruptedException {
+	int maxN = args.length > 0 ? Integer.parseInt(args[0]) : 25;
+	long iterations = args.length > 1 ? Long.parseLong(args[1]) : 20000;
+	int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+	int gamesPerN = 5;
+
+	SplittableRandom losingMoves = new SplittableRandom(1);
+	long totalPositions = 0, totalFound = 0, totalIterations = 0, totalNanos = 0;
+
+	for(int gameNum = 3; gameNum <= maxN; gameNum++) {
+	    GameGraph graph = GameGraph.build(gameNum);
+	    MoveRules codec = graph.getCodec();
+	    MctsPlayer player = new MctsPlayer(gameNum, threads, gameNum);
+	    player.setIterationBudget(iterations);
+
+	    // Player 1 moves at even depths
+	    int winner = graph.winner();
+	    int playerParity = winner == 1 ? 0 : 1;
+
+	    int positions = 0, found = 0, wins = 0;
+	    for(int g = 0; g < gamesPerN; g++) {
+		MutableGameState position = new MutableGameState(gameNum);
+		int id = 0;
+		while(!graph.isTerminal(id)) {
+		    int next;
+		    if(position.getDepth() % 2 != playerParity) {
+			next = exactMove(graph, id, -winner, losingMoves);
+			position = fromKey(codec, graph.key(next), position.getDepth() + 1);
+		    } else {
+			// Only a won position is left to the player by the opponent
+			boolean won = graph.value(id) == winner;
+			position.play(player.chooseMove(position));
+			totalIterations += player.getLastIterations();
+			totalNanos += player.lastNanos;
+			next = findChild(graph, id, codec, position);
+			if(won) {
+			    positions++;
+			    if(graph.value(next) == winner) {
+				found++;
+			    }
+			}
+		    }
+		    id = next;
+		}
+
+		// The player who made the last move wins
+		if((position.getDepth() % 2 == 1) == (winner == 1)) {
+		    wins++;
+		}
+	    }
+	    totalPositions += positions;
+	    totalFound += found;
+	    System.out.println("Game on " + gameNum + ": winning moves found in " + found + "/"
+			       + positions + " won positions, won " + wins + "/" + gamesPerN
+			       + " against exact play");
+	}
+
+	System.out.println("Winning move rate in won positions: "
+			   + String.format("%.4f", (double) totalFound / Math.max(1, totalPositions))
+			   + ", " + String.format("%.0f", totalIterations * 1e9 / Math.max(1, totalNanos))
+			   + " iterations/s");
+    }
+
+    /**
+     * Picks the move of a player following the exact values of a graph: the first
+     * winning move if there is one, otherwise a random move, as all of them lose
+     *
+     * @param graph - A solved layered GameGraph
+     * @param id - The node of the position to move from
+     * @param side - The player to move, 1 for player 1 and -1 for player 2
+     * @param random - The generator picking among losing moves
+     * @return The child of the node the move leads to
+     */
+    private static int exactMove(GameGraph graph, int id, int side, SplittableRandom random) {
+	for(int e = graph.childStart(id); e < graph.childEnd(id); e++) {
+	    if(graph.value(graph.child(e)) == side) {
+		return graph.child(e);
+	    }
+	}
+	int e = graph.childStart(id) + random.nextInt(graph.childEnd(id) - graph.childStart(id));
+	return graph.child(e);
+    }
+
+    /**
+     * Builds the mutable state of a packed key
+     */
+    private static MutableGameState fromKey(MoveRules codec, long key, int depth) {
+	MutableGameState state = new MutableGameState(codec.getN());
+	state.setFrom(codec.decode(key, depth));
+	return state;
+    }
+
+    /**
+     * Finds the child of a node holding the decomposition of a position
+     */
+    private static int findChild(GameGraph graph, int id, MoveRules codec, MutableGameState position) {
+	long key = codec.encode(position.toGameState());
+	for(int e = graph.childStart(id); e < graph.childEnd(id); e++) {
+	    if(graph.key(graph.child(e)) == key) {
+		return graph.child(e);
+	    }
+	}
+	throw new IllegalStateException("Position is not a child of node " + id);
+    }
+
+}
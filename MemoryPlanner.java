@@ -0,0 +1,604 @@
+/**
+ * Predicts, before a run, how large the nth Zeckendorf Decomposition game is and
+ * how much memory each engine needs to solve it, and picks the engine and settings
+ * that fit a budget, so that a run too large for the machine is turned down in a
+ * second rather than failing with an OutOfMemoryError hours in.
+ *
+ * The planner builds the games up to a calibration size exactly with GameGraph,
+ * and extrapolates their growth. The numbers of nodes and of edges grow like
+ * exp(a + b sqrt(n) + c ln(n)), the way partition counts do, and are fitted by
+ * least squares on their logarithms; the number of layers grows linearly. The
+ * width of each layer follows the profile of the largest calibrated game,
+ * stretched to the predicted number of layers and scaled to the predicted number
+ * of nodes. Games up to the calibration size get their exact counts.
+ *
+ * Each engine's memory is modelled from the arrays and objects it keeps per node,
+ * per edge and per node of its widest layer, with the growth slack of its arrays:
+ *
+ *      Game            - a Tree, its child and parent lists and its GameState per
+ *                        node, and a reference in each list per edge
+ *      Game, parents   - the same without parent lists, with the layers and their
+ *        on demand       packed keys kept instead
+ *      GameGraph       - a key, a child offset and a value per node and an int per
+ *                        edge, with room for the arrays to double and be trimmed
+ *      LayerSolver     - an offset per node and an int per edge kept through the
+ *                        solve, and the keys of two layers at a time along with
+ *                        the Index deduplicating the next one, all on the heap or
+ *                        all off it
+ *      ShardedSolver   - keys, child offsets and child keys split across worker
+ *                        JVMs
+ *
+ * Every JVM is planned a base heap for the classes and buffers of an idle JVM,
+ * and headroom over its live data for the garbage collector: the peak heap of
+ * LayerSolver on the heap, which copies its growing layers, is measured 70% above
+ * its predicted live data. No heap is planned below MIN_HEAP_BYTES. Disk is only
+ * used by GameGraph, whose solved graph can be saved with GraphExporter; the size
+ * of the binary export is predicted.
+ *
+ * The check of the predictions against exact counts and measured memory, followed
+ * by plans for larger games, can be executed, after compilation, by running the
+ * command
+ *
+ *          java --add-modules jdk.incubator.foreign MemoryPlanner [n] [heap MB] [memory MB]
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class MemoryPlanner {
+
+    /**
+     * The engines the planner can choose between, fastest first
+     */
+    public enum Backend { GAME_GRAPH, LAYER_SOLVER_HEAP, LAYER_SOLVER_OFFHEAP, SHARDED_SOLVER,
+			  GAME, GAME_PARENTS_ON_DEMAND }
+
+    /**
+     * Heap needed per byte of live data for the garbage collector to keep up, heap
+     * of an idle JVM, smallest heap planned for any JVM, and the most workers a
+     * sharded plan uses
+     */
+    public static final double HEADROOM = 2.0;
+    public static final long BASE_HEAP_BYTES = 32L << 20;
+    public static final long MIN_HEAP_BYTES = 64L << 20;
+    public static final int MAX_WORKERS = 64;
+
+    /**
+     * Smallest game used to fit the growth, and the largest game built exactly
+     */
+    private static final int SMALLEST_FIT = 25;
+    private final int calibrationN;
+
+    /**
+     * Exact layer widths and edge counts of the calibrated games, by n
+     */
+    private final long[][] widths;
+    private final long[] edges;
+
+    /**
+     * Fitted coefficients: of ln(nodes) and ln(edges) over 1, sqrt(n) and ln(n),
+     * and of the layer count over 1 and n
+     */
+    private final double[] nodeFit, edgeFit, layerFit;
+
+
+    /**
+     * Constructs a planner calibrated on the games up to 50
+     */
+    public MemoryPlanner() {
+	this(50);
+    }
+
+    /**
+     * Constructs a planner, building every game up to calibrationN exactly
+     *
+     * @param calibrationN - The largest game built, at least SMALLEST_FIT + 3
+     */
+    public MemoryPlanner(int calibrationN) {
+	if(calibrationN < SMALLEST_FIT + 3) {
+	    throw new IllegalArgumentException("Calibrate on games up to at least " + (SMALLEST_FIT + 3));
+	}
+	this.calibrationN = calibrationN;
+	this.widths = new long[calibrationN + 1][];
+	this.edges = new long[calibrationN + 1];
+	for(int m = 1; m <= calibrationN; m++) {
+	    GameGraph graph = GameGraph.build(m);
+	    widths[m] = new long[graph.layerCount()];
+	    for(int d = 0; d < graph.layerCount(); d++) {
+		widths[m][d] = graph.layerSize(d);
+	    }
+	    edges[m] = graph.edgeCount();
+	}
+
+	int points = calibrationN - SMALLEST_FIT + 1;
+	double[][] growth = new double[points][], line = new double[points][];
+	double[] nodes = new double[points], edgeCounts = new double[points];
+	double[] layers = new double[points];
+	for(int p = 0; p < points; p++) {
+	    int m = SMALLEST_FIT + p;
+	    growth[p] = new double[] { 1, Math.sqrt(m), Math.log(m) };
+	    line[p] = new double[] { 1, m };
+	    nodes[p] = Math.log(sum(widths[m]));
+	    edgeCounts[p] = Math.log(edges[m]);
+	    layers[p] = widths[m].length;
+	}
+	this.nodeFit = leastSquares(growth, nodes);
+	this.edgeFit = leastSquares(growth, edgeCounts);
+	this.layerFit = leastSquares(line, layers);
+    }
+
+
+    //===================================
+    // ESTIMATION METHODS
+    //===================================
+
+    /**
+     * Estimates the layers, nodes and edges of the nth game, exactly when it was
+     * calibrated on
+     *
+     * @param n - The number of starting 1s
+     * @return The estimated size of the game
+     */
+    public Estimate estimate(int n) {
+	if(n < 1) {
+	    throw new IllegalArgumentException("n must be positive: " + n);
+	}
+	if(n <= calibrationN) {
+	    return new Estimate(n, true, widths[n].clone(), edges[n]);
+	}
+
+	double[] growth = { 1, Math.sqrt(n), Math.log(n) };
+	double nodes = Math.exp(dot(nodeFit, growth));
+	int layers = Math.max(widths[calibrationN].length,
+			      (int) Math.round(dot(layerFit, new double[] { 1, n })));
+
+	// Stretch the profile of the largest calibrated game over the predicted
+	// layers, then scale it to the predicted nodes
+	long[] shape = widths[calibrationN];
+	double[] profile = new double[layers];
+	double total = 0;
+	for(int d = 0; d < layers; d++) {
+	    double at = (double) d * (shape.length - 1) / (layers - 1);
+	    int below = (int) Math.floor(at);
+	    int above = Math.min(below + 1, shape.length - 1);
+	    profile[d] = shape[below] + (at - below) * (shape[above] - shape[below]);
+	    total += profile[d];
+	}
+	long[] estimated = new long[layers];
+	for(int d = 0; d < layers; d++) {
+	    estimated[d] = Math.max(1, Math.round(profile[d] * nodes / total));
+	}
+	estimated[0] = 1;
+	return new Estimate(n, false, estimated, Math.round(Math.exp(dot(edgeFit, growth))));
+    }
+
+
+    //===================================
+    // MEMORY MODELS
+    //===================================
+
+    /**
+     * Predicts the memory and disk an engine uses to solve a game
+     *
+     * @param backend - The engine
+     * @param size - The estimated size of the game
+     * @param workers - The number of worker JVMs, for SHARDED_SOLVER only
+     * @return The predicted peak use
+     */
+    public static Usage usage(Backend backend, Estimate size, int workers) {
+	double nodes = size.getNodes(), edgeCount = size.getEdges(), widest = size.getWidestLayer();
+	double live, offHeap = 0, disk = 0;
+	switch(backend) {
+	case GAME:
+	    live = 150 * nodes + 12 * edgeCount + 24 * widest;
+	    break;
+	case GAME_PARENTS_ON_DEMAND:
+	    live = 118 * nodes + 6 * edgeCount + 24 * widest;
+	    break;
+	case GAME_GRAPH:
+	    live = 31 * nodes + 10 * edgeCount + 48 * widest;
+	    disk = exportBytes(size);
+	    break;
+	case LAYER_SOLVER_HEAP:
+	    // The Index deduplicating the widest layer takes 12 bytes a slot, with
+	    // 2 to 4 slots per node
+	    live = 4 * nodes + 6 * edgeCount + 32 * widest + 48 * widest;
+	    break;
+	case LAYER_SOLVER_OFFHEAP:
+	    live = 0;
+	    offHeap = 4 * nodes + 6 * edgeCount + 32 * widest + 48 * widest;
+	    break;
+	default:
+	    live = (12 * nodes + 12 * edgeCount + 48 * widest) / workers;
+	    break;
+	}
+	long heap = Math.max(MIN_HEAP_BYTES, BASE_HEAP_BYTES + (long) (HEADROOM * live));
+	if(backend == Backend.SHARDED_SOLVER) {
+	    return new Usage(backend, workers, (long) live, heap, 0, (long) workers * heap, 0);
+	}
+	return new Usage(backend, 1, (long) live, heap, (long) offHeap, heap + (long) offHeap,
+			 (long) disk);
+    }
+
+    /**
+     * Size of the binary export of GraphExporter: a header per layer, a key and a
+     * value per node, a varint child count per node and a varint rank per edge,
+     * the rank taking as many bytes as the widest layer needs
+     */
+    private static long exportBytes(Estimate size) {
+	int rankBytes = 1;
+	for(long width = size.getWidestLayer(); width >= 128; width >>= 7) {
+	    rankBytes++;
+	}
+	return 64 + 8L * size.getLayers() + 10 * size.getNodes() + rankBytes * size.getEdges();
+    }
+
+
+    //===================================
+    // PLANNING METHODS
+    //===================================
+
+    /**
+     * Predicts the use of every engine on the nth game, and picks the fastest that
+     * fits the budget. A sharded plan uses the fewest workers whose heaps fit.
+     *
+     * @param n - The number of starting 1s
+     * @param heapBudget - The largest heap a single JVM may be given, in bytes
+     * @param memoryBudget - The memory all JVMs and native allocations may use
+     *                       together, in bytes
+     * @return The plan, whose choice is null if no engine fits
+     */
+    public Plan plan(int n, long heapBudget, long memoryBudget) {
+	Estimate size = estimate(n);
+	ArrayList<Usage> options = new ArrayList<Usage>();
+	Usage choice = null;
+	for(Backend backend: Backend.values()) {
+	    Usage usage = usage(backend, size, 1);
+	    if(backend == Backend.SHARDED_SOLVER) {
+		for(int workers = 2; workers <= MAX_WORKERS; workers++) {
+		    usage = usage(backend, size, workers);
+		    if(usage.getHeapPerJvm() <= heapBudget) {
+			break;
+		    }
+		}
+	    }
+	    options.add(usage);
+	    if(choice == null && usage.getHeapPerJvm() <= heapBudget
+	       && usage.getTotalMemory() <= memoryBudget) {
+		choice = usage;
+	    }
+	}
+	return new Plan(size, options, choice, heapBudget, memoryBudget);
+    }
+
+
+    //===================================
+    // RESULT CLASSES
+    //===================================
+
+    /**
+     * Exact or estimated size of a game
+     */
+    public static class Estimate {
+
+	private final int n;
+	private final boolean exact;
+	private final long[] widths;
+	private final long nodes, edges, widest;
+
+	Estimate(int n, boolean exact, long[] widths, long edges) {
+	    this.n = n;
+	    this.exact = exact;
+	    this.widths = widths;
+	    this.nodes = sum(widths);
+	    this.edges = edges;
+	    this.widest = max(widths);
+	}
+
+	/**
+	 * Getters for the game, and whether its counts are exact
+	 */
+	public int getN() { return this.n; }
+	public boolean isExact() { return this.exact; }
+
+	/**
+	 * Getters for the number of layers, of nodes, of edges, and the width of
+	 * the widest layer
+	 */
+	public int getLayers() { return this.widths.length; }
+	public long getNodes() { return this.nodes; }
+	public long getEdges() { return this.edges; }
+	public long getWidestLayer() { return this.widest; }
+
+	/**
+	 * Copy of the width of each layer, by depth
+	 */
+	public long[] getLayerWidths() { return this.widths.clone(); }
+
+	@Override
+	public String toString() {
+	    return (exact ? "game " : "estimated game ") + n + ": " + widths.length + " layers, "
+		+ nodes + " nodes, " + edges + " edges, widest layer " + widest;
+	}
+    }
+
+    /**
+     * Predicted peak use of an engine: the live data each JVM holds, the heap each
+     * JVM needs, the memory outside the heap, the memory of all JVMs together, and
+     * the disk
+     */
+    public static class Usage {
+
+	private final Backend backend;
+	private final int jvms;
+	private final long livePerJvm, heapPerJvm, offHeap, totalMemory, disk;
+
+	Usage(Backend backend, int jvms, long livePerJvm, long heapPerJvm, long offHeap,
+	      long totalMemory, long disk) {
+	    this.backend = backend;
+	    this.jvms = jvms;
+	    this.livePerJvm = livePerJvm;
+	    this.heapPerJvm = heapPerJvm;
+	    this.offHeap = offHeap;
+	    this.totalMemory = totalMemory;
+	    this.disk = disk;
+	}
+
+	public Backend getBackend() { return this.backend; }
+	public int getJvms() { return this.jvms; }
+	public long getLivePerJvm() { return this.livePerJvm; }
+	public long getHeapPerJvm() { return this.heapPerJvm; }
+	public long getOffHeap() { return this.offHeap; }
+	public long getTotalMemory() { return this.totalMemory; }
+	public long getDisk() { return this.disk; }
+
+	/**
+	 * The options to run the engine with, e.g. "-Xmx512m" or "-Xmx96m, 4 workers"
+	 */
+	public String getSettings() {
+	    String heap = "-Xmx" + ((heapPerJvm + (1 << 20) - 1) >> 20) + "m";
+	    switch(backend) {
+	    case SHARDED_SOLVER:
+		return heap + " per worker, " + jvms + " workers";
+	    case LAYER_SOLVER_OFFHEAP:
+		return heap + " --add-modules jdk.incubator.foreign";
+	    case GAME_PARENTS_ON_DEMAND:
+		return heap + ", new Game(n, false)";
+	    default:
+		return heap;
+	    }
+	}
+
+	@Override
+	public String toString() {
+	    return String.format("%-22s %10d %10d %10d %10d  %s", backend, heapPerJvm >> 20,
+				 offHeap >> 20, totalMemory >> 20, disk >> 20, getSettings());
+	}
+    }
+
+    /**
+     * The predictions for every engine on a game, and the engine chosen
+     */
+    public static class Plan {
+
+	private final Estimate size;
+	private final ArrayList<Usage> options;
+	private final Usage choice;
+	private final long heapBudget, memoryBudget;
+
+	Plan(Estimate size, ArrayList<Usage> options, Usage choice, long heapBudget, long memoryBudget) {
+	    this.size = size;
+	    this.options = options;
+	    this.choice = choice;
+	    this.heapBudget = heapBudget;
+	    this.memoryBudget = memoryBudget;
+	}
+
+	public Estimate getEstimate() { return this.size; }
+	public ArrayList<Usage> getOptions() { return new ArrayList<Usage>(this.options); }
+
+	/**
+	 * The fastest engine that fits the budget, or null if none does
+	 */
+	public Usage getChoice() { return this.choice; }
+
+	@Override
+	public String toString() {
+	    StringBuilder text = new StringBuilder();
+	    text.append(size).append('\n');
+	    text.append(String.format("%-22s %10s %10s %10s %10s  %s\n", "engine", "heap MB",
+				      "native MB", "total MB", "disk MB", "settings"));
+	    for(Usage usage: options) {
+		text.append(usage).append('\n');
+	    }
+	    text.append(choice == null
+			? "No engine fits " + (heapBudget >> 20) + " MB of heap and "
+			+ (memoryBudget >> 20) + " MB of memory"
+			: "Run " + choice.getBackend() + " with " + choice.getSettings());
+	    return text.toString();
+	}
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Solves the least squares problem rows * x = values through its normal
+     * equations, by Gaussian elimination with partial pivoting
+     */
+    private static double[] leastSquares(double[][] rows, double[] values) {
+	int k = rows[0].length;
+	double[][] system = new double[k][k + 1];
+	for(int r = 0; r < rows.length; r++) {
+	    for(int i = 0; i < k; i++) {
+		for(int j = 0; j < k; j++) {
+		    system[i][j] += rows[r][i] * rows[r][j];
+		}
+		system[i][k] += rows[r][i] * values[r];
+	    }
+	}
+	for(int col = 0; col < k; col++) {
+	    int pivot = col;
+	    for(int r = col + 1; r < k; r++) {
+		if(Math.abs(system[r][col]) > Math.abs(system[pivot][col])) {
+		    pivot = r;
+		}
+	    }
+	    double[] swap = system[col];
+	    system[col] = system[pivot];
+	    system[pivot] = swap;
+	    for(int r = 0; r < k; r++) {
+		if(r != col) {
+		    double factor = system[r][col] / system[col][col];
+		    for(int j = col; j <= k; j++) {
+			system[r][j] -= factor * system[col][j];
+		    }
+		}
+	    }
+	}
+	double[] x = new double[k];
+	for(int i = 0; i < k; i++) {
+	    x[i] = system[i][k] / system[i][i];
+	}
+	return x;
+    }
+
+    private static double dot(double[] a, double[] b) {
+	double total = 0;
+	for(int i = 0; i < a.length; i++) {
+	    total += a[i] * b[i];
+	}
+	return total;
+    }
+
+    private static long sum(long[] values) {
+	long total = 0;
+	for(long value: values) {
+	    total += value;
+	}
+	return total;
+    }
+
+    private static long max(long[] values) {
+	long largest = 0;
+	for(long value: values) {
+	    largest = Math.max(largest, value);
+	}
+	return largest;
+    }
+
+
+    /**
+     * Prints the live memory predicted for an engine next to the memory measured,
+     * and whether the measure stays within the headroom planned over the
+     * prediction
+     */
+    private static void printCheck(Backend backend, Estimate size, long measured) {
+	Usage usage = usage(backend, size, 1);
+	long predicted = usage.getLivePerJvm() + usage.getOffHeap();
+	boolean covered = measured <= HEADROOM * usage.getLivePerJvm() + usage.getOffHeap();
+	System.out.println(String.format("%-22s %4d %12d %12d %7.1f%%  %s", backend, size.getN(),
+					 predicted >> 10, measured >> 10,
+					 100.0 * (measured - predicted) / predicted,
+					 covered ? "within headroom" : "OVER HEADROOM"));
+    }
+
+    /**
+     * Heap in use once several collections in a row free no significant amount
+     */
+    private static long usedHeap() {
+	Runtime runtime = Runtime.getRuntime();
+	long used = Long.MAX_VALUE;
+	int stable = 0;
+	for(int i = 0; i < 20 && stable < 3; i++) {
+	    System.gc();
+	    long now = runtime.totalMemory() - runtime.freeMemory();
+	    stable = now >= used - (used >> 8) ? stable + 1 : 0;
+	    used = Math.min(now, used);
+	}
+	return used;
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Calibrates on the games up to 50, checks the estimates against the exact
+     * counts of GameGraph up to 80, and the predicted memory against the heap a
+     * built Game retains and the peak RegressionSuite measures for the other
+     * engines. Then plans the nth game (150 by default) and a few larger ones for
+     * a heap and a memory budget, by default the largest heap of this JVM and four
+     * times it.
+     */
+    public static void main(String[] args) throws Exception {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 150;
+	long heapBudget = args.length > 1 ? Long.parseLong(args[1]) << 20 : Runtime.getRuntime().maxMemory();
+	long memoryBudget = args.length > 2 ? Long.parseLong(args[2]) << 20 : 4 * heapBudget;
+
+	long start = System.nanoTime();
+	MemoryPlanner planner = new MemoryPlanner();
+	System.out.println("Calibrated on the games up to 50 in "
+			   + (System.nanoTime() - start) / 1000000 + " ms");
+
+	// Estimates against the exact games
+	System.out.println(String.format("%4s %8s %12s %8s %12s %8s %10s %8s", "n", "layers", "nodes",
+					 "error", "edges", "error", "widest", "error"));
+	for(int m = 55; m <= 80; m += 5) {
+	    Estimate estimate = planner.estimate(m);
+	    GameGraph graph = GameGraph.build(m);
+	    long widest = 0;
+	    for(int d = 0; d < graph.layerCount(); d++) {
+		widest = Math.max(widest, graph.layerSize(d));
+	    }
+	    System.out.println(String.format("%4d %8s %12d %7.1f%% %12d %7.1f%% %10d %7.1f%%", m,
+					     estimate.getLayers() + "/" + graph.layerCount(),
+					     estimate.getNodes(),
+					     100.0 * (estimate.getNodes() - graph.nodeCount()) / graph.nodeCount(),
+					     estimate.getEdges(),
+					     100.0 * (estimate.getEdges() - graph.edgeCount()) / graph.edgeCount(),
+					     estimate.getWidestLayer(), 100.0 * (estimate.getWidestLayer() - widest)
+					     / widest));
+	}
+
+	// Predicted live memory, without headroom, against the memory measured: the
+	// heap a built Game retains, and the peak of the other engines
+	System.out.println();
+	System.out.println(String.format("%-22s %4s %12s %12s %8s", "engine", "n", "predicted KB",
+					 "measured KB", "error"));
+	for(boolean keepParents: new boolean[] { true, false }) {
+	    int m = 35;
+	    long before = usedHeap();
+	    Game game = new Game(m, keepParents);
+	    game.playGame();
+	    long measured = usedHeap() - before;
+	    java.lang.ref.Reference.reachabilityFence(game);
+	    printCheck(keepParents ? Backend.GAME : Backend.GAME_PARENTS_ON_DEMAND, planner.estimate(m), measured);
+	}
+	for(RegressionSuite.Engine engine: RegressionSuite.engines()) {
+	    Backend backend = engine.name.equals("GameGraph") ? Backend.GAME_GRAPH
+		: engine.name.equals("LayerSolver-heap") ? Backend.LAYER_SOLVER_HEAP
+		: engine.name.equals("LayerSolver-offheap") ? Backend.LAYER_SOLVER_OFFHEAP : null;
+	    if(backend == null) {
+		continue;
+	    }
+	    int m = 70;
+	    RegressionSuite.measure(engine, m);
+	    printCheck(backend, planner.estimate(m), RegressionSuite.measure(engine, m).bytes);
+	}
+
+	// Plans
+	for(int m: new int[] { n, 2 * n, 4 * n }) {
+	    System.out.println();
+	    start = System.nanoTime();
+	    Plan plan = planner.plan(m, heapBudget, memoryBudget);
+	    System.out.println(plan);
+	    System.out.println("Planned in " + (System.nanoTime() - start) / 1000 + " us");
+	}
+    }
+
+}
@@ -0,0 +1,421 @@
+/**
+ * The rules of a decomposition game: which summands exist, which moves can be
+ * played, and who wins when no move is left. The Zeckendorf game is one set of
+ * rules among variants built on other sequences, with restricted move sets, or
+ * played misere.
+ *
+ * States are packed in single longs the same way for every variant. Every index of
+ * the sequence that can appear in game n gets a fixed-width bit field holding its
+ * frequency, sized for the largest frequency the index can ever reach
+ * (n / value(index)). As long as every move preserves the total of the
+ * decomposition no field can overflow, and a move becomes the addition of a
+ * constant delta to the key.
+ *
+ * Implementations generate all the children of a state in a single call to
+ * children(), so the code that expands, deduplicates and solves games pays one
+ * virtual call per state rather than one per move, and each implementation is free
+ * to specialise its move loop. The layout methods are final and inline like
+ * ordinary field accesses.
+ *
+ * The benchmark comparing the implementations with a hand-inlined expansion of the
+ * Zeckendorf game can be executed, after compilation, by running the command
+ *
+ *          java MoveRules [n] [repetitions]
+ *
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+public abstract class MoveRules {
+
+    /**
+     * The game the rules are for, the largest index that can appear in it and
+     * whether the player who makes the last move loses instead of winning
+     */
+    protected final int n, maxIndex;
+    protected final boolean misere;
+
+    /**
+     * Value of each index of the sequence, from index 1
+     */
+    private final long[] values;
+
+    /**
+     * Bit offset, width and mask of the frequency field of each index. Indices up
+     * to maxIndex + 2 have entries, those above maxIndex always holding 0.
+     */
+    private final int[] offset, width;
+    private final long[] mask;
+
+
+    /**
+     * Lays out the packed states of the nth game on a sequence
+     *
+     * @param n - The total of the decompositions of the game
+     * @param sequence - Increasing sequence values by index, sequence[1] being 1.
+     *                   Entry 0 is ignored.
+     * @param misere - true if the player who makes the last move loses
+     * @throws IllegalArgumentException if the states of game n do not fit in 64 bits
+     */
+    protected MoveRules(int n, long[] sequence, boolean misere) {
+	if(n < 1) {
+	    throw new IllegalArgumentException("n must be positive: " + n);
+	}
+	if(sequence.length < 2 || sequence[1] != 1) {
+	    throw new IllegalArgumentException("The sequence must start with 1 at index 1");
+	}
+	this.n = n;
+	this.misere = misere;
+
+	// Find the largest index whose value fits in n
+	int top = 1;
+	while(top + 1 < sequence.length && sequence[top + 1] <= n) {
+	    top++;
+	}
+	this.maxIndex = top;
+	this.values = new long[top + 1];
+	System.arraycopy(sequence, 1, values, 1, top);
+
+	// Lay out one field per index, wide enough for n / value(index)
+	this.offset = new int[top + 3];
+	this.width = new int[top + 3];
+	this.mask = new long[top + 3];
+	int bits = 0;
+	for(int i = 1; i <= top; i++) {
+	    long maxFreq = n / sequence[i];
+	    offset[i] = bits;
+	    width[i] = 64 - Long.numberOfLeadingZeros(maxFreq);
+	    mask[i] = (1L << width[i]) - 1;
+	    bits += width[i];
+	}
+	if(bits > 64) {
+	    throw new IllegalArgumentException("States of game " + n + " need " + bits
+					       + " bits and cannot be packed in a long");
+	}
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getter for the game the rules are for
+     */
+    public final int getN() { return this.n; }
+
+    /**
+     * Getter for the largest index that can appear in the game
+     */
+    public final int getMaxIndex() { return this.maxIndex; }
+
+    /**
+     * Determines if the player who makes the last move loses
+     */
+    public final boolean isMisere() { return this.misere; }
+
+    /**
+     * Value of the summand at an index
+     */
+    public final long value(int index) { return this.values[index]; }
+
+    /**
+     * Bit width of the frequency field of an index
+     */
+    public final int width(int index) { return this.width[index]; }
+
+    /**
+     * Frequency of the summand at the passed index in a packed state
+     *
+     * @param key - A packed state
+     * @param index - The index of the summand
+     * @return The number of summands at the index in the state
+     */
+    public final int freq(long key, int index) {
+	if(index < 1 || index > maxIndex) {
+	    return 0;
+	}
+	return (int) ((key >>> offset[index]) & mask[index]);
+    }
+
+    /**
+     * Win value of a terminal state, following the GameState convention
+     *
+     * @param depth - The number of moves played to reach the state
+     * @return 1 if player 1 wins, -1 if player 2 wins
+     */
+    public final int terminalValue(int depth) {
+	// Player 1 made the last move when an odd number of moves were played
+	boolean player1Last = depth % 2 == 1;
+	return player1Last != misere ? 1 : -1;
+    }
+
+
+    //===================================
+    // MOVE METHODS
+    //===================================
+
+    /**
+     * Writes the keys of all states that follow a packed state into out, without
+     * allocating. out must hold at least maxChildren() keys.
+     *
+     * @param key - A packed state
+     * @param out - Array receiving the children keys
+     * @return The number of children written
+     */
+    public abstract int children(long key, long[] out);
+
+    /**
+     * Writes the keys of all states from which a single move leads to a packed
+     * state into out, by undoing each move whose result the state holds. Each move
+     * undone gives one predecessor, so out must hold at least maxChildren() keys.
+     * Predecessors are listed whatever the number of moves it takes to reach them.
+     *
+     * @param key - A packed state
+     * @param out - Array receiving the predecessor keys
+     * @return The number of predecessors written
+     */
+    public abstract int parents(long key, long[] out);
+
+    /**
+     * Determines if a packed state is terminal
+     *
+     * @param key - A packed state
+     * @return true if no move can be played from the state
+     */
+    public abstract boolean isTerminal(long key);
+
+    /**
+     * Upper bound on the number of children of any state of the game
+     */
+    public abstract int maxChildren();
+
+
+    //===================================
+    // ENCODING AND DECODING
+    //===================================
+
+    /**
+     * Returns the packed key of the starting state of n 1s
+     */
+    public final long initialKey() {
+	return unit(1) * n;
+    }
+
+    /**
+     * Packs the decomposition of a GameState
+     *
+     * @param state - A GameState of game n
+     * @return The packed key of the decomposition of state
+     */
+    public final long encode(GameState state) {
+	long key = 0;
+	SparseState decomp = state.getPosition();
+	for(int k = 0; k < decomp.size(); k++) {
+	    int index = decomp.index(k), count = decomp.count(k);
+	    if(index < 1 || index > maxIndex || count > mask[index]) {
+		throw new IllegalArgumentException("State is not part of game " + n);
+	    }
+	    key += unit(index) * count;
+	}
+	return key;
+    }
+
+    /**
+     * Unpacks a key into a GameState. Only nonzero frequencies are put in the map
+     *
+     * @param key - A packed state
+     * @param depth - The depth to give the GameState
+     * @return A new GameState holding the decomposition of key
+     */
+    public final GameState decode(long key, int depth) {
+	HashMap<Integer, Integer> decomp = new HashMap<Integer, Integer>();
+	for(int i = 1; i <= maxIndex; i++) {
+	    int count = freq(key, i);
+	    if(count > 0) {
+		decomp.put(i, count);
+	    }
+	}
+	return new GameState(decomp, depth);
+    }
+
+    /**
+     * Packed key of a single summand at the passed index
+     */
+    protected final long unit(int index) {
+	return 1L << offset[index];
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Benchmark: expands every layer of the nth game with deduplication, as
+     * GameGraph does, through each implementation of the Zeckendorf rules and
+     * through a copy of the expansion with the moves written out inline. The
+     * table of moves must give the same game when its move vectors are padded
+     * with zeros past the largest index of the game.
+     */
+    public static void main(String[] args) {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 70;
+	int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+	MoveRules[] rules = { new PackedState(n), TableRules.zeckendorf(n, TableRules.ALL_MOVES, false) };
+	String[] names = { "PackedState", "TableRules" };
+
+	// Let the JIT compile every version, so the call site sees all of them
+	for(int warmup = 0; warmup < 3; warmup++) {
+	    for(MoveRules r: rules) {
+		expand(r);
+	    }
+	    expandInline(new PackedState(n));
+	}
+
+	long best = Long.MAX_VALUE, states = 0;
+	for(int rep = 0; rep < repetitions; rep++) {
+	    long start = System.nanoTime();
+	    states = expandInline(new PackedState(n));
+	    best = Math.min(best, System.nanoTime() - start);
+	}
+	System.out.println("Game on " + n + ": " + states + " states");
+	System.out.println(String.format("%-12s %8.2f ms %10.0f states/s", "inline",
+					 best / 1e6, states * 1e9 / best));
+
+	for(int r = 0; r < rules.length; r++) {
+	    long time = Long.MAX_VALUE;
+	    for(int rep = 0; rep < repetitions; rep++) {
+		long start = System.nanoTime();
+		long count = expand(rules[r]);
+		time = Math.min(time, System.nanoTime() - start);
+		if(count != states) {
+		    throw new IllegalStateException(names[r] + " found " + count + " states");
+		}
+	    }
+	    System.out.println(String.format("%-12s %8.2f ms %10.0f states/s (%.2fx inline)",
+					     names[r], time / 1e6, states * 1e9 / time,
+					     (double) time / best));
+	}
+
+	// The Zeckendorf moves, each padded with zeros well past the largest index
+	int top = Fibonacci.largestIndex(n), length = top + 8;
+	java.util.List<int[]> padded = new java.util.ArrayList<int[]>();
+	for(int i = 1; i <= top; i++) {
+	    if(i >= 2) {
+		int[] split = new int[length];
+		split[i] = -2;
+		split[i == 2 ? 1 : i - 2] = 1;
+		split[i + 1] = 1;
+		padded.add(split);
+	    }
+	    int[] merge = new int[length];
+	    merge[i] = -1;
+	    merge[i + 1] = -1;
+	    merge[i + 2] = 1;
+	    padded.add(merge);
+	}
+	int[] ones = new int[length];
+	ones[1] = -2;
+	ones[2] = 1;
+	padded.add(ones);
+	long count = expand(new TableRules(n, PackedState.FIB, padded, false));
+	if(count != states) {
+	    throw new IllegalStateException("Padded moves found " + count + " states");
+	}
+	System.out.println("Moves padded to index " + (length - 1) + " give the same " + count + " states");
+    }
+
+    /**
+     * Expands the game layer by layer through the rules
+     *
+     * @return The number of states, counted once per layer they appear in
+     */
+    private static long expand(MoveRules rules) {
+	long[] layer = { rules.initialKey() };
+	long[] next = new long[1024];
+	long[] buffer = new long[rules.maxChildren()];
+	LongIntHashMap seen = new LongIntHashMap(1024);
+	long states = 0;
+	while(layer.length > 0) {
+	    states += layer.length;
+	    seen.clear();
+	    int size = 0;
+	    for(long key: layer) {
+		int count = rules.children(key, buffer);
+		for(int c = 0; c < count; c++) {
+		    if(seen.putIfAbsent(buffer[c], size) < 0) {
+			if(size == next.length) {
+			    next = Arrays.copyOf(next, size * 2);
+			}
+			next[size++] = buffer[c];
+		    }
+		}
+	    }
+	    layer = Arrays.copyOf(next, size);
+	}
+	return states;
+    }
+
+    /**
+     * Expands the Zeckendorf game layer by layer with the move loop written out
+     * inline against the field layout of a codec
+     *
+     * @return The number of states, counted once per layer they appear in
+     */
+    private static long expandInline(PackedState codec) {
+	int top = codec.getMaxIndex();
+	int[] shift = new int[top + 3];
+	long[] fieldMask = new long[top + 3];
+	long[] unit = new long[top + 3];
+	for(int i = 1; i <= top; i++) {
+	    shift[i] = Long.numberOfTrailingZeros(codec.unit(i));
+	    fieldMask[i] = (1L << codec.width(i)) - 1;
+	    unit[i] = codec.unit(i);
+	}
+
+	long[] layer = { codec.initialKey() };
+	long[] next = new long[1024];
+	long[] buffer = new long[codec.maxChildren()];
+	LongIntHashMap seen = new LongIntHashMap(1024);
+	long states = 0;
+	while(layer.length > 0) {
+	    states += layer.length;
+	    seen.clear();
+	    int size = 0;
+	    for(long key: layer) {
+
+		// The moves of PackedState.children(), written out against the layout
+		int count = 0;
+		for(int i = 1; i <= top; i++) {
+		    long f = (key >>> shift[i]) & fieldMask[i];
+		    if(f == 0) {
+			continue;
+		    }
+		    if(f >= 2 && i >= 2 && i + 1 <= top) {
+			buffer[count++] = key + unit[i == 2 ? 1 : i - 2] + unit[i + 1] - 2 * unit[i];
+		    }
+		    if(i + 2 <= top && ((key >>> shift[i + 1]) & fieldMask[i + 1]) > 0) {
+			buffer[count++] = key + unit[i + 2] - unit[i] - unit[i + 1];
+		    }
+		}
+		if(top >= 2 && (key & fieldMask[1]) >= 2) {
+		    buffer[count++] = key + unit[2] - 2 * unit[1];
+		}
+
+		for(int c = 0; c < count; c++) {
+		    if(seen.putIfAbsent(buffer[c], size) < 0) {
+			if(size == next.length) {
+			    next = Arrays.copyOf(next, size * 2);
+			}
+			next[size++] = buffer[c];
+		    }
+		}
+	    }
+	    layer = Arrays.copyOf(next, size);
+	}
+	return states;
+    }
+
+}
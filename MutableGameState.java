@@ -0,0 +1,327 @@
+/**
+ * A mutable decomposition used by simulations that play millions of moves. Unlike
+ * GameState, moves are applied in place to a plain array of frequencies, so
+ * playing a game allocates nothing.
+ *
+ * Moves are identified by int codes combining the kind of move and its index, and
+ * are listed in the same order as GameState.genChildren() lists children: for each
+ * index from smallest to largest the split move then the summing move, and finally
+ * the 1 + 1 move.
+ *
+ * Two bit masks record the indices holding at least one and at least two
+ * fibonaccis. As an int number of 1s never reaches index 46, each fits in a long,
+ * so counting the legal moves and detecting the end of the game take a few bit
+ * operations, and listing or playing a move only visits the nonzero indices. A
+ * playout of the game on n 1s then costs about n moves of constant time, whatever
+ * the size of n.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class MutableGameState {
+
+    /**
+     * Kinds of move, stored in the low bits of a move code
+     */
+    public static final int SPLIT = 0, MERGE = 1, ONES = 2;
+
+    /**
+     * The number of starting 1s, and the largest index that can appear
+     */
+    private final int n, maxIndex;
+
+    /**
+     * Frequency of each index, with room for the indices a move can touch above
+     * maxIndex, which always stay 0
+     */
+    private final int[] freq;
+
+    /**
+     * Bit i set when index i holds at least one fibonacci, and when it holds at
+     * least two
+     */
+    private long occupied, piles;
+
+    /**
+     * Number of moves played since the last reset
+     */
+    private int depth;
+
+
+    /**
+     * Constructs the starting state of n 1s
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     */
+    public MutableGameState(int n) {
+	if(n < 1) {
+	    throw new IllegalArgumentException("n must be positive: " + n);
+	}
+	this.n = n;
+	int top = Fibonacci.largestIndex(n);
+	this.maxIndex = top;
+	this.freq = new int[top + 3];
+	reset();
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getters for the game and the largest index that can appear in it
+     */
+    public int getN() { return this.n; }
+    public int getMaxIndex() { return this.maxIndex; }
+
+    /**
+     * Getter for the number of moves played since the last reset
+     */
+    public int getDepth() { return this.depth; }
+
+    /**
+     * Frequency of the fibonacci at an index
+     */
+    public int freq(int index) {
+	return index >= 1 && index <= maxIndex ? this.freq[index] : 0;
+    }
+
+    /**
+     * Number of indices holding at least 2 fibonaccis, and of consecutive indices
+     * both holding a fibonacci
+     */
+    public int pileCount() {
+	return Long.bitCount(piles);
+    }
+    public int adjacentCount() {
+	return Long.bitCount(occupied & (occupied >>> 1));
+    }
+
+    /**
+     * Upper bound on the number of legal moves of any state of the game
+     */
+    public int maxMoves() {
+	return 2 * maxIndex + 1;
+    }
+
+
+    //===================================
+    // MOVE METHODS
+    //===================================
+
+    /**
+     * Returns to the starting state of n 1s
+     */
+    public void reset() {
+	Arrays.fill(freq, 0);
+	freq[1] = n;
+	depth = 0;
+	recount();
+    }
+
+    /**
+     * Copies the decomposition and depth of another state of the same game
+     */
+    public void copyFrom(MutableGameState other) {
+	System.arraycopy(other.freq, 0, freq, 0, freq.length);
+	depth = other.depth;
+	occupied = other.occupied;
+	piles = other.piles;
+    }
+
+    /**
+     * Sets the frequencies and depth of this state. freq is indexed like the
+     * internal array, with entry i holding the frequency of index i.
+     *
+     * @param freq - An array of at least maxIndex + 1 frequencies
+     * @param depth - The number of moves played to reach the state
+     */
+    public void load(int[] freq, int depth) {
+	Arrays.fill(this.freq, 0);
+	System.arraycopy(freq, 0, this.freq, 0, Math.min(freq.length, maxIndex + 1));
+	this.depth = depth;
+	recount();
+    }
+
+    /**
+     * Copies the frequencies of this state into out, entry i receiving the
+     * frequency of index i
+     *
+     * @param out - An array of at least maxIndex + 1 entries
+     */
+    public void store(int[] out) {
+	System.arraycopy(freq, 0, out, 0, maxIndex + 1);
+    }
+
+    /**
+     * Writes the codes of all legal moves into out, which must hold maxMoves()
+     * codes
+     *
+     * @param out - Array receiving the move codes
+     * @return The number of legal moves
+     */
+    public int legalMoves(int[] out) {
+	int count = 0;
+	long splits = piles & ~2L, merges = occupied & (occupied >>> 1);
+	for(long left = splits | merges; left != 0; left &= left - 1) {
+	    int i = Long.numberOfTrailingZeros(left);
+	    if((splits >>> i & 1) != 0) {
+		out[count++] = (i << 2) | SPLIT;
+	    }
+	    if((merges >>> i & 1) != 0) {
+		out[count++] = (i << 2) | MERGE;
+	    }
+	}
+	if((piles & 2L) != 0) {
+	    out[count++] = (1 << 2) | ONES;
+	}
+	return count;
+    }
+
+    /**
+     * Counts the legal moves without listing them
+     *
+     * @return The number of legal moves, 0 for a terminal state
+     */
+    public int legalMoveCount() {
+	// A split for each pile above index 1, the 1 + 1 move for a pile at index 1,
+	// and a summing move for each pair of consecutive nonzero indices
+	return Long.bitCount(piles) + Long.bitCount(occupied & (occupied >>> 1));
+    }
+
+    /**
+     * Determines if no move can be played
+     */
+    public boolean isTerminal() {
+	return (piles | (occupied & (occupied >>> 1))) == 0;
+    }
+
+    /**
+     * Plays the kth legal move, in the order of legalMoves(), without listing the
+     * moves
+     *
+     * @param k - The rank of the move to play, below legalMoveCount()
+     */
+    public void playNth(int k) {
+	long splits = piles & ~2L, merges = occupied & (occupied >>> 1);
+	for(long left = splits | merges; left != 0; left &= left - 1) {
+	    int i = Long.numberOfTrailingZeros(left);
+	    if((splits >>> i & 1) != 0 && k-- == 0) {
+		play((i << 2) | SPLIT);
+		return;
+	    }
+	    if((merges >>> i & 1) != 0 && k-- == 0) {
+		play((i << 2) | MERGE);
+		return;
+	    }
+	}
+	if((piles & 2L) != 0 && k == 0) {
+	    play((1 << 2) | ONES);
+	    return;
+	}
+	throw new IllegalArgumentException("No legal move of rank " + k);
+    }
+
+    /**
+     * Applies a legal move in place
+     *
+     * @param move - The code of the move, as produced by legalMoves()
+     */
+    public void play(int move) {
+	int i = move >>> 2;
+	switch(move & 3) {
+	case SPLIT:
+	    // 2 F(i) = F(i - 2) + F(i + 1), and 2 F(2) = F(1) + F(3)
+	    freq[i] -= 2;
+	    freq[i == 2 ? 1 : i - 2]++;
+	    freq[i + 1]++;
+	    update(i);
+	    update(i == 2 ? 1 : i - 2);
+	    update(i + 1);
+	    break;
+	case MERGE:
+	    // F(i) + F(i + 1) = F(i + 2)
+	    freq[i]--;
+	    freq[i + 1]--;
+	    freq[i + 2]++;
+	    update(i);
+	    update(i + 1);
+	    update(i + 2);
+	    break;
+	default:
+	    // 1 + 1 = 2
+	    freq[1] -= 2;
+	    freq[2]++;
+	    update(1);
+	    update(2);
+	    break;
+	}
+	depth++;
+    }
+
+
+    //===================================
+    // CONVERSION METHODS
+    //===================================
+
+    /**
+     * Builds a GameState with the decomposition and depth of this state
+     */
+    public GameState toGameState() {
+	HashMap<Integer, Integer> decomp = new HashMap<Integer, Integer>();
+	for(int i = 1; i <= maxIndex; i++) {
+	    if(freq[i] > 0) {
+		decomp.put(i, freq[i]);
+	    }
+	}
+	return new GameState(decomp, depth);
+    }
+
+    /**
+     * Sets this state to the decomposition and depth of a GameState of the same
+     * game
+     */
+    public void setFrom(GameState state) {
+	Arrays.fill(freq, 0);
+	SparseState decomp = state.getPosition();
+	for(int k = 0; k < decomp.size(); k++) {
+	    int index = decomp.index(k);
+	    if(index > maxIndex) {
+		throw new IllegalArgumentException("State is not part of game " + n);
+	    }
+	    freq[index] = decomp.count(k);
+	}
+	depth = state.getDepth();
+	recount();
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Sets the bits of an index in the masks from its frequency
+     */
+    private void update(int index) {
+	long bit = 1L << index;
+	int f = freq[index];
+	occupied = f > 0 ? occupied | bit : occupied & ~bit;
+	piles = f >= 2 ? piles | bit : piles & ~bit;
+    }
+
+    /**
+     * Rebuilds both masks from the frequencies
+     */
+    private void recount() {
+	occupied = 0;
+	piles = 0;
+	for(int i = 1; i < freq.length; i++) {
+	    update(i);
+	}
+    }
+
+}
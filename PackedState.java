@@ -0,0 +1,197 @@
+/**
+ * The rules of the nth Zeckendorf Decomposition game on packed states. The bit
+ * layout of the states is the one of MoveRules: every fibonacci index that can
+ * appear in game n gets a fixed-width field holding its frequency, sized for
+ * n / fib(index), and every move becomes the addition of a constant delta to the
+ * packed key. This is the specialised implementation of the standard rules, with
+ * the special cases of indices 1 and 2 resolved into the precomputed deltas.
+ *
+ * Indices use the same convention as GameState: fib(1) = 1, fib(2) = 2,
+ * fib(3) = 3, fib(4) = 5, ...
+ *
+ * Children are generated in the same order as GameState.genChildren(), that is
+ * for each index from smallest to largest the split move (move 3) then the summing
+ * move (move 1), and finally the 1 + 1 move (move 2).
+ *
+ */
+
+public class PackedState extends MoveRules {
+
+    /**
+     * Fibonacci numbers by index, with FIB[0] = FIB[1] = 1, shared with Fibonacci.
+     * FIB[91] is the last value that fits in a long.
+     */
+    static final long[] FIB = Fibonacci.TABLE;
+
+    /**
+     * Constant deltas of the split (move 3) and summing (move 1) moves, by index,
+     * and of the 1 + 1 move (move 2). A delta of 0 marks a move that cannot exist.
+     */
+    private final long[] splitDelta, mergeDelta;
+    private final long onesDelta;
+
+
+    /**
+     * Constructs the codec for the nth game
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     * @throws IllegalArgumentException if the states of game n do not fit in 64 bits
+     */
+    public PackedState(int n) {
+	this(n, false);
+    }
+
+    /**
+     * Constructs the codec for the nth game, in normal or misere play
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     * @param misere - true if the player who makes the last move loses
+     * @throws IllegalArgumentException if the states of game n do not fit in 64 bits
+     */
+    public PackedState(int n, boolean misere) {
+	super(n, FIB, misere);
+	int top = maxIndex;
+
+	// Precompute the delta applied to a key by every possible move
+	this.splitDelta = new long[top + 1];
+	this.mergeDelta = new long[top + 1];
+	for(int i = 1; i <= top; i++) {
+	    if(i + 2 <= top) {
+		mergeDelta[i] = unit(i + 2) - unit(i) - unit(i + 1);
+	    }
+	    if(i == 2 && top >= 3) {
+		splitDelta[i] = unit(1) + unit(3) - 2 * unit(2);
+	    } else if(i > 2 && i + 1 <= top) {
+		splitDelta[i] = unit(i - 2) + unit(i + 1) - 2 * unit(i);
+	    }
+	}
+	this.onesDelta = top >= 2 ? unit(2) - 2 * unit(1) : 0;
+    }
+
+
+    //===================================
+    // TERMINAL STATE
+    //===================================
+
+    /**
+     * Returns the packed key of the Zeckendorf decomposition of n, the unique
+     * terminal state of the game
+     */
+    public long terminalKey() {
+	long key = 0;
+	long rest = n;
+	for(int i = maxIndex; i >= 1 && rest > 0; i--) {
+	    if(FIB[i] <= rest) {
+		key += unit(i);
+		rest -= FIB[i];
+	    }
+	}
+	return key;
+    }
+
+
+    //===================================
+    // MOVE METHODS
+    //===================================
+
+    /**
+     * Writes the keys of all states that follow a packed state into out, without
+     * allocating. out must hold at least maxChildren() keys.
+     *
+     * @param key - A packed state
+     * @param out - Array receiving the children keys
+     * @return The number of children written
+     */
+    @Override
+    public int children(long key, long[] out) {
+	int count = 0;
+	for(int i = 1; i <= maxIndex; i++) {
+	    int f = freq(key, i);
+	    if(f == 0) {
+		continue;
+	    }
+
+	    // Split two fibonaccis of the same index
+	    if(f >= 2 && splitDelta[i] != 0) {
+		out[count++] = key + splitDelta[i];
+	    }
+
+	    // Sum two consecutive fibonaccis
+	    if(mergeDelta[i] != 0 && freq(key, i + 1) > 0) {
+		out[count++] = key + mergeDelta[i];
+	    }
+	}
+
+	// Sum two 1s to make a 2
+	if(onesDelta != 0 && freq(key, 1) >= 2) {
+	    out[count++] = key + onesDelta;
+	}
+	return count;
+    }
+
+    /**
+     * Writes the keys of all states from which a single move leads to a packed
+     * state into out, in the order of children(): un-split and un-sum at each
+     * index, then 2 = 1 + 1
+     *
+     * @param key - A packed state
+     * @param out - Array receiving the predecessor keys
+     * @return The number of predecessors written
+     */
+    @Override
+    public int parents(long key, long[] out) {
+	int count = 0;
+	for(int i = 1; i <= maxIndex; i++) {
+
+	    // Undo a split, which left one fibonacci at i - 2 (1 for i = 2) and i + 1
+	    if(splitDelta[i] != 0 && freq(key, i == 2 ? 1 : i - 2) > 0 && freq(key, i + 1) > 0) {
+		out[count++] = key - splitDelta[i];
+	    }
+
+	    // Undo a sum, which left one fibonacci at i + 2
+	    if(mergeDelta[i] != 0 && freq(key, i + 2) > 0) {
+		out[count++] = key - mergeDelta[i];
+	    }
+	}
+
+	// Split a 2 back into two 1s
+	if(onesDelta != 0 && freq(key, 2) > 0) {
+	    out[count++] = key - onesDelta;
+	}
+	return count;
+    }
+
+    /**
+     * Determines if a packed state is terminal
+     *
+     * @param key - A packed state
+     * @return true if no move can be played from the state
+     */
+    @Override
+    public boolean isTerminal(long key) {
+	for(int i = 1; i <= maxIndex; i++) {
+	    int f = freq(key, i);
+	    if(f >= 2 || (f > 0 && freq(key, i + 1) > 0)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Deltas of the split and summing moves at an index and of the 1 + 1 move,
+     * 0 when the move cannot exist in the game
+     */
+    long splitDelta(int index) { return this.splitDelta[index]; }
+    long mergeDelta(int index) { return this.mergeDelta[index]; }
+    long onesDelta() { return this.onesDelta; }
+
+    /**
+     * Upper bound on the number of children of any state of the game
+     */
+    @Override
+    public int maxChildren() {
+	return 2 * maxIndex + 1;
+    }
+
+}
@@ -0,0 +1,284 @@
+/**
+ * Estimates the nth Zeckendorf Decomposition game by random play, for n far beyond
+ * what Game or GameGraph can solve exactly. Each playout starts from n 1s and plays
+ * uniformly random legal moves until the game ends. The engine reports the
+ * distribution of game lengths and how often each player wins, player 1 winning
+ * the games of odd length.
+ *
+ * Playouts are split between worker threads. Each worker owns a MutableGameState,
+ * a SplittableRandom split from the seed of the engine, and its own histogram,
+ * merged once all workers are done, so the playout loop allocates nothing and
+ * shares nothing. Runs with the same seed and thread count give the same results.
+ *
+ * Throughput target: at least 1,000,000 playouts per second per core for n = 30
+ * (games of about 33 moves), i.e. about 33 million moves per second per core. The
+ * cost of a playout grows with the length of the game, roughly n moves, so large
+ * games run proportionally fewer playouts per second.
+ *
+ * The benchmark can be executed, after compilation, by running the command
+ *
+ *          java PlayoutEngine [n] [playouts] [threads]
+ *
+ */
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class PlayoutEngine {
+
+    /**
+     * Playouts per second per core the engine should reach on the game on 30
+     */
+    public static final long TARGET_PLAYOUTS_PER_SECOND = 1000000;
+
+    /**
+     * The game to play, the number of worker threads and the seed of the random
+     * generators
+     */
+    private final int n, threads;
+    private final long seed;
+
+
+    /**
+     * Constructs an engine for the nth game
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     * @param threads - The number of worker threads
+     * @param seed - The seed the random generators of the workers are split from
+     */
+    public PlayoutEngine(int n, int threads, long seed) {
+	if(threads < 1) {
+	    throw new IllegalArgumentException("At least one thread is needed: " + threads);
+	}
+	this.n = n;
+	this.threads = threads;
+	this.seed = seed;
+    }
+
+
+    /**
+     * Plays random games and aggregates their lengths
+     *
+     * @param playouts - The number of games to play
+     * @return The aggregated results of all games
+     */
+    public Result run(long playouts) throws InterruptedException {
+	SplittableRandom master = new SplittableRandom(seed);
+	Worker[] workers = new Worker[threads];
+	Thread[] running = new Thread[threads];
+
+	// Split the games evenly, the first workers taking the remainder
+	long start = System.nanoTime();
+	for(int t = 0; t < threads; t++) {
+	    long share = playouts / threads + (t < playouts % threads ? 1 : 0);
+	    workers[t] = new Worker(n, share, master.split());
+	    running[t] = new Thread(workers[t], "playout-" + t);
+	    running[t].start();
+	}
+	for(Thread thread: running) {
+	    thread.join();
+	}
+	long nanos = System.nanoTime() - start;
+
+	// Merge the histograms of the workers
+	long[] lengths = new long[0];
+	for(Worker worker: workers) {
+	    if(worker.lengths.length > lengths.length) {
+		lengths = Arrays.copyOf(lengths, worker.lengths.length);
+	    }
+	    for(int l = 0; l < worker.lengths.length; l++) {
+		lengths[l] += worker.lengths[l];
+	    }
+	}
+	return new Result(n, playouts, lengths, nanos);
+    }
+
+
+    //===================================
+    // WORKER
+    //===================================
+
+    /**
+     * Plays a share of the games with its own state, generator and histogram
+     */
+    private static class Worker implements Runnable {
+
+	private final MutableGameState state;
+	private final long playouts;
+	private final SplittableRandom random;
+	private long[] lengths = new long[64];
+
+	Worker(int n, long playouts, SplittableRandom random) {
+	    this.state = new MutableGameState(n);
+	    this.playouts = playouts;
+	    this.random = random;
+	}
+
+	public void run() {
+	    for(long p = 0; p < playouts; p++) {
+		state.reset();
+
+		// Play uniformly random legal moves until none is left
+		int count;
+		while((count = state.legalMoveCount()) > 0) {
+		    state.playNth(random.nextInt(count));
+		}
+
+		int length = state.getDepth();
+		if(length >= lengths.length) {
+		    lengths = Arrays.copyOf(lengths, Math.max(length + 1, 2 * lengths.length));
+		}
+		lengths[length]++;
+	    }
+	}
+    }
+
+
+    //===================================
+    // RESULTS
+    //===================================
+
+    /**
+     * Aggregated results of a run: the number of games of each length, from which
+     * the win counts follow, and the time taken
+     */
+    public static class Result {
+
+	private final int n;
+	private final long playouts, nanos;
+	private final long[] lengths;
+
+	Result(int n, long playouts, long[] lengths, long nanos) {
+	    this.n = n;
+	    this.playouts = playouts;
+	    this.lengths = lengths;
+	    this.nanos = nanos;
+	}
+
+	/**
+	 * Getters for the game played, the number of games and the time taken
+	 */
+	public int getN() { return this.n; }
+	public long getPlayouts() { return this.playouts; }
+	public long getNanos() { return this.nanos; }
+
+	/**
+	 * Number of games that lasted the passed number of moves
+	 */
+	public long gamesOfLength(int length) {
+	    return length < lengths.length ? lengths[length] : 0;
+	}
+
+	/**
+	 * Copy of the histogram of game lengths, indexed by length
+	 */
+	public long[] getLengthHistogram() {
+	    return Arrays.copyOf(lengths, lengths.length);
+	}
+
+	/**
+	 * Number of games won by player 1, which are the games of odd length
+	 */
+	public long player1Wins() {
+	    long wins = 0;
+	    for(int l = 1; l < lengths.length; l += 2) {
+		wins += lengths[l];
+	    }
+	    return wins;
+	}
+
+	/**
+	 * Number of games won by player 2
+	 */
+	public long player2Wins() {
+	    return playouts - player1Wins();
+	}
+
+	/**
+	 * Shortest and longest game played, or -1 if no game was played
+	 */
+	public int minLength() {
+	    for(int l = 0; l < lengths.length; l++) {
+		if(lengths[l] > 0) {
+		    return l;
+		}
+	    }
+	    return -1;
+	}
+
+	public int maxLength() {
+	    for(int l = lengths.length - 1; l >= 0; l--) {
+		if(lengths[l] > 0) {
+		    return l;
+		}
+	    }
+	    return -1;
+	}
+
+	/**
+	 * Average number of moves of a game
+	 */
+	public double meanLength() {
+	    double total = 0;
+	    for(int l = 0; l < lengths.length; l++) {
+		total += (double) l * lengths[l];
+	    }
+	    return playouts == 0 ? 0 : total / playouts;
+	}
+
+	/**
+	 * Number of games played per second
+	 */
+	public double playoutsPerSecond() {
+	    return nanos == 0 ? 0 : playouts * 1e9 / nanos;
+	}
+
+	@Override
+	public String toString() {
+	    return "Game on " + n + ": " + playouts + " random games, lengths "
+		+ minLength() + " to " + maxLength() + " (mean "
+		+ String.format("%.2f", meanLength()) + "), player 1 won "
+		+ String.format("%.4f", (double) player1Wins() / playouts) + " of them, "
+		+ String.format("%.0f", playoutsPerSecond()) + " playouts/s";
+	}
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Benchmark: warms up, then times a run and compares the throughput to the
+     * target
+     */
+    public static void main(String[] args) throws InterruptedException {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+	long playouts = args.length > 1 ? Long.parseLong(args[1]) : 5000000;
+	int threads = args.length > 2 ? Integer.parseInt(args[2])
+	    : Runtime.getRuntime().availableProcessors();
+
+	PlayoutEngine engine = new PlayoutEngine(n, threads, 2018);
+
+	// Let the JIT compile the playout loop before measuring
+	for(int warmup = 0; warmup < 3; warmup++) {
+	    engine.run(Math.max(1, playouts / 10));
+	}
+
+	Result result = engine.run(playouts);
+	System.out.println(result);
+	double perCore = result.playoutsPerSecond() / threads;
+	System.out.println(String.format("%.0f", perCore) + " playouts/s per core on "
+			   + threads + " threads"
+			   + (n == 30 ? ", target " + TARGET_PLAYOUTS_PER_SECOND : ""));
+
+	// Print the distribution of game lengths
+	long[] histogram = result.getLengthHistogram();
+	for(int l = result.minLength(); l >= 0 && l <= result.maxLength(); l++) {
+	    if(histogram[l] > 0) {
+		System.out.println(l + "\t" + histogram[l]);
+	    }
+	}
+    }
+
+}
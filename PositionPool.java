@@ -0,0 +1,179 @@
+/**
+ * A concurrent interning pool of decompositions. Every GameState played from the
+ * same starting state shares a pool, and each move looks its decomposition up in
+ * it, so a decomposition reached along many paths is held once, as a single
+ * SparseState, and every node reaching it only points to it. Since SparseState is
+ * immutable and caches its hash, the interned decompositions can be read by any
+ * number of threads without locking, and compared by reference once interned in
+ * the same pool.
+ *
+ * The pool only grows: its decompositions live as long as the pool, which is
+ * dropped along with the last GameState using it. Each Game interns its states in
+ * a pool of its own, while GameStates built on their own, from a map or while
+ * converting from another engine, share the pool returned by shared(), which
+ * lives as long as the JVM.
+ *
+ * The interning benchmark can be executed, after compilation, by running the
+ * command
+ *
+ *          java PositionPool [n]
+ *
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class PositionPool {
+
+    /**
+     * The pool of the GameStates built outside of a Game
+     */
+    private static final PositionPool SHARED = new PositionPool();
+
+    /**
+     * The interned decompositions, each mapped to itself
+     */
+    private final ConcurrentHashMap<SparseState, SparseState> pool;
+
+    /**
+     * Number of lookups, and of lookups finding the decomposition already interned
+     */
+    private final LongAdder lookups = new LongAdder(), hits = new LongAdder();
+
+
+    /**
+     * Constructs an empty pool
+     */
+    public PositionPool() {
+	this.pool = new ConcurrentHashMap<SparseState, SparseState>();
+    }
+
+
+    /**
+     * Getter for the pool shared by the GameStates built outside of a Game
+     */
+    public static PositionPool shared() { return SHARED; }
+
+
+    //===================================
+    // INTERNING METHODS
+    //===================================
+
+    /**
+     * Returns the instance of a decomposition held by the pool, adding the passed
+     * one if the pool has none. Lookups of interned decompositions take no lock.
+     *
+     * @param position - A decomposition
+     * @return The pooled decomposition equal to position
+     */
+    public SparseState intern(SparseState position) {
+	lookups.increment();
+	SparseState pooled = pool.get(position);
+	if(pooled == null) {
+	    pooled = pool.putIfAbsent(position, position);
+	    if(pooled == null) {
+		return position;
+	    }
+	}
+	hits.increment();
+	return pooled;
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getter for the number of distinct decompositions interned
+     */
+    public int size() { return this.pool.size(); }
+
+    /**
+     * Getters for the number of lookups, and of lookups that found the
+     * decomposition already interned
+     */
+    public long getLookups() { return this.lookups.sum(); }
+    public long getHits() { return this.hits.sum(); }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Builds the layered game on n 1s (60 by default), whose nodes all intern their
+     * decompositions in the pool of the starting state, and reports how many
+     * decompositions the nodes share. Then interns the children of every
+     * decomposition of the pool from several threads at once into a second pool,
+     * checking that each thread gets back the same instances.
+     */
+    public static void main(String[] args) throws InterruptedException {
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+
+	Game game = new Game(n);
+	game.playGame();
+	PositionPool pool = game.getInitState().getPool();
+
+	// Every node must point to the pooled instance of its decomposition
+	java.util.Set<Tree<GameState>> nodes =
+	    java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<Tree<GameState>, Boolean>());
+	java.util.Set<SparseState> instances =
+	    java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<SparseState, Boolean>());
+	java.util.LinkedList<Tree<GameState>> toVisit = new java.util.LinkedList<Tree<GameState>>();
+	toVisit.add(game.getRoot());
+	while(toVisit.size() > 0) {
+	    Tree<GameState> tree = toVisit.poll();
+	    if(nodes.add(tree)) {
+		instances.add(tree.getState().getPosition());
+		toVisit.addAll(tree.getChildren());
+	    }
+	}
+	if(instances.size() != pool.size()) {
+	    throw new IllegalStateException("The nodes hold " + instances.size() + " instances of "
+					    + pool.size() + " pooled decompositions");
+	}
+	System.out.println(String.format("Game on %d: %d nodes share %d decompositions, %d of %d "
+					 + "lookups found in the pool", n, nodes.size(), pool.size(),
+					 pool.getHits(), pool.getLookups()));
+
+	// Every thread interns the children of every pooled decomposition
+	final SparseState[] positions = pool.pool.keySet().toArray(new SparseState[0]);
+	final PositionPool shared = new PositionPool();
+	int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+	final SparseState[][][] seen = new SparseState[threads][positions.length][];
+	Thread[] workers = new Thread[threads];
+	long start = System.nanoTime();
+	for(int t = 0; t < threads; t++) {
+	    final int thread = t;
+	    workers[t] = new Thread(() -> {
+		    for(int p = 0; p < positions.length; p++) {
+			java.util.ArrayList<SparseState> children = positions[p].children();
+			seen[thread][p] = new SparseState[children.size()];
+			for(int c = 0; c < children.size(); c++) {
+			    seen[thread][p][c] = shared.intern(children.get(c));
+			}
+		    }
+		});
+	    workers[t].start();
+	}
+	for(Thread worker: workers) {
+	    worker.join();
+	}
+	long millis = (System.nanoTime() - start) / 1000000;
+	for(int t = 1; t < threads; t++) {
+	    for(int p = 0; p < positions.length; p++) {
+		for(int c = 0; c < seen[t][p].length; c++) {
+		    if(seen[t][p][c] != seen[0][p][c]) {
+			throw new IllegalStateException("Threads interned different instances of "
+							+ seen[t][p][c]);
+		    }
+		}
+	    }
+	}
+	System.out.println(String.format("%d threads interned %d children each into %d shared "
+					 + "decompositions in %d ms", threads, shared.getLookups() / threads,
+					 shared.size(), millis));
+    }
+
+}
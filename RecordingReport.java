@@ -0,0 +1,173 @@
+/**
+ * Turns a flight recording of games being built and solved into a per-layer report.
+ * The recording should be made with the zeckendorf.jfc settings, which enable the
+ * events of GameEvents and allocation sampling:
+ *
+ *          java -XX:StartFlightRecording:settings=zeckendorf.jfc,filename=run.jfr GameGraph 60
+ *          java RecordingReport run.jfr
+ *
+ * For each layer built or solved the report lists its width, time, and the bytes
+ * allocated while it ran, estimated from the allocation samples taken by the same
+ * thread during the layer, along with the number of garbage collections it
+ * overlapped. The slowest subtrees solved by Game.determineVal() follow, at any
+ * depth, with their cache hits, misses and prunes. A subtree includes the time
+ * and counts of the subtrees below it, so the deepest of the slowest subtrees
+ * are where the solve spent its time.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+public class RecordingReport {
+
+    /**
+     * Number of subtrees listed
+     */
+    private static final int SLOWEST = 10;
+
+    /**
+     * A layer event, with the allocations and collections during it
+     */
+    private static class Layer {
+
+	final RecordedEvent event;
+	long allocated;
+	int collections;
+
+	Layer(RecordedEvent event) {
+	    this.event = event;
+	}
+
+	boolean contains(RecordedEvent other) {
+	    Instant time = other.getStartTime();
+	    return !time.isBefore(event.getStartTime()) && !time.isAfter(event.getEndTime());
+	}
+
+	boolean overlaps(RecordedEvent other) {
+	    return !other.getEndTime().isBefore(event.getStartTime())
+		&& !other.getStartTime().isAfter(event.getEndTime());
+	}
+    }
+
+    /**
+     * Determines if two events ran on the same thread
+     */
+    private static boolean sameThread(RecordedEvent a, RecordedEvent b) {
+	RecordedThread first = a.getThread(), second = b.getThread();
+	return first != null && second != null && first.getJavaThreadId() == second.getJavaThreadId();
+    }
+
+    /**
+     * Prints the report of a recording
+     *
+     * @param file - The path of the recording
+     */
+    public static void report(String file) throws IOException {
+	List<RecordedEvent> events = RecordingFile.readAllEvents(Paths.get(file));
+	ArrayList<Layer> built = new ArrayList<Layer>();
+	ArrayList<Layer> solved = new ArrayList<Layer>();
+	ArrayList<RecordedEvent> subtrees = new ArrayList<RecordedEvent>();
+	ArrayList<RecordedEvent> samples = new ArrayList<RecordedEvent>();
+	ArrayList<RecordedEvent> collections = new ArrayList<RecordedEvent>();
+
+	for(RecordedEvent event: events) {
+	    String name = event.getEventType().getName();
+	    if(name.equals("zeckendorf.LayerBuilt")) {
+		built.add(new Layer(event));
+	    } else if(name.equals("zeckendorf.LayerSolved")) {
+		solved.add(new Layer(event));
+	    } else if(name.equals("zeckendorf.SubtreeSolved")) {
+		subtrees.add(event);
+	    } else if(name.equals("jdk.ObjectAllocationSample")) {
+		samples.add(event);
+	    } else if(name.equals("jdk.GarbageCollection")) {
+		collections.add(event);
+	    }
+	}
+	Collections.sort(built, (a, b) -> a.event.getStartTime().compareTo(b.event.getStartTime()));
+	Collections.sort(solved, (a, b) -> a.event.getStartTime().compareTo(b.event.getStartTime()));
+
+	// Charge each sample to the layer its thread was in
+	ArrayList<Layer> layers = new ArrayList<Layer>(built);
+	layers.addAll(solved);
+	for(RecordedEvent sample: samples) {
+	    for(Layer layer: layers) {
+		if(layer.contains(sample) && sameThread(layer.event, sample)) {
+		    layer.allocated += sample.getLong("weight");
+		    break;
+		}
+	    }
+	}
+	for(RecordedEvent collection: collections) {
+	    for(Layer layer: layers) {
+		if(layer.overlaps(collection)) {
+		    layer.collections++;
+		}
+	    }
+	}
+
+	System.out.println("Layers built");
+	System.out.println(String.format("%-10s %4s %5s %9s %11s %7s %9s %10s %4s", "engine", "n",
+					 "depth", "width", "children", "dedup", "ms", "alloc KB", "gc"));
+	for(Layer layer: built) {
+	    RecordedEvent event = layer.event;
+	    long children = event.getLong("children");
+	    System.out.println(String.format("%-10s %4d %5d %9d %11d %6.1f%% %9.3f %10d %4d",
+					     event.getString("engine"), event.getInt("n"),
+					     event.getInt("depth"), event.getInt("width"), children,
+					     children == 0 ? 0.0 : 100.0 * event.getLong("dedupHits") / children,
+					     event.getDuration().toNanos() / 1e6, layer.allocated >> 10,
+					     layer.collections));
+	}
+
+	System.out.println();
+	System.out.println("Layers solved");
+	System.out.println(String.format("%4s %5s %9s %9s %9s %10s %4s", "n", "depth", "width",
+					 "prunes", "ms", "alloc KB", "gc"));
+	for(Layer layer: solved) {
+	    RecordedEvent event = layer.event;
+	    System.out.println(String.format("%4d %5d %9d %9d %9.3f %10d %4d", event.getInt("n"),
+					     event.getInt("depth"), event.getInt("width"),
+					     event.getLong("prunes"), event.getDuration().toNanos() / 1e6,
+					     layer.allocated >> 10, layer.collections));
+	}
+
+	System.out.println();
+	System.out.println("Slowest subtrees solved, of " + subtrees.size() + " recorded");
+	System.out.println(String.format("%4s %5s %6s %9s %11s %11s %9s", "n", "depth", "value",
+					 "ms", "hits", "misses", "prunes"));
+	Collections.sort(subtrees, (a, b) -> b.getDuration().compareTo(a.getDuration()));
+	for(RecordedEvent event: subtrees.subList(0, Math.min(SLOWEST, subtrees.size()))) {
+	    System.out.println(String.format("%4d %5d %6d %9.3f %11d %11d %9d", event.getInt("n"),
+					     event.getInt("depth"), event.getInt("value"),
+					     event.getDuration().toNanos() / 1e6, event.getLong("cacheHits"),
+					     event.getLong("cacheMisses"), event.getLong("prunes")));
+	}
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Prints the report of the recording passed as argument
+     */
+    public static void main(String[] args) throws IOException {
+	if(args.length < 1) {
+	    System.out.println("Usage: java RecordingReport recording.jfr");
+	    return;
+	}
+	report(args[0]);
+    }
+
+}
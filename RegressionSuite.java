@@ -0,0 +1,627 @@
+/**
+ * Regression and performance suite for the engines solving the Zeckendorf
+ * Decomposition game. Golden results of the games on n = 1 to 40 are kept in
+ * golden.txt, one line per game:
+ *
+ *      result n winner maxDepth terminals size(0) size(1) ... size(maxDepth)
+ *
+ * where size(d) is the number of distinct states after d moves. Every engine is run
+ * on every game and its results compared with the golden ones, as far as it finds
+ * them: the merged Game, the solve of the starting position and BulkSolver find
+ * the winner only, the merged GameGraph the winner and the length of the longest
+ * game, BidirectionalSearch that length only, and the budgeted Game.solve() the
+ * winner and the sizes of the layers. The file also holds
+ * a time and peak memory limit for each engine and game:
+ *
+ *      limit engine n milliseconds megabytes
+ *
+ * and the run fails if an engine exceeds one. Memory is the peak Java heap used
+ * during the solve, plus the native memory of the off-heap solver. The sharded
+ * solver runs in other JVMs, so only its time is checked, and only on a few games
+ * as starting its workers takes about a second.
+ *
+ * The suite checks the engines, exiting with status 1 on any failure, when run with
+ *
+ *          java --add-modules jdk.incubator.foreign RegressionSuite
+ *
+ * and rewrites golden.txt with
+ *
+ *          java --add-modules jdk.incubator.foreign RegressionSuite record
+ *
+ * Recording takes the results of Game, the original engine, refusing to write
+ * them if another engine disagrees. The winning path of the engines finding one
+ * must be a line of play won by the winner, both when recording and when
+ * checking. Each engine is first warmed up on the games up to WARMUP_N, so the
+ * JIT has compiled it, then every game is solved RUNS times and the best time and
+ * memory are kept, both when recording and when checking. Limits are recorded as
+ * three times the best time plus 250 ms, and twice the best memory plus 32 MB, so
+ * that only real regressions fail the run.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Set;
+
+public class RegressionSuite {
+
+    /**
+     * The games covered by the suite
+     */
+    private static final int MAX_N = 40;
+
+    /**
+     * Games solved to warm an engine up before it is measured, and the number of
+     * runs of each game whose best is kept
+     */
+    private static final int WARMUP_N = 20, RUNS = 3;
+
+    /**
+     * The results of an engine on one game
+     */
+    static class Result {
+
+	int winner;
+	long terminals;
+	long[] layerSizes;
+
+	/**
+	 * Length of the longest game, for the engines finding it without the
+	 * sizes of the layers
+	 */
+	int longest = -1;
+
+	/**
+	 * Whether the winning path of the engine, for the engines finding one, is a
+	 * line of play won by the winner
+	 */
+	boolean validPath = true;
+
+	/**
+	 * Time and peak memory of the solve, filled in by the suite
+	 */
+	long millis, bytes;
+
+	int maxDepth() { return layerSizes != null ? layerSizes.length - 1 : longest; }
+
+	/**
+	 * Determines if two results describe the same game. An engine finds only
+	 * part of the results when it leaves the winner 0, the terminals -1, or the
+	 * layer sizes null, and only the parts both results have are compared.
+	 */
+	boolean sameAs(Result other) {
+	    return (winner == 0 || other.winner == 0 || winner == other.winner)
+		&& (terminals < 0 || other.terminals < 0 || terminals == other.terminals)
+		&& (maxDepth() < 0 || other.maxDepth() < 0 || maxDepth() == other.maxDepth())
+		&& (layerSizes == null || other.layerSizes == null
+		    || Arrays.equals(layerSizes, other.layerSizes));
+	}
+
+	public String toString() {
+	    StringBuilder line = new StringBuilder();
+	    line.append(winner == 0 ? "?" : "" + winner).append(' ')
+		.append(maxDepth() < 0 ? "?" : "" + maxDepth()).append(' ')
+		.append(terminals < 0 ? "?" : "" + terminals);
+	    if(layerSizes != null) {
+		for(long size: layerSizes) {
+		    line.append(' ').append(size);
+		}
+	    }
+	    return line.toString();
+	}
+
+	/**
+	 * A result holding only a winner and the validity of a winning path
+	 */
+	static Result winner(int winner, boolean validPath) {
+	    Result result = new Result();
+	    result.winner = winner;
+	    result.terminals = -1;
+	    result.validPath = validPath;
+	    return result;
+	}
+    }
+
+    /**
+     * An engine solving games for the suite
+     */
+    static abstract class Engine {
+
+	final String name;
+
+	Engine(String name) {
+	    this.name = name;
+	}
+
+	/**
+	 * Solves the nth game
+	 */
+	abstract Result solve(int n) throws Exception;
+
+	/**
+	 * Native memory used by the last solve, outside the Java heap
+	 */
+	long nativeBytes() { return 0; }
+
+	/**
+	 * Determines if the engine is run on the nth game
+	 */
+	boolean covers(int n) { return true; }
+
+	/**
+	 * Determines if the peak heap of the engine is meaningful
+	 */
+	boolean measuresMemory() { return true; }
+    }
+
+
+    //===================================
+    // ENGINES
+    //===================================
+
+    /**
+     * Returns every engine checked by the suite, Game first
+     */
+    static ArrayList<Engine> engines() {
+	ArrayList<Engine> engines = new ArrayList<Engine>();
+
+	engines.add(new Engine("Game") {
+		Result solve(int n) {
+		    return layers(new Game(n));
+		}
+	    });
+
+	engines.add(new Engine("Game-parents-on-demand") {
+		Result solve(int n) {
+		    return layers(new Game(n, false));
+		}
+	    });
+
+	// A merged Game keeps a Tree at the smallest depth reaching it, so its
+	// layers are not those of the golden results
+	engines.add(new Engine("Game-merged") {
+		Result solve(int n) {
+		    Game game = new Game(n, true, true);
+		    int winner = play(game);
+		    return Result.winner(winner, game.hasValidWinningPath());
+		}
+	    });
+
+	engines.add(new Engine("Game-budgeted") {
+		Result solve(int n) {
+		    Game game = new Game(n);
+		    game.setTimeBudget(60000);
+		    game.setNodeBudget(Long.MAX_VALUE);
+		    Game.SolveResult solved = game.solve();
+		    Result result = Result.winner(solved.getValue(), game.hasValidWinningPath());
+		    if(!solved.isProven()) {
+			result.validPath = false;
+		    }
+		    result.layerSizes = new long[solved.getLayerWidths().length];
+		    for(int d = 0; d < result.layerSizes.length; d++) {
+			result.layerSizes[d] = solved.getLayerWidths()[d];
+		    }
+		    return result;
+		}
+	    });
+
+	engines.add(new Engine("Game-solvePosition") {
+		Result solve(int n) {
+		    Game game = new Game(n);
+		    return Result.winner(game.solvePosition(game.getInitState()), true);
+		}
+	    });
+
+	engines.add(new Engine("GameGraph") {
+		Result solve(int n) {
+		    return layers(GameGraph.build(n));
+		}
+	    });
+
+	// A node of a merged graph sits in the layer of the longest line of play
+	// reaching it, so the graph is as deep as the longest game
+	engines.add(new Engine("GameGraph-merged") {
+		Result solve(int n) {
+		    GameGraph graph = GameGraph.buildMerged(n);
+		    Result result = Result.winner(graph.winner(), graph.hasValidWinningPath());
+		    result.longest = graph.maxDepth();
+		    return result;
+		}
+	    });
+
+	engines.add(new Engine("GameSnapshot") {
+		Result solve(int n) throws IOException {
+		    Path file = Files.createTempFile("golden", ".snapshot");
+		    try {
+			GameSnapshot.write(GameGraph.build(n), file);
+			return layers(GameSnapshot.load(file).toGraph());
+		    } finally {
+			Files.delete(file);
+		    }
+		}
+	    });
+
+	engines.add(new Engine("BidirectionalSearch") {
+		Result solve(int n) {
+		    BidirectionalSearch search = new BidirectionalSearch(n);
+		    search.countPaths();
+		    Result result = Result.winner(0, true);
+		    result.longest = search.getLongestGame();
+		    return result;
+		}
+	    });
+
+	engines.add(new Engine("BulkSolver") {
+		Result solve(int n) throws IOException {
+		    Path in = Files.createTempFile("golden", ".positions");
+		    Path out = Files.createTempFile("golden", ".values");
+		    try {
+			Files.write(in, Arrays.asList(new GameState(n).toLine()));
+			new BulkSolver(1, false, BulkSolver.DEFAULT_CAPACITY).solve(in, out);
+			String line = Files.readAllLines(out).get(0);
+			return Result.winner(Integer.parseInt(line.split("\t")[0]), true);
+		    } finally {
+			Files.delete(in);
+			Files.delete(out);
+		    }
+		}
+	    });
+
+	for(final boolean offHeap: new boolean[] { false, true }) {
+	    engines.add(new Engine(offHeap ? "LayerSolver-offheap" : "LayerSolver-heap") {
+		    LayerMemory memory;
+
+		    Result solve(int n) {
+			memory = offHeap ? LayerMemory.offHeap() : LayerMemory.heap();
+			LayerSolver solver = new LayerSolver(new PackedState(n), memory);
+			Result result = new Result();
+			result.winner = solver.solve();
+			result.terminals = solver.getTerminalCount();
+			result.layerSizes = new long[solver.getLayerCount()];
+			for(int d = 0; d < solver.getLayerCount(); d++) {
+			    result.layerSizes[d] = solver.getLayerSize(d);
+			}
+			return result;
+		    }
+
+		    long nativeBytes() { return offHeap ? memory.getPeakBytes() : 0; }
+		});
+	}
+
+	engines.add(new Engine("ShardedSolver") {
+		Result solve(int n) throws Exception {
+		    ShardedSolver solver = new ShardedSolver(n, 3);
+		    Result result = new Result();
+		    result.winner = solver.solve();
+		    result.terminals = solver.getTerminalCount();
+		    result.layerSizes = new long[solver.getLayerCount()];
+		    for(int d = 0; d < solver.getLayerCount(); d++) {
+			result.layerSizes[d] = solver.getLayerSize(d);
+		    }
+		    return result;
+		}
+
+		boolean covers(int n) { return n <= 3 || n % 10 == 0; }
+		boolean measuresMemory() { return false; }
+	    });
+
+	return engines;
+    }
+
+
+    /**
+     * Plays a Game without the statistics playGame() prints, which the suite does
+     * not need
+     *
+     * @return The winner
+     */
+    static int play(Game game) {
+	PrintStream out = System.out;
+	System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	try {
+	    return game.playGame();
+	} finally {
+	    System.setOut(out);
+	}
+    }
+
+    /**
+     * Plays a layered Game and counts the Trees of each layer and the terminal
+     * Trees
+     */
+    static Result layers(Game game) {
+	Result result = new Result();
+	result.winner = play(game);
+	result.validPath = game.hasValidWinningPath();
+
+	// Trees reached by several parents are shared, so visit each once
+	ArrayList<Long> sizes = new ArrayList<Long>();
+	LinkedList<Tree<GameState>> toVisit = new LinkedList<Tree<GameState>>();
+	Set<Tree<GameState>> visited = Collections.newSetFromMap(new IdentityHashMap<Tree<GameState>, Boolean>());
+	toVisit.add(game.getRoot());
+	while(toVisit.size() > 0) {
+	    Tree<GameState> tree = toVisit.poll();
+	    if(!visited.add(tree)) {
+		continue;
+	    }
+	    int depth = tree.getState().getDepth();
+	    while(sizes.size() <= depth) {
+		sizes.add(0L);
+	    }
+	    sizes.set(depth, sizes.get(depth) + 1);
+	    if(tree.getChildren().size() == 0) {
+		result.terminals++;
+	    }
+	    toVisit.addAll(tree.getChildren());
+	}
+	result.layerSizes = new long[sizes.size()];
+	for(int d = 0; d < sizes.size(); d++) {
+	    result.layerSizes[d] = sizes.get(d);
+	}
+	return result;
+    }
+
+    /**
+     * Reads the results of a layered GameGraph
+     */
+    static Result layers(GameGraph graph) {
+	Result result = new Result();
+	result.winner = graph.winner();
+	result.validPath = graph.hasValidWinningPath();
+	result.layerSizes = new long[graph.layerCount()];
+	for(int d = 0; d < graph.layerCount(); d++) {
+	    result.layerSizes[d] = graph.layerSize(d);
+	}
+	for(int id = 0; id < graph.nodeCount(); id++) {
+	    if(graph.isTerminal(id)) {
+		result.terminals++;
+	    }
+	}
+	return result;
+    }
+
+
+    //===================================
+    // MEASURING METHODS
+    //===================================
+
+    /**
+     * Solves the games up to WARMUP_N the engine covers, so that its code is
+     * compiled before it is measured
+     */
+    static void warmUp(Engine engine) throws Exception {
+	for(int n = 1; n <= WARMUP_N; n++) {
+	    if(engine.covers(n)) {
+		engine.solve(n);
+	    }
+	}
+    }
+
+    /**
+     * Solves the nth game RUNS times with an engine, keeping the best time and the
+     * lowest peak memory of the runs
+     */
+    static Result measureBest(Engine engine, int n) throws Exception {
+	Result best = measure(engine, n);
+	for(int run = 1; run < RUNS; run++) {
+	    Result result = measure(engine, n);
+	    best.millis = Math.min(best.millis, result.millis);
+	    best.bytes = Math.min(best.bytes, result.bytes);
+	}
+	return best;
+    }
+
+    /**
+     * Solves the nth game with an engine, measuring its time and peak memory
+     */
+    static Result measure(Engine engine, int n) throws Exception {
+	ArrayList<MemoryPoolMXBean> heap = new ArrayList<MemoryPoolMXBean>();
+	for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+	    if(pool.getType() == MemoryType.HEAP) {
+		heap.add(pool);
+	    }
+	}
+
+	System.gc();
+	long before = 0;
+	for(MemoryPoolMXBean pool: heap) {
+	    pool.resetPeakUsage();
+	    before += pool.getUsage().getUsed();
+	}
+
+	long start = System.nanoTime();
+	Result result = engine.solve(n);
+	result.millis = (System.nanoTime() - start) / 1000000;
+
+	long peak = 0;
+	for(MemoryPoolMXBean pool: heap) {
+	    peak += pool.getPeakUsage().getUsed();
+	}
+	result.bytes = Math.max(0, peak - before) + engine.nativeBytes();
+	return result;
+    }
+
+
+    //===================================
+    // GOLDEN FILE METHODS
+    //===================================
+
+    /**
+     * Reads the golden results and limits. Results are keyed by n, limits by
+     * engine and n, as a pair of milliseconds and megabytes.
+     */
+    static void read(String file, HashMap<Integer, Result> results,
+		     HashMap<String, long[]> limits) throws IOException {
+	BufferedReader reader = new BufferedReader(new FileReader(file));
+	try {
+	    String line;
+	    while((line = reader.readLine()) != null) {
+		String[] fields = line.trim().split("\\s+");
+		if(fields[0].equals("result")) {
+		    Result result = new Result();
+		    int n = Integer.parseInt(fields[1]);
+		    result.winner = Integer.parseInt(fields[2]);
+		    result.terminals = Long.parseLong(fields[4]);
+		    result.layerSizes = new long[Integer.parseInt(fields[3]) + 1];
+		    for(int d = 0; d < result.layerSizes.length; d++) {
+			result.layerSizes[d] = Long.parseLong(fields[5 + d]);
+		    }
+		    results.put(n, result);
+		} else if(fields[0].equals("limit")) {
+		    limits.put(fields[1] + " " + fields[2],
+			       new long[] { Long.parseLong(fields[3]), Long.parseLong(fields[4]) });
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+    }
+
+    /**
+     * Solves every game with every engine and writes the results of Game and the
+     * limits of every engine
+     *
+     * @return false if an engine disagrees with Game, in which case nothing is
+     *         written
+     */
+    static boolean record(String file) throws Exception {
+	ArrayList<Engine> engines = engines();
+	ArrayList<String> results = new ArrayList<String>();
+	ArrayList<String> limits = new ArrayList<String>();
+
+	for(Engine engine: engines) {
+	    warmUp(engine);
+	}
+	for(int n = 1; n <= MAX_N; n++) {
+	    Result reference = null;
+	    for(Engine engine: engines) {
+		if(!engine.covers(n)) {
+		    continue;
+		}
+		Result result = measureBest(engine, n);
+		if(!result.validPath) {
+		    System.out.println(engine.name + " found an invalid winning path on " + n);
+		    return false;
+		}
+		if(reference == null) {
+		    reference = result;
+		} else if(!result.sameAs(reference)) {
+		    System.out.println(engine.name + " disagrees with Game on " + n + ": "
+				       + result + " instead of " + reference);
+		    return false;
+		}
+		limits.add("limit " + engine.name + " " + n + " " + (3 * result.millis + 250)
+			   + " " + (2 * (result.bytes >> 20) + 32));
+	    }
+	    results.add("result " + n + " " + reference);
+	    System.out.println("Recorded game " + n);
+	}
+
+	PrintWriter writer = new PrintWriter(file);
+	try {
+	    writer.println("# Golden results of the Zeckendorf Decomposition games, checked by RegressionSuite");
+	    writer.println("# result n winner maxDepth terminals size(0) ... size(maxDepth)");
+	    for(String line: results) {
+		writer.println(line);
+	    }
+	    writer.println("# limit engine n milliseconds megabytes");
+	    for(String line: limits) {
+		writer.println(line);
+	    }
+	} finally {
+	    writer.close();
+	}
+	return true;
+    }
+
+    /**
+     * Solves every game with every engine, comparing with the golden results and
+     * limits
+     *
+     * @return The number of failures
+     */
+    static int check(String file) throws Exception {
+	HashMap<Integer, Result> golden = new HashMap<Integer, Result>();
+	HashMap<String, long[]> limits = new HashMap<String, long[]>();
+	read(file, golden, limits);
+	int failures = 0;
+
+	System.out.println(String.format("%-20s %4s %7s %9s %8s", "engine", "n", "result", "ms", "MB"));
+	for(Engine engine: engines()) {
+	    warmUp(engine);
+	    for(int n = 1; n <= MAX_N; n++) {
+		if(!engine.covers(n)) {
+		    continue;
+		}
+		Result result = measureBest(engine, n);
+		long[] limit = limits.get(engine.name + " " + n);
+		ArrayList<String> problems = new ArrayList<String>();
+
+		if(golden.get(n) == null || !result.sameAs(golden.get(n))) {
+		    problems.add("got " + result + ", expected " + golden.get(n));
+		}
+		if(!result.validPath) {
+		    problems.add("invalid winning path");
+		}
+		if(limit == null) {
+		    problems.add("no limit recorded");
+		} else {
+		    if(result.millis > limit[0]) {
+			problems.add("took " + result.millis + " ms, limit " + limit[0]);
+		    }
+		    if(engine.measuresMemory() && result.bytes >> 20 > limit[1]) {
+			problems.add("used " + (result.bytes >> 20) + " MB, limit " + limit[1]);
+		    }
+		}
+
+		System.out.println(String.format("%-20s %4d %7s %9d %8s", engine.name, n,
+						 problems.isEmpty() ? "ok" : "FAIL", result.millis,
+						 engine.measuresMemory() ? "" + (result.bytes >> 20) : "-"));
+		for(String problem: problems) {
+		    System.out.println("    " + problem);
+		}
+		failures += problems.isEmpty() ? 0 : 1;
+	    }
+	}
+	System.out.println(failures == 0 ? "All engines match the golden results"
+			   : failures + " failures");
+	return failures;
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Checks every engine against golden.txt, or records it again
+     */
+    public static void main(String[] args) throws Exception {
+	boolean recording = args.length > 0 && args[0].equals("record");
+	String file = args.length > 1 ? args[1] : "golden.txt";
+
+	if(recording) {
+	    if(!record(file)) {
+		System.exit(1);
+	    }
+	} else if(check(file) > 0) {
+	    System.exit(1);
+	}
+    }
+
+}
@@ -0,0 +1,349 @@
+/**
+ * Everything needed to draw the states of a solved GameGraph, computed in a single
+ * pass over the graph so that drawing a state only sets colours and fonts taken
+ * from tables, and issues rectangle and text calls.
+ *
+ * For every node the model holds a style (terminal, winner, on the winning path),
+ * which selects its trim and fill colours, and the two lines of its label: the
+ * fibonaccis present in the decomposition, and their frequencies right below them.
+ * The labels of all nodes are stored back to back in a single char array and drawn
+ * with Graphics.drawChars(), so no String is created while painting.
+ *
+ * Fonts come from a table of the sizes GameStateDrawable shrinks through (12 down
+ * to 7), measured once. The width of every label at every size is computed when
+ * the model is built, so fitting a label into a box is a lookup.
+ *
+ */
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+public class RenderModel {
+
+    /**
+     * Style bits of a node
+     */
+    public static final int TERMINAL = 1, PLAYER1 = 2, ON_PATH = 4;
+
+    /**
+     * Trim and fill colours by style, matching GameStateDrawable
+     */
+    private static final Color[] TRIM = new Color[8], FILL = new Color[8];
+    static {
+	for(int style = 0; style < 8; style++) {
+	    boolean terminal = (style & TERMINAL) != 0;
+	    if((style & PLAYER1) != 0) {
+		TRIM[style] = terminal ? Color.BLUE : new Color(102, 178, 255);
+	    } else {
+		TRIM[style] = terminal ? Color.RED : new Color(255, 102, 102);
+	    }
+	    if((style & ON_PATH) != 0) {
+		FILL[style] = Color.GREEN;
+	    } else {
+		FILL[style] = terminal ? Color.YELLOW : Color.WHITE;
+	    }
+	}
+    }
+
+    /**
+     * Offsets of the text inside each box
+     */
+    private static final int X_BORDER = 1, Y_BORDER = 1;
+
+    /**
+     * Style of each node
+     */
+    private final byte[] style;
+
+    /**
+     * Labels of all nodes. The keys line of node id starts at textStart[id] and
+     * is directly followed by its values line, both lineLength[id] chars long.
+     */
+    private final char[] text;
+    private final int[] textStart;
+    private final short[] lineLength;
+
+    /**
+     * Width in pixels of the longer label line of each node, at each size of the
+     * font table: lineWidth[id * FontTable.SIZES + s]
+     */
+    private final short[] lineWidth;
+
+
+    /**
+     * Constructs an empty model for the passed number of nodes
+     */
+    private RenderModel(int nodeCount, int textLength) {
+	this.style = new byte[nodeCount];
+	this.text = new char[textLength];
+	this.textStart = new int[nodeCount];
+	this.lineLength = new short[nodeCount];
+	this.lineWidth = new short[nodeCount * FontTable.SIZES];
+    }
+
+
+    /**
+     * Builds the render model of every node of a solved graph
+     *
+     * @param graph - A built and solved GameGraph
+     * @return The render model of the graph
+     */
+    public static RenderModel build(GameGraph graph) {
+	MoveRules codec = graph.getCodec();
+	int maxIndex = codec.getMaxIndex();
+
+	// Measure the labels first, so the text array is allocated once
+	long textLength = 0;
+	for(int id = 0; id < graph.nodeCount(); id++) {
+	    textLength += 2 * lineLength(codec, graph.key(id), maxIndex);
+	}
+	if(textLength > Integer.MAX_VALUE) {
+	    throw new IllegalArgumentException("Game on " + graph.getN() + " has too many labels to render");
+	}
+
+	RenderModel model = new RenderModel(graph.nodeCount(), (int) textLength);
+	for(int id: graph.getWinningPath()) {
+	    model.style[id] |= ON_PATH;
+	}
+
+	// Write the style and label of every node
+	int position = 0;
+	for(int id = 0; id < graph.nodeCount(); id++) {
+	    long key = graph.key(id);
+	    if(graph.isTerminal(id)) {
+		model.style[id] |= TERMINAL;
+	    }
+	    if(graph.value(id) == 1) {
+		model.style[id] |= PLAYER1;
+	    }
+
+	    int length = lineLength(codec, key, maxIndex);
+	    model.textStart[id] = position;
+	    model.lineLength[id] = (short) length;
+	    int keys = position;
+	    int values = position + length;
+	    for(int i = 1; i <= maxIndex; i++) {
+		int count = codec.freq(key, i);
+		if(count == 0) {
+		    continue;
+		}
+
+		// Each column holds a space, then the fibonacci above its frequency,
+		// both padded to the wider of the two
+		int width = 1 + Math.max(digits(codec.value(i)), digits(count));
+		keys = writeColumn(model.text, keys, codec.value(i), width);
+		values = writeColumn(model.text, values, count, width);
+	    }
+	    position += 2 * length;
+
+	    // Measure the label at every size of the font table
+	    for(int s = 0; s < FontTable.SIZES; s++) {
+		int widest = Math.max(FontTable.width(s, model.text, model.textStart[id], length),
+				      FontTable.width(s, model.text, model.textStart[id] + length, length));
+		model.lineWidth[id * FontTable.SIZES + s] = (short) Math.min(widest, Short.MAX_VALUE);
+	    }
+	}
+	return model;
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getters for the style of a node
+     */
+    public int style(int id) { return this.style[id]; }
+    public boolean isTerminal(int id) { return (this.style[id] & TERMINAL) != 0; }
+    public boolean isOnPath(int id) { return (this.style[id] & ON_PATH) != 0; }
+
+    /**
+     * Getters for the colours of a node
+     */
+    public Color trimColor(int id) { return TRIM[this.style[id]]; }
+    public Color fillColor(int id) { return FILL[this.style[id]]; }
+
+    /**
+     * Copies of the two label lines of a node, for callers that need Strings
+     */
+    public String keyString(int id) {
+	return new String(text, textStart[id], lineLength[id]);
+    }
+
+    public String valueString(int id) {
+	return new String(text, textStart[id] + lineLength[id], lineLength[id]);
+    }
+
+
+    //===================================
+    // DRAWING METHODS
+    //===================================
+
+    /**
+     * Draws the box of a node, without its label
+     *
+     * @param g - The Graphics object that draws the node
+     * @param id - The node to draw
+     * @param x - The x coordinate of the top left corner of the box
+     * @param y - The y coordinate of the top left corner of the box
+     * @param width - The width of the box
+     * @param height - The height of the box
+     */
+    public void drawBox(Graphics g, int id, int x, int y, int width, int height) {
+	g.setColor(FILL[style[id]]);
+	g.fillRect(x, y, width, height);
+	g.setColor(TRIM[style[id]]);
+	g.drawRect(x, y, width, height);
+    }
+
+    /**
+     * Draws the box of a node with its label, in the largest font of the table
+     * that fits the box, or the smallest one if none does
+     *
+     * @param g - The Graphics object that draws the node
+     * @param id - The node to draw
+     * @param x - The x coordinate of the top left corner of the box
+     * @param y - The y coordinate of the top left corner of the box
+     * @param width - The width of the box
+     * @param height - The height of the box
+     */
+    public void draw(Graphics g, int id, int x, int y, int width, int height) {
+	drawBox(g, id, x, y, width, height);
+
+	// Pick the font size as GameStateDrawable.adaptTextSize() does
+	int s = 0;
+	while(s < FontTable.SIZES - 1
+	      && (lineWidth[id * FontTable.SIZES + s] > width
+		  || 2 * FontTable.height(s) + 3 >= height)) {
+	    s++;
+	}
+	g.setFont(FontTable.font(s));
+
+	int fontHeight = FontTable.height(s);
+	int length = lineLength[id];
+	g.drawChars(text, textStart[id], length,
+		    x + X_BORDER, y + Y_BORDER + (fontHeight + 1));
+	g.drawChars(text, textStart[id] + length, length,
+		    x + X_BORDER, y + Y_BORDER + 2 * (fontHeight + 1));
+    }
+
+
+    //===================================
+    // FONT TABLE
+    //===================================
+
+    /**
+     * The fonts labels are drawn in, from the largest to the smallest, with their
+     * heights and the advances of the characters labels are made of. Measured once,
+     * on first use.
+     */
+    static class FontTable {
+
+	/**
+	 * Number of sizes in the table, and the largest size
+	 */
+	static final int SIZES = 6, LARGEST = 12;
+
+	private static final Font[] FONTS = new Font[SIZES];
+	private static final int[] HEIGHTS = new int[SIZES];
+
+	/**
+	 * Advance of ' ' (entry 10) and of the digits (entries 0 to 9) at each size
+	 */
+	private static final int[][] ADVANCES = new int[SIZES][11];
+
+	static {
+	    Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+	    for(int s = 0; s < SIZES; s++) {
+		FONTS[s] = new Font("Times", Font.BOLD, LARGEST - s);
+		FontMetrics fm = g.getFontMetrics(FONTS[s]);
+		HEIGHTS[s] = fm.getHeight();
+		for(char c = '0'; c <= '9'; c++) {
+		    ADVANCES[s][c - '0'] = fm.charWidth(c);
+		}
+		ADVANCES[s][10] = fm.charWidth(' ');
+	    }
+	    g.dispose();
+	}
+
+	static Font font(int s) { return FONTS[s]; }
+	static int height(int s) { return HEIGHTS[s]; }
+
+	/**
+	 * Width of a run of digits and spaces at size s. Any other character is
+	 * counted as wide as a digit.
+	 */
+	static int width(int s, char[] text, int start, int length) {
+	    int width = 0;
+	    for(int i = start; i < start + length; i++) {
+		char c = text[i];
+		width += ADVANCES[s][c == ' ' ? 10 : (c >= '0' && c <= '9' ? c - '0' : 0)];
+	    }
+	    return width;
+	}
+
+	/**
+	 * Index in the table of the largest size that is at most the passed size
+	 */
+	static int indexOf(int size) {
+	    return Math.max(0, Math.min(SIZES - 1, LARGEST - size));
+	}
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Length of the label lines of a packed state
+     */
+    private static int lineLength(MoveRules codec, long key, int maxIndex) {
+	int length = 0;
+	for(int i = 1; i <= maxIndex; i++) {
+	    int count = codec.freq(key, i);
+	    if(count > 0) {
+		length += 1 + Math.max(digits(codec.value(i)), digits(count));
+	    }
+	}
+	return length;
+    }
+
+    /**
+     * Writes a space and a number, right padded with spaces to width chars
+     *
+     * @return The position following the column
+     */
+    static int writeColumn(char[] text, int position, long number, int width) {
+	int end = position + width;
+	text[position++] = ' ';
+	int numberDigits = digits(number);
+	for(int i = numberDigits - 1; i >= 0; i--) {
+	    text[position + i] = (char) ('0' + number % 10);
+	    number /= 10;
+	}
+	position += numberDigits;
+	while(position < end) {
+	    text[position++] = ' ';
+	}
+	return end;
+    }
+
+    /**
+     * Number of decimal digits of a non-negative number
+     */
+    static int digits(long number) {
+	int digits = 1;
+	while(number >= 10) {
+	    number /= 10;
+	    digits++;
+	}
+	return digits;
+    }
+
+}
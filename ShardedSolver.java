@@ -0,0 +1,574 @@
+/**
+ * Solves the nth Zeckendorf Decomposition game across several local JVMs, so that
+ * the layers of the game are limited by the memory of the machine rather than by
+ * the heap of one process.
+ *
+ * The coordinator starts K worker JVMs. Every packed state belongs to one shard,
+ * chosen by hashing its key, and each worker stores only the states of its shard:
+ * their keys, sorted, the keys of their children, and later their win values.
+ * Workers are connected to each other by loopback sockets, and the coordinator
+ * moves them through the solve one layer at a time.
+ *
+ *      Forward pass - each worker expands its part of layer d and sends every
+ *                     child to the shard owning it, which deduplicates what it
+ *                     receives into its part of layer d + 1
+ *      Backward pass - each worker asks the owners of the children of its part
+ *                     of layer d for their win values, then solves its nodes, and
+ *                     frees the data of layer d + 1
+ *
+ * Each layer is deduplicated as a whole, as the shards of a state never overlap,
+ * so node and edge counts and the winner are the same as GameGraph's.
+ *
+ * The solver can be executed, after compilation, by running the command
+ *
+ *          java ShardedSolver [n] [workers] [check]
+ *
+ * where check also builds the game with GameGraph and compares the results.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ShardedSolver {
+
+    /**
+     * Commands sent by the coordinator to the workers
+     */
+    private static final int EXPAND = 1, SOLVE = 2, ROOT = 3, STOP = 4;
+
+    /**
+     * Milliseconds a JVM waits for the connections of the others, and for the
+     * workers to exit once stopped
+     */
+    private static final int CONNECT_TIMEOUT = 60000, EXIT_TIMEOUT = 10000;
+
+    /**
+     * The game, the number of workers, and the results of the solve
+     */
+    private final int n, workers;
+    private int winner;
+    private long nodeCount, edgeCount, terminalCount, widestShard;
+    private long[] layerSizes;
+
+
+    /**
+     * Constructs a solver of the nth game on a number of worker JVMs
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     * @param workers - The number of worker JVMs to start
+     */
+    public ShardedSolver(int n, int workers) {
+	if(workers < 1) {
+	    throw new IllegalArgumentException("At least one worker is needed: " + workers);
+	}
+	this.n = n;
+	this.workers = workers;
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getters for the results of the last solve
+     */
+    public int getWinner() { return this.winner; }
+    public long getNodeCount() { return this.nodeCount; }
+    public long getEdgeCount() { return this.edgeCount; }
+    public long getTerminalCount() { return this.terminalCount; }
+    public int getLayerCount() { return this.layerSizes.length; }
+    public long getLayerSize(int depth) { return this.layerSizes[depth]; }
+
+    /**
+     * Getter for the most states any one worker held in a single layer, which
+     * bounds the memory each worker needs
+     */
+    public long getWidestShard() { return this.widestShard; }
+
+
+    //===================================
+    // COORDINATOR
+    //===================================
+
+    /**
+     * Starts the workers, drives them through both passes and stops them
+     *
+     * @return 1 if Player 1 wins, -1 if Player 2 wins
+     */
+    public int solve() throws IOException, InterruptedException {
+	ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+	server.setSoTimeout(CONNECT_TIMEOUT);
+	Process[] processes = new Process[workers];
+	Socket[] sockets = new Socket[workers];
+	DataInputStream[] in = new DataInputStream[workers];
+	DataOutputStream[] out = new DataOutputStream[workers];
+	boolean stopped = false;
+
+	try {
+	    // Start the workers, which connect back with their shard and data port
+	    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+	    String classPath = System.getProperty("java.class.path");
+	    for(int w = 0; w < workers; w++) {
+		processes[w] = new ProcessBuilder(java, "-cp", classPath, "ShardedSolver", "worker",
+						  Integer.toString(server.getLocalPort()),
+						  Integer.toString(w), Integer.toString(workers),
+						  Integer.toString(n))
+		    .inheritIO().start();
+	    }
+	    int[] ports = new int[workers];
+	    for(int w = 0; w < workers; w++) {
+		Socket socket = server.accept();
+		sockets[w] = socket;
+		DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		int shard = input.readInt();
+		ports[shard] = input.readInt();
+		in[shard] = input;
+		out[shard] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	    }
+
+	    // Tell every worker where the others listen, and wait until connected
+	    for(int w = 0; w < workers; w++) {
+		for(int port: ports) {
+		    out[w].writeInt(port);
+		}
+		out[w].flush();
+	    }
+	    for(int w = 0; w < workers; w++) {
+		in[w].readInt();
+	    }
+
+	    // Forward pass, until no shard has a next layer
+	    ArrayList<Long> sizes = new ArrayList<Long>();
+	    sizes.add(1L);
+	    nodeCount = 1;
+	    edgeCount = 0;
+	    widestShard = 1;
+	    while(true) {
+		broadcast(out, EXPAND, 0);
+		long size = 0;
+		for(int w = 0; w < workers; w++) {
+		    long shardSize = in[w].readLong();
+		    edgeCount += in[w].readLong();
+		    size += shardSize;
+		    widestShard = Math.max(widestShard, shardSize);
+		}
+		if(size == 0) {
+		    break;
+		}
+		sizes.add(size);
+		nodeCount += size;
+	    }
+	    layerSizes = new long[sizes.size()];
+	    for(int d = 0; d < layerSizes.length; d++) {
+		layerSizes[d] = sizes.get(d);
+	    }
+
+	    // Backward pass, from the deepest layer up
+	    terminalCount = 0;
+	    for(int d = layerSizes.length - 1; d >= 0; d--) {
+		broadcast(out, SOLVE, d);
+		for(int w = 0; w < workers; w++) {
+		    terminalCount += in[w].readInt();
+		}
+	    }
+
+	    // Only the shard owning the root answers with a value
+	    broadcast(out, ROOT, 0);
+	    winner = 0;
+	    for(int w = 0; w < workers; w++) {
+		winner += in[w].readInt();
+	    }
+	    broadcast(out, STOP, 0);
+	    stopped = true;
+	} finally {
+
+	    // Closing the connections ends the workers blocked on a command. A
+	    // worker still running after a failure, or long after STOP, is killed.
+	    server.close();
+	    for(Socket socket: sockets) {
+		if(socket != null) {
+		    socket.close();
+		}
+	    }
+	    for(Process process: processes) {
+		if(process != null) {
+		    if(!stopped || !process.waitFor(EXIT_TIMEOUT, java.util.concurrent.TimeUnit.MILLISECONDS)) {
+			process.destroyForcibly();
+		    }
+		    process.waitFor();
+		}
+	    }
+	}
+	return winner;
+    }
+
+    /**
+     * Sends a command and its argument to every worker
+     */
+    private static void broadcast(DataOutputStream[] out, int command, int argument) throws IOException {
+	for(DataOutputStream stream: out) {
+	    stream.writeInt(command);
+	    stream.writeInt(argument);
+	    stream.flush();
+	}
+    }
+
+
+    //===================================
+    // WORKER
+    //===================================
+
+    /**
+     * A worker JVM, holding one shard of every layer
+     */
+    private static class Worker {
+
+	private final int shard, shards;
+	private final MoveRules rules;
+
+	/**
+	 * Connections to the coordinator, and to and from every other worker
+	 */
+	private DataInputStream control;
+	private DataOutputStream reply;
+	private final DataInputStream[] fromPeer;
+	private final DataOutputStream[] toPeer;
+	private final ExecutorService readers;
+
+	/**
+	 * Sorted keys of this shard of each layer, the children of each of them as
+	 * offsets into the children keys, and the win values of the layer below
+	 * the one being solved
+	 */
+	private final ArrayList<long[]> keys = new ArrayList<long[]>();
+	private final ArrayList<int[]> childStart = new ArrayList<int[]>();
+	private final ArrayList<long[]> childKeys = new ArrayList<long[]>();
+	private byte[] values;
+
+	Worker(int shard, int shards, int n) {
+	    this.shard = shard;
+	    this.shards = shards;
+	    this.rules = new PackedState(n);
+	    this.fromPeer = new DataInputStream[shards];
+	    this.toPeer = new DataOutputStream[shards];
+	    this.readers = Executors.newFixedThreadPool(Math.max(1, shards - 1));
+	}
+
+	/**
+	 * Connects to the coordinator and the other workers, then runs commands
+	 * until told to stop
+	 */
+	void run(int coordinatorPort) throws Exception {
+	    ServerSocket data = new ServerSocket(0, shards, InetAddress.getLoopbackAddress());
+	    data.setSoTimeout(CONNECT_TIMEOUT);
+	    Socket socket = new Socket(InetAddress.getLoopbackAddress(), coordinatorPort);
+	    control = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+	    reply = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	    reply.writeInt(shard);
+	    reply.writeInt(data.getLocalPort());
+	    reply.flush();
+
+	    // Open a connection to every other worker, and accept theirs
+	    int[] ports = new int[shards];
+	    for(int w = 0; w < shards; w++) {
+		ports[w] = control.readInt();
+	    }
+	    for(int w = 0; w < shards; w++) {
+		if(w != shard) {
+		    Socket peer = new Socket(InetAddress.getLoopbackAddress(), ports[w]);
+		    toPeer[w] = new DataOutputStream(new BufferedOutputStream(peer.getOutputStream(), 1 << 16));
+		    toPeer[w].writeInt(shard);
+		    toPeer[w].flush();
+		}
+	    }
+	    for(int w = 1; w < shards; w++) {
+		Socket peer = data.accept();
+		DataInputStream input = new DataInputStream(new BufferedInputStream(peer.getInputStream(), 1 << 16));
+		fromPeer[input.readInt()] = input;
+	    }
+	    data.close();
+	    reply.writeInt(0);
+	    reply.flush();
+
+	    // The root is the only state of layer 0
+	    long root = rules.initialKey();
+	    keys.add(owner(root) == shard ? new long[] { root } : new long[0]);
+
+	    while(true) {
+		int command = control.readInt();
+		int argument = control.readInt();
+		if(command == EXPAND) {
+		    expand();
+		} else if(command == SOLVE) {
+		    solve(argument);
+		} else if(command == ROOT) {
+		    reply.writeInt(owner(root) == shard ? values[0] : 0);
+		} else {
+		    break;
+		}
+		reply.flush();
+	    }
+	    readers.shutdown();
+	}
+
+	/**
+	 * Expands this shard of the deepest layer, sends the children to their
+	 * owners, and builds this shard of the next layer from what they send
+	 */
+	private void expand() throws Exception {
+	    long[] layer = keys.get(keys.size() - 1);
+	    long[] buffer = new long[rules.maxChildren()];
+	    int[] starts = new int[layer.length + 1];
+	    long[] children = new long[Math.max(16, 2 * layer.length)];
+	    int edges = 0;
+
+	    // Sort the children by owner, sending each state at most once
+	    long[][] outgoing = new long[shards][16];
+	    int[] outgoingCount = new int[shards];
+	    LongIntHashMap sent = new LongIntHashMap(1024);
+
+	    for(int i = 0; i < layer.length; i++) {
+		starts[i] = edges;
+		int count = rules.children(layer[i], buffer);
+		for(int c = 0; c < count; c++) {
+		    long child = buffer[c];
+
+		    // Two moves can lead to the same state, only link it once
+		    boolean duplicate = false;
+		    for(int e = starts[i]; e < edges; e++) {
+			duplicate |= children[e] == child;
+		    }
+		    if(duplicate) {
+			continue;
+		    }
+		    if(edges == children.length) {
+			children = Arrays.copyOf(children, 2 * edges);
+		    }
+		    children[edges++] = child;
+
+		    if(sent.putIfAbsent(child, 0) < 0) {
+			int w = owner(child);
+			if(outgoingCount[w] == outgoing[w].length) {
+			    outgoing[w] = Arrays.copyOf(outgoing[w], 2 * outgoingCount[w]);
+			}
+			outgoing[w][outgoingCount[w]++] = child;
+		    }
+		}
+	    }
+	    starts[layer.length] = edges;
+	    childStart.add(starts);
+	    childKeys.add(Arrays.copyOf(children, edges));
+
+	    // Merge what every shard sent into this shard of the next layer
+	    long[][] incoming = exchange(outgoing, outgoingCount);
+	    LongIntHashMap received = new LongIntHashMap(1024);
+	    long[] next = new long[16];
+	    int size = 0;
+	    for(long[] batch: incoming) {
+		for(long child: batch) {
+		    if(received.putIfAbsent(child, size) < 0) {
+			if(size == next.length) {
+			    next = Arrays.copyOf(next, 2 * size);
+			}
+			next[size++] = child;
+		    }
+		}
+	    }
+	    next = Arrays.copyOf(next, size);
+	    Arrays.sort(next);
+
+	    // A shard can be empty in a layer while others are not
+	    keys.add(next);
+	    reply.writeLong(size);
+	    reply.writeLong(edges);
+	}
+
+	/**
+	 * Solves this shard of layer d, asking the owners of the children for
+	 * their values, then frees the data of layer d + 1
+	 */
+	private void solve(int d) throws Exception {
+	    long[] layer = d < keys.size() ? keys.get(d) : new long[0];
+	    int[] starts = d < childStart.size() ? childStart.get(d) : new int[1];
+	    long[] children = d < childKeys.size() ? childKeys.get(d) : new long[0];
+	    long[] below = d + 1 < keys.size() ? keys.get(d + 1) : new long[0];
+
+	    // Ask each owner for the values of the children once
+	    long[][] requests = new long[shards][16];
+	    int[] requestCount = new int[shards];
+	    LongIntHashMap asked = new LongIntHashMap(1024);
+	    for(long child: children) {
+		int w = owner(child);
+		if(asked.putIfAbsent(child, requestCount[w]) < 0) {
+		    if(requestCount[w] == requests[w].length) {
+			requests[w] = Arrays.copyOf(requests[w], 2 * requestCount[w]);
+		    }
+		    requests[w][requestCount[w]++] = child;
+		}
+	    }
+	    long[][] asks = exchange(requests, requestCount);
+
+	    // Answer with the values of this shard of layer d + 1
+	    long[][] answers = new long[shards][];
+	    int[] answerCount = new int[shards];
+	    for(int w = 0; w < shards; w++) {
+		answers[w] = new long[asks[w].length];
+		answerCount[w] = asks[w].length;
+		for(int a = 0; a < asks[w].length; a++) {
+		    answers[w][a] = values[Arrays.binarySearch(below, asks[w][a])];
+		}
+	    }
+	    long[][] answered = exchange(answers, answerCount);
+
+	    // The player to move wins if one of the children is a win for them
+	    byte[] solved = new byte[layer.length];
+	    int mover = d % 2 == 0 ? 1 : -1;
+	    int terminals = 0;
+	    for(int i = 0; i < layer.length; i++) {
+		if(starts[i] == starts[i + 1]) {
+		    solved[i] = (byte) rules.terminalValue(d);
+		    terminals++;
+		    continue;
+		}
+		solved[i] = (byte) -mover;
+		for(int e = starts[i]; e < starts[i + 1]; e++) {
+		    if(answered[owner(children[e])][asked.get(children[e])] == mover) {
+			solved[i] = (byte) mover;
+			break;
+		    }
+		}
+	    }
+
+	    // Free everything only the layers below needed
+	    if(d + 1 < keys.size()) {
+		keys.set(d + 1, null);
+	    }
+	    if(d < childStart.size()) {
+		childStart.set(d, null);
+		childKeys.set(d, null);
+	    }
+	    values = solved;
+	    reply.writeInt(terminals);
+	}
+
+	/**
+	 * Sends a batch of longs to every other shard and receives theirs. Batches
+	 * are read on separate threads while this one writes, so no pair of
+	 * workers can block each other on full socket buffers.
+	 *
+	 * @return The batch received from each shard, this shard's own batch
+	 *         included
+	 */
+	private long[][] exchange(long[][] batches, int[] counts) throws Exception {
+	    ArrayList<Future<long[]>> pending = new ArrayList<Future<long[]>>();
+	    for(int w = 0; w < shards; w++) {
+		final DataInputStream input = fromPeer[w];
+		if(w == shard) {
+		    pending.add(null);
+		    continue;
+		}
+		pending.add(readers.submit(() -> {
+			    long[] batch = new long[input.readInt()];
+			    for(int i = 0; i < batch.length; i++) {
+				batch[i] = input.readLong();
+			    }
+			    return batch;
+			}));
+	    }
+	    for(int w = 0; w < shards; w++) {
+		if(w != shard) {
+		    toPeer[w].writeInt(counts[w]);
+		    for(int i = 0; i < counts[w]; i++) {
+			toPeer[w].writeLong(batches[w][i]);
+		    }
+		    toPeer[w].flush();
+		}
+	    }
+	    long[][] received = new long[shards][];
+	    for(int w = 0; w < shards; w++) {
+		received[w] = w == shard ? Arrays.copyOf(batches[w], counts[w]) : pending.get(w).get();
+	    }
+	    return received;
+	}
+
+	/**
+	 * Shard owning a packed state, taken from the high bits of the hash since
+	 * the low ones pick the slots of the hash maps
+	 */
+	private int owner(long key) {
+	    return (int) (((LongIntHashMap.mix(key) & 0xFFFFFFFFL) * shards) >>> 32);
+	}
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Solves the nth game on K workers, or runs as a worker when started by the
+     * coordinator
+     */
+    public static void main(String[] args) throws Exception {
+	if(args.length > 0 && args[0].equals("worker")) {
+	    Worker worker = new Worker(Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				       Integer.parseInt(args[4]));
+
+	    // The reader threads would keep a worker whose coordinator went away alive
+	    try {
+		worker.run(Integer.parseInt(args[1]));
+	    } finally {
+		worker.readers.shutdownNow();
+	    }
+	    return;
+	}
+
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+	int workers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+	boolean check = args.length > 2 && args[2].equals("check");
+
+	ShardedSolver solver = new ShardedSolver(n, workers);
+	long start = System.nanoTime();
+	solver.solve();
+	long millis = (System.nanoTime() - start) / 1000000;
+	System.out.println("Game on " + n + " with " + workers + " workers: " + solver.getNodeCount()
+			   + " nodes, " + solver.getEdgeCount() + " edges, "
+			   + (solver.getLayerCount() - 1) + " moves, winner " + solver.getWinner()
+			   + " (" + millis + " ms)");
+	long widest = 0;
+	for(int d = 0; d < solver.getLayerCount(); d++) {
+	    widest = Math.max(widest, solver.getLayerSize(d));
+	}
+	System.out.println("Widest layer " + widest + " states, at most " + solver.getWidestShard()
+			   + " on one worker");
+
+	if(check) {
+	    GameGraph graph = GameGraph.build(n);
+	    boolean same = graph.nodeCount() == solver.getNodeCount()
+		&& graph.edgeCount() == solver.getEdgeCount()
+		&& graph.layerCount() == solver.getLayerCount()
+		&& graph.winner() == solver.getWinner();
+	    for(int d = 0; same && d < graph.layerCount(); d++) {
+		same = graph.layerSize(d) == solver.getLayerSize(d);
+	    }
+	    System.out.println(same ? "Same layers, edges and winner as GameGraph"
+			       : "Differs from GameGraph: " + graph.nodeCount() + " nodes, "
+			       + graph.edgeCount() + " edges, winner " + graph.winner());
+	}
+    }
+
+}
@@ -0,0 +1,384 @@
+/**
+ * An immutable decomposition of the Zeckendorf Decomposition game holding only its
+ * nonzero indices, for games too large for the packed keys of PackedState, which
+ * stop at n = 473. The indices are kept in increasing order next to their
+ * frequencies, so a state of the game on a million 1s with a handful of distinct
+ * fibonaccis takes a handful of entries, and the moves are listed by walking those
+ * entries rather than every index up to the largest.
+ *
+ * The number of indices holding at least 2 fibonaccis and the number of
+ * consecutive nonzero indices are counted once, when the state is built, so
+ * checking for a terminal state takes constant time however often a shared
+ * decomposition is asked.
+ *
+ * States are compared by decomposition, and cache their hash, so they can key the
+ * tables of solved states of Game.solvePosition() directly. GameState holds its
+ * decomposition as a SparseState interned in a PositionPool, so the states of a
+ * game reached along many paths share one instance. The value of a state,
+ * its number of starting 1s, is a long computed with overflow checks from the
+ * shared table of Fibonacci.
+ *
+ * Children are listed in the order of GameState.genChildren(): for each index from
+ * smallest to largest the split move then the summing move, and finally the 1 + 1
+ * move.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+public class SparseState {
+
+    /**
+     * Nonzero indices in increasing order, and their frequencies
+     */
+    private final int[] indices, counts;
+
+    /**
+     * Value of the decomposition, and hash of its entries
+     */
+    private final long total;
+    private final int hash;
+
+    /**
+     * Number of indices holding at least 2 fibonaccis, and of consecutive indices
+     * both holding a fibonacci. A move needs one or the other, so the state is
+     * terminal exactly when both are 0.
+     */
+    private final int piles, adjacent;
+
+
+    /**
+     * Constructs the starting state of n 1s
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     */
+    public SparseState(int n) {
+	this(new int[] { 1 }, new int[] { n });
+	if(n < 1) {
+	    throw new IllegalArgumentException("n must be positive: " + n);
+	}
+    }
+
+    /**
+     * Constructs a state from its nonzero entries, which are not copied
+     */
+    private SparseState(int[] indices, int[] counts) {
+	this.indices = indices;
+	this.counts = counts;
+	this.total = Fibonacci.sum(indices, counts, indices.length);
+	this.hash = 31 * Arrays.hashCode(indices) + Arrays.hashCode(counts);
+	int piles = 0, adjacent = 0;
+	for(int k = 0; k < indices.length; k++) {
+	    piles += counts[k] >= 2 ? 1 : 0;
+	    adjacent += k > 0 && indices[k] == indices[k - 1] + 1 ? 1 : 0;
+	}
+	this.piles = piles;
+	this.adjacent = adjacent;
+    }
+
+    /**
+     * Gives the decomposition of a GameState, which it holds as a SparseState
+     *
+     * @param state - A GameState
+     * @return The same decomposition as a SparseState
+     */
+    public static SparseState of(GameState state) {
+	return state.getPosition();
+    }
+
+    /**
+     * Builds the state holding the nonzero frequencies of a decomposition map
+     *
+     * @param decomp - Frequencies keyed by fibonacci index, zero frequencies allowed
+     * @return The same decomposition as a SparseState
+     */
+    public static SparseState of(Map<Integer, Integer> decomp) {
+	int size = 0;
+	for(int count: decomp.values()) {
+	    size += count > 0 ? 1 : 0;
+	}
+	int[] indices = new int[size], counts = new int[size];
+	size = 0;
+	for(Map.Entry<Integer, Integer> entry: decomp.entrySet()) {
+	    if(entry.getValue() < 0 || (entry.getValue() > 0 && entry.getKey() < 1)) {
+		throw new IllegalArgumentException("Not a decomposition: " + decomp);
+	    }
+	    if(entry.getValue() > 0) {
+		indices[size] = entry.getKey();
+		counts[size++] = entry.getValue();
+	    }
+	}
+
+	// Sort the entries by index, the map giving them in no particular order
+	for(int k = 1; k < size; k++) {
+	    for(int j = k; j > 0 && indices[j - 1] > indices[j]; j--) {
+		int index = indices[j];
+		indices[j] = indices[j - 1];
+		indices[j - 1] = index;
+		int count = counts[j];
+		counts[j] = counts[j - 1];
+		counts[j - 1] = count;
+	    }
+	}
+	return new SparseState(indices, counts);
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getter for the value of the decomposition, the number of starting 1s of its
+     * game
+     */
+    public long getTotal() { return this.total; }
+
+    /**
+     * Getter for the number of nonzero indices
+     */
+    public int size() { return this.indices.length; }
+
+    /**
+     * Getters for the kth nonzero index and its frequency
+     */
+    public int index(int k) { return this.indices[k]; }
+    public int count(int k) { return this.counts[k]; }
+
+    /**
+     * Frequency of the fibonacci at an index
+     */
+    public int freq(int index) {
+	int k = Arrays.binarySearch(indices, index);
+	return k >= 0 ? counts[k] : 0;
+    }
+
+    /**
+     * Getters for the number of indices holding at least 2 fibonaccis, and of
+     * consecutive indices both holding a fibonacci
+     */
+    public int getPileCount() { return this.piles; }
+    public int getAdjacentCount() { return this.adjacent; }
+
+
+    //===================================
+    // MOVE METHODS
+    //===================================
+
+    /**
+     * Determines if no move can be played: no index holds 2 fibonaccis and no two
+     * nonzero indices are consecutive
+     */
+    public boolean isTerminal() {
+	return piles == 0 && adjacent == 0;
+    }
+
+    /**
+     * Lists the states a single move leads to
+     *
+     * @return The children, in the order of GameState.genChildren()
+     */
+    public ArrayList<SparseState> children() {
+	ArrayList<SparseState> children = new ArrayList<SparseState>();
+	for(int k = 0; k < indices.length; k++) {
+	    int i = indices[k];
+
+	    // 2 F(i) = F(i - 2) + F(i + 1), and 2 F(2) = F(1) + F(3)
+	    if(counts[k] >= 2 && i >= 2) {
+		children.add(apply(i, -2, i == 2 ? 1 : i - 2, 1, i + 1, 1));
+	    }
+
+	    // F(i) + F(i + 1) = F(i + 2)
+	    if(k + 1 < indices.length && indices[k + 1] == i + 1) {
+		children.add(apply(i, -1, i + 1, -1, i + 2, 1));
+	    }
+	}
+
+	// 1 + 1 = 2
+	if(indices.length > 0 && indices[0] == 1 && counts[0] >= 2) {
+	    children.add(apply(1, -2, 2, 1, 2, 0));
+	}
+	return children;
+    }
+
+    /**
+     * Builds the state with three frequencies changed, merging the changes into the
+     * sorted entries in a single pass. GameState plays its moves and inverse moves
+     * through it.
+     *
+     * @throws IllegalStateException if a frequency would become negative
+     */
+    SparseState apply(int i1, int d1, int i2, int d2, int i3, int d3) {
+	int[] changed = { i1, i2, i3 };
+	int[] deltas = { d1, d2, d3 };
+
+	// Sort the three changes by index, combining changes of the same index
+	for(int a = 0; a < 3; a++) {
+	    for(int b = a + 1; b < 3; b++) {
+		if(changed[b] < changed[a]) {
+		    int index = changed[a];
+		    changed[a] = changed[b];
+		    changed[b] = index;
+		    int delta = deltas[a];
+		    deltas[a] = deltas[b];
+		    deltas[b] = delta;
+		}
+	    }
+	}
+
+	int[] newIndices = new int[indices.length + 3], newCounts = new int[indices.length + 3];
+	int size = 0, k = 0, c = 0;
+	while(k < indices.length || c < 3) {
+	    int index = c < 3 && (k == indices.length || changed[c] <= indices[k]) ? changed[c] : indices[k];
+	    int count = 0;
+	    if(k < indices.length && indices[k] == index) {
+		count += counts[k++];
+	    }
+	    while(c < 3 && changed[c] == index) {
+		count += deltas[c++];
+	    }
+	    if(count < 0) {
+		throw new IllegalStateException("Move removes a missing fibonacci at index " + index);
+	    }
+	    if(count > 0) {
+		newIndices[size] = index;
+		newCounts[size++] = count;
+	    }
+	}
+	return new SparseState(Arrays.copyOf(newIndices, size), Arrays.copyOf(newCounts, size));
+    }
+
+
+    //===================================
+    // CONVERSION METHODS
+    //===================================
+
+    /**
+     * Builds a GameState with the decomposition of this state, interned in the
+     * shared pool
+     *
+     * @param depth - The number of moves played to reach the state
+     * @return A new GameState
+     */
+    public GameState toGameState(int depth) {
+	return toGameState(depth, PositionPool.shared());
+    }
+
+    /**
+     * Builds a GameState with the decomposition of this state, interned in the
+     * pool of the caller
+     *
+     * @param depth - The number of moves played to reach the state
+     * @param pool  - The pool to intern the decomposition in
+     * @return A new GameState
+     */
+    public GameState toGameState(int depth, PositionPool pool) {
+	return new GameState(this, depth, pool);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+	if(o == this) {
+	    return true;
+	}
+	if(!(o instanceof SparseState)) {
+	    return false;
+	}
+	SparseState other = (SparseState) o;
+	return hash == other.hash && Arrays.equals(indices, other.indices)
+	    && Arrays.equals(counts, other.counts);
+    }
+
+    @Override
+    public int hashCode() {
+	return hash;
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder text = new StringBuilder();
+	for(int k = 0; k < indices.length; k++) {
+	    text.append(k == 0 ? "" : " + ").append(counts[k]).append(" x ")
+		.append(Fibonacci.get(indices[k]));
+	}
+	return text.toString();
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Checks the children of every state of the games up to 25 against GameState,
+     * then plays a random game on n 1s (a million by default) with MutableGameState
+     * and solves positions near its end with Game.solvePosition(), which keys its
+     * table by SparseState for games this large
+     */
+    public static void main(String[] args) {
+	for(int gameNum = 1; gameNum <= 25; gameNum++) {
+	    GameGraph graph = GameGraph.build(gameNum);
+	    for(int id = 0; id < graph.nodeCount(); id++) {
+		GameState state = graph.toGameState(id);
+		SparseState sparse = SparseState.of(state);
+		ArrayList<GameState> expected = state.genChildren();
+		ArrayList<SparseState> children = sparse.children();
+		boolean same = sparse.getTotal() == gameNum && children.size() == expected.size()
+		    && sparse.isTerminal() == state.isEndState();
+		for(int c = 0; same && c < children.size(); c++) {
+		    same = children.get(c).equals(SparseState.of(expected.get(c)));
+		}
+		if(!same) {
+		    throw new IllegalStateException("Moves differ from GameState at " + sparse);
+		}
+	    }
+	}
+	System.out.println("Moves agree with GameState up to 25");
+
+	int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+	java.util.SplittableRandom random = new java.util.SplittableRandom(n);
+	MutableGameState game = new MutableGameState(n);
+
+	// Keep the last positions of the game to solve them afterwards
+	int keep = 64;
+	int[][] last = new int[keep][game.getMaxIndex() + 1];
+	long start = System.nanoTime();
+	int count;
+	while((count = game.legalMoveCount()) > 0) {
+	    game.store(last[game.getDepth() % keep]);
+	    game.playNth(random.nextInt(count));
+	}
+	long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+	int length = game.getDepth();
+	System.out.println(String.format("Game on %d: random game of %d moves in %d ms (%.1f million "
+					 + "moves/s)", n, length, millis, length / 1000.0 / millis));
+
+	// The first round warms the search up and is not reported
+	for(int round = 0; round < 2; round++) {
+	    Game solver = new Game(n);
+	    for(int left: new int[] { 1, 5, 10, 20, 40 }) {
+		if(left > length || left > keep) {
+		    continue;
+		}
+		MutableGameState position = new MutableGameState(n);
+		position.load(last[(length - left) % keep], length - left);
+		GameState state = position.toGameState();
+		long before = solver.getPositionsExpanded();
+		start = System.nanoTime();
+		int value = solver.solvePosition(state);
+		GameState move = solver.winningMove(state);
+		long micros = (System.nanoTime() - start) / 1000;
+		if(round > 0) {
+		    System.out.println(String.format("  %d moves from the end: %d distinct fibonaccis, "
+						     + "winner %d, %s, %d states expanded in %d us", left,
+						     SparseState.of(state).size(), value,
+						     move == null ? "no winning move" : "winning move found",
+						     solver.getPositionsExpanded() - before, micros));
+		}
+	    }
+	}
+    }
+
+}
@@ -0,0 +1,367 @@
+/**
+ * A complete winning strategy for the winner of the nth Zeckendorf Decomposition
+ * game, extracted from a solved GameGraph.
+ *
+ * The winning path of Game or GameGraph is a single line of play. A strategy must
+ * also answer every move the loser can make instead, so the table holds one
+ * winning reply for every position where the winner is to move that can be reached
+ * when the winner follows the table and the loser plays anything. Positions the
+ * winner's own replies avoid are left out, and replies are picked to lead back
+ * into positions the table already covers when possible, keeping the table small.
+ *
+ * As the game is impartial, whether a move wins depends only on the decomposition
+ * it leads to and not on the depth it is played at, so the table is keyed by
+ * packed decomposition alone. Keys are kept sorted in a long array and looked up
+ * by binary search. Each reply is stored as one byte, the rank of the move among
+ * the children listed by MoveRules.children(), so an entry takes 9 bytes.
+ *
+ * verify() certifies a table independently of the graph it came from: it replays
+ * every line of play where the winner follows the table, layer by layer over
+ * several threads, and checks that the winner always has a reply and that every
+ * game ends in a win for them.
+ *
+ * The synthesis and verification can be executed, after compilation, by running
+ * the command
+ *
+ *          java StrategyTable [maxN] [threads]
+ *
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class StrategyTable {
+
+    /**
+     * The codec of the game and the player the strategy is for, 1 for Player 1
+     * and -1 for Player 2
+     */
+    private final MoveRules codec;
+    private final int player;
+
+    /**
+     * Sorted keys of the positions the table answers, and the rank of the reply
+     * to each of them
+     */
+    private final long[] keys;
+    private final byte[] replies;
+
+
+    /**
+     * Constructs a table from its sorted entries
+     */
+    private StrategyTable(MoveRules codec, int player, long[] keys, byte[] replies) {
+	this.codec = codec;
+	this.player = player;
+	this.keys = keys;
+	this.replies = replies;
+    }
+
+
+    /**
+     * Extracts a winning strategy for the winner of a solved game
+     *
+     * @param graph - A solved game graph
+     * @return The table of the winner's replies
+     */
+    public static StrategyTable synthesize(GameGraph graph) {
+	MoveRules codec = graph.getCodec();
+	int player = graph.winner();
+
+	// The winner moves from even depths as player 1 and from odd depths as
+	// player 2
+	int parity = player == 1 ? 0 : 1;
+
+	boolean[] reached = new boolean[graph.nodeCount()];
+	reached[0] = true;
+	LongIntHashMap entries = new LongIntHashMap(1024);
+	long[] keys = new long[1024];
+	long[] children = new long[codec.maxChildren()];
+
+	// Layers are visited in order, so every parent is settled before its children
+	for(int d = 0; d < graph.layerCount(); d++) {
+	    for(int id = graph.layerStart(d); id < graph.layerEnd(d); id++) {
+		if(!reached[id] || graph.isTerminal(id)) {
+		    continue;
+		}
+
+		// Every reply of the loser must be answered
+		if(d % 2 != parity) {
+		    for(int e = graph.childStart(id); e < graph.childEnd(id); e++) {
+			reached[graph.child(e)] = true;
+		    }
+		    continue;
+		}
+
+		long key = graph.key(id);
+		int count = codec.children(key, children);
+		int rank = entries.get(key);
+		if(rank < 0) {
+		    rank = chooseReply(graph, id, player, reached, children, count);
+		    if(entries.size() == keys.length) {
+			keys = Arrays.copyOf(keys, keys.length * 2);
+		    }
+		    keys[entries.size()] = key;
+		    entries.putIfAbsent(key, rank);
+		}
+		reached[findChild(graph, id, children[rank])] = true;
+	    }
+	}
+
+	// Sort the keys, then look their replies up
+	keys = Arrays.copyOf(keys, entries.size());
+	Arrays.sort(keys);
+	byte[] replies = new byte[keys.length];
+	for(int k = 0; k < keys.length; k++) {
+	    replies[k] = (byte) entries.get(keys[k]);
+	}
+	return new StrategyTable(codec, player, keys, replies);
+    }
+
+
+    //===================================
+    // GETTERS
+    //===================================
+
+    /**
+     * Getter for the rules of the game the strategy plays
+     */
+    public MoveRules getCodec() { return this.codec; }
+
+    /**
+     * Getter for the player the strategy is for, 1 or -1
+     */
+    public int getPlayer() { return this.player; }
+
+    /**
+     * Number of positions the table answers
+     */
+    public int size() { return this.keys.length; }
+
+    /**
+     * Bytes taken by the entries of the table
+     */
+    public long byteSize() { return 9L * keys.length; }
+
+
+    //===================================
+    // LOOKUP METHODS
+    //===================================
+
+    /**
+     * Finds the rank of the reply to a position
+     *
+     * @param key - A packed position where the strategy's player is to move
+     * @return The rank of the reply among the children of the position, or -1 if
+     *         the table has no entry for it
+     */
+    public int replyRank(long key) {
+	int k = Arrays.binarySearch(keys, key);
+	return k >= 0 ? replies[k] : -1;
+    }
+
+    /**
+     * Finds the position the strategy moves to from a position
+     *
+     * @param key - A packed position where the strategy's player is to move
+     * @return The packed position after the reply
+     * @throws IllegalArgumentException if the table has no entry for key
+     */
+    public long reply(long key) {
+	int rank = replyRank(key);
+	if(rank < 0) {
+	    throw new IllegalArgumentException("The strategy has no reply to " + key);
+	}
+	long[] children = new long[codec.maxChildren()];
+	codec.children(key, children);
+	return children[rank];
+    }
+
+    /**
+     * Finds the position the strategy moves to from a GameState
+     *
+     * @param state - A position where the strategy's player is to move
+     * @return A new GameState one move deeper
+     */
+    public GameState reply(GameState state) {
+	return codec.decode(reply(codec.encode(state)), state.getDepth() + 1);
+    }
+
+
+    //===================================
+    // VERIFICATION
+    //===================================
+
+    /**
+     * Replays every line of play where the strategy's player follows the table,
+     * and checks that the player always has a reply and wins every game.
+     * Positions are deduplicated within each layer, and the positions of a layer
+     * are split between the threads.
+     *
+     * @param threads - The number of threads replaying positions
+     * @return The number of distinct positions replayed
+     * @throws IllegalStateException describing the first position the strategy
+     *         fails from
+     */
+    public long verify(int threads) throws InterruptedException {
+	final int parity = player == 1 ? 0 : 1;
+	long[] layer = { codec.initialKey() };
+	long positions = 0;
+	final AtomicReference<String> failure = new AtomicReference<String>();
+
+	for(int d = 0; layer.length > 0; d++) {
+	    positions += layer.length;
+	    final long[] current = layer;
+	    final boolean ownMove = d % 2 == parity;
+	    final int depth = d;
+	    final long[][] found = new long[threads][];
+	    final int[] foundCount = new int[threads];
+
+	    // Each thread expands a contiguous share of the layer
+	    Thread[] running = new Thread[threads];
+	    for(int t = 0; t < threads; t++) {
+		final int worker = t;
+		final int from = (int) ((long) current.length * t / threads);
+		final int to = (int) ((long) current.length * (t + 1) / threads);
+		running[t] = new Thread(new Runnable() {
+			public void run() {
+			    long[] children = new long[codec.maxChildren()];
+			    long[] out = new long[Math.max(16, (to - from) * 2)];
+			    int size = 0;
+			    for(int p = from; p < to && failure.get() == null; p++) {
+				long key = current[p];
+				int count = codec.children(key, children);
+
+				// The game must never end in a loss for the strategy's player
+				if(count == 0) {
+				    if(codec.terminalValue(depth) != player) {
+					failure.compareAndSet(null, "Position " + key + " at depth "
+							      + depth + " is lost");
+				    }
+				    continue;
+				}
+
+				if(ownMove) {
+				    int rank = replyRank(key);
+				    if(rank < 0 || rank >= count) {
+					failure.compareAndSet(null, "Position " + key + " at depth "
+							      + depth + " has no reply");
+					continue;
+				    }
+				    children[0] = children[rank];
+				    count = 1;
+				}
+				if(size + count > out.length) {
+				    out = Arrays.copyOf(out, Math.max(size + count, out.length * 2));
+				}
+				System.arraycopy(children, 0, out, size, count);
+				size += count;
+			    }
+			    found[worker] = out;
+			    foundCount[worker] = size;
+			}
+		    }, "verify-" + t);
+		running[t].start();
+	    }
+	    for(Thread thread: running) {
+		thread.join();
+	    }
+	    if(failure.get() != null) {
+		throw new IllegalStateException(failure.get());
+	    }
+
+	    // Merge the positions found by all threads into the next layer
+	    int total = 0;
+	    for(int t = 0; t < threads; t++) {
+		total += foundCount[t];
+	    }
+	    LongIntHashMap seen = new LongIntHashMap(total);
+	    long[] next = new long[total];
+	    int size = 0;
+	    for(int t = 0; t < threads; t++) {
+		for(int p = 0; p < foundCount[t]; p++) {
+		    if(seen.putIfAbsent(found[t][p], size) < 0) {
+			next[size++] = found[t][p];
+		    }
+		}
+	    }
+	    layer = Arrays.copyOf(next, size);
+	}
+	return positions;
+    }
+
+
+    //===================================
+    // AUXILIARY METHODS
+    //===================================
+
+    /**
+     * Picks a winning child of a node, preferring one already reached so that the
+     * subtrees the table covers are shared
+     *
+     * @return The rank of the chosen child among the children of the node's key
+     */
+    private static int chooseReply(GameGraph graph, int id, int player, boolean[] reached,
+				   long[] children, int count) {
+	int first = -1;
+	for(int c = 0; c < count; c++) {
+	    int child = findChild(graph, id, children[c]);
+	    if(graph.value(child) != player) {
+		continue;
+	    }
+	    if(reached[child]) {
+		return c;
+	    }
+	    if(first < 0) {
+		first = c;
+	    }
+	}
+	if(first < 0) {
+	    throw new IllegalStateException("Node " + id + " has no winning move");
+	}
+	return first;
+    }
+
+    /**
+     * Finds the child of a node holding a packed key
+     */
+    private static int findChild(GameGraph graph, int id, long key) {
+	for(int e = graph.childStart(id); e < graph.childEnd(id); e++) {
+	    if(graph.key(graph.child(e)) == key) {
+		return graph.child(e);
+	    }
+	}
+	throw new IllegalStateException("Key " + key + " is not a child of node " + id);
+    }
+
+
+    //===================================
+    // MAIN METHOD
+    //===================================
+
+    /**
+     * Synthesizes and verifies the strategies of the games up to the passed n
+     */
+    public static void main(String[] args) throws InterruptedException {
+	int maxN = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+	int threads = args.length > 1 ? Integer.parseInt(args[1])
+	    : Runtime.getRuntime().availableProcessors();
+
+	for(int gameNum = 1; gameNum <= maxN; gameNum++) {
+	    GameGraph graph = GameGraph.build(gameNum);
+	    long start = System.nanoTime();
+	    StrategyTable table = StrategyTable.synthesize(graph);
+	    long synthesis = System.nanoTime() - start;
+	    start = System.nanoTime();
+	    long positions = table.verify(threads);
+	    long verification = System.nanoTime() - start;
+
+	    System.out.println("Game on " + gameNum + ": player " + (table.getPlayer() == 1 ? 1 : 2)
+			       + " strategy of " + table.size() + " entries (" + table.byteSize()
+			       + " bytes) for " + graph.nodeCount() + " nodes, verified over "
+			       + positions + " positions (" + synthesis / 1000000 + " + "
+			       + verification / 1000000 + " ms)");
+	}
+    }
+
+}
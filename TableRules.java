@@ -0,0 +1,236 @@
+/**
+ * Decomposition game rules given as a table of moves, for studying variants of the
+ * Zeckendorf game: other sequences, restricted move sets and misere play.
+ *
+ * A move is described by the change it makes to the frequency of each index, for
+ * example { 0, -1, -1, 1 } for F(1) + F(2) = F(3). Moves must preserve the total of
+ * the decomposition. Each move is compiled once into the list of frequencies it
+ * needs and the constant delta it adds to a packed key, so generating the children
+ * of a state only compares fields and adds deltas, without allocating.
+ *
+ * The rules must make every game end; the expansion and solving code assumes the
+ * game graph has no cycles.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class TableRules extends MoveRules {
+
+    /**
+     * Flags selecting the kinds of Zeckendorf moves passed to zeckendorf()
+     */
+    public static final int SPLIT_MOVES = 1, MERGE_MOVES = 2, ONES_MOVES = 4;
+    public static final int ALL_MOVES = SPLIT_MOVES | MERGE_MOVES | ONES_MOVES;
+
+    /**
+     * Delta of each move, and the indices and frequencies each move needs, move m
+     * needing the entries from needStart[m] to needStart[m + 1]
+     */
+    private final long[] delta;
+    private final int[] needStart, needIndex, needCount;
+
+    /**
+     * The indices and frequencies each move produces, move m producing the
+     * entries from gainStart[m] to gainStart[m + 1]
+     */
+    private final int[] gainStart, gainIndex, gainCount;
+
+
+    /**
+     * Constructs the rules of the nth game on a sequence from a list of moves.
+     * Moves touching indices above the largest one that fits in n can never be
+     * played and are dropped.
+     *
+     * @param n - The total of the decompositions of the game
+     * @param sequence - Increasing sequence values by index, sequence[1] being 1
+     * @param moves - The change each move makes to the frequency of each index
+     * @param misere - true if the player who makes the last move loses
+     * @throws IllegalArgumentException if a move changes the total of a decomposition
+     */
+    public TableRules(int n, long[] sequence, List<int[]> moves, boolean misere) {
+	super(n, sequence, misere);
+
+	long[] deltas = new long[moves.size()];
+	int[] starts = new int[moves.size() + 1];
+	int[] indices = new int[4 * moves.size()];
+	int[] counts = new int[4 * moves.size()];
+	int[] gainStarts = new int[moves.size() + 1];
+	int[] gainIndices = new int[4 * moves.size()];
+	int[] gainCounts = new int[4 * moves.size()];
+	int kept = 0, needs = 0, gains = 0;
+
+	for(int[] move: moves) {
+	    long total = 0;
+	    boolean playable = true;
+	    for(int i = 1; i < move.length; i++) {
+		if(move[i] == 0) {
+		    continue;
+		}
+		if(i >= sequence.length) {
+		    throw new IllegalArgumentException("Move " + Arrays.toString(move)
+						       + " uses an index outside the sequence");
+		}
+		total += move[i] * sequence[i];
+		playable &= i <= maxIndex;
+	    }
+	    if(total != 0) {
+		throw new IllegalArgumentException("Move " + Arrays.toString(move)
+						   + " changes the total by " + total);
+	    }
+	    if(!playable) {
+		continue;
+	    }
+
+	    // Compile the move into its needs and its delta
+	    starts[kept] = needs;
+	    gainStarts[kept] = gains;
+	    long moveDelta = 0;
+	    for(int i = 1; i < move.length; i++) {
+		// Zeros may pad a move past the fields of the game
+		if(move[i] == 0) {
+		    continue;
+		}
+		moveDelta += move[i] * unit(i);
+		if(move[i] < 0) {
+		    if(needs == indices.length) {
+			indices = Arrays.copyOf(indices, 2 * needs);
+			counts = Arrays.copyOf(counts, 2 * needs);
+		    }
+		    indices[needs] = i;
+		    counts[needs++] = -move[i];
+		} else if(move[i] > 0) {
+		    if(gains == gainIndices.length) {
+			gainIndices = Arrays.copyOf(gainIndices, 2 * gains);
+			gainCounts = Arrays.copyOf(gainCounts, 2 * gains);
+		    }
+		    gainIndices[gains] = i;
+		    gainCounts[gains++] = move[i];
+		}
+	    }
+	    deltas[kept++] = moveDelta;
+	}
+	starts[kept] = needs;
+	gainStarts[kept] = gains;
+
+	this.delta = Arrays.copyOf(deltas, kept);
+	this.needStart = Arrays.copyOf(starts, kept + 1);
+	this.needIndex = Arrays.copyOf(indices, needs);
+	this.needCount = Arrays.copyOf(counts, needs);
+	this.gainStart = Arrays.copyOf(gainStarts, kept + 1);
+	this.gainIndex = Arrays.copyOf(gainIndices, gains);
+	this.gainCount = Arrays.copyOf(gainCounts, gains);
+    }
+
+
+    /**
+     * Builds the Zeckendorf rules of the nth game as a table, restricted to some
+     * kinds of moves. The moves are listed in the order of PackedState.children().
+     *
+     * @param n - The number of starting 1s in the decomposition game
+     * @param kinds - Combination of SPLIT_MOVES, MERGE_MOVES and ONES_MOVES
+     * @param misere - true if the player who makes the last move loses
+     * @return The rules of the variant
+     */
+    public static TableRules zeckendorf(int n, int kinds, boolean misere) {
+	int top = 1;
+	while(top + 1 < PackedState.FIB.length && PackedState.FIB[top + 1] <= n) {
+	    top++;
+	}
+
+	List<int[]> moves = new ArrayList<int[]>();
+	for(int i = 1; i <= top; i++) {
+	    // 2 F(i) = F(i - 2) + F(i + 1), and 2 F(2) = F(1) + F(3)
+	    if((kinds & SPLIT_MOVES) != 0 && i >= 2) {
+		int[] split = new int[i + 2];
+		split[i] = -2;
+		split[i == 2 ? 1 : i - 2] = 1;
+		split[i + 1] = 1;
+		moves.add(split);
+	    }
+	    // F(i) + F(i + 1) = F(i + 2)
+	    if((kinds & MERGE_MOVES) != 0) {
+		int[] merge = new int[i + 3];
+		merge[i] = -1;
+		merge[i + 1] = -1;
+		merge[i + 2] = 1;
+		moves.add(merge);
+	    }
+	}
+	// 1 + 1 = 2
+	if((kinds & ONES_MOVES) != 0) {
+	    moves.add(new int[] { 0, -2, 1 });
+	}
+	return new TableRules(n, PackedState.FIB, moves, misere);
+    }
+
+
+    //===================================
+    // MOVE METHODS
+    //===================================
+
+    @Override
+    public int children(long key, long[] out) {
+	int count = 0;
+	for(int m = 0; m < delta.length; m++) {
+	    if(playable(key, m)) {
+		out[count++] = key + delta[m];
+	    }
+	}
+	return count;
+    }
+
+    @Override
+    public int parents(long key, long[] out) {
+	int count = 0;
+	for(int m = 0; m < delta.length; m++) {
+	    if(undoable(key, m)) {
+		out[count++] = key - delta[m];
+	    }
+	}
+	return count;
+    }
+
+    @Override
+    public boolean isTerminal(long key) {
+	for(int m = 0; m < delta.length; m++) {
+	    if(playable(key, m)) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    @Override
+    public int maxChildren() {
+	return delta.length;
+    }
+
+    /**
+     * Determines if a state holds every frequency move m produces, so that the
+     * move can be undone. The state before the move then holds what it needs.
+     */
+    private boolean undoable(long key, int m) {
+	for(int r = gainStart[m]; r < gainStart[m + 1]; r++) {
+	    if(freq(key, gainIndex[r]) < gainCount[r]) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Determines if a state holds every frequency move m needs
+     */
+    private boolean playable(long key, int m) {
+	for(int r = needStart[m]; r < needStart[m + 1]; r++) {
+	    if(freq(key, needIndex[r]) < needCount[r]) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+}
@@ -12,6 +12,10 @@
  * and parents, and can also be flattened into an ArrayList, using the given
  * utility funtion.
  *
+ * A Tree can also be created without a parents list, for graphs that compute
+ * parents on demand instead of storing them. Linking children then leaves the
+ * parents unrecorded, and getParents() returns null.
+ *
  */
 
 import java.util.ArrayList;
@@ -30,8 +34,19 @@ public class Tree<K> {
      * Initialize empty parent and children lists, and value
      */
     public Tree(K value) {
+	this(value, true);
+    }
+
+    /**
+     * Initialize an empty children list and value, and an empty parents list
+     * only if parents are kept
+     *
+     * @param value - The value of the tree node
+     * @param keepParents - Whether the node records its parents
+     */
+    public Tree(K value, boolean keepParents) {
 	children = new ArrayList<Tree<K>>();
-	parents = new ArrayList<Tree<K>>();
+	parents = keepParents ? new ArrayList<Tree<K>>() : null;
 	this.state = value;
     }
 
@@ -48,7 +63,9 @@ public class Tree<K> {
      */
     public void addChild(Tree<K> t) {
 	this.children.add(t);
-	t.parents.add(this);
+	if(t.parents != null) {
+	    t.parents.add(this);
+	}
     }
 
     /**
@@ -57,7 +74,9 @@ public class Tree<K> {
      * @param t - Tree node to remove from list of children
      */
     public void removeChild(Tree<K> t) {
-	t.parents.remove(this);
+	if(t.parents != null) {
+	    t.parents.remove(this);
+	}
 	this.children.remove(t);
     }
 
@@ -69,7 +88,9 @@ public class Tree<K> {
      */
     public void addParent(Tree<K> t) {
 	t.children.add(this);
-	this.parents.add(t);
+	if(this.parents != null) {
+	    this.parents.add(t);
+	}
     }
 
     /**
@@ -78,7 +99,9 @@ public class Tree<K> {
      * @param t - Tree node to remove from list of parents
      */
     public void removeParent(Tree<K> t) {
-	this.parents.remove(t);
+	if(this.parents != null) {
+	    this.parents.remove(t);
+	}
 	t.children.remove(this);
     }
 
@@ -99,7 +122,8 @@ public class Tree<K> {
     }
 
     /**
-     * Retrieves the parents of the tree node
+     * Retrieves the parents of the tree node, or null if the node does not keep
+     * them
      */
     public ArrayList<Tree<K>> getParents() {
 	return this.parents;
@@ -1,6 +1,9 @@
 /*
 <html>
-<applet code="TreeDrawer.class" width="1300" height="1300"></applet>
+<applet code="TreeDrawer.class" width="1300" height="1300">
+<param name="merged" value="false">
+<param name="snapshot" value="">
+</applet>
 </html>
 */
 
@@ -26,6 +29,14 @@
  * belong to "the" winning path for player 2 (in reality, there are several winning 
  * paths but we highlight just a single one).
  *
+ * With the merged parameter of the preamble set to true, each decomposition is
+ * drawn once, in the layer of the longest line of play reaching it, and its lines
+ * lead to children in any deeper layer (see GameGraph.buildMerged()). Its trim
+ * then gives the winner at the depth of its layer.
+ *
+ * With the snapshot parameter set to a file written by GameSnapshot, the game of
+ * the snapshot is drawn without being built or solved.
+ *
  * The TreeDrawer can be executed, after compilaton, by running the command
  *
  *          appletviewer TreeDrawer.java
@@ -36,9 +47,6 @@
  * email: ppb366@cs.utexas.edu
  */
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-
 import javax.swing.JApplet;
 import java.awt.Graphics;
 import java.awt.Color;
@@ -62,28 +70,31 @@ public class TreeDrawer extends JApplet implements Runnable {
     private Thread ticker;
 
     /**
-     * Constants related to the game being run by the TreeDrawer object
+     * The solved game being drawn by the TreeDrawer object, and the colours and
+     * labels of its states
      */    
-    private Game game;
-    private LinkedList<GameState> winningPath;
+    private GameGraph graph;
+    private RenderModel model;
 
 
     /**
-     * Initialize the Game object on desired number, and play the game, gathering
-     * important information. All data gathered before the drawing.
+     * Build and solve the game on the desired number, or load it from a snapshot,
+     * and gather the colours and labels of its states. All data gathered before the
+     * drawing.
      */
     public void init() {
-	
-	// Start and play game
-	game = new Game(9);
-	game.playGame();
-
-	// Get the data for the winning path and save it as a global variable
-	// so the TreeDrawer can query it
-	winningPath = new LinkedList<GameState>();
-	for(Tree<GameState> tree: game.getWinningPath()) {
-	    winningPath.add(tree.getState());
+	boolean merged = "true".equals(getParameter("merged"));
+	String snapshot = getParameter("snapshot");
+	if(snapshot != null && snapshot.length() > 0) {
+	    try {
+		graph = GameSnapshot.load(java.nio.file.Paths.get(snapshot)).toGraph();
+	    } catch(java.io.IOException e) {
+		throw new java.io.UncheckedIOException(e);
+	    }
+	} else {
+	    graph = merged ? GameGraph.buildMerged(9) : GameGraph.build(9);
 	}
+	model = RenderModel.build(graph);
     }
 
 
@@ -127,127 +138,52 @@ public class TreeDrawer extends JApplet implements Runnable {
      */
     public void paint(Graphics g) {
 
-	// Get an interable list of the GameStates in the tree structure
-	ArrayList<Tree<GameState>> flat = this.game.getRoot().flatten();
-
-	// Maintain list of GSDs to draw connections between them 
-	ArrayList<GameStateDrawable> drawables = new ArrayList<GameStateDrawable>();
-
 	// Get the depth of the longest game and determine uniform height of GSDs
-	int maxDepth = flat.get(flat.size() - 1).getState().getDepth();
+	int maxDepth = graph.maxDepth();
 	int boxHeight = (WINDOW_HEIGHT - ((maxDepth + 2) * LAYER_BUFFER)) / (maxDepth + 1);
 
-	// Maintain the height of the current layer, and the index of the layer itself
-	int curDepth = 0;
+	// Draw every layer, the boxes of a layer sharing the width of the canvas
 	int curY = LAYER_BUFFER;
-
-	// Keep a list of the GameStates in the current layer. This will be used to
-	// find how many states are in a given layer, and thus how wide each GSD
-	// should be.
-	ArrayList<GameState> curLayer = new ArrayList<GameState>();
-
-	// Iterate through the list of GameStates
-	for(int index = 0; index < flat.size(); index++) {
-
-	    // Get the current GameState and its Tree wrapper. Determine its winner
-	    // value if this has not already been done.
-	    Tree<GameState> curTree = flat.get(index);
-	    GameState curState = curTree.getState();
-	    if(curState.getVal() == 0) {
-		this.game.determineVal(curTree);
-	    }
-
-	    // Case 1: the state is not the first state in a new layer
-	    if(curState.getDepth() == curDepth) {
-		// Update the current layer list appropriately
-		curLayer.add(curState);
-
-	    // Edge case: The state is the first in a new layer
-	    } else {
-
-		// Get the size of the previous layer and set the width of the GSDs
-		int layerSize = curLayer.size();
-		int boxWidth = (WINDOW_WIDTH - ((layerSize + 1) * BOX_BUFFER)) / layerSize;
-
-		// Draw all the GSDs on the same layer
-		int curX = BOX_BUFFER;
-		for(GameState state: curLayer) {
-		    
-		    // Init new GSD
-		    GameStateDrawable gsd = new GameStateDrawable(state, 
-								  curX, curY, 
-								  boxWidth, boxHeight);
-		    
-		    // Determine fill color
-		    if(this.winningPath.contains(state)) {
-			gsd.setFillColor(Color.GREEN);
-		    }
-
-		    // Update canvas, lists, and x position
-		    gsd.draw(g);
-		    drawables.add(gsd);
-		    curX += boxWidth + BOX_BUFFER;
-		}
-
-		// Update curY, curDepth, and curLayer
-		curY += boxHeight + LAYER_BUFFER;
-		curDepth = curState.getDepth();
-		curLayer = new ArrayList<GameState>();
-		curLayer.add(curState);
-	    }
-	}
-
-	// At end of loop, determine if we have a final layer to draw
-	if(curLayer.size() > 0) {
-
-	    // Get size of final layer, and determine uniform width of GSDs
-	    int layerSize = curLayer.size();
+	for(int depth = 0; depth <= maxDepth; depth++) {
+	    int layerSize = graph.layerSize(depth);
 	    int boxWidth = (WINDOW_WIDTH - ((layerSize + 1) * BOX_BUFFER)) / layerSize;
-
-	    // Draw final layer of GSDs
-	    int curX = BOX_BUFFER;	    
-	    for(GameState state: curLayer) {
-
-		// Init new GSD
-		GameStateDrawable gsd = new GameStateDrawable(state, 
-							      curX, curY, 
-							      boxWidth, boxHeight);
-		
-		// Determine fill color
-		if(this.winningPath.contains(state)) {
-		    gsd.setFillColor(Color.GREEN);
-		}
-
-		// Update canvas, lists, and x position
-		gsd.draw(g);
-		drawables.add(gsd);
+	    int curX = BOX_BUFFER;
+	    for(int id = graph.layerStart(depth); id < graph.layerEnd(depth); id++) {
+		model.draw(g, id, curX, curY, boxWidth, boxHeight);
 		curX += boxWidth + BOX_BUFFER;
 	    }
+	    curY += boxHeight + LAYER_BUFFER;
 	}
 
 	// Draw connections between the parent/child GameStates
 	g.setColor(Color.BLACK);
-	for(int i = 0; i < drawables.size(); i++) {
-	    for(int j = 0; j < drawables.size(); j++) {
-		
-		// Loop through every pair of GSDs and see if their GameStates are 
-		// parent/child
-		GameStateDrawable d1 = drawables.get(i);
-		GameStateDrawable d2 = drawables.get(j);
-		GameState s1 = d1.getState();
-		GameState s2 = d2.getState();
-
-		// If they are parent/child, draw a connection line between them
-		if(s1.hasChild(s2) && s2.getDepth() == s1.getDepth() + 1) {
-		    g.drawLine(d1.getX() + d1.getWidth() / 2, 
-			       d1.getY() + d1.getHeight(),
-			       d2.getX() + d2.getWidth() / 2,
-			       d2.getY());
+	for(int depth = 0; depth < maxDepth; depth++) {
+	    for(int id = graph.layerStart(depth); id < graph.layerEnd(depth); id++) {
+		for(int e = graph.childStart(id); e < graph.childEnd(id); e++) {
+		    int child = graph.child(e);
+		    int childDepth = graph.depth(child);
+		    g.drawLine(centerX(id, depth), 
+			       LAYER_BUFFER + depth * (boxHeight + LAYER_BUFFER) + boxHeight,
+			       centerX(child, childDepth),
+			       LAYER_BUFFER + childDepth * (boxHeight + LAYER_BUFFER));
 		}
 	    }
 	}
+    }
 
-	
+
+    /**
+     * Computes the x coordinate of the centre of a drawn state
+     *
+     * @param id - The node of the state in the game graph
+     * @param depth - The layer of the state
+     * @return The x coordinate of the middle of the box of the state
+     */
+    private int centerX(int id, int depth) {
+	int layerSize = graph.layerSize(depth);
+	int boxWidth = (WINDOW_WIDTH - ((layerSize + 1) * BOX_BUFFER)) / layerSize;
+	int rank = id - graph.layerStart(depth);
+	return BOX_BUFFER + rank * (boxWidth + BOX_BUFFER) + boxWidth / 2;
     }
 
     
@@ -0,0 +1,68 @@
+/**
+ * The BulkExpander computing legal move masks for several states per instruction
+ * with the jdk.incubator.vector API. Each lane of a LongVector holds one packed
+ * state: the frequency fields are extracted with a lanewise shift and mask, the
+ * legality conditions become lane masks, and the bit of each legal move is set in
+ * the lanes where the condition holds. States left over after the last full vector
+ * are handled by the scalar code.
+ *
+ * The module must be added when compiling and running:
+ *
+ *          javac --add-modules jdk.incubator.vector *.java
+ *          java --add-modules jdk.incubator.vector BulkExpander
+ *
+ */
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorBulkExpander extends BulkExpander {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+
+    /**
+     * Constructs the vector expander of a game
+     *
+     * @param codec - The codec of the game
+     */
+    public VectorBulkExpander(PackedState codec) {
+	super(codec);
+    }
+
+
+    @Override
+    public void moveMasks(long[] keys, int from, int to, long[] masks) {
+	int top = codec.getMaxIndex();
+	int lanes = SPECIES.length();
+	int s = from;
+	for(; s + lanes <= to; s += lanes) {
+	    LongVector key = LongVector.fromArray(SPECIES, keys, s);
+	    LongVector mask = LongVector.zero(SPECIES);
+	    LongVector f = key.lanewise(VectorOperators.LSHR, shift[1]).and(fieldMask[1]);
+	    if(onesMove >= 0) {
+		mask = mask.lanewise(VectorOperators.OR, 1L << onesMove, f.compare(VectorOperators.GE, 2));
+	    }
+	    for(int i = 1; i <= top; i++) {
+		LongVector next = i < top
+		    ? key.lanewise(VectorOperators.LSHR, shift[i + 1]).and(fieldMask[i + 1])
+		    : LongVector.zero(SPECIES);
+		if(splitMove[i] >= 0) {
+		    mask = mask.lanewise(VectorOperators.OR, 1L << splitMove[i],
+					 f.compare(VectorOperators.GE, 2));
+		}
+		if(mergeMove[i] >= 0) {
+		    VectorMask<Long> both = f.compare(VectorOperators.GT, 0)
+			.and(next.compare(VectorOperators.GT, 0));
+		    mask = mask.lanewise(VectorOperators.OR, 1L << mergeMove[i], both);
+		}
+		f = next;
+	    }
+	    mask.intoArray(masks, s);
+	}
+	scalarMasks(keys, s, to, masks);
+    }
+
+}